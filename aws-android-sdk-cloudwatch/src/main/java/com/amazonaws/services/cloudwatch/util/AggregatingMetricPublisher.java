@@ -0,0 +1,382 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.cloudwatch.util;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes custom metrics to Amazon CloudWatch in aggregate. Values are added
+ * without blocking and summed up per metric, that is per namespace, metric
+ * name, unit and dimensions. Once per period a background thread rolls the
+ * values of each metric up into one datum of statistic values, and publishes
+ * the datums in PutMetricData requests of up to 20 datums each, instead of
+ * one request per value.
+ *
+ * <pre class="brush: java">
+ * AggregatingMetricPublisher publisher = new AggregatingMetricPublisher(cloudWatch);
+ * publisher.addValue("MyApp", "Latency", latencyMillis, StandardUnit.Milliseconds);
+ * ...
+ * publisher.shutdown();
+ * </pre>
+ *
+ * Memory is bounded in two ways. Values of a new metric are dropped once the
+ * maximum number of metrics are being aggregated, until the idle ones are
+ * forgotten at the end of a period. Datums that could not be published, for
+ * example because the device is offline, are published again the next period,
+ * and the oldest ones are dropped once too many are waiting. Datums rejected
+ * by Amazon CloudWatch as invalid are dropped rather than published again.
+ * Dropped values and datums are counted by {@link #getDroppedCount()}.
+ */
+public class AggregatingMetricPublisher {
+    private static final Log log = LogFactory.getLog(AggregatingMetricPublisher.class);
+
+    /** Default period at which values are rolled up and published. */
+    public static final long DEFAULT_PERIOD_MILLIS = 60 * 1000;
+    /** Default maximum number of metrics aggregated at once. */
+    public static final int DEFAULT_MAX_METRICS = 1000;
+    /** Default maximum number of datums waiting to be published again. */
+    public static final int DEFAULT_MAX_UNSENT_DATUMS = 10000;
+
+    /** The maximum number of datums in a PutMetricData request. */
+    private static final int MAX_DATUMS_PER_REQUEST = 20;
+
+    private static final Dimension[] NO_DIMENSIONS = new Dimension[0];
+
+    private static final Comparator<Dimension> DIMENSION_ORDER = new Comparator<Dimension>() {
+        @Override
+        public int compare(Dimension a, Dimension b) {
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    /** Identifies a metric: its namespace, name, unit and dimensions. */
+    private static final class MetricKey {
+        final String namespace;
+        final String metricName;
+        final StandardUnit unit;
+        final List<Dimension> dimensions;
+        final int hashCode;
+
+        MetricKey(String namespace, String metricName, StandardUnit unit,
+                Dimension[] dimensions) {
+            this.namespace = namespace;
+            this.metricName = metricName;
+            this.unit = unit;
+            if (dimensions.length > 1) {
+                dimensions = dimensions.clone();
+                Arrays.sort(dimensions, DIMENSION_ORDER);
+            }
+            this.dimensions = Arrays.asList(dimensions);
+            int hash = namespace.hashCode();
+            hash = 31 * hash + metricName.hashCode();
+            hash = 31 * hash + unit.hashCode();
+            hash = 31 * hash + this.dimensions.hashCode();
+            this.hashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof MetricKey))
+                return false;
+            MetricKey other = (MetricKey) obj;
+            return hashCode == other.hashCode
+                    && namespace.equals(other.namespace)
+                    && metricName.equals(other.metricName)
+                    && unit == other.unit
+                    && dimensions.equals(other.dimensions);
+        }
+    }
+
+    /** A datum waiting to be published. */
+    private static final class UnsentDatum {
+        final String namespace;
+        final MetricDatum datum;
+
+        UnsentDatum(String namespace, MetricDatum datum) {
+            this.namespace = namespace;
+            this.datum = datum;
+        }
+    }
+
+    private final AmazonCloudWatch cloudWatch;
+    private final int maxMetrics;
+    private final int maxUnsentDatums;
+    private final ScheduledExecutorService executor;
+
+    private final ConcurrentMap<MetricKey, MetricAccumulator> accumulators =
+            new ConcurrentHashMap<MetricKey, MetricAccumulator>();
+    /**
+     * The accumulators of the metrics found idle and forgotten at the last
+     * roll up, drained once more in case a value was being added to them
+     * meanwhile.
+     */
+    private Map<MetricKey, MetricAccumulator> retired = Collections.emptyMap();
+    /** The datums waiting to be published, oldest first. */
+    private final LinkedList<UnsentDatum> unsent = new LinkedList<UnsentDatum>();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Creates a publisher with the default period and bounds.
+     *
+     * @param cloudWatch the client to publish the metrics with
+     */
+    public AggregatingMetricPublisher(AmazonCloudWatch cloudWatch) {
+        this(cloudWatch, DEFAULT_PERIOD_MILLIS, DEFAULT_MAX_METRICS, DEFAULT_MAX_UNSENT_DATUMS);
+    }
+
+    /**
+     * @param cloudWatch the client to publish the metrics with
+     * @param periodMillis the period at which values are rolled up and
+     *            published
+     * @param maxMetrics the maximum number of metrics aggregated at once
+     * @param maxUnsentDatums the maximum number of datums waiting to be
+     *            published again
+     */
+    public AggregatingMetricPublisher(AmazonCloudWatch cloudWatch, long periodMillis,
+            int maxMetrics, int maxUnsentDatums) {
+        if (cloudWatch == null)
+            throw new IllegalArgumentException("cloudWatch cannot be null");
+        if (periodMillis <= 0)
+            throw new IllegalArgumentException("periodMillis must be positive");
+        if (maxMetrics <= 0)
+            throw new IllegalArgumentException("maxMetrics must be positive");
+        if (maxUnsentDatums < 0)
+            throw new IllegalArgumentException("maxUnsentDatums cannot be negative");
+        this.cloudWatch = cloudWatch;
+        this.maxMetrics = maxMetrics;
+        this.maxUnsentDatums = maxUnsentDatums;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AggregatingMetricPublisher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    log.warn("Unable to publish metrics", e);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a value without a unit to a metric.
+     *
+     * @see #addValue(String, String, double, StandardUnit, Dimension...)
+     */
+    public void addValue(String namespace, String metricName, double value) {
+        addValue(namespace, metricName, value, StandardUnit.None, NO_DIMENSIONS);
+    }
+
+    /**
+     * Adds a value to a metric, to be published with the other values of the
+     * metric at the end of the current period. The value is dropped if the
+     * metric is new and the maximum number of metrics are already being
+     * aggregated.
+     *
+     * @param namespace the namespace of the metric
+     * @param metricName the name of the metric
+     * @param value the value, which must be finite
+     * @param unit the unit of the value
+     * @param dimensions the dimensions of the metric, in any order
+     */
+    public void addValue(String namespace, String metricName, double value,
+            StandardUnit unit, Dimension... dimensions) {
+        if (namespace == null)
+            throw new IllegalArgumentException("namespace cannot be null");
+        if (metricName == null)
+            throw new IllegalArgumentException("metricName cannot be null");
+        // Amazon CloudWatch rejects the whole request of a datum that isn't
+        // finite, so one such value would poison the metric's statistics
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            throw new IllegalArgumentException("value must be finite");
+        MetricKey key = new MetricKey(namespace, metricName,
+                unit == null ? StandardUnit.None : unit,
+                dimensions == null ? NO_DIMENSIONS : dimensions);
+        MetricAccumulator accumulator = accumulators.get(key);
+        if (accumulator == null) {
+            if (accumulators.size() >= maxMetrics) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            MetricAccumulator created = new MetricAccumulator();
+            accumulator = accumulators.putIfAbsent(key, created);
+            if (accumulator == null)
+                accumulator = created;
+        }
+        accumulator.add(value);
+    }
+
+    /**
+     * Rolls up the values added so far and publishes them now, on the calling
+     * thread, along with the datums waiting to be published again.
+     */
+    public synchronized void flush() {
+        Date timestamp = new Date();
+        // Drain the accumulators retired at the last roll up for the last time
+        for (Map.Entry<MetricKey, MetricAccumulator> entry : retired.entrySet()) {
+            enqueue(entry.getKey(), entry.getValue().drain(), timestamp);
+        }
+        Map<MetricKey, MetricAccumulator> idle = new HashMap<MetricKey, MetricAccumulator>();
+        for (Map.Entry<MetricKey, MetricAccumulator> entry : accumulators.entrySet()) {
+            StatisticSet statistics = entry.getValue().drain();
+            if (statistics != null) {
+                enqueue(entry.getKey(), statistics, timestamp);
+            } else if (accumulators.remove(entry.getKey(), entry.getValue())) {
+                idle.put(entry.getKey(), entry.getValue());
+            }
+        }
+        retired = idle;
+        publish();
+    }
+
+    /**
+     * Stops rolling up values periodically, and publishes the values added so
+     * far.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        flush();
+    }
+
+    /**
+     * Returns the number of values and datums dropped so far because the
+     * bounds of this publisher were reached.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void enqueue(MetricKey key, StatisticSet statistics, Date timestamp) {
+        if (statistics == null)
+            return;
+        MetricDatum datum = new MetricDatum()
+                .withMetricName(key.metricName)
+                .withUnit(key.unit)
+                .withTimestamp(timestamp)
+                .withStatisticValues(statistics);
+        if (!key.dimensions.isEmpty())
+            datum.withDimensions(key.dimensions);
+        unsent.add(new UnsentDatum(key.namespace, datum));
+        while (unsent.size() > maxUnsentDatums) {
+            unsent.removeFirst();
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Publishes the unsent datums, grouped by namespace. When a request of a
+     * namespace fails, the datums of the namespace not published are kept
+     * for the next period, and the other namespaces are published still. The
+     * datums of a request rejected as invalid are dropped instead, since
+     * publishing them again would fail again.
+     */
+    private void publish() {
+        Map<String, List<MetricDatum>> byNamespace = new LinkedHashMap<String, List<MetricDatum>>();
+        for (UnsentDatum unsentDatum : unsent) {
+            List<MetricDatum> datums = byNamespace.get(unsentDatum.namespace);
+            if (datums == null) {
+                datums = new ArrayList<MetricDatum>();
+                byNamespace.put(unsentDatum.namespace, datums);
+            }
+            datums.add(unsentDatum.datum);
+        }
+        unsent.clear();
+        for (Map.Entry<String, List<MetricDatum>> entry : byNamespace.entrySet()) {
+            List<MetricDatum> datums = entry.getValue();
+            for (int from = 0; from < datums.size(); from += MAX_DATUMS_PER_REQUEST) {
+                List<MetricDatum> batch = datums.subList(from,
+                        Math.min(datums.size(), from + MAX_DATUMS_PER_REQUEST));
+                try {
+                    cloudWatch.putMetricData(new PutMetricDataRequest()
+                            .withNamespace(entry.getKey())
+                            .withMetricData(batch));
+                } catch (AmazonServiceException e) {
+                    if (isRetryable(e)) {
+                        log.warn("Unable to publish metrics, will retry", e);
+                        keepUnsent(entry.getKey(), datums.subList(from, datums.size()));
+                        break;
+                    }
+                    log.warn("Metrics rejected, dropping " + batch.size() + " datums", e);
+                    droppedCount.addAndGet(batch.size());
+                } catch (AmazonClientException e) {
+                    log.warn("Unable to publish metrics, will retry", e);
+                    keepUnsent(entry.getKey(), datums.subList(from, datums.size()));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Client errors other than throttling and clock skew mean the request
+     * itself is invalid; anything else is worth retrying.
+     */
+    private static boolean isRetryable(AmazonServiceException e) {
+        int statusCode = e.getStatusCode();
+        return statusCode < 400 || statusCode >= 500
+                || RetryUtils.isThrottlingException(e)
+                || RetryUtils.isClockSkewError(e);
+    }
+
+    private void keepUnsent(String namespace, List<MetricDatum> datums) {
+        for (MetricDatum datum : datums) {
+            unsent.add(new UnsentDatum(namespace, datum));
+        }
+    }
+}
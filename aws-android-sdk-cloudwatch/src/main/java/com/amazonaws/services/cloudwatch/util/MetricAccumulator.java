@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.cloudwatch.util;
+
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Accumulates the values of one metric into a statistic set without locking.
+ * Values are added to one of several stripes, picked by thread, so that
+ * threads adding values concurrently rarely contend for the same stripe. Each
+ * stripe holds an immutable snapshot that is replaced with a compare and set,
+ * so that {@link #drain()} takes every stripe whole, never half of a value.
+ */
+class MetricAccumulator {
+
+    /** The statistics of the values added to a stripe. */
+    private static final class Stats {
+        final long count;
+        final double sum;
+        final double min;
+        final double max;
+
+        Stats(long count, double sum, double min, double max) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        Stats add(double value) {
+            return new Stats(count + 1, sum + value, Math.min(min, value), Math.max(max, value));
+        }
+
+        Stats add(Stats other) {
+            return new Stats(count + other.count, sum + other.sum,
+                    Math.min(min, other.min), Math.max(max, other.max));
+        }
+    }
+
+    private static final int STRIPES;
+
+    static {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < processors && stripes < 16) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    private final AtomicReferenceArray<Stats> stripes = new AtomicReferenceArray<Stats>(STRIPES);
+
+    /**
+     * Adds the given value.
+     */
+    void add(double value) {
+        int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        while (true) {
+            Stats current = stripes.get(index);
+            Stats updated = current == null
+                    ? new Stats(1, value, value, value)
+                    : current.add(value);
+            if (stripes.compareAndSet(index, current, updated))
+                return;
+        }
+    }
+
+    /**
+     * Returns the statistics of the values added since the last drain, and
+     * starts over; or returns null if no value was added since.
+     */
+    StatisticSet drain() {
+        Stats total = null;
+        for (int i = 0; i < STRIPES; i++) {
+            Stats stats = stripes.getAndSet(i, null);
+            if (stats != null) {
+                total = total == null ? stats : total.add(stats);
+            }
+        }
+        if (total == null)
+            return null;
+        return new StatisticSet()
+                .withSampleCount((double) total.count)
+                .withSum(total.sum)
+                .withMinimum(total.min)
+                .withMaximum(total.max);
+    }
+}
@@ -35,6 +35,7 @@ import com.amazonaws.mobileconnectors.cognito.internal.storage.CognitoSyncStorag
 import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
 import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage;
 import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage.DatasetUpdates;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage.DatasetUpdatesHandler;
 import com.amazonaws.mobileconnectors.cognito.internal.storage.SQLiteLocalStorage;
 import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
 import com.amazonaws.mobileconnectors.cognito.internal.util.StringUtils;
@@ -43,7 +44,6 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -60,6 +60,11 @@ class DefaultDataset implements Dataset {
      */
     private static final int MAX_RETRY = 3;
 
+    /**
+     * Max number of local changes pushed to remote in a single request.
+     */
+    static final int PUSH_CHUNK_SIZE = 256;
+
     /**
      * Context that the dataset is attached to
      */
@@ -81,6 +86,11 @@ class DefaultDataset implements Dataset {
      * Identity id
      */
     private final CognitoCachingCredentialsProvider provider;
+    /**
+     * Serializes the synchronizations of this dataset. The monitor of the
+     * dataset isn't held while records are transferred.
+     */
+    private final Object syncLock = new Object();
 
     /**
      * Constructs a DefaultDataset object
@@ -231,181 +241,223 @@ class DefaultDataset implements Dataset {
     }
 
     /**
-     * Handles remote records (if there are any) by A. Handling conflicts B.
-     * Updating the local store with new remote records C. Updating the local
-     * sync count
+     * Internal method for synchronization. The updates from remote are
+     * checked for conflicts page by page as they are received, and merged
+     * into local storage in a single transaction once the conflicts are
+     * resolved. The local changes, including the resolutions of conflicts,
+     * are then pushed to remote in chunks. Nothing is saved or pushed if the
+     * callback cancels the synchronization.
      * 
-     * @param callback
-     * @param datasetUpdates
-     * @return True, unless the developer does not want to continue syncing upon
-     *         a sync conflict
+     * @param callback callback during synchronization
+     * @param retry number of retries before it's considered failure
+     * @return true if synchronize successfully, false otherwise
      */
-    boolean handleRemoteRecords(final SyncCallback callback,
-            final DatasetUpdates datasetUpdates) {
-        List<Record> remoteRecords = datasetUpdates.getRecords();
-
-        if (!remoteRecords.isEmpty()) {
-
-            // if conflict, prompt developer/user with callback
-            List<SyncConflict> conflicts = new ArrayList<SyncConflict>();
-            Iterator<Record> iter = remoteRecords.iterator();
-            while (iter.hasNext()) {
-                Record remoteRecord = iter.next();
-                Record localRecord = local.getRecord(getIdentityId(),
-                        datasetName,
-                        remoteRecord.getKey());
-                // only when local is changed and its value is different
-                if (localRecord != null && localRecord.isModified()
-                        && localRecord.getSyncCount() != remoteRecord.getSyncCount()
-                        && !StringUtils.equals(localRecord.getValue(), remoteRecord.getValue())) {
-                    conflicts.add(new SyncConflict(remoteRecord, localRecord));
-                    // remove it from remote changes, it has been marked as a
-                    // conflict
-                    // and will be updated by conflict resolution
-                    iter.remove();
-                }
+    boolean synchronizeInternal(final SyncCallback callback, int retry) {
+        synchronized (syncLock) {
+            if (retry < 0) {
+                Log.e(TAG, "Synchronize failed because it exceeded the maximum retries");
+                callback.onFailure(new DataStorageException(
+                        "Synchronize failed because it exceeded the maximum retries"));
+                return false;
             }
-            if (!conflicts.isEmpty()) {
-                Log.i(TAG, String.format("%d records in conflict!", conflicts.size()));
-                if (!callback.onConflict(DefaultDataset.this, conflicts)) {
+
+            long lastSyncCount = local.getLastSyncCount(getIdentityId(), datasetName);
+
+            // if dataset is deleted locally, push it to remote
+            if (lastSyncCount == -1) {
+                return deleteLocalAndPurgeRemoteDataset(callback);
+            }
+
+            // get latest modified records from remote
+            Log.d(TAG, "get latest modified records since " + lastSyncCount);
+            SyncSession session = new SyncSession(lastSyncCount);
+            try {
+                remote.listUpdates(datasetName, lastSyncCount, session);
+            } catch (DataStorageException e) {
+                callback.onFailure(e);
+                return false;
+            }
+
+            DatasetUpdates datasetUpdates = session.firstUpdates;
+            if (datasetUpdates == null) {
+                callback.onFailure(new DataStorageException("No updates were listed"));
+                return false;
+            }
+            if (!datasetUpdates.getMergedDatasetNameList().isEmpty()) {
+                return handleDatasetMerge(callback, datasetUpdates, retry);
+            }
+
+            // if the dataset doesn't exist or is deleted, trigger onDelete
+            if (lastSyncCount != 0 && !datasetUpdates.isExists()
+                    || datasetUpdates.isDeleted()) {
+                return removeLocalDataset(callback, datasetUpdates);
+            }
+
+            if (!session.conflicts.isEmpty()) {
+                Log.i(TAG, String.format("%d records in conflict!", session.conflicts.size()));
+                if (!callback.onConflict(DefaultDataset.this, session.conflicts)) {
                     // if they didn't want to continue on resolving conflicts
                     // return
                     return false;
                 }
             }
 
-            // if there are non-conflicting records from the remote, update them
-            // in local
-            if (!remoteRecords.isEmpty()) {
-                Log.i(TAG, String.format("save %d records to local", remoteRecords.size()));
-                local.putRecords(getIdentityId(), datasetName, remoteRecords);
+            // if there are non-conflicting records from the remote, update
+            // them in local
+            if (!session.updatedRecords.isEmpty()) {
+                Log.i(TAG, String.format("save %d records to local",
+                        session.updatedRecords.size()));
+                local.putRecords(getIdentityId(), datasetName, session.updatedRecords);
+            }
+            if (session.hasRemoteRecords) {
+                // new last sync count
+                Log.i(TAG, String.format("updated sync count %d", session.syncCount));
+                local.updateLastSyncCount(getIdentityId(), datasetName, session.syncCount);
             }
-            // new last sync count
-            Log.i(TAG, String.format("updated sync count %d", datasetUpdates.getSyncCount()));
-            local.updateLastSyncCount(getIdentityId(), datasetName,
-                    datasetUpdates.getSyncCount());
-        }
 
-        return true;
+            return handleLocalModifications(callback, session, retry);
+        }
     }
 
     /**
-     * Handles local modifications by: A. Pushing local changes to remote B.
-     * Putting the result of the remote push to the local store C. Updating the
-     * last sync count
+     * Pushes the local changes to remote, in chunks, and updates the last
+     * sync count if no other updates were made in the meantime.
      * 
      * @param callback the SyncCallback
-     * @param datasetUpdates The updates from the remote store
+     * @param session the synchronization
      * @param retry The current retry count
      * @return If this portion of the synchronization was successful
      */
-    boolean handleLocalModifications(final SyncCallback callback,
-            final DatasetUpdates datasetUpdates, int retry) {
-
-        // push changes to remote
+    boolean handleLocalModifications(final SyncCallback callback, final SyncSession session,
+            int retry) {
         List<Record> localChanges = getModifiedRecords();
-
         if (!localChanges.isEmpty()) {
-
-            long lastSyncCount = datasetUpdates.getSyncCount();
-
-            long maxPatchSyncCount = 0;
-            for (Record record : localChanges) {
-                if (record.getSyncCount() > maxPatchSyncCount) {
-                    maxPatchSyncCount = record.getSyncCount();
-                }
-            }
-
             Log.i(TAG, String.format("push %d records to remote", localChanges.size()));
-            List<Record> result = null;
+        }
+        for (int i = 0; i < localChanges.size(); i += PUSH_CHUNK_SIZE) {
+            List<Record> chunk = localChanges.subList(i,
+                    Math.min(i + PUSH_CHUNK_SIZE, localChanges.size()));
             try {
-                SharedPreferences sp = getSharedPreferences();
-                String deviceId = sp.getString(namespaceIdPlatform("deviceId"), null);
-                result = remote.putRecords(datasetName, localChanges,
-                        datasetUpdates.getSyncSessionToken(), deviceId);
+                session.pushed(session.push(chunk));
             } catch (DataConflictException dce) {
-                Log.i(TAG, "conflicts detected when pushing changes to remote.");
-                if (lastSyncCount > maxPatchSyncCount) {
-                    local.updateLastSyncCount(getIdentityId(), datasetName, maxPatchSyncCount);
-                }
-                return synchronizeInternal(callback, --retry);
+                return handlePushConflict(callback, session, chunk, retry);
             } catch (DataStorageException dse) {
                 callback.onFailure(dse);
                 return false;
             }
+        }
 
-            // update local meta data
-            local.conditionallyPutRecords(getIdentityId(), datasetName, result, localChanges);
-
-            // verify the server sync count is increased exactly by one, meaning
-            // no
-            // other updates were made during this update.
-            long newSyncCount = 0;
-            for (Record record : result) {
-                newSyncCount = newSyncCount < record.getSyncCount()
-                        ? record.getSyncCount()
-                        : newSyncCount;
-            }
-
-            if (newSyncCount == lastSyncCount + 1) {
-                Log.i(TAG, String.format("updated sync count %d", newSyncCount));
-                local.updateLastSyncCount(getIdentityId(), datasetName,
-                        newSyncCount);
-            }
+        // verify the server sync count is increased exactly by one per push,
+        // meaning no other updates were made during the synchronization
+        if (session.pushes > 0
+                && session.maxPushedSyncCount == session.syncCount + session.pushes) {
+            Log.i(TAG, String.format("updated sync count %d", session.maxPushedSyncCount));
+            local.updateLastSyncCount(getIdentityId(), datasetName,
+                    session.maxPushedSyncCount);
         }
 
         // call back
-        callback.onSuccess(DefaultDataset.this, datasetUpdates.getRecords());
+        callback.onSuccess(DefaultDataset.this, session.updatedRecords);
         return true;
     }
 
     /**
-     * Internal method for synchronization.
-     * 
-     * @param callback callback during synchronization
-     * @param retry number of retries before it's considered failure
-     * @return true if synchronize successfully, false otherwise
+     * Synchronizes again after remote rejected pushed changes because of
+     * conflicts, making sure the records in conflict are pulled again.
      */
-    synchronized boolean synchronizeInternal(final SyncCallback callback, int retry) {
-        if (retry < 0) {
-            Log.e(TAG, "Synchronize failed because it exceeded the maximum retries");
-            callback.onFailure(new DataStorageException(
-                    "Synchronize failed because it exceeded the maximum retries"));
-            return false;
+    private boolean handlePushConflict(final SyncCallback callback, final SyncSession session,
+            final List<Record> chunk, int retry) {
+        Log.i(TAG, "conflicts detected when pushing changes to remote.");
+        long maxPatchSyncCount = 0;
+        for (Record record : chunk) {
+            if (record.getSyncCount() > maxPatchSyncCount) {
+                maxPatchSyncCount = record.getSyncCount();
+            }
         }
-
-        long lastSyncCount = local.getLastSyncCount(getIdentityId(), datasetName);
-
-        // if dataset is deleted locally, push it to remote
-        if (lastSyncCount == -1) {
-            return deleteLocalAndPurgeRemoteDataset(callback);
+        if (session.syncCount > maxPatchSyncCount) {
+            local.updateLastSyncCount(getIdentityId(), datasetName, maxPatchSyncCount);
         }
+        return synchronizeInternal(callback, --retry);
+    }
 
-        // get latest modified records from remote
-        Log.d(TAG, "get latest modified records since " + lastSyncCount);
-        DatasetUpdates datasetUpdates = null;
-        try {
-            datasetUpdates = remote.listUpdates(datasetName, lastSyncCount);
-        } catch (DataStorageException e) {
-            callback.onFailure(e);
-            return false;
+    /**
+     * The state of a synchronization. It receives the pages of updates from
+     * remote, looking up the local changes each remote record conflicts with
+     * by key, and keeps the records that don't conflict until the
+     * synchronization goes ahead.
+     */
+    final class SyncSession implements DatasetUpdatesHandler {
+        final long lastSyncCount;
+        final String identityId;
+        final String deviceId;
+        /** The first page, which tells whether the dataset was merged or deleted */
+        DatasetUpdates firstUpdates;
+        long syncCount;
+        String syncSessionToken;
+        boolean hasRemoteRecords;
+        /** The local changes at the start of the synchronization, by key */
+        final Map<String, Record> localChanges = new HashMap<String, Record>();
+        final List<SyncConflict> conflicts = new ArrayList<SyncConflict>();
+        /** The remote records that don't conflict with local changes */
+        final List<Record> updatedRecords = new ArrayList<Record>();
+        int pushes;
+        long maxPushedSyncCount;
+
+        SyncSession(long lastSyncCount) {
+            this.lastSyncCount = lastSyncCount;
+            this.identityId = getIdentityId();
+            this.deviceId = getSharedPreferences().getString(namespaceIdPlatform("deviceId"),
+                    null);
+            for (Record record : getModifiedRecords()) {
+                localChanges.put(record.getKey(), record);
+            }
         }
 
-        if (!datasetUpdates.getMergedDatasetNameList().isEmpty()) {
-            return handleDatasetMerge(callback, datasetUpdates, retry);
-        }
+        @Override
+        public boolean handleUpdates(DatasetUpdates updates) {
+            if (firstUpdates == null) {
+                firstUpdates = updates;
+                // nothing is merged unless the dataset is to be synchronized
+                if (!updates.getMergedDatasetNameList().isEmpty()
+                        || lastSyncCount != 0 && !updates.isExists() || updates.isDeleted()) {
+                    return false;
+                }
+            }
+            syncCount = updates.getSyncCount();
+            syncSessionToken = updates.getSyncSessionToken();
 
-        // if the dataset doesn't exist or is deleted, trigger onDelete
-        if (lastSyncCount != 0 && !datasetUpdates.isExists()
-                || datasetUpdates.isDeleted()) {
-            return removeLocalDataset(callback, datasetUpdates);
+            for (Record remoteRecord : updates.getRecords()) {
+                hasRemoteRecords = true;
+                Record localRecord = localChanges.get(remoteRecord.getKey());
+                // only when local is changed and its value is different
+                if (localRecord != null
+                        && localRecord.getSyncCount() != remoteRecord.getSyncCount()
+                        && !StringUtils.equals(localRecord.getValue(), remoteRecord.getValue())) {
+                    // it will be updated by conflict resolution
+                    conflicts.add(new SyncConflict(remoteRecord, localRecord));
+                } else {
+                    updatedRecords.add(remoteRecord);
+                }
+            }
+            return true;
         }
 
-        if (!handleRemoteRecords(callback, datasetUpdates)) {
-            return false;
+        List<Record> push(List<Record> chunk) {
+            List<Record> result = remote.putRecords(datasetName, chunk, syncSessionToken,
+                    deviceId);
+            // update local meta data
+            local.conditionallyPutRecords(identityId, datasetName, result, chunk);
+            return result;
         }
 
-        return handleLocalModifications(callback, datasetUpdates, retry);
+        void pushed(List<Record> result) {
+            pushes++;
+            for (Record record : result) {
+                if (record.getSyncCount() > maxPushedSyncCount) {
+                    maxPushedSyncCount = record.getSyncCount();
+                }
+            }
+        }
     }
 
     @Override
@@ -132,8 +132,27 @@ public class CognitoSyncStorage implements RemoteDataStorage {
 
     @Override
     public DatasetUpdates listUpdates(String datasetName, long lastSyncCount) {
-        DatasetUpdatesImpl.Builder builder = new DatasetUpdatesImpl.Builder(datasetName);
+        final DatasetUpdatesImpl.Builder builder = new DatasetUpdatesImpl.Builder(datasetName);
+        listUpdates(datasetName, lastSyncCount, new DatasetUpdatesHandler() {
+            @Override
+            public boolean handleUpdates(DatasetUpdates updates) {
+                for (Record record : updates.getRecords()) {
+                    builder.addRecord(record);
+                }
+                builder.syncSessionToken(updates.getSyncSessionToken())
+                        .syncCount(updates.getSyncCount())
+                        .exists(updates.isExists())
+                        .deleted(updates.isDeleted())
+                        .mergedDatasetNameList(updates.getMergedDatasetNameList());
+                return true;
+            }
+        });
+        return builder.build();
+    }
 
+    @Override
+    public void listUpdates(String datasetName, long lastSyncCount,
+            DatasetUpdatesHandler handler) {
         String nextToken = null;
         do {
             ListRecordsRequest request = new ListRecordsRequest();
@@ -151,6 +170,7 @@ public class CognitoSyncStorage implements RemoteDataStorage {
             } catch (AmazonClientException ace) {
                 throw handleException(ace, "Failed to list records in dataset: " + datasetName);
             }
+            DatasetUpdatesImpl.Builder builder = new DatasetUpdatesImpl.Builder(datasetName);
             for (com.amazonaws.services.cognitosync.model.Record remoteRecord : result.getRecords()) {
                 builder.addRecord(modelToRecord(remoteRecord));
             }
@@ -159,12 +179,13 @@ public class CognitoSyncStorage implements RemoteDataStorage {
                     .exists(result.isDatasetExists())
                     .deleted(result.isDatasetDeletedAfterRequestedSyncCount())
                     .mergedDatasetNameList(result.getMergedDatasetNames());
+            if (!handler.handleUpdates(builder.build())) {
+                return;
+            }
 
             // update last evaluated key
             nextToken = result.getNextToken();
         } while (nextToken != null);
-
-        return builder.build();
     }
 
     /*
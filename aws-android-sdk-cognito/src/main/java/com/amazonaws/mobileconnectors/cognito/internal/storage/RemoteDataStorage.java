@@ -60,6 +60,20 @@ public interface RemoteDataStorage {
     public DatasetUpdates listUpdates(String datasetName, long lastSyncCount)
             throws DataStorageException;
 
+    /**
+     * Lists the records which have been updated since lastSyncCount, like
+     * {@link #listUpdates(String, long)}, but hands each page of updates to
+     * the handler as soon as it is received instead of collecting the records
+     * of all the pages first. Every page reports the state of the dataset
+     * along with its records.
+     * 
+     * @param datasetName the dataset name
+     * @param lastSyncCount non negative long integer
+     * @param handler the handler of the pages
+     */
+    public void listUpdates(String datasetName, long lastSyncCount,
+            DatasetUpdatesHandler handler) throws DataStorageException;
+
     /**
      * Post updates to remote storage. Each record has a sync count. If the sync
      * count doesn't match what's on the remote storage, i.e. the record is
@@ -102,6 +116,20 @@ public interface RemoteDataStorage {
      */
     public void deleteDataset(String datasetName) throws DatasetNotFoundException;
 
+    /**
+     * Handles the pages of updates listed by
+     * {@link RemoteDataStorage#listUpdates(String, long, DatasetUpdatesHandler)}.
+     */
+    public interface DatasetUpdatesHandler {
+        /**
+         * Handles a page of updates.
+         * 
+         * @param updates the page of updates
+         * @return true to list the next page, false to stop listing
+         */
+        public boolean handleUpdates(DatasetUpdates updates);
+    }
+
     public interface DatasetUpdates {
         public String getDatasetName();
 
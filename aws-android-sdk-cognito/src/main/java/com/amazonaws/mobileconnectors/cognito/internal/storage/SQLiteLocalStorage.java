@@ -22,6 +22,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.amazonaws.mobileconnectors.cognito.Dataset;
@@ -33,7 +34,10 @@ import com.amazonaws.mobileconnectors.cognito.internal.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -107,6 +111,50 @@ public class SQLiteLocalStorage implements LocalStorage {
         };
     }
 
+    /**
+     * Selection of one record of a dataset.
+     */
+    private static final String RECORD_SELECTION = RecordColumns.IDENTITY_ID + " = ? AND "
+            + RecordColumns.DATASET_NAME + " = ? AND " + RecordColumns.KEY + " = ?";
+
+    /**
+     * Inserts a record with a locally modified value.
+     */
+    private static final String INSERT_VALUE_SQL = "INSERT INTO " + TABLE_RECORDS + "("
+            + RecordColumns.IDENTITY_ID + ","
+            + RecordColumns.DATASET_NAME + ","
+            + RecordColumns.KEY + ","
+            + RecordColumns.VALUE + ","
+            + RecordColumns.SYNC_COUNT + ","
+            + RecordColumns.MODIFIED + ","
+            + RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP
+            + ") VALUES (?, ?, ?, ?, 0, 1, ?)";
+
+    /**
+     * Sets a locally modified value of an existing record.
+     */
+    private static final String UPDATE_VALUE_SQL = "UPDATE " + TABLE_RECORDS + " SET "
+            + RecordColumns.VALUE + " = ?, "
+            + RecordColumns.MODIFIED + " = 1, "
+            + RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP + " = ?"
+            + " WHERE " + RECORD_SELECTION;
+
+    /**
+     * Inserts a record, replacing the existing one with the same key.
+     */
+    private static final String REPLACE_RECORD_SQL = "INSERT OR REPLACE INTO " + TABLE_RECORDS
+            + "("
+            + RecordColumns.IDENTITY_ID + ","
+            + RecordColumns.DATASET_NAME + ","
+            + RecordColumns.KEY + ","
+            + RecordColumns.VALUE + ","
+            + RecordColumns.SYNC_COUNT + ","
+            + RecordColumns.MODIFIED + ","
+            + RecordColumns.LAST_MODIFIED_BY + ","
+            + RecordColumns.LAST_MODIFIED_TIMESTAMP + ","
+            + RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     /**
      * This helper creates two tables per identity id: one to save the meta data
      * of a dataset such as last server sync count and its status; the other to
@@ -114,7 +162,7 @@ public class SQLiteLocalStorage implements LocalStorage {
      */
     private class DatabaseHelper extends SQLiteOpenHelper {
 
-        private static final int DB_VERSION = 2;
+        private static final int DB_VERSION = 3;
 
         public DatabaseHelper(Context context, String cognitoId) {
             super(context.getApplicationContext(), cognitoId, null, DB_VERSION);
@@ -151,18 +199,37 @@ public class SQLiteLocalStorage implements LocalStorage {
                     + "UNIQUE (" + RecordColumns.IDENTITY_ID + ", " + RecordColumns.DATASET_NAME
                     + ", " + RecordColumns.KEY + ")"
                     + ")");
+            createIndexes(db);
+        }
+
+        /**
+         * Creates the indexes of records table. Lookups by key are served by
+         * the index of the unique constraint; this adds one for the modified
+         * records of a dataset, which are read on every sync.
+         */
+        void createIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_RECORDS + "_modified ON "
+                    + TABLE_RECORDS + "("
+                    + RecordColumns.IDENTITY_ID + ", "
+                    + RecordColumns.DATASET_NAME + ", "
+                    + RecordColumns.MODIFIED + ")");
         }
 
         /**
-         * Upgrading database will wipe all data. Any changes that haven't been
-         * synced will be lost.
+         * Upgrading database from version 1 will wipe all data. Any changes
+         * that haven't been synced will be lost. Later versions only add
+         * indexes and keep the data.
          */
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            Log.w(TAG, "Upgrading database; wiping all data");
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_DATASETS);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECORDS);
-            onCreate(db);
+            if (oldVersion < 2) {
+                Log.w(TAG, "Upgrading database; wiping all data");
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_DATASETS);
+                db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECORDS);
+                onCreate(db);
+            } else {
+                createIndexes(db);
+            }
         }
     }
 
@@ -171,6 +238,12 @@ public class SQLiteLocalStorage implements LocalStorage {
      */
     private final DatabaseHelper helper;
 
+    /**
+     * Records of the datasets that have been read, by identity id and dataset
+     * name, or null if records aren't cached. Guarded by this.
+     */
+    private final Map<String, Map<String, Record>> recordCache;
+
     /**
      * Creates a {@link SQLiteLocalStorage} object.
      * 
@@ -178,7 +251,24 @@ public class SQLiteLocalStorage implements LocalStorage {
      * @param databaseName name of the database
      */
     public SQLiteLocalStorage(Context context, String databaseName) {
+        this(context, databaseName, false);
+    }
+
+    /**
+     * Creates a {@link SQLiteLocalStorage} object, optionally with an
+     * in-memory cache of records. The records of a dataset are loaded into the
+     * cache when the dataset is first read, and writes through this storage
+     * update both the database and the cache. Reads of a cached dataset don't
+     * query the database. The cache must not be enabled if the database is
+     * modified by another {@link SQLiteLocalStorage}.
+     * 
+     * @param context a context of the app
+     * @param databaseName name of the database
+     * @param cacheRecords whether to cache the records of datasets in memory
+     */
+    public SQLiteLocalStorage(Context context, String databaseName, boolean cacheRecords) {
         helper = new DatabaseHelper(context, databaseName);
+        recordCache = cacheRecords ? new HashMap<String, Map<String, Record>>() : null;
     }
 
     /**
@@ -231,14 +321,7 @@ public class SQLiteLocalStorage implements LocalStorage {
 
     @Override
     public void putValue(String identityId, String datasetName, String key, String value) {
-        SQLiteDatabase db = helper.getWritableDatabase();
-        boolean result = putValueInternal(db, identityId, datasetName, key, value);
-        if (!result) {
-            Log.e(TAG, String.format("failed to put record [%s: %s] into dataset %s",
-                    key, value, datasetName));
-        } else {
-            updateLastModifiedTimestamp(db, identityId, datasetName);
-        }
+        putAllValues(identityId, datasetName, Collections.singletonMap(key, value));
     }
 
     @Override
@@ -254,60 +337,81 @@ public class SQLiteLocalStorage implements LocalStorage {
     }
 
     @Override
-    public void putAllValues(String identityId, String datasetName, Map<String, String> values) {
+    public synchronized void putAllValues(String identityId, String datasetName,
+            Map<String, String> values) {
         SQLiteDatabase db = helper.getWritableDatabase();
+        boolean success = false;
         db.beginTransaction();
         try {
-            for (Map.Entry<String, String> entry : values.entrySet()) {
-                putValueInternal(db, identityId, datasetName, entry.getKey(), entry.getValue());
+            Map<String, Record> records = getRecordMap(db, identityId, datasetName,
+                    values.keySet());
+            RecordWriter writer = new RecordWriter(db, identityId, datasetName);
+            try {
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    if (!putValueInternal(writer, records, entry.getKey(), entry.getValue())) {
+                        Log.e(TAG, String.format("failed to put record [%s: %s] into dataset %s",
+                                entry.getKey(), entry.getValue(), datasetName));
+                    }
+                }
+            } finally {
+                writer.close();
             }
             updateLastModifiedTimestamp(db, identityId, datasetName);
             db.setTransactionSuccessful();
+            success = true;
         } finally {
             db.endTransaction();
+            if (!success) {
+                evictRecords(identityId, datasetName);
+            }
         }
     }
 
     /**
-     * Puts key value into database. If the value is the same as the cached
+     * Puts key value into database. If the value is the same as the existing
      * value, nothing will be updated and true is returned.
      * 
-     * @param db sqlite database handler
-     * @param datasetName dataset name
+     * @param writer writer of the dataset
+     * @param records existing records of the dataset by key, which is updated
+     *            with the put record
      * @param key key of record
      * @param value value of record
      * @return true if put successfully, false otherwise
      */
-    boolean putValueInternal(SQLiteDatabase db, String identityId, String datasetName,
+    boolean putValueInternal(RecordWriter writer, Map<String, Record> records,
             String key, String value) {
-        Record record = getRecord(identityId, datasetName, key);
+        Record record = records.get(key);
         // compares value before putting it in database. If yes, return true.
         if (record != null && StringUtils.equals(record.getValue(), value)) {
             return true;
         }
 
-        ContentValues values = new ContentValues();
-        values.put(RecordColumns.IDENTITY_ID, identityId);
-        values.put(RecordColumns.DATASET_NAME, datasetName);
-        values.put(RecordColumns.KEY, key);
-        values.put(RecordColumns.VALUE, value);
-        values.put(RecordColumns.MODIFIED, true);
-        values.put(RecordColumns.SYNC_COUNT, record == null ? 0 : record.getSyncCount());
-        values.put(RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP,
-                String.valueOf(new Date().getTime()));
-
+        Date now = new Date();
         if (record == null) {
-            return db.insert(TABLE_RECORDS, null, values) != -1;
+            if (!writer.insertValue(key, value, now.getTime())) {
+                return false;
+            }
+            record = new Record.Builder(key)
+                    .value(value)
+                    .lastModifiedDate(new Date(0))
+                    .deviceLastModifiedDate(now)
+                    .modified(true)
+                    .build();
         } else {
-            return db.update(TABLE_RECORDS, values,
-                    RecordColumns.IDENTITY_ID + " = ? AND " + RecordColumns.DATASET_NAME
-                            + " = ? AND " + RecordColumns.KEY + " = ?",
-                    new String[] {
-                            identityId, datasetName, key
-                    }) == 1;
+            writer.updateValue(key, value, now.getTime());
+            record = new Record.Builder(key)
+                    .value(value)
+                    .syncCount(record.getSyncCount())
+                    .lastModifiedDate(record.getLastModifiedDate())
+                    .lastModifiedBy(record.getLastModifiedBy())
+                    .deviceLastModifiedDate(now)
+                    .modified(true)
+                    .build();
         }
+        records.put(key, record);
+        return true;
     }
-    
+
     @Override
     public List<DatasetMetadata> getDatasets(String identityId) {
         List<DatasetMetadata> datasets = new ArrayList<DatasetMetadata>();
@@ -360,13 +464,40 @@ public class SQLiteLocalStorage implements LocalStorage {
 
     @Override
     public Record getRecord(String identityId, String datasetName, String key) {
+        if (recordCache != null) {
+            synchronized (this) {
+                return getCachedRecords(helper.getWritableDatabase(), identityId, datasetName)
+                        .get(key);
+            }
+        }
+        return queryRecord(helper.getWritableDatabase(), identityId, datasetName, key);
+    }
+
+    @Override
+    public List<Record> getRecords(String identityId, String datasetName) {
+        if (recordCache != null) {
+            synchronized (this) {
+                return new ArrayList<Record>(getCachedRecords(helper.getWritableDatabase(),
+                        identityId, datasetName).values());
+            }
+        }
+        return new ArrayList<Record>(
+                queryRecords(helper.getWritableDatabase(), identityId, datasetName).values());
+    }
+
+    /**
+     * Queries one record of a dataset.
+     * 
+     * @param db SQLiteDatabase handler
+     * @param identityId identity id of the dataset
+     * @param datasetName dataset name
+     * @param key key of the record
+     * @return the record, or null if not found
+     */
+    Record queryRecord(SQLiteDatabase db, String identityId, String datasetName, String key) {
         Record record = null;
 
-        SQLiteDatabase db = helper.getWritableDatabase();
-        Cursor c = db.query(TABLE_RECORDS, RecordColumns.ALL,
-                RecordColumns.IDENTITY_ID + " = ? AND "
-                        + RecordColumns.DATASET_NAME + " = ? AND "
-                        + RecordColumns.KEY + " = ?",
+        Cursor c = db.query(TABLE_RECORDS, RecordColumns.ALL, RECORD_SELECTION,
                 new String[] {
                         identityId, datasetName, key
                 }, null, null, null);
@@ -378,11 +509,17 @@ public class SQLiteLocalStorage implements LocalStorage {
         return record;
     }
 
-    @Override
-    public List<Record> getRecords(String identityId, String datasetName) {
-        List<Record> records = new ArrayList<Record>();
+    /**
+     * Queries all records of a dataset.
+     * 
+     * @param db SQLiteDatabase handler
+     * @param identityId identity id of the dataset
+     * @param datasetName dataset name
+     * @return a mutable map of the records by key
+     */
+    Map<String, Record> queryRecords(SQLiteDatabase db, String identityId, String datasetName) {
+        Map<String, Record> records = new LinkedHashMap<String, Record>();
 
-        SQLiteDatabase db = helper.getWritableDatabase();
         Cursor c = db.query(TABLE_RECORDS, RecordColumns.ALL,
                 RecordColumns.IDENTITY_ID + " = ? AND "
                         + RecordColumns.DATASET_NAME + " = ?",
@@ -390,13 +527,81 @@ public class SQLiteLocalStorage implements LocalStorage {
                         identityId, datasetName
                 }, null, null, null);
         while (c.moveToNext()) {
-            records.add(cursorToRecord(c));
+            Record record = cursorToRecord(c);
+            records.put(record.getKey(), record);
         }
         c.close();
 
         return records;
     }
 
+    /**
+     * Returns the cached records of a dataset, loading them from the database
+     * if the dataset isn't cached yet. Must be called while holding the lock
+     * of this storage, and only when records are cached.
+     * 
+     * @param db SQLiteDatabase handler
+     * @param identityId identity id of the dataset
+     * @param datasetName dataset name
+     * @return the live map of the cached records by key
+     */
+    Map<String, Record> getCachedRecords(SQLiteDatabase db, String identityId,
+            String datasetName) {
+        String cacheKey = cacheKey(identityId, datasetName);
+        Map<String, Record> records = recordCache.get(cacheKey);
+        if (records == null) {
+            records = queryRecords(db, identityId, datasetName);
+            recordCache.put(cacheKey, records);
+        }
+        return records;
+    }
+
+    /**
+     * Returns the existing records of a dataset that a write needs to look
+     * at. When records are cached, this is the live cache, so that updating
+     * the returned map writes through to it. Otherwise a single key is looked
+     * up on its own, and more keys are looked up with one query of the whole
+     * dataset. Must be called while holding the lock of this storage.
+     * 
+     * @param db SQLiteDatabase handler
+     * @param identityId identity id of the dataset
+     * @param datasetName dataset name
+     * @param keys the keys to be written
+     * @return a mutable map of the records by key, containing at least the
+     *         existing records of the given keys
+     */
+    Map<String, Record> getRecordMap(SQLiteDatabase db, String identityId, String datasetName,
+            Collection<String> keys) {
+        if (recordCache != null) {
+            return getCachedRecords(db, identityId, datasetName);
+        }
+        if (keys.size() == 1) {
+            Map<String, Record> records = new HashMap<String, Record>();
+            String key = keys.iterator().next();
+            Record record = queryRecord(db, identityId, datasetName, key);
+            if (record != null) {
+                records.put(key, record);
+            }
+            return records;
+        }
+        return queryRecords(db, identityId, datasetName);
+    }
+
+    /**
+     * Drops the cached records of a dataset, if any. Must be called while
+     * holding the lock of this storage.
+     */
+    void evictRecords(String identityId, String datasetName) {
+        if (recordCache != null) {
+            recordCache.remove(cacheKey(identityId, datasetName));
+        }
+    }
+
+    private static String cacheKey(String identityId, String datasetName) {
+        // '/' is valid in neither identity ids nor dataset names
+        return identityId + "/" + datasetName;
+    }
+
     /**
      * Converts a Cursor object into a Record object. This could potentially
      * throws exception if the stored record has bogus data that fails the
@@ -420,62 +625,97 @@ public class SQLiteLocalStorage implements LocalStorage {
     }
 
     @Override
-    public void putRecords(String identityId, String datasetName, List<Record> records) {
+    public synchronized void putRecords(String identityId, String datasetName,
+            List<Record> records) {
         SQLiteDatabase db = helper.getWritableDatabase();
+        Map<String, Record> cached = recordCache == null
+                ? null : recordCache.get(cacheKey(identityId, datasetName));
+        boolean success = false;
         db.beginTransaction();
         try {
-            for (Record record : records) {
-                updateOrInsertRecord(db, identityId, datasetName, record);
+            RecordWriter writer = new RecordWriter(db, identityId, datasetName);
+            try {
+                for (Record record : records) {
+                    Record stored = updateOrInsertRecord(writer, record);
+                    if (cached != null && stored != null) {
+                        cached.put(stored.getKey(), stored);
+                    }
+                }
+            } finally {
+                writer.close();
             }
 
             db.setTransactionSuccessful();
+            success = true;
         } finally {
             db.endTransaction();
+            if (!success) {
+                evictRecords(identityId, datasetName);
+            }
         }
     }
     
     @Override
-    public void conditionallyPutRecords(String identityId, String datasetName, List<Record> records, 
-            List<Record> localRecords) {
+    public synchronized void conditionallyPutRecords(String identityId, String datasetName,
+            List<Record> records, List<Record> localRecords) {
         // Build up an easy way to check the records from the snapshot of the db changes taken mid sync
         Map<String, Record> localRecordMap = new HashMap<String, Record>();
         for(Record record : localRecords){
             localRecordMap.put(record.getKey(), record);
         }
         SQLiteDatabase db = helper.getWritableDatabase();
+        boolean success = false;
         db.beginTransaction();
         try {
+            List<String> keys = new ArrayList<String>(records.size());
             for (Record record : records) {
-                /*
-                * Grab an instance of the record from the local store with the remote change's 
-                * key and the snapshot version.
-                * 1) If both are null the remote change is new and we should save. 
-                * 2) If both exist but the values and sync counts have changed, 
-                *    it has changed locally and we shouldn't overwrite with the remote changes, 
-                *    which will still exist in remote. 
-                * 3) If both exist and the values have not changed, we should save the remote change.
-                * 4) If the current check exists but it wasn't in the snapshot, we should save.
-                */
-                Record databaseRecord = getRecord(identityId, datasetName, record.getKey());
-                Record oldDatabaseRecord = localRecordMap.get(record.getKey());
-
-                if (databaseRecord != null && oldDatabaseRecord != null
-                        && (!StringUtils.equals(databaseRecord.getValue(), oldDatabaseRecord.getValue())
-                        || databaseRecord.getSyncCount() != oldDatabaseRecord.getSyncCount()
-                        || !StringUtils.equals(databaseRecord.getLastModifiedBy(), oldDatabaseRecord.getLastModifiedBy()))) {
-                    continue;
+                keys.add(record.getKey());
+            }
+            Map<String, Record> databaseRecords = getRecordMap(db, identityId, datasetName, keys);
+            RecordWriter writer = new RecordWriter(db, identityId, datasetName);
+            try {
+                for (Record record : records) {
+                    /*
+                    * Grab an instance of the record from the local store with the remote change's 
+                    * key and the snapshot version.
+                    * 1) If both are null the remote change is new and we should save. 
+                    * 2) If both exist but the values and sync counts have changed, 
+                    *    it has changed locally and we shouldn't overwrite with the remote changes, 
+                    *    which will still exist in remote. 
+                    * 3) If both exist and the values have not changed, we should save the remote change.
+                    * 4) If the current check exists but it wasn't in the snapshot, we should save.
+                    */
+                    Record databaseRecord = databaseRecords.get(record.getKey());
+                    Record oldDatabaseRecord = localRecordMap.get(record.getKey());
+
+                    if (databaseRecord != null && oldDatabaseRecord != null
+                            && (!StringUtils.equals(databaseRecord.getValue(), oldDatabaseRecord.getValue())
+                            || databaseRecord.getSyncCount() != oldDatabaseRecord.getSyncCount()
+                            || !StringUtils.equals(databaseRecord.getLastModifiedBy(), oldDatabaseRecord.getLastModifiedBy()))) {
+                        continue;
+                    }
+                    Record stored = updateOrInsertRecord(writer, record);
+                    if (stored != null) {
+                        databaseRecords.put(stored.getKey(), stored);
+                    }
                 }
-                updateOrInsertRecord(db, identityId, datasetName, record);
+            } finally {
+                writer.close();
             }
 
             db.setTransactionSuccessful();
+            success = true;
         } finally {
             db.endTransaction();
+            if (!success) {
+                evictRecords(identityId, datasetName);
+            }
         }
     }
 
     @Override
-    public void deleteDataset(String identityId, String datasetName) {
+    public synchronized void deleteDataset(String identityId, String datasetName) {
+        evictRecords(identityId, datasetName);
         // drop dataset table, and update metadata accordingly
         SQLiteDatabase db = helper.getWritableDatabase();
         db.beginTransaction();
@@ -510,7 +750,7 @@ public class SQLiteLocalStorage implements LocalStorage {
     }
 
     @Override
-    public void purgeDataset(String identityId, String datasetName) {
+    public synchronized void purgeDataset(String identityId, String datasetName) {
         deleteDataset(identityId, datasetName);
         SQLiteDatabase db = helper.getWritableDatabase();
         int rows = db.delete(TABLE_DATASETS,
@@ -548,6 +788,18 @@ public class SQLiteLocalStorage implements LocalStorage {
     public List<Record> getModifiedRecords(String identityId, String datasetName) {
         List<Record> records = new ArrayList<Record>();
 
+        if (recordCache != null) {
+            synchronized (this) {
+                for (Record record : getCachedRecords(helper.getWritableDatabase(),
+                        identityId, datasetName).values()) {
+                    if (record.isModified()) {
+                        records.add(record);
+                    }
+                }
+            }
+            return records;
+        }
+
         SQLiteDatabase db = helper.getWritableDatabase();
         Cursor c = db.query(TABLE_RECORDS, RecordColumns.ALL,
                 RecordColumns.IDENTITY_ID + " = ? AND " + RecordColumns.DATASET_NAME + " = ? AND "
@@ -567,7 +819,10 @@ public class SQLiteLocalStorage implements LocalStorage {
     /**
      * Close the local storage. Any operation called after this will fail.
      */
-    public void close() {
+    public synchronized void close() {
+        if (recordCache != null) {
+            recordCache.clear();
+        }
         helper.close();
     }
 
@@ -590,7 +845,10 @@ public class SQLiteLocalStorage implements LocalStorage {
     }
 
     @Override
-    public void wipeData() {
+    public synchronized void wipeData() {
+        if (recordCache != null) {
+            recordCache.clear();
+        }
         SQLiteDatabase db = helper.getWritableDatabase();
         db.beginTransaction();
         try {
@@ -647,33 +905,129 @@ public class SQLiteLocalStorage implements LocalStorage {
      * Updates dataset with the given record and clears the modified flag. This
      * is used to store remote change into local.
      * 
-     * @param db SQLiteDatabase handler
-     * @param identityId identity id of the dataset
-     * @param datasetName dataset name
+     * @param writer writer of the dataset
      * @param record the record to be updated
+     * @return the record as stored, or null if it couldn't be stored
      */
-    void updateOrInsertRecord(SQLiteDatabase db, String identityId, String datasetName,
-            Record record) {
-        ContentValues values = new ContentValues();
-        values.put(RecordColumns.IDENTITY_ID, identityId);
-        values.put(RecordColumns.DATASET_NAME, datasetName);
-        values.put(RecordColumns.KEY, record.getKey());
-        values.put(RecordColumns.VALUE, record.getValue());
-        values.put(RecordColumns.SYNC_COUNT, record.getSyncCount());
-        values.put(RecordColumns.MODIFIED, record.isModified());
-        values.put(RecordColumns.LAST_MODIFIED_BY, record.getLastModifiedBy());
-        if(record.getLastModifiedDate() != null){
-            values.put(RecordColumns.LAST_MODIFIED_TIMESTAMP, 
-                    String.valueOf(record.getLastModifiedDate().getTime()));
-        }
-        if(record.getDeviceLastModifiedDate() != null){
-            values.put(RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP, 
-                    String.valueOf(record.getDeviceLastModifiedDate().getTime()));
-        }
-        long row = db.replace(TABLE_RECORDS, null, values);
-        if (row == -1) {
+    Record updateOrInsertRecord(RecordWriter writer, Record record) {
+        if (!writer.replaceRecord(record)) {
             Log.e(TAG, String.format("failed to store record [%s: %s] into dataset %s",
-                    record.getKey(), record.getValue(), datasetName));
+                    record.getKey(), record.getValue(), writer.datasetName));
+            return null;
+        }
+        // a missing timestamp is stored as the column default
+        if (record.getLastModifiedDate() != null && record.getDeviceLastModifiedDate() != null) {
+            return record;
+        }
+        return new Record.Builder(record.getKey())
+                .value(record.getValue())
+                .syncCount(record.getSyncCount())
+                .lastModifiedDate(record.getLastModifiedDate() == null
+                        ? new Date(0) : record.getLastModifiedDate())
+                .lastModifiedBy(record.getLastModifiedBy())
+                .deviceLastModifiedDate(record.getDeviceLastModifiedDate() == null
+                        ? new Date(0) : record.getDeviceLastModifiedDate())
+                .modified(record.isModified())
+                .build();
+    }
+
+    /**
+     * Writes records of one dataset with compiled statements, so that a batch
+     * of writes in one transaction compiles each statement only once.
+     * Statements are compiled on first use and released by {@link #close()}.
+     */
+    static class RecordWriter {
+        private final SQLiteDatabase db;
+        private final String identityId;
+        private final String datasetName;
+        private SQLiteStatement insertValue;
+        private SQLiteStatement updateValue;
+        private SQLiteStatement replaceRecord;
+
+        RecordWriter(SQLiteDatabase db, String identityId, String datasetName) {
+            this.db = db;
+            this.identityId = identityId;
+            this.datasetName = datasetName;
+        }
+
+        /**
+         * Inserts a new record with a locally modified value.
+         * 
+         * @return true if inserted successfully, false otherwise
+         */
+        boolean insertValue(String key, String value, long timestamp) {
+            if (insertValue == null) {
+                insertValue = db.compileStatement(INSERT_VALUE_SQL);
+            }
+            insertValue.bindString(1, identityId);
+            insertValue.bindString(2, datasetName);
+            insertValue.bindString(3, key);
+            bindStringOrNull(insertValue, 4, value);
+            insertValue.bindLong(5, timestamp);
+            return insertValue.executeInsert() != -1;
+        }
+
+        /**
+         * Sets a locally modified value of an existing record.
+         */
+        void updateValue(String key, String value, long timestamp) {
+            if (updateValue == null) {
+                updateValue = db.compileStatement(UPDATE_VALUE_SQL);
+            }
+            bindStringOrNull(updateValue, 1, value);
+            updateValue.bindLong(2, timestamp);
+            updateValue.bindString(3, identityId);
+            updateValue.bindString(4, datasetName);
+            updateValue.bindString(5, key);
+            updateValue.execute();
+        }
+
+        /**
+         * Inserts the given record, replacing the existing one with the same
+         * key.
+         * 
+         * @return true if stored successfully, false otherwise
+         */
+        boolean replaceRecord(Record record) {
+            if (replaceRecord == null) {
+                replaceRecord = db.compileStatement(REPLACE_RECORD_SQL);
+            }
+            replaceRecord.bindString(1, identityId);
+            replaceRecord.bindString(2, datasetName);
+            replaceRecord.bindString(3, record.getKey());
+            bindStringOrNull(replaceRecord, 4, record.getValue());
+            replaceRecord.bindLong(5, record.getSyncCount());
+            replaceRecord.bindLong(6, record.isModified() ? 1 : 0);
+            bindStringOrNull(replaceRecord, 7, record.getLastModifiedBy());
+            replaceRecord.bindLong(8, record.getLastModifiedDate() == null
+                    ? 0 : record.getLastModifiedDate().getTime());
+            replaceRecord.bindLong(9, record.getDeviceLastModifiedDate() == null
+                    ? 0 : record.getDeviceLastModifiedDate().getTime());
+            return replaceRecord.executeInsert() != -1;
+        }
+
+        /**
+         * Releases the compiled statements.
+         */
+        void close() {
+            if (insertValue != null) {
+                insertValue.close();
+            }
+            if (updateValue != null) {
+                updateValue.close();
+            }
+            if (replaceRecord != null) {
+                replaceRecord.close();
+            }
+        }
+
+        private static void bindStringOrNull(SQLiteStatement statement, int index,
+                String value) {
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindString(index, value);
+            }
         }
     }
     
@@ -704,6 +1058,9 @@ public class SQLiteLocalStorage implements LocalStorage {
 
     @Override
     public synchronized void changeIdentityId(String oldIdentityId, String newIdentityId) {
+        if (recordCache != null) {
+            recordCache.clear();
+        }
         SQLiteDatabase db = helper.getWritableDatabase();
         db.beginTransaction();
         try {
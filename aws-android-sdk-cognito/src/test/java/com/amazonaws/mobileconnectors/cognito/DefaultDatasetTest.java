@@ -0,0 +1,224 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.auth.CognitoCachingCredentialsProvider;
+import com.amazonaws.mobileconnectors.cognito.Dataset.SyncCallback;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage.DatasetUpdates;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage.DatasetUpdatesHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DefaultDatasetTest {
+
+    private static final String IDENTITY_ID = "us-east-1:identity";
+    private static final String DATASET_NAME = "dataset";
+
+    /**
+     * Records the outcome of a synchronization, resolving conflicts or not.
+     */
+    private static class RecordingCallback implements SyncCallback {
+        final boolean resolveConflicts;
+        List<SyncConflict> conflicts;
+        List<Record> updatedRecords;
+        DataStorageException failure;
+
+        RecordingCallback(boolean resolveConflicts) {
+            this.resolveConflicts = resolveConflicts;
+        }
+
+        @Override
+        public void onSuccess(Dataset dataset, List<Record> updatedRecords) {
+            this.updatedRecords = updatedRecords;
+        }
+
+        @Override
+        public boolean onConflict(Dataset dataset, List<SyncConflict> conflicts) {
+            this.conflicts = conflicts;
+            return resolveConflicts;
+        }
+
+        @Override
+        public boolean onDatasetDeleted(Dataset dataset, String datasetName) {
+            return false;
+        }
+
+        @Override
+        public boolean onDatasetsMerged(Dataset dataset, List<String> datasetNames) {
+            return false;
+        }
+
+        @Override
+        public void onFailure(DataStorageException dse) {
+            failure = dse;
+        }
+    }
+
+    /**
+     * A page of updates of the dataset.
+     */
+    private static DatasetUpdates page(final long syncCount, final Record... records) {
+        return new DatasetUpdates() {
+            @Override
+            public String getDatasetName() {
+                return DATASET_NAME;
+            }
+
+            @Override
+            public List<Record> getRecords() {
+                return Arrays.asList(records);
+            }
+
+            @Override
+            public String getSyncSessionToken() {
+                return "token";
+            }
+
+            @Override
+            public long getSyncCount() {
+                return syncCount;
+            }
+
+            @Override
+            public boolean isExists() {
+                return true;
+            }
+
+            @Override
+            public boolean isDeleted() {
+                return false;
+            }
+
+            @Override
+            public List<String> getMergedDatasetNameList() {
+                return Collections.emptyList();
+            }
+        };
+    }
+
+    private static Record record(String key, String value, long syncCount, boolean modified) {
+        return new Record.Builder(key).value(value).syncCount(syncCount).modified(modified)
+                .build();
+    }
+
+    private LocalStorage local;
+    private RemoteDataStorage remote;
+    private DefaultDataset dataset;
+
+    @Before
+    public void setup() {
+        CognitoCachingCredentialsProvider provider = mock(CognitoCachingCredentialsProvider.class);
+        when(provider.getCachedIdentityId()).thenReturn(IDENTITY_ID);
+        when(provider.getIdentityId()).thenReturn(IDENTITY_ID);
+        local = mock(LocalStorage.class);
+        remote = mock(RemoteDataStorage.class);
+        dataset = new DefaultDataset(Robolectric.application, DATASET_NAME, provider, local,
+                remote);
+
+        // key1 was changed locally, and is changed remotely in the second
+        // page of updates
+        when(local.getLastSyncCount(IDENTITY_ID, DATASET_NAME)).thenReturn(1L);
+        when(local.getModifiedRecords(IDENTITY_ID, DATASET_NAME)).thenReturn(
+                Arrays.asList(record("key1", "local", 1, true)));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                DatasetUpdatesHandler handler = (DatasetUpdatesHandler) invocation
+                        .getArguments()[2];
+                if (handler.handleUpdates(page(3, record("key0", "remote", 2, false)))) {
+                    handler.handleUpdates(page(3, record("key1", "remote", 3, false),
+                            record("key2", "remote", 3, false)));
+                }
+                return null;
+            }
+        }).when(remote).listUpdates(eq(DATASET_NAME), eq(1L), any(DatasetUpdatesHandler.class));
+        when(remote.putRecords(eq(DATASET_NAME), anyListOf(Record.class), anyString(),
+                anyString())).thenReturn(Arrays.asList(record("key1", "local", 4, false)));
+    }
+
+    @Test
+    public void cancellingOnConflictSavesAndPushesNothing() {
+        RecordingCallback callback = new RecordingCallback(false);
+        assertFalse(dataset.synchronizeInternal(callback, 3));
+
+        assertEquals(1, callback.conflicts.size());
+        assertEquals("key1", callback.conflicts.get(0).getKey());
+        assertNull(callback.updatedRecords);
+        verify(local, never()).putRecords(anyString(), anyString(), anyListOf(Record.class));
+        verify(local, never()).updateLastSyncCount(anyString(), anyString(), anyLong());
+        verify(remote, never()).putRecords(anyString(), anyListOf(Record.class), anyString(),
+                anyString());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void resolvingConflictsSavesRemoteRecordsOfAllPagesAtOnce() {
+        RecordingCallback callback = new RecordingCallback(true);
+        assertTrue(dataset.synchronizeInternal(callback, 3));
+
+        ArgumentCaptor<List> saved = ArgumentCaptor.forClass(List.class);
+        verify(local).putRecords(eq(IDENTITY_ID), eq(DATASET_NAME), saved.capture());
+        List<String> savedKeys = new ArrayList<String>();
+        for (Object record : saved.getValue()) {
+            savedKeys.add(((Record) record).getKey());
+        }
+        assertEquals(Arrays.asList("key0", "key2"), savedKeys);
+        verify(local).updateLastSyncCount(IDENTITY_ID, DATASET_NAME, 3);
+
+        // the local change is pushed once the updates are saved, and the
+        // sync count moves past it
+        verify(remote).putRecords(eq(DATASET_NAME), anyListOf(Record.class), eq("token"),
+                anyString());
+        verify(local).updateLastSyncCount(IDENTITY_ID, DATASET_NAME, 4);
+        assertEquals(2, callback.updatedRecords.size());
+        assertNull(callback.failure);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognitoidentityprovider;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded thread pool shared by the background operations of users and user pools, in place
+ * of a new thread for each call. Threads are created as needed, up to the maximum, and are
+ * reclaimed when idle. Operations beyond the maximum wait for a thread in order.
+ */
+final class CognitoThreadPool {
+
+    /**
+     * Maximum number of threads; operations mostly wait on the network.
+     */
+    private static final int MAX_THREADS = Runtime.getRuntime().availableProcessors() + 1;
+
+    /**
+     * Idle threads are reclaimed after this many seconds.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor EXECUTOR = buildExecutor();
+
+    private CognitoThreadPool() {
+    }
+
+    /**
+     * Runs the task on a thread of the pool.
+     *
+     * @param task      REQUIRED: The task to run.
+     */
+    static void execute(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    private static ThreadPoolExecutor buildExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable,
+                                "CognitoIdentityProvider-" + threadCount.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -86,7 +86,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -200,7 +203,7 @@ public class CognitoUser {
         if (callback == null) {
             throw new CognitoParameterInvalidException("callback is null");
         }
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -223,7 +226,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -280,7 +283,7 @@ public class CognitoUser {
         if (callback == null) {
             throw new CognitoParameterInvalidException("callback is null");
         }
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -303,7 +306,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -362,7 +365,7 @@ public class CognitoUser {
 
         final CognitoUser cognitoUser = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -388,7 +391,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -455,7 +458,7 @@ public class CognitoUser {
         if (callback == null) {
             throw new CognitoParameterInvalidException("callback is null");
         }
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -478,7 +481,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -545,7 +548,7 @@ public class CognitoUser {
 
         final CognitoUser cognitoUser = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -578,7 +581,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -654,9 +657,11 @@ public class CognitoUser {
                 return cipSession;
             } catch (Exception e) {
                 // Could not get new tokens from refresh. Should authenticate user.
-                throw new CognitoNotAuthorizedException("user is not authenticated");
             }
         }
+
+        // The user will be asked to authenticate next; have the SRP keys ready for it.
+        AuthenticationHelper.refillEphemeralKeys();
         throw new CognitoNotAuthorizedException("user is not authenticated");
     }
 
@@ -685,7 +690,7 @@ public class CognitoUser {
 
         final CognitoUser cognitoUser = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -731,7 +736,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -822,7 +827,7 @@ public class CognitoUser {
 
         final CognitoUser cognitoUser = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -856,7 +861,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -938,7 +943,7 @@ public class CognitoUser {
 
         final CognitoUser user = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -962,7 +967,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -1029,7 +1034,7 @@ public class CognitoUser {
         }
         final CognitoUser user = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -1053,7 +1058,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -1122,7 +1127,7 @@ public class CognitoUser {
         }
         final CognitoUser user = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -1147,7 +1152,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -1221,7 +1226,7 @@ public class CognitoUser {
         }
         final CognitoUser user = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -1245,7 +1250,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -1314,7 +1319,7 @@ public class CognitoUser {
         }
         final CognitoUser user = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -1345,7 +1350,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -1415,7 +1420,7 @@ public class CognitoUser {
         }
         final CognitoUser user = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -1439,7 +1444,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -1520,7 +1525,7 @@ public class CognitoUser {
         }
         final CognitoUser user = this;
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -1544,7 +1549,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -1602,7 +1607,7 @@ public class CognitoUser {
         }
         final CognitoUserSession session = this.getCachedSession();
 
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -1625,7 +1630,7 @@ public class CognitoUser {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
@@ -1852,14 +1857,78 @@ public class CognitoUser {
         private String poolName;
 
         public AuthenticationHelper(String userPoolName) {
-            do {
-                a = new BigInteger(EPHEMERAL_KEY_LENGTH, SECURE_RANDOM).mod(N);
-                A = g.modPow(a, N);
-            } while (A.mod(N).equals(BigInteger.ZERO));
+            // Each key pair is used for one authentication only, so it is removed from the pool
+            EphemeralKey ephemeralKey = EPHEMERAL_KEYS.poll();
+            if (ephemeralKey == null) {
+                ephemeralKey = new EphemeralKey();
+            }
+            refillEphemeralKeys();
+            a = ephemeralKey.a;
+            A = ephemeralKey.A;
 
             poolName = userPoolName.split("_", 2)[1];
         }
 
+        /**
+         * A random SRP ephemeral key pair, a and A = g^a.
+         */
+        private static final class EphemeralKey {
+            private final BigInteger a;
+            private final BigInteger A;
+
+            EphemeralKey() {
+                BigInteger privateKey;
+                BigInteger publicKey;
+                do {
+                    privateKey = new BigInteger(EPHEMERAL_KEY_LENGTH, SECURE_RANDOM).mod(N);
+                    publicKey = g.modPow(privateKey, N);
+                } while (publicKey.mod(N).equals(BigInteger.ZERO));
+                a = privateKey;
+                A = publicKey;
+            }
+        }
+
+        /**
+         * Number of ephemeral key pairs computed ahead of authentication.
+         */
+        private static final int EPHEMERAL_KEY_POOL_SIZE = 2;
+
+        /**
+         * Ephemeral key pairs computed ahead of authentication, so that the modular
+         * exponentiation is not part of the latency of authentication.
+         */
+        private static final Queue<EphemeralKey> EPHEMERAL_KEYS =
+                new ConcurrentLinkedQueue<EphemeralKey>();
+
+        /**
+         * Number of ephemeral key pairs being computed in background.
+         */
+        private static final AtomicInteger PENDING_EPHEMERAL_KEYS = new AtomicInteger();
+
+        /**
+         * Computes ephemeral key pairs in background until the pool is full.
+         */
+        static void refillEphemeralKeys() {
+            while (true) {
+                int pending = PENDING_EPHEMERAL_KEYS.get();
+                if (EPHEMERAL_KEYS.size() + pending >= EPHEMERAL_KEY_POOL_SIZE) {
+                    return;
+                }
+                if (PENDING_EPHEMERAL_KEYS.compareAndSet(pending, pending + 1)) {
+                    CognitoThreadPool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                EPHEMERAL_KEYS.offer(new EphemeralKey());
+                            } finally {
+                                PENDING_EPHEMERAL_KEYS.decrementAndGet();
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
         public BigInteger geta() {
             return a;
         }
@@ -183,7 +183,7 @@ public class CognitoUserPool {
                                          final CognitoUserAttributes userAttributes,
                                          final Map<String, String> validationData,
                                          final SignUpHandler callback) {
-        new Thread(new Runnable() {
+        CognitoThreadPool.execute(new Runnable() {
             @Override
             public void run() {
                 Handler handler = new Handler(context.getMainLooper());
@@ -209,7 +209,7 @@ public class CognitoUserPool {
                 }
                 handler.post(returnCallback);
             }
-        }).start();
+        });
     }
 
     /**
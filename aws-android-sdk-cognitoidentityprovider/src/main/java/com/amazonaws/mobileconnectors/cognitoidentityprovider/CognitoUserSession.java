@@ -21,8 +21,6 @@ import com.amazonaws.mobileconnectors.cognitoidentityprovider.tokens.CognitoAcce
 import com.amazonaws.mobileconnectors.cognitoidentityprovider.tokens.CognitoIdToken;
 import com.amazonaws.mobileconnectors.cognitoidentityprovider.tokens.CognitoRefreshToken;
 
-import java.util.Date;
-
 /**
  * This wraps all Cognito tokens for a user.
  */
@@ -42,6 +40,12 @@ public class CognitoUserSession {
      */
     private CognitoRefreshToken refreshToken;
 
+    /**
+     * When the first of the access and id tokens expires, in milliseconds since epoch. Parsed
+     * from the tokens on the first validity check, {@code 0} if either has no valid expiration.
+     */
+    private volatile long expirationMillis = -1;
+
     /**
      * Constructs a new Cognito session.
      *
@@ -88,13 +92,25 @@ public class CognitoUserSession {
      * @return boolean to indicate if the access and id tokens have not expired.
      */
     public boolean isValid() {
-        Date currentTimeStamp = new Date();
-        
-        try {
-            return (currentTimeStamp.before(idToken.getExpiration())
-                    & currentTimeStamp.before(accessToken.getExpiration()));
-        } catch (Exception e) {
-            return false;
+        return System.currentTimeMillis() < getExpirationMillis();
+    }
+
+    /**
+     * Returns when the first of the access and id tokens expires, parsing the tokens only once.
+     *
+     * @return expiration in milliseconds since epoch, or {@code 0} if it can't be determined.
+     */
+    private long getExpirationMillis() {
+        long expiration = expirationMillis;
+        if (expiration < 0) {
+            try {
+                expiration = Math.min(idToken.getExpiration().getTime(),
+                        accessToken.getExpiration().getTime());
+            } catch (Exception e) {
+                expiration = 0;
+            }
+            expirationMillis = expiration;
         }
+        return expiration;
     }
  }
@@ -41,6 +41,8 @@ import org.apache.commons.logging.LogFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -57,6 +59,13 @@ public abstract class AmazonWebServiceClient {
     private static final Log log =
             LogFactory.getLog(AmazonWebServiceClient.class);
 
+    /**
+     * The computed service names by client class, so that the class name of
+     * each kind of client is only inspected by the first client constructed.
+     */
+    private static final Map<Class<?>, String> SERVICE_NAMES =
+            new ConcurrentHashMap<Class<?>, String>();
+
     /**
      * The service endpoint to which this client will send requests.
      * <p>
@@ -684,14 +693,17 @@ public abstract class AmazonWebServiceClient {
      * naming convention can choose to return whatever service name as needed.
      */
     protected String getServiceNameIntern() {
-        if (serviceName == null) {
-            synchronized (this) {
-                if (serviceName == null) {
-                    return serviceName = computeServiceName();
-                }
+        String name = serviceName;
+        if (name == null) {
+            Class<?> clientClass = getClass();
+            name = SERVICE_NAMES.get(clientClass);
+            if (name == null) {
+                name = computeServiceName();
+                SERVICE_NAMES.put(clientClass, name);
             }
+            serviceName = name;
         }
-        return serviceName;
+        return name;
     }
 
     /**
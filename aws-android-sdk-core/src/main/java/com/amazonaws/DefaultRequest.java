@@ -17,6 +17,7 @@ package com.amazonaws;
 
 import com.amazonaws.http.HttpMethodName;
 import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.EncodedQueryParameters;
 
 import java.io.InputStream;
 import java.net.URI;
@@ -44,6 +45,9 @@ public class DefaultRequest<T> implements Request<T> {
      */
     private Map<String, String> parameters = new LinkedHashMap<String, String>();
 
+    /** The last encoding of the parameters, reused while they don't change */
+    private EncodedQueryParameters encodedParameters;
+
     /** Map of the headers included in this request */
     private Map<String, String> headers = new HashMap<String, String>();
 
@@ -157,6 +161,20 @@ public class DefaultRequest<T> implements Request<T> {
         return parameters;
     }
 
+    /**
+     * Returns the URL-encoded parameters of this request. The encoding is
+     * kept and reused until the parameters change, so that signing and
+     * sending the request, and retrying it, encode each parameter once.
+     *
+     * @return the encoded parameters of this request
+     */
+    public EncodedQueryParameters getEncodedParameters() {
+        if (encodedParameters == null || !encodedParameters.isEncodingOf(parameters)) {
+            encodedParameters = EncodedQueryParameters.encode(parameters, encodedParameters);
+        }
+        return encodedParameters;
+    }
+
     /**
      * @see com.amazonaws.Request#withParameter(java.lang.String,
      *      java.lang.String)
@@ -47,10 +47,16 @@ public abstract class AWSAbstractCognitoIdentityProvider implements AWSCognitoId
      * The data structures that won't vary between cognito and developer
      * providers
      */
-    protected String identityId;
+    protected volatile String identityId;
     private final String accountId;
     private final String identityPoolId;
-    protected String token;
+    protected volatile String token;
+
+    /**
+     * Held while fetching the identityId or token, so that concurrent callers
+     * share one request instead of each sending their own
+     */
+    private final Object fetchLock = new Object();
 
     protected List<IdentityChangedListener> listeners;
     protected Map<String, String> loginsMap;
@@ -162,17 +168,22 @@ public abstract class AWSAbstractCognitoIdentityProvider implements AWSCognitoId
     @Override
     public String getIdentityId() {
         if (identityId == null) {
-            GetIdRequest getIdRequest = new GetIdRequest()
-                    .withAccountId(getAccountId())
-                    .withIdentityPoolId(getIdentityPoolId())
-                    .withLogins(loginsMap);
-
-            appendUserAgent(getIdRequest, getUserAgent());
-
-            GetIdResult getIdResult = cib.getId(getIdRequest);
-
-            if (getIdResult.getIdentityId() != null) {
-                identityChanged(getIdResult.getIdentityId());
+            synchronized (fetchLock) {
+                // another caller may have got it while this one was waiting
+                if (identityId == null) {
+                    GetIdRequest getIdRequest = new GetIdRequest()
+                            .withAccountId(getAccountId())
+                            .withIdentityPoolId(getIdentityPoolId())
+                            .withLogins(loginsMap);
+
+                    appendUserAgent(getIdRequest, getUserAgent());
+
+                    GetIdResult getIdResult = cib.getId(getIdRequest);
+
+                    if (getIdResult.getIdentityId() != null) {
+                        identityChanged(getIdResult.getIdentityId());
+                    }
+                }
             }
         }
         return identityId;
@@ -189,18 +200,23 @@ public abstract class AWSAbstractCognitoIdentityProvider implements AWSCognitoId
     @Override
     public String getToken() {
         if (this.token == null) {
-            GetOpenIdTokenRequest getTokenRequest = new GetOpenIdTokenRequest()
-                    .withIdentityId(getIdentityId()).withLogins(loginsMap);
-
-            appendUserAgent(getTokenRequest, getUserAgent());
-
-            GetOpenIdTokenResult getTokenResult = cib
-                    .getOpenIdToken(getTokenRequest);
-
-            if (!getTokenResult.getIdentityId().equals(getIdentityId())) {
-                identityChanged(getTokenResult.getIdentityId());
+            synchronized (fetchLock) {
+                // another caller may have got it while this one was waiting
+                if (this.token == null) {
+                    GetOpenIdTokenRequest getTokenRequest = new GetOpenIdTokenRequest()
+                            .withIdentityId(getIdentityId()).withLogins(loginsMap);
+
+                    appendUserAgent(getTokenRequest, getUserAgent());
+
+                    GetOpenIdTokenResult getTokenResult = cib
+                            .getOpenIdToken(getTokenRequest);
+
+                    if (!getTokenResult.getIdentityId().equals(getIdentityId())) {
+                        identityChanged(getTokenResult.getIdentityId());
+                    }
+                    this.token = getTokenResult.getToken();
+                }
             }
-            this.token = getTokenResult.getToken();
         }
         return token;
     }
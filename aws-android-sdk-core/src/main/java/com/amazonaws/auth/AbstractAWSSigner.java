@@ -197,7 +197,7 @@ public abstract class AbstractAWSSigner implements Signer {
         if (HttpUtils.usePayloadForQueryParameters(request))
             return "";
         else
-            return this.getCanonicalizedQueryString(request.getParameters());
+            return HttpUtils.getEncodedParameters(request).getCanonicalQueryString();
     }
 
     /**
@@ -208,11 +208,7 @@ public abstract class AbstractAWSSigner implements Signer {
      */
     protected byte[] getBinaryRequestPayload(Request<?> request) {
         if (HttpUtils.usePayloadForQueryParameters(request)) {
-            String encodedParameters = HttpUtils.encodeParameters(request);
-            if (encodedParameters == null)
-                return new byte[0];
-
-            return encodedParameters.getBytes(UTF8);
+            return HttpUtils.getEncodedParameters(request).getQueryStringBytes();
         }
 
         return getBinaryRequestPayloadWithoutQueryParams(request);
@@ -275,12 +271,8 @@ public abstract class AbstractAWSSigner implements Signer {
 
     protected InputStream getBinaryRequestPayloadStream(Request<?> request) {
         if (HttpUtils.usePayloadForQueryParameters(request)) {
-            String encodedParameters = HttpUtils.encodeParameters(request);
-            if (encodedParameters == null)
-                return new ByteArrayInputStream(new byte[0]);
-
             return new ByteArrayInputStream(
-                    encodedParameters.getBytes(UTF8));
+                    HttpUtils.getEncodedParameters(request).getQueryStringBytes());
         }
 
         return getBinaryRequestPayloadStreamWithoutQueryParams(request);
@@ -77,6 +77,18 @@ public class CognitoCredentialsProvider implements AWSCredentialsProvider {
 
     protected boolean useEnhancedFlow;
 
+    /**
+     * Number of sessions that have been started, read without holding the lock
+     * to coalesce concurrent refreshes
+     */
+    private volatile int sessionsStarted;
+
+    /**
+     * Number of the last session that was successfully started, as counted by
+     * sessionsStarted. Guarded by this.
+     */
+    private int lastSessionStarted;
+
     /**
      * Constructs a new {@link CognitoCredentialsProvider}, which will use the
      * specified Amazon Cognito identity pool to make a request, using the basic
@@ -362,12 +374,13 @@ public class CognitoCredentialsProvider implements AWSCredentialsProvider {
     /**
      * If the current session has expired/credentials are invalid, a new session
      * is started, establishing the credentials. In either case, those
-     * credentials are returned
+     * credentials are returned. Concurrent callers wait for, and share, the
+     * session started by the first of them.
      */
     @Override
-    public AWSSessionCredentials getCredentials() {
+    public synchronized AWSSessionCredentials getCredentials() {
         if (needsNewSession()) {
-            startSession();
+            coalescedStartSession();
         }
         return sessionCredentials;
     }
@@ -498,9 +511,30 @@ public class CognitoCredentialsProvider implements AWSCredentialsProvider {
         return identityProvider.getLogins();
     }
 
+    /**
+     * Starts a new session. If another session was started after this call,
+     * while it was waiting for a concurrent refresh, that session is used
+     * instead of starting one more.
+     */
     @Override
     public void refresh() {
+        int sessionsSeen = sessionsStarted;
+        synchronized (this) {
+            if (lastSessionStarted > sessionsSeen) {
+                return;
+            }
+            coalescedStartSession();
+        }
+    }
+
+    /**
+     * Starts a new session and records it as the last session started. Must be
+     * called while holding the lock of this provider.
+     */
+    private void coalescedStartSession() {
+        int session = ++sessionsStarted;
         startSession();
+        lastSessionStarted = session;
     }
 
     /**
@@ -17,6 +17,7 @@ package com.amazonaws.auth;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.Request;
+import com.amazonaws.util.HttpUtils;
 
 import java.net.URI;
 import java.text.SimpleDateFormat;
@@ -117,13 +118,12 @@ public class QueryStringSigner extends AbstractAWSSigner implements Signer {
      */
     private String calculateStringToSignV2(Request<?> request) throws AmazonClientException {
         URI endpoint = request.getEndpoint();
-        Map<String, String> parameters = request.getParameters();
 
         StringBuilder data = new StringBuilder();
         data.append("POST").append("\n");
         data.append(getCanonicalizedEndpoint(endpoint)).append("\n");
         data.append(getCanonicalizedResourcePath(request)).append("\n");
-        data.append(getCanonicalizedQueryString(parameters));
+        data.append(HttpUtils.getEncodedParameters(request).getCanonicalQueryString());
         return data.toString();
     }
 
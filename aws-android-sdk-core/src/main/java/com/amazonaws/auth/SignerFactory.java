@@ -112,17 +112,19 @@ public final class SignerFactory {
         Class<? extends Signer> signerClass = SIGNERS.get(signerType);
         if (signerClass == null)
             throw new IllegalArgumentException();
-        Signer signer;
-        try {
-            signer = signerClass.newInstance();
-        } catch (InstantiationException ex) {
-            throw new IllegalStateException(
-                    "Cannot create an instance of " + signerClass.getName(),
-                    ex);
-        } catch (IllegalAccessException ex) {
-            throw new IllegalStateException(
-                    "Cannot create an instance of " + signerClass.getName(),
-                    ex);
+        Signer signer = createStandardSigner(signerClass);
+        if (signer == null) {
+            try {
+                signer = signerClass.newInstance();
+            } catch (InstantiationException ex) {
+                throw new IllegalStateException(
+                        "Cannot create an instance of " + signerClass.getName(),
+                        ex);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(
+                        "Cannot create an instance of " + signerClass.getName(),
+                        ex);
+            }
         }
 
         if (signer instanceof ServiceAwareSigner) {
@@ -130,4 +132,22 @@ public final class SignerFactory {
         }
         return signer;
     }
+
+    /**
+     * Returns a new instance of the given class if it is one of the standard
+     * signers, or null otherwise. Every client resolves a signer when it is
+     * constructed, so the standard ones are created directly rather than
+     * reflectively.
+     */
+    private static Signer createStandardSigner(Class<? extends Signer> signerClass) {
+        if (signerClass == AWS4Signer.class)
+            return new AWS4Signer();
+        if (signerClass == QueryStringSigner.class)
+            return new QueryStringSigner();
+        if (signerClass == AWS3Signer.class)
+            return new AWS3Signer();
+        if (signerClass == NoOpSigner.class)
+            return new NoOpSigner();
+        return null;
+    }
 }
@@ -384,6 +384,7 @@ public class AmazonHttpClient {
                     log.debug("Redirecting to: " + redirectedLocation);
                     // set redirect uri and retry
                     redirectedURI = URI.create(redirectedLocation);
+                    executionContext.setRedirectedURI(redirectedURI);
                     awsRequestMetrics.addProperty(Field.StatusCode, httpResponse.getStatusCode());
                     awsRequestMetrics.addProperty(Field.RedirectLocation, redirectedLocation);
                     awsRequestMetrics.addProperty(Field.AWSRequestID, null);
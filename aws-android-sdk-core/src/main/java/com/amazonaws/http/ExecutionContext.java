@@ -37,6 +37,9 @@ public class ExecutionContext {
      */
     private AWSCredentials credentials;
 
+    /** The location the request was last redirected to, if any. */
+    private URI redirectedURI;
+
     /** For testing purposes. */
     @Deprecated
     public ExecutionContext(boolean isMetricEnabled) {
@@ -114,4 +117,20 @@ public class ExecutionContext {
     public void setCredentials(AWSCredentials credentials) {
         this.credentials = credentials;
     }
+
+    /**
+     * Returns the location the request was last redirected to by a temporary
+     * redirect, or null if the request was not redirected. Clients can use it
+     * to send subsequent requests to the right location in the first place.
+     */
+    public URI getRedirectedURI() {
+        return redirectedURI;
+    }
+
+    /**
+     * Records the location the request was redirected to.
+     */
+    public void setRedirectedURI(URI redirectedURI) {
+        this.redirectedURI = redirectedURI;
+    }
 }
@@ -18,6 +18,7 @@ package com.amazonaws.http;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.Request;
+import com.amazonaws.util.EncodedQueryParameters;
 import com.amazonaws.util.HttpUtils;
 import com.amazonaws.util.StringUtils;
 
@@ -55,7 +56,8 @@ public class HttpRequestFactory {
          * into "/%2F"
          */
         String uri = HttpUtils.appendUri(endpoint.toString(), request.getResourcePath(), true);
-        String encodedParams = HttpUtils.encodeParameters(request);
+        EncodedQueryParameters encodedParams = request.getParameters().isEmpty()
+                ? null : HttpUtils.getEncodedParameters(request);
         HttpMethodName method = request.getHttpMethod();
 
         /*
@@ -67,7 +69,7 @@ public class HttpRequestFactory {
         boolean requestIsPost = method == HttpMethodName.POST;
         boolean putParamsInUri = !requestIsPost || requestHasNoPayload;
         if (encodedParams != null && putParamsInUri) {
-            uri += "?" + encodedParams;
+            uri += "?" + encodedParams.getQueryString();
         }
 
         // Configure headers from request. Additional headers will be added
@@ -93,7 +95,7 @@ public class HttpRequestFactory {
              * POST requests, but we can't do that for S3.
              */
             if (request.getContent() == null && encodedParams != null) {
-                byte[] contentBytes = encodedParams.getBytes(StringUtils.UTF8);
+                byte[] contentBytes = encodedParams.getQueryStringBytes();
                 is = new ByteArrayInputStream(contentBytes);
                 headers.put("Content-Length", String.valueOf(contentBytes.length));
             }
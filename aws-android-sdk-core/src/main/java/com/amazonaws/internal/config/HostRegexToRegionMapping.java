@@ -20,6 +20,7 @@ import java.util.regex.PatternSyntaxException;
 
 public class HostRegexToRegionMapping {
     private final String hostNameRegex;
+    private final Pattern hostNamePattern;
     private final String regionName;
 
     public HostRegexToRegionMapping(
@@ -29,8 +30,9 @@ public class HostRegexToRegionMapping {
                     "Invalid HostRegexToRegionMapping configuration: " +
                             "hostNameRegex must be non-empty");
         }
+        Pattern hostNamePattern;
         try {
-            Pattern.compile(hostNameRegex);
+            hostNamePattern = Pattern.compile(hostNameRegex);
         } catch (PatternSyntaxException e) {
             throw new IllegalArgumentException(
                     "Invalid HostRegexToRegionMapping configuration: " +
@@ -43,6 +45,7 @@ public class HostRegexToRegionMapping {
                             "regionName must be non-empty");
         }
         this.hostNameRegex = hostNameRegex;
+        this.hostNamePattern = hostNamePattern;
         this.regionName = regionName;
     }
 
@@ -50,6 +53,14 @@ public class HostRegexToRegionMapping {
         return hostNameRegex;
     }
 
+    /**
+     * Returns whether the given host name matches the host name regex of this
+     * mapping, without recompiling the regex.
+     */
+    public boolean matches(String hostName) {
+        return hostNamePattern.matcher(hostName).matches();
+    }
+
     public String getRegionName() {
         return regionName;
     }
@@ -27,15 +27,23 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utilities for working with regions.
  */
 public class RegionUtils {
 
-    private static List<Region> regions;
+    /**
+     * The loaded regions, and the same regions indexed by name. Both are
+     * assigned together by {@link #init()} and only read afterwards, so lookups
+     * need no lock once the regions are loaded.
+     */
+    private static volatile List<Region> regions;
+    private static volatile Map<String, Region> regionsByName;
 
     // Use the same logger as the http client
     private static final Log log = LogFactory.getLog("com.amazonaws.request");
@@ -43,12 +51,17 @@ public class RegionUtils {
     /**
      * Returns a list of the available AWS regions.
      */
-    public synchronized static List<Region> getRegions() {
-        if (regions == null) {
-            init();
+    public static List<Region> getRegions() {
+        List<Region> result = regions;
+        if (result == null) {
+            synchronized (RegionUtils.class) {
+                if (regions == null) {
+                    init();
+                }
+                result = regions;
+            }
         }
-
-        return regions;
+        return result;
     }
 
     /**
@@ -56,7 +69,7 @@ public class RegionUtils {
      *
      * @see ServiceAbbreviations
      */
-    public synchronized static List<Region> getRegionsForService(String serviceAbbreviation) {
+    public static List<Region> getRegionsForService(String serviceAbbreviation) {
         List<Region> regions = new LinkedList<Region>();
         for (Region r : getRegions()) {
             if (r.isServiceSupported(serviceAbbreviation)) {
@@ -71,13 +84,8 @@ public class RegionUtils {
      * null.
      */
     public static Region getRegion(String regionName) {
-        for (Region r : getRegions()) {
-            if (r.getName().equals(regionName)) {
-                return r;
-            }
-        }
-
-        return null;
+        getRegions();
+        return regionsByName.get(regionName);
     }
 
     /**
@@ -158,7 +166,7 @@ public class RegionUtils {
     private static void initRegions(InputStream regionsFile) {
         try {
             RegionMetadataParser parser = new RegionMetadataParser();
-            regions = parser.parseRegionMetadata(regionsFile);
+            setRegions(parser.parseRegionMetadata(regionsFile));
         } catch (Exception e) {
             log.warn("Failed to parse regional endpoints", e);
         }
@@ -172,7 +180,22 @@ public class RegionUtils {
         if (log.isDebugEnabled()) {
             log.debug("Initializing the regions with default regions");
         }
-        regions = RegionDefaults.getRegions();
+        setRegions(RegionDefaults.getRegions());
+    }
+
+    /**
+     * Indexes the given regions by name and publishes them. The first of
+     * several regions with the same name wins, as with a linear search.
+     */
+    private static void setRegions(List<Region> loaded) {
+        Map<String, Region> byName = new HashMap<String, Region>();
+        for (Region region : loaded) {
+            if (!byName.containsKey(region.getName())) {
+                byName.put(region.getName(), region);
+            }
+        }
+        regionsByName = byName;
+        regions = loaded;
     }
 
     /**
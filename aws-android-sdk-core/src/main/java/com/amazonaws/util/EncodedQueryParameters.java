@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * An immutable, URL-encoded snapshot of the parameters of a request. Each
+ * parameter name and value is encoded once, with
+ * {@link HttpUtils#urlEncode(String, boolean)}, and the same encoding is used
+ * for the query string or form body of the request and for the canonical query
+ * string that is signed.
+ * <p>
+ * The snapshot remembers the strings it was made from, so that a cached
+ * snapshot can be checked against the current parameters of a request with
+ * {@link #isEncodingOf(Map)} without encoding them again.
+ */
+public final class EncodedQueryParameters {
+
+    private final String[] names;
+    private final String[] values;
+    private final String[] encodedNames;
+    private final String[] encodedValues;
+
+    private String queryString;
+    private String canonicalQueryString;
+
+    private EncodedQueryParameters(int size) {
+        names = new String[size];
+        values = new String[size];
+        encodedNames = new String[size];
+        encodedValues = new String[size];
+    }
+
+    /**
+     * Encodes the given parameters.
+     *
+     * @param parameters the parameters in the order they are to be sent; a
+     *            null value is sent as an empty one
+     * @return the encoded parameters
+     */
+    public static EncodedQueryParameters encode(Map<String, String> parameters) {
+        return encode(parameters, null);
+    }
+
+    /**
+     * Encodes the given parameters, reusing the encoding of a previous
+     * snapshot for the parameters that are unchanged since, such as when a
+     * signer adds parameters to ones that have already been encoded.
+     *
+     * @param parameters the parameters in the order they are to be sent; a
+     *            null value is sent as an empty one
+     * @param previous an earlier encoding of the parameters, or null
+     * @return the encoded parameters
+     */
+    public static EncodedQueryParameters encode(Map<String, String> parameters,
+            EncodedQueryParameters previous) {
+        EncodedQueryParameters encoded = new EncodedQueryParameters(parameters.size());
+        int i = 0;
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            String name = entry.getKey();
+            String value = entry.getValue();
+            encoded.names[i] = name;
+            encoded.values[i] = value;
+            if (previous != null && i < previous.names.length
+                    && previous.names[i] == name && previous.values[i] == value) {
+                encoded.encodedNames[i] = previous.encodedNames[i];
+                encoded.encodedValues[i] = previous.encodedValues[i];
+            } else {
+                encoded.encodedNames[i] = HttpUtils.urlEncode(name, false);
+                encoded.encodedValues[i] = HttpUtils.urlEncode(value, false);
+            }
+            i++;
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns whether these are the encoded parameters of the given map, that
+     * is, the map holds the very same names and values, in the same order, as
+     * when these were encoded.
+     */
+    public boolean isEncodingOf(Map<String, String> parameters) {
+        if (parameters.size() != names.length) {
+            return false;
+        }
+        int i = 0;
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            if (entry.getKey() != names[i] || entry.getValue() != values[i]) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of parameters.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the parameters joined in their original order, as sent in a
+     * query string or form body.
+     */
+    public String getQueryString() {
+        if (queryString == null) {
+            queryString = join(null);
+        }
+        return queryString;
+    }
+
+    /**
+     * Returns the {@link #getQueryString() query string} as bytes, for a form
+     * body. The encoded parameters are ASCII, so no charset encoder is needed.
+     */
+    public byte[] getQueryStringBytes() {
+        String query = getQueryString();
+        int length = query.length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) query.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the parameters sorted by encoded name and joined, as signed in
+     * the canonical query string of a request.
+     */
+    public String getCanonicalQueryString() {
+        if (canonicalQueryString == null) {
+            Integer[] order = new Integer[names.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer left, Integer right) {
+                    return encodedNames[left].compareTo(encodedNames[right]);
+                }
+            });
+            canonicalQueryString = join(order);
+        }
+        return canonicalQueryString;
+    }
+
+    private String join(Integer[] order) {
+        int length = 0;
+        for (int i = 0; i < names.length; i++) {
+            length += encodedNames[i].length() + encodedValues[i].length() + 2;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < names.length; i++) {
+            int index = order == null ? i : order[i];
+            if (i > 0) {
+                builder.append('&');
+            }
+            builder.append(encodedNames[index]).append('=').append(encodedValues[index]);
+        }
+        return builder.toString();
+    }
+}
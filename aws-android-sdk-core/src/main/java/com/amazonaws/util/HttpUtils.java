@@ -16,50 +16,47 @@
 package com.amazonaws.util;
 
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.DefaultRequest;
 import com.amazonaws.Request;
 import com.amazonaws.http.HttpMethodName;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
-import java.net.URLEncoder;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class HttpUtils {
 
-    private static final String DEFAULT_ENCODING = "UTF-8";
-
     /**
-     * Regex which matches any of the sequences that we need to fix up after
-     * URLEncoder.encode().
+     * Whether an ASCII character is left as is by
+     * {@link #urlEncode(String, boolean)}: the unreserved characters of RFC
+     * 3986.
      */
-    private static final Pattern ENCODED_CHARACTERS_PATTERN;
+    private static final boolean[] UNRESERVED = new boolean[128];
     static {
-        StringBuilder pattern = new StringBuilder();
-
-        pattern
-                .append(Pattern.quote("+"))
-                .append("|")
-                .append(Pattern.quote("*"))
-                .append("|")
-                .append(Pattern.quote("%7E"))
-                .append("|")
-                .append(Pattern.quote("%2F"));
-
-        ENCODED_CHARACTERS_PATTERN = Pattern.compile(pattern.toString());
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        UNRESERVED['-'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['~'] = true;
     }
 
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
     /**
-     * Encode a string for use in the path of a URL; uses URLEncoder.encode,
-     * (which encodes a string for use in the query portion of a URL), then
-     * applies some postfilters to fix things up per the RFC. Can optionally
-     * handle strings which are meant to encode a path (ie include '/'es which
-     * should NOT be escaped).
+     * Encode a string for use in the path of a URL, per RFC 3986: everything
+     * but the unreserved characters is percent-encoded as UTF-8. Can
+     * optionally handle strings which are meant to encode a path (ie include
+     * '/'es which should NOT be escaped).
      *
      * @param value the value to encode
      * @param path true if the value is intended to represent a path
@@ -70,34 +67,50 @@ public class HttpUtils {
             return "";
         }
 
-        try {
-            String encoded = URLEncoder.encode(value, DEFAULT_ENCODING);
-
-            Matcher matcher = ENCODED_CHARACTERS_PATTERN.matcher(encoded);
-            StringBuffer buffer = new StringBuffer(encoded.length());
-
-            while (matcher.find()) {
-                String replacement = matcher.group(0);
+        // Most values need no encoding at all
+        int length = value.length();
+        int i = 0;
+        while (i < length && isUnreserved(value.charAt(i), path)) {
+            i++;
+        }
+        if (i == length) {
+            return value;
+        }
 
-                if ("+".equals(replacement)) {
-                    replacement = "%20";
-                } else if ("*".equals(replacement)) {
-                    replacement = "%2A";
-                } else if ("%7E".equals(replacement)) {
-                    replacement = "~";
-                } else if (path && "%2F".equals(replacement)) {
-                    replacement = "/";
+        StringBuilder buffer = new StringBuilder(length + 16);
+        buffer.append(value, 0, i);
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (isUnreserved(c, path)) {
+                buffer.append(c);
+            } else if (c < 0x80) {
+                appendEscaped(buffer, c);
+            } else {
+                // Encode the rest as UTF-8, which replaces malformed
+                // surrogates with '?' as URLEncoder does
+                byte[] bytes = value.substring(i).getBytes(StringUtils.UTF8);
+                for (byte b : bytes) {
+                    int octet = b & 0xFF;
+                    if (octet < 0x80 && isUnreserved((char) octet, path)) {
+                        buffer.append((char) octet);
+                    } else {
+                        appendEscaped(buffer, octet);
+                    }
                 }
-
-                matcher.appendReplacement(buffer, replacement);
+                break;
             }
+        }
+        return buffer.toString();
+    }
 
-            matcher.appendTail(buffer);
-            return buffer.toString();
+    private static boolean isUnreserved(char c, boolean path) {
+        return c < 0x80 && (UNRESERVED[c] || (path && c == '/'));
+    }
 
-        } catch (UnsupportedEncodingException ex) {
-            throw new RuntimeException(ex);
-        }
+    private static void appendEscaped(StringBuilder buffer, int octet) {
+        buffer.append('%')
+                .append(HEX_DIGITS[octet >> 4])
+                .append(HEX_DIGITS[octet & 0xF]);
     }
 
     /**
@@ -142,25 +155,22 @@ public class HttpUtils {
         if (request.getParameters().isEmpty()) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
-        boolean first = true;
-        try {
-            for (Entry<String, String> entry : request.getParameters().entrySet()) {
-                String encodedName = URLEncoder.encode(entry.getKey(), DEFAULT_ENCODING);
-                String value = entry.getValue();
-                String encodedValue = value == null ? "" : URLEncoder.encode(value,
-                        DEFAULT_ENCODING);
-                if (!first) {
-                    sb.append("&");
-                } else {
-                    first = false;
-                }
-                sb.append(encodedName).append("=").append(encodedValue);
-            }
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalArgumentException(e);
+        return getEncodedParameters(request).getQueryString();
+    }
+
+    /**
+     * Returns the URL-encoded parameters of the specified request. The
+     * encoding is kept on a {@link DefaultRequest} and reused, by the signer
+     * and for the request itself, until its parameters change.
+     *
+     * @param request The request containing the parameters to encode.
+     * @return the encoded parameters of the request.
+     */
+    public static EncodedQueryParameters getEncodedParameters(Request<?> request) {
+        if (request instanceof DefaultRequest) {
+            return ((DefaultRequest<?>) request).getEncodedParameters();
         }
-        return sb.toString();
+        return EncodedQueryParameters.encode(request.getParameters());
     }
 
     /**
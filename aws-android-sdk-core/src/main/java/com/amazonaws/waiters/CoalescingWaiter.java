@@ -0,0 +1,467 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.waiters;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for resources of one type to reach a desired state, polling all the
+ * resources being waited for with the same describe calls. Every wait pending
+ * when the waiter polls is checked by one describe call per
+ * {@link #getMaxBatchSize() batch} of resources, so the number of calls and
+ * threads grows with the number of waiters, not with the number of resources.
+ * <p>
+ * The first poll happens a short delay after a wait is started, so that waits
+ * started together share it. While waits remain pending, the delay between
+ * polls doubles, with jitter, up to a maximum; it starts over whenever a new
+ * wait is started. A poll is never scheduled after the earliest timeout of
+ * the pending waits, which are checked on each poll.
+ * <p>
+ * Describe calls that fail with a throttling error, a server error or a
+ * network error leave the waits pending until the next poll, which backs off
+ * as usual; any other failure fails the waits of the batch described.
+ * <p>
+ * Subclasses describe a batch of resources and decide the state of each one.
+ * Waiters created without an executor share a single daemon thread.
+ *
+ * @param <T> the type of the description of a resource
+ */
+public abstract class CoalescingWaiter<T> {
+
+    /**
+     * The state of a resource with regard to the state being waited for.
+     */
+    public enum State {
+        /** The resource is in the desired state. */
+        SATISFIED,
+        /** The resource is not yet in the desired state. */
+        PENDING,
+        /** The resource can no longer reach the desired state. */
+        FAILED
+    }
+
+    private static final Log log = LogFactory.getLog(CoalescingWaiter.class);
+
+    /** Default delay before the first poll, and between the first polls. */
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 2 * 1000;
+    /** Default maximum delay between polls. */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000;
+
+    private static final Random RANDOM = new Random();
+
+    /** The executor of the waiters created without one, created on first use. */
+    private static final class DefaultExecutorHolder {
+        static final ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "aws-waiter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    private final ScheduledExecutorService executor;
+    private final int maxBatchSize;
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+
+    /** The pending waits by resource id, in the order they started. */
+    private final Map<String, List<Wait<T>>> waits = new LinkedHashMap<String, List<Wait<T>>>();
+    /** Whether a poll is scheduled or running. */
+    private boolean polling;
+    /** The poll that is scheduled but not yet running, if any. */
+    private ScheduledFuture<?> scheduledPoll;
+    /** When the scheduled poll runs. */
+    private long scheduledPollTime;
+    /** Whether waits were started while a poll was running. */
+    private boolean waitsStarted;
+    /** The delay before the next poll, before jitter. */
+    private long delayMillis;
+
+    private final Runnable poller = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                poll();
+            } finally {
+                pollCompleted();
+            }
+        }
+    };
+
+    /**
+     * Creates a waiter with the default delays, polling on the shared default
+     * thread.
+     *
+     * @param maxBatchSize the maximum number of resources per describe call
+     */
+    protected CoalescingWaiter(int maxBatchSize) {
+        this(null, maxBatchSize, DEFAULT_MIN_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param executor the executor to poll on, or null to use the shared
+     *            default thread
+     * @param maxBatchSize the maximum number of resources per describe call
+     * @param minDelayMillis the delay before the first poll
+     * @param maxDelayMillis the maximum delay between polls
+     */
+    protected CoalescingWaiter(ScheduledExecutorService executor, int maxBatchSize,
+            long minDelayMillis, long maxDelayMillis) {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        if (minDelayMillis <= 0 || maxDelayMillis < minDelayMillis)
+            throw new IllegalArgumentException(
+                    "minDelayMillis must be positive and no more than maxDelayMillis");
+        this.executor = executor == null ? DefaultExecutorHolder.EXECUTOR : executor;
+        this.maxBatchSize = maxBatchSize;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Describes the given resources.
+     *
+     * @param resourceIds the ids of at most {@link #getMaxBatchSize()}
+     *            resources
+     * @return the descriptions of the resources that were found, by id
+     */
+    protected abstract Map<String, T> describe(List<String> resourceIds);
+
+    /**
+     * Returns the state of the given resource.
+     *
+     * @param resourceId the id of the resource
+     * @param resource the description of the resource, or null if it was not
+     *            found
+     */
+    protected abstract State getState(String resourceId, T resource);
+
+    /**
+     * Starts waiting for the given resource to reach the desired state. The
+     * returned future completes with the description of the resource once it
+     * does. It fails with an {@link AmazonClientException} if the resource
+     * can no longer reach the desired state or does not reach it within the
+     * timeout, or with the exception thrown when describing the resource,
+     * unless that exception is transient and describing it is retried.
+     *
+     * @param resourceId the id of the resource
+     * @param timeoutMillis how long to wait for the resource
+     * @return the future description of the resource in the desired state
+     */
+    public Future<T> waitFor(String resourceId, long timeoutMillis) {
+        if (resourceId == null)
+            throw new IllegalArgumentException("resourceId cannot be null");
+        if (timeoutMillis <= 0)
+            throw new IllegalArgumentException("timeoutMillis must be positive");
+        long now = System.currentTimeMillis();
+        Wait<T> wait = new Wait<T>(resourceId, now + timeoutMillis);
+        synchronized (this) {
+            List<Wait<T>> resourceWaits = waits.get(resourceId);
+            if (resourceWaits == null) {
+                resourceWaits = new ArrayList<Wait<T>>(1);
+                waits.put(resourceId, resourceWaits);
+            }
+            resourceWaits.add(wait);
+            if (!polling) {
+                polling = true;
+                delayMillis = minDelayMillis;
+                schedulePoll();
+            } else if (scheduledPoll != null
+                    && scheduledPollTime > now + Math.min(minDelayMillis, timeoutMillis)
+                    && scheduledPoll.cancel(false)) {
+                // The scheduled poll is backed off, or after the timeout
+                delayMillis = minDelayMillis;
+                schedulePoll();
+            } else {
+                // The next poll is soon enough, or is running, and the one
+                // after it doesn't back off
+                waitsStarted = true;
+            }
+        }
+        return wait;
+    }
+
+    /**
+     * Returns the maximum number of resources per describe call.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Describes every resource with a pending wait, a batch at a time, and
+     * completes the waits of the resources that reached a final state.
+     */
+    private void poll() {
+        List<String> resourceIds;
+        synchronized (this) {
+            scheduledPoll = null;
+            removeCompletedWaits();
+            resourceIds = new ArrayList<String>(waits.keySet());
+        }
+        for (int from = 0; from < resourceIds.size(); from += maxBatchSize) {
+            List<String> batch = resourceIds.subList(from,
+                    Math.min(resourceIds.size(), from + maxBatchSize));
+            Map<String, T> resources;
+            try {
+                resources = describe(batch);
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    // The other batches would likely fail too, try them all
+                    // again at the next poll
+                    log.debug("Unable to describe " + batch + ", will retry", e);
+                    break;
+                }
+                log.debug("Unable to describe " + batch, e);
+                for (String resourceId : batch) {
+                    complete(resourceId, null, e);
+                }
+                continue;
+            }
+            for (String resourceId : batch) {
+                T resource = resources == null ? null : resources.get(resourceId);
+                State state;
+                try {
+                    state = getState(resourceId, resource);
+                } catch (RuntimeException e) {
+                    complete(resourceId, null, e);
+                    continue;
+                }
+                if (state == State.SATISFIED) {
+                    complete(resourceId, resource, null);
+                } else if (state == State.FAILED) {
+                    complete(resourceId, null, new AmazonClientException("Resource "
+                            + resourceId + " can no longer reach the desired state"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules the next poll with a longer delay if waits remain, or stops
+     * polling otherwise.
+     */
+    private synchronized void pollCompleted() {
+        removeCompletedWaits();
+        if (waits.isEmpty()) {
+            polling = false;
+            return;
+        }
+        if (waitsStarted) {
+            waitsStarted = false;
+            delayMillis = minDelayMillis;
+        } else {
+            delayMillis = Math.min(maxDelayMillis, delayMillis * 2);
+        }
+        schedulePoll();
+    }
+
+    /**
+     * Schedules a poll after the current delay, with up to half of it taken
+     * off at random so that waiters started together drift apart, or at the
+     * earliest timeout of the pending waits if that comes first.
+     */
+    private void schedulePoll() {
+        long half = delayMillis / 2;
+        long delay = delayMillis - (long) (RANDOM.nextDouble() * half);
+        long now = System.currentTimeMillis();
+        for (List<Wait<T>> resourceWaits : waits.values()) {
+            for (Wait<T> wait : resourceWaits) {
+                delay = Math.min(delay, wait.deadline - now);
+            }
+        }
+        schedulePoll(Math.max(0, delay));
+    }
+
+    private void schedulePoll(long delay) {
+        try {
+            scheduledPoll = executor.schedule(poller, delay, TimeUnit.MILLISECONDS);
+            scheduledPollTime = System.currentTimeMillis() + delay;
+        } catch (RejectedExecutionException e) {
+            polling = false;
+            scheduledPoll = null;
+            for (List<Wait<T>> resourceWaits : waits.values()) {
+                for (Wait<T> wait : resourceWaits) {
+                    wait.fail(e);
+                }
+            }
+            waits.clear();
+        }
+    }
+
+    /**
+     * Forgets the waits that were cancelled, and fails the ones that timed
+     * out.
+     */
+    private void removeCompletedWaits() {
+        long now = System.currentTimeMillis();
+        for (Iterator<List<Wait<T>>> it = waits.values().iterator(); it.hasNext();) {
+            List<Wait<T>> resourceWaits = it.next();
+            for (Iterator<Wait<T>> waitIt = resourceWaits.iterator(); waitIt.hasNext();) {
+                Wait<T> wait = waitIt.next();
+                if (wait.isDone()) {
+                    waitIt.remove();
+                } else if (wait.deadline <= now) {
+                    wait.fail(new AmazonClientException("Timed out waiting for resource "
+                            + wait.resourceId + " to reach the desired state"));
+                    waitIt.remove();
+                }
+            }
+            if (resourceWaits.isEmpty())
+                it.remove();
+        }
+    }
+
+    /**
+     * Returns whether describing may succeed if tried again later: throttling
+     * errors, server errors and network errors.
+     */
+    private static boolean isTransient(RuntimeException e) {
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException) e;
+            return RetryUtils.isThrottlingException(ase)
+                    || "RequestLimitExceeded".equals(ase.getErrorCode())
+                    || ase.getStatusCode() == 429
+                    || ase.getStatusCode() >= 500;
+        }
+        return e instanceof AmazonClientException
+                && e.getCause() instanceof IOException
+                && !(e.getCause() instanceof InterruptedIOException);
+    }
+
+    /**
+     * Completes all the waits for the given resource, successfully if there is
+     * no failure.
+     */
+    private synchronized void complete(String resourceId, T resource, Throwable failure) {
+        List<Wait<T>> resourceWaits = waits.remove(resourceId);
+        if (resourceWaits == null)
+            return;
+        for (Wait<T> wait : resourceWaits) {
+            if (failure == null) {
+                wait.succeed(resource);
+            } else {
+                wait.fail(failure);
+            }
+        }
+    }
+
+    /**
+     * A wait for one resource, completed by the waiter.
+     */
+    private static final class Wait<T> implements Future<T> {
+        final String resourceId;
+        final long deadline;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private T resource;
+        private Throwable failure;
+        private boolean cancelled;
+
+        Wait(String resourceId, long deadline) {
+            this.resourceId = resourceId;
+            this.deadline = deadline;
+        }
+
+        void succeed(T resource) {
+            synchronized (this) {
+                if (isDone())
+                    return;
+                this.resource = resource;
+                done.countDown();
+            }
+        }
+
+        void fail(Throwable failure) {
+            synchronized (this) {
+                if (isDone())
+                    return;
+                this.failure = failure;
+                done.countDown();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (this) {
+                if (isDone())
+                    return false;
+                cancelled = true;
+                done.countDown();
+                return true;
+            }
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit))
+                throw new TimeoutException();
+            return result();
+        }
+
+        private synchronized T result() throws ExecutionException {
+            if (cancelled)
+                throw new CancellationException();
+            if (failure != null)
+                throw new ExecutionException(failure);
+            return resource;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.auth;
+
+import static org.junit.Assert.assertEquals;
+
+import com.amazonaws.services.cognitoidentity.AmazonCognitoIdentityClient;
+import com.amazonaws.services.cognitoidentity.model.GetIdRequest;
+import com.amazonaws.services.cognitoidentity.model.GetIdResult;
+import com.amazonaws.services.cognitoidentity.model.GetOpenIdTokenRequest;
+import com.amazonaws.services.cognitoidentity.model.GetOpenIdTokenResult;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AWSAbstractCognitoIdentityProviderTest {
+
+    private static final String IDENTITY_ID = "us-east-1:identity";
+
+    /**
+     * Tests that concurrent callers share one GetId and one GetOpenIdToken
+     * request.
+     */
+    @Test
+    public void testConcurrentCallersShareOneFetch() throws Exception {
+        final CountingCognitoIdentityClient client = new CountingCognitoIdentityClient();
+        final AWSBasicCognitoIdentityProvider provider = new AWSBasicCognitoIdentityProvider(
+                "account", "us-east-1:pool", client);
+
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> tokens = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    String token = provider.getToken();
+                    synchronized (tokens) {
+                        tokens.add(token);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount, tokens.size());
+        for (String token : tokens) {
+            assertEquals("token", token);
+        }
+        assertEquals(IDENTITY_ID, provider.getIdentityId());
+        assertEquals(1, client.getIdCount.get());
+        assertEquals(1, client.getOpenIdTokenCount.get());
+    }
+
+    private static class CountingCognitoIdentityClient extends AmazonCognitoIdentityClient {
+        final AtomicInteger getIdCount = new AtomicInteger();
+        final AtomicInteger getOpenIdTokenCount = new AtomicInteger();
+
+        CountingCognitoIdentityClient() {
+            super(new AnonymousAWSCredentials());
+        }
+
+        @Override
+        public GetIdResult getId(GetIdRequest request) {
+            getIdCount.incrementAndGet();
+            pause();
+            return new GetIdResult().withIdentityId(IDENTITY_ID);
+        }
+
+        @Override
+        public GetOpenIdTokenResult getOpenIdToken(GetOpenIdTokenRequest request) {
+            getOpenIdTokenCount.incrementAndGet();
+            pause();
+            return new GetOpenIdTokenResult().withIdentityId(request.getIdentityId())
+                    .withToken("token");
+        }
+
+        private void pause() {
+            try {
+                // Give the other callers time to arrive while the request is in flight
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
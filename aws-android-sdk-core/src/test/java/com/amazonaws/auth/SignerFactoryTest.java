@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SignerFactoryTest {
+
+    @Test
+    public void testStandardSignerTypes() {
+        assertTrue(SignerFactory.getSignerByTypeAndService("AWS4SignerType",
+                "test") instanceof AWS4Signer);
+        assertTrue(SignerFactory.getSignerByTypeAndService("QueryStringSignerType",
+                "test") instanceof QueryStringSigner);
+        assertTrue(SignerFactory.getSignerByTypeAndService("AWS3SignerType",
+                "test") instanceof AWS3Signer);
+        assertTrue(SignerFactory.getSignerByTypeAndService("NoOpSignerType",
+                "test") instanceof NoOpSigner);
+    }
+
+    @Test
+    public void testNewSignerPerCall() {
+        Signer first = SignerFactory.getSigner("sqs", "us-west-2");
+        Signer second = SignerFactory.getSigner("sqs", "us-west-2");
+        assertNotSame(first, second);
+        assertEquals("sqs", ((AWS4Signer) first).serviceName);
+    }
+
+    @Test
+    public void testRegisteredSigner() {
+        SignerFactory.registerSigner("TestSignerType", TestSigner.class);
+        Signer signer = SignerFactory.getSignerByTypeAndService("TestSignerType", "test");
+        assertTrue(signer instanceof TestSigner);
+        assertEquals("test", ((TestSigner) signer).serviceName);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSignerType() {
+        SignerFactory.getSignerByTypeAndService("BogusSignerType", "test");
+    }
+
+    public static class TestSigner extends AWS4Signer {
+    }
+}
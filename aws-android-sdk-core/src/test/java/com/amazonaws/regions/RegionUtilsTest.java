@@ -16,6 +16,8 @@
 package com.amazonaws.regions;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -37,6 +39,15 @@ public class RegionUtilsTest {
         assertEquals(standard.getServiceEndpoint(ServiceAbbreviations.S3), "s3.amazonaws.com");
     }
 
+    @Test
+    public void testGetRegion() {
+        for (Region region : RegionUtils.getRegions()) {
+            assertSame(region, RegionUtils.getRegion(region.getName()));
+        }
+        assertNull(RegionUtils.getRegion("bogus-region-1"));
+        assertNull(RegionUtils.getRegion(null));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testGetRegionByEndpointWithBogusEndpoint() {
 
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.DefaultRequest;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class EncodedQueryParametersTest {
+
+    @Test
+    public void testQueryStringKeepsOrder() {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("Zeta", "a b");
+        parameters.put("Alpha", "x*y~z");
+        parameters.put("Empty", null);
+
+        EncodedQueryParameters encoded = EncodedQueryParameters.encode(parameters);
+        assertEquals(3, encoded.size());
+        assertEquals("Zeta=a%20b&Alpha=x%2Ay~z&Empty=", encoded.getQueryString());
+        assertArrayEquals(encoded.getQueryString().getBytes(StringUtils.UTF8),
+                encoded.getQueryStringBytes());
+    }
+
+    @Test
+    public void testCanonicalQueryStringIsSortedByEncodedName() {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("b", "2");
+        parameters.put("a b", "3");
+        parameters.put("a", "1");
+
+        EncodedQueryParameters encoded = EncodedQueryParameters.encode(parameters);
+        assertEquals("a=1&a%20b=3&b=2", encoded.getCanonicalQueryString());
+    }
+
+    @Test
+    public void testEncodingIsReusedUntilParametersChange() {
+        DefaultRequest<String> request = new DefaultRequest<String>("TestRequest");
+        request.addParameter("Action", "DescribeInstances");
+        request.addParameter("InstanceId.1", "i-1");
+
+        EncodedQueryParameters encoded = request.getEncodedParameters();
+        assertTrue(encoded.isEncodingOf(request.getParameters()));
+        assertSame(encoded, request.getEncodedParameters());
+        assertSame(encoded, HttpUtils.getEncodedParameters(request));
+
+        request.addParameter("Signature", "abc=");
+        assertFalse(encoded.isEncodingOf(request.getParameters()));
+        EncodedQueryParameters signed = request.getEncodedParameters();
+        assertEquals("Action=DescribeInstances&InstanceId.1=i-1&Signature=abc%3D",
+                signed.getQueryString());
+
+        request.addParameter("InstanceId.1", "i-2");
+        assertEquals("Action=DescribeInstances&InstanceId.1=i-2&Signature=abc%3D",
+                request.getEncodedParameters().getQueryString());
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.waiters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class CoalescingWaiterTest {
+
+    /**
+     * Describes resources whose state is the number of times they have been
+     * described; a resource is ready once described three times, and resources
+     * named "failed-..." never are.
+     */
+    private static class CountingWaiter extends CoalescingWaiter<Integer> {
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final Map<String, Integer> describeCounts = new HashMap<String, Integer>();
+
+        CountingWaiter(int maxBatchSize, long minDelayMillis) {
+            this(maxBatchSize, minDelayMillis, 2 * minDelayMillis);
+        }
+
+        CountingWaiter(int maxBatchSize, long minDelayMillis, long maxDelayMillis) {
+            super(null, maxBatchSize, minDelayMillis, maxDelayMillis);
+        }
+
+        @Override
+        protected synchronized Map<String, Integer> describe(List<String> resourceIds) {
+            batchSizes.add(resourceIds.size());
+            Map<String, Integer> resources = new HashMap<String, Integer>();
+            for (String resourceId : resourceIds) {
+                Integer count = describeCounts.get(resourceId);
+                count = count == null ? 1 : count + 1;
+                describeCounts.put(resourceId, count);
+                resources.put(resourceId, count);
+            }
+            return resources;
+        }
+
+        @Override
+        protected State getState(String resourceId, Integer resource) {
+            if (resourceId.startsWith("failed-"))
+                return State.FAILED;
+            return resource >= 3 ? State.SATISFIED : State.PENDING;
+        }
+    }
+
+    @Test
+    public void testWaitsShareDescribeCalls() throws Exception {
+        CountingWaiter waiter = new CountingWaiter(20, 200);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(waiter.waitFor("resource-" + i, 10000));
+        }
+        // A second wait for the same resource is checked by the same calls
+        Future<Integer> duplicate = waiter.waitFor("resource-0", 10000);
+
+        for (Future<Integer> future : futures) {
+            assertEquals(Integer.valueOf(3), future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(Integer.valueOf(3), duplicate.get(5, TimeUnit.SECONDS));
+        synchronized (waiter) {
+            // Three polls of three batches each
+            assertEquals(9, waiter.batchSizes.size());
+            for (int i = 0; i < 9; i += 3) {
+                assertEquals(Integer.valueOf(20), waiter.batchSizes.get(i));
+                assertEquals(Integer.valueOf(20), waiter.batchSizes.get(i + 1));
+                assertEquals(Integer.valueOf(10), waiter.batchSizes.get(i + 2));
+            }
+        }
+    }
+
+    @Test
+    public void testFailedResource() throws Exception {
+        CountingWaiter waiter = new CountingWaiter(10, 10);
+        Future<Integer> failed = waiter.waitFor("failed-0", 10000);
+        Future<Integer> ready = waiter.waitFor("resource-0", 10000);
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("expected the wait to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AmazonClientException);
+        }
+        assertEquals(Integer.valueOf(3), ready.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CoalescingWaiter<Integer> waiter = new CountingWaiter(10, 10) {
+            @Override
+            protected State getState(String resourceId, Integer resource) {
+                return State.PENDING;
+            }
+        };
+        Future<Integer> future = waiter.waitFor("resource-0", 50);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected the wait to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AmazonClientException);
+        }
+    }
+
+    @Test
+    public void testDescribeFailure() throws Exception {
+        final RuntimeException failure = new AmazonClientException("describe failed");
+        CoalescingWaiter<Integer> waiter = new CountingWaiter(10, 10) {
+            @Override
+            protected synchronized Map<String, Integer> describe(List<String> resourceIds) {
+                throw failure;
+            }
+        };
+        Future<Integer> future = waiter.waitFor("resource-0", 10000);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected the wait to fail");
+        } catch (ExecutionException e) {
+            assertEquals(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testTransientDescribeFailures() throws Exception {
+        CountingWaiter waiter = new CountingWaiter(10, 10) {
+            private int calls;
+
+            @Override
+            protected synchronized Map<String, Integer> describe(List<String> resourceIds) {
+                calls++;
+                if (calls == 1) {
+                    AmazonServiceException e = new AmazonServiceException("slow down");
+                    e.setErrorCode("RequestLimitExceeded");
+                    e.setStatusCode(503);
+                    throw e;
+                }
+                if (calls == 2) {
+                    AmazonServiceException e = new AmazonServiceException("internal error");
+                    e.setErrorCode("InternalError");
+                    e.setStatusCode(500);
+                    throw e;
+                }
+                return super.describe(resourceIds);
+            }
+        };
+        Future<Integer> first = waiter.waitFor("resource-0", 10000);
+        Future<Integer> second = waiter.waitFor("resource-1", 10000);
+        // The failed polls leave the waits pending
+        assertEquals(Integer.valueOf(3), first.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(3), second.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClientErrorFailsWaits() throws Exception {
+        final AmazonServiceException failure = new AmazonServiceException("bad request");
+        failure.setErrorCode("InvalidParameterValue");
+        failure.setStatusCode(400);
+        CoalescingWaiter<Integer> waiter = new CountingWaiter(10, 10) {
+            @Override
+            protected synchronized Map<String, Integer> describe(List<String> resourceIds) {
+                throw failure;
+            }
+        };
+        Future<Integer> future = waiter.waitFor("resource-0", 10000);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected the wait to fail");
+        } catch (ExecutionException e) {
+            assertEquals(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testNewWaitIsPolledWithoutBackoff() throws Exception {
+        CoalescingWaiter<Integer> waiter = new CountingWaiter(10, 20, 60 * 1000) {
+            @Override
+            protected State getState(String resourceId, Integer resource) {
+                if (resourceId.startsWith("pending-"))
+                    return State.PENDING;
+                return super.getState(resourceId, resource);
+            }
+        };
+        Future<Integer> pending = waiter.waitFor("pending-0", 60 * 1000);
+        // Let the polls of the pending resource back off
+        Thread.sleep(1000);
+
+        long start = System.currentTimeMillis();
+        Future<Integer> ready = waiter.waitFor("resource-0", 60 * 1000);
+        assertEquals(Integer.valueOf(3), ready.get(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertFalse(pending.isDone());
+        pending.cancel(false);
+    }
+
+    @Test
+    public void testTimeoutWhileBackedOff() throws Exception {
+        CoalescingWaiter<Integer> waiter = new CountingWaiter(10, 20, 60 * 1000) {
+            @Override
+            protected State getState(String resourceId, Integer resource) {
+                return State.PENDING;
+            }
+        };
+        Future<Integer> pending = waiter.waitFor("pending-0", 60 * 1000);
+        Thread.sleep(1000);
+
+        // The timeout is checked before the next backed off poll
+        Future<Integer> future = waiter.waitFor("resource-0", 500);
+        try {
+            future.get(2500, TimeUnit.MILLISECONDS);
+            fail("expected the wait to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AmazonClientException);
+        }
+        pending.cancel(false);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CoalescingWaiter<Integer> waiter = new CountingWaiter(10, 10) {
+            @Override
+            protected State getState(String resourceId, Integer resource) {
+                return State.PENDING;
+            }
+        };
+        Future<Integer> future = waiter.waitFor("resource-0", 10000);
+        try {
+            future.get(50, TimeUnit.MILLISECONDS);
+            fail("expected the wait to be pending");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertFalse(future.cancel(false));
+        try {
+            future.get();
+            fail("expected the wait to be cancelled");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+}
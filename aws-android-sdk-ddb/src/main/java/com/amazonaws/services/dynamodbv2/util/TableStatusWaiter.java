@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.dynamodbv2.util;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.TableStatus;
+import com.amazonaws.waiters.CoalescingWaiter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Waits for AWS DynamoDB tables to become <code>ACTIVE</code>. Unlike
+ * {@link Tables#waitForTableToBecomeActive(AmazonDynamoDB, String)}, the
+ * waits don't block their callers, and all the tables being waited for are
+ * polled together from a single thread.
+ *
+ * <pre class="brush: java">
+ * TableStatusWaiter waiter = new TableStatusWaiter(dynamoDB);
+ * Future&lt;TableDescription&gt; users = waiter.waitFor("Users", 10 * 60 * 1000);
+ * Future&lt;TableDescription&gt; orders = waiter.waitFor("Orders", 10 * 60 * 1000);
+ * </pre>
+ *
+ * A table that does not exist yet is treated as not active yet, and a wait
+ * fails once its table is being deleted.
+ */
+public class TableStatusWaiter extends CoalescingWaiter<TableDescription> {
+
+    /**
+     * DescribeTable describes a single table, so tables are described one at a
+     * time and an error only fails the waits for that table.
+     */
+    private static final int TABLES_PER_BATCH = 1;
+
+    private final AmazonDynamoDB dynamo;
+
+    /**
+     * @param dynamo the client to describe the tables with
+     */
+    public TableStatusWaiter(AmazonDynamoDB dynamo) {
+        this(dynamo, null, DEFAULT_MIN_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param dynamo the client to describe the tables with
+     * @param executor the executor to poll on, or null to use the shared
+     *            default thread
+     * @param minDelayMillis the delay before the first poll
+     * @param maxDelayMillis the maximum delay between polls
+     */
+    public TableStatusWaiter(AmazonDynamoDB dynamo, ScheduledExecutorService executor,
+            long minDelayMillis, long maxDelayMillis) {
+        super(executor, TABLES_PER_BATCH, minDelayMillis, maxDelayMillis);
+        if (dynamo == null)
+            throw new IllegalArgumentException("dynamo cannot be null");
+        this.dynamo = dynamo;
+    }
+
+    @Override
+    protected Map<String, TableDescription> describe(List<String> tableNames) {
+        Map<String, TableDescription> tables = new HashMap<String, TableDescription>();
+        for (String tableName : tableNames) {
+            try {
+                tables.put(tableName,
+                        dynamo.describeTable(new DescribeTableRequest(tableName)).getTable());
+            } catch (ResourceNotFoundException rnfe) {
+                // The table doesn't exist yet, so keep polling
+            }
+        }
+        return tables;
+    }
+
+    @Override
+    protected State getState(String tableName, TableDescription table) {
+        if (table == null)
+            return State.PENDING;
+        if (TableStatus.ACTIVE.toString().equals(table.getTableStatus()))
+            return State.SATISFIED;
+        if (TableStatus.DELETING.toString().equals(table.getTableStatus()))
+            return State.FAILED;
+        return State.PENDING;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.ec2.util;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceStateName;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.waiters.CoalescingWaiter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Waits for Amazon EC2 instances to reach a given state, describing all the
+ * instances being waited for with the same DescribeInstances calls.
+ *
+ * <pre class="brush: java">
+ * InstanceStateWaiter running = new InstanceStateWaiter(ec2, InstanceStateName.Running);
+ * Future&lt;Instance&gt; instance = running.waitFor(instanceId, 10 * 60 * 1000);
+ * </pre>
+ *
+ * Instances are looked up through an instance-id filter rather than by id, so
+ * that an instance which is not yet visible, or no longer exists, does not
+ * fail the call for the others. A wait fails once its instance is shutting
+ * down or terminated, unless that is the state being waited for.
+ */
+public class InstanceStateWaiter extends CoalescingWaiter<Instance> {
+
+    /** The maximum number of values of a DescribeInstances filter. */
+    private static final int MAX_FILTER_VALUES = 200;
+
+    private final AmazonEC2 ec2;
+    private final InstanceStateName desiredState;
+
+    /**
+     * @param ec2 the client to describe the instances with
+     * @param desiredState the state to wait for
+     */
+    public InstanceStateWaiter(AmazonEC2 ec2, InstanceStateName desiredState) {
+        this(ec2, desiredState, null, DEFAULT_MIN_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param ec2 the client to describe the instances with
+     * @param desiredState the state to wait for
+     * @param executor the executor to poll on, or null to use the shared
+     *            default thread
+     * @param minDelayMillis the delay before the first poll
+     * @param maxDelayMillis the maximum delay between polls
+     */
+    public InstanceStateWaiter(AmazonEC2 ec2, InstanceStateName desiredState,
+            ScheduledExecutorService executor, long minDelayMillis, long maxDelayMillis) {
+        super(executor, MAX_FILTER_VALUES, minDelayMillis, maxDelayMillis);
+        if (ec2 == null)
+            throw new IllegalArgumentException("ec2 cannot be null");
+        if (desiredState == null)
+            throw new IllegalArgumentException("desiredState cannot be null");
+        this.ec2 = ec2;
+        this.desiredState = desiredState;
+    }
+
+    @Override
+    protected Map<String, Instance> describe(List<String> instanceIds) {
+        Map<String, Instance> instances = new HashMap<String, Instance>();
+        DescribeInstancesRequest request = new DescribeInstancesRequest()
+                .withFilters(new Filter("instance-id", instanceIds));
+        do {
+            DescribeInstancesResult result = ec2.describeInstances(request);
+            for (Reservation reservation : result.getReservations()) {
+                for (Instance instance : reservation.getInstances()) {
+                    instances.put(instance.getInstanceId(), instance);
+                }
+            }
+            request.setNextToken(result.getNextToken());
+        } while (request.getNextToken() != null);
+        return instances;
+    }
+
+    @Override
+    protected State getState(String instanceId, Instance instance) {
+        // A newly launched instance may not be visible yet
+        if (instance == null || instance.getState() == null)
+            return State.PENDING;
+        String state = instance.getState().getName();
+        if (desiredState.toString().equals(state))
+            return State.SATISFIED;
+        if (desiredState != InstanceStateName.Terminated
+                && (InstanceStateName.ShuttingDown.toString().equals(state)
+                || InstanceStateName.Terminated.toString().equals(state)))
+            return State.FAILED;
+        return State.PENDING;
+    }
+}
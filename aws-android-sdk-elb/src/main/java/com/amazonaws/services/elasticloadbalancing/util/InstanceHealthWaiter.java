@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.elasticloadbalancing.util;
+
+import com.amazonaws.services.elasticloadbalancing.AmazonElasticLoadBalancing;
+import com.amazonaws.services.elasticloadbalancing.model.DescribeInstanceHealthRequest;
+import com.amazonaws.services.elasticloadbalancing.model.Instance;
+import com.amazonaws.services.elasticloadbalancing.model.InstanceState;
+import com.amazonaws.services.elasticloadbalancing.model.InvalidInstanceException;
+import com.amazonaws.waiters.CoalescingWaiter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Waits for instances registered with a load balancer to be in service,
+ * describing all the instances being waited for with the same
+ * DescribeInstanceHealth calls.
+ *
+ * <pre class="brush: java">
+ * InstanceHealthWaiter inService = new InstanceHealthWaiter(elb, loadBalancerName);
+ * Future&lt;InstanceState&gt; state = inService.waitFor(instanceId, 10 * 60 * 1000);
+ * </pre>
+ *
+ * An instance that is not registered with the load balancer yet is treated as
+ * not in service yet.
+ */
+public class InstanceHealthWaiter extends CoalescingWaiter<InstanceState> {
+
+    /** The state of an instance that is in service. */
+    public static final String IN_SERVICE = "InService";
+
+    private static final int MAX_INSTANCES_PER_CALL = 100;
+
+    private final AmazonElasticLoadBalancing elb;
+    private final String loadBalancerName;
+
+    /**
+     * @param elb the client to describe the instance health with
+     * @param loadBalancerName the name of the load balancer the instances are
+     *            registered with
+     */
+    public InstanceHealthWaiter(AmazonElasticLoadBalancing elb, String loadBalancerName) {
+        this(elb, loadBalancerName, null, DEFAULT_MIN_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param elb the client to describe the instance health with
+     * @param loadBalancerName the name of the load balancer the instances are
+     *            registered with
+     * @param executor the executor to poll on, or null to use the shared
+     *            default thread
+     * @param minDelayMillis the delay before the first poll
+     * @param maxDelayMillis the maximum delay between polls
+     */
+    public InstanceHealthWaiter(AmazonElasticLoadBalancing elb, String loadBalancerName,
+            ScheduledExecutorService executor, long minDelayMillis, long maxDelayMillis) {
+        super(executor, MAX_INSTANCES_PER_CALL, minDelayMillis, maxDelayMillis);
+        if (elb == null)
+            throw new IllegalArgumentException("elb cannot be null");
+        if (loadBalancerName == null)
+            throw new IllegalArgumentException("loadBalancerName cannot be null");
+        this.elb = elb;
+        this.loadBalancerName = loadBalancerName;
+    }
+
+    @Override
+    protected Map<String, InstanceState> describe(List<String> instanceIds) {
+        List<Instance> instances = new ArrayList<Instance>(instanceIds.size());
+        for (String instanceId : instanceIds) {
+            instances.add(new Instance(instanceId));
+        }
+        List<InstanceState> states;
+        try {
+            states = elb.describeInstanceHealth(new DescribeInstanceHealthRequest(
+                    loadBalancerName).withInstances(instances)).getInstanceStates();
+        } catch (InvalidInstanceException e) {
+            // One of the instances is not registered yet; describe the ones
+            // that are instead of failing the others
+            states = elb.describeInstanceHealth(new DescribeInstanceHealthRequest(
+                    loadBalancerName)).getInstanceStates();
+        }
+        Map<String, InstanceState> result = new HashMap<String, InstanceState>();
+        for (InstanceState state : states) {
+            result.put(state.getInstanceId(), state);
+        }
+        return result;
+    }
+
+    @Override
+    protected State getState(String instanceId, InstanceState state) {
+        return state != null && IN_SERVICE.equals(state.getState())
+                ? State.SATISFIED
+                : State.PENDING;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.kms.util;
+
+import com.amazonaws.services.kms.AWSKMS;
+import com.amazonaws.services.kms.model.DecryptRequest;
+import com.amazonaws.services.kms.model.DecryptResult;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A bounded, thread-safe cache of AWS KMS data keys for envelope encryption,
+ * in front of {@link AWSKMS#generateDataKey(GenerateDataKeyRequest)} and
+ * {@link AWSKMS#decrypt(DecryptRequest)}.
+ * <p>
+ * A data key generated for encryption is reused by later requests for the
+ * same key, key spec and encryption context until it reaches its maximum age,
+ * number of messages or number of bytes, after which a new data key is
+ * generated. The plaintext of an encrypted data key is kept after it is
+ * generated or decrypted, so that reading back data does not need AWS KMS
+ * either until the key reaches its maximum age. Data keys generated for
+ * encryption and data keys kept for decryption are bounded separately, each
+ * evicting its least recently used data key once full, so that caching the
+ * plaintext of a generated data key for decryption never evicts the data key
+ * being reused for encryption.
+ * <p>
+ * The cache keeps its own copy of each plaintext key and overwrites it with
+ * zeros when the entry is evicted, expires or is cleared. The results
+ * returned to callers hold fresh copies, which the callers are responsible
+ * for.
+ */
+public class DataKeyCache {
+
+    /** Default maximum number of data keys cached for encryption, and for decryption. */
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+    /** Default maximum age of a data key in milliseconds. */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 5 * 60 * 1000L; // 5 minutes
+    /** Default maximum number of messages encrypted with a data key. */
+    public static final long DEFAULT_MAX_MESSAGES_PER_KEY = 1000;
+    /** Default maximum number of bytes encrypted with a data key. */
+    public static final long DEFAULT_MAX_BYTES_PER_KEY = Long.MAX_VALUE;
+
+    private static final class Entry {
+        final String keyId;
+        final byte[] plaintext;
+        final ByteBuffer ciphertextBlob;
+        final long expiresAt;
+        long messages;
+        long bytes;
+
+        Entry(String keyId, byte[] plaintext, ByteBuffer ciphertextBlob, long expiresAt) {
+            this.keyId = keyId;
+            this.plaintext = plaintext;
+            this.ciphertextBlob = ciphertextBlob;
+            this.expiresAt = expiresAt;
+        }
+
+        void destroy() {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    private final AWSKMS kms;
+    private final long maxAgeMillis;
+    private final long maxMessagesPerKey;
+    private final long maxBytesPerKey;
+    private final LinkedHashMap<List<Object>, Entry> generated;
+    private final LinkedHashMap<List<Object>, Entry> decrypted;
+
+    /**
+     * Creates a cache with the default limits.
+     *
+     * @param kms the client to generate and decrypt data keys with
+     */
+    public DataKeyCache(AWSKMS kms) {
+        this(kms, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_MILLIS, DEFAULT_MAX_MESSAGES_PER_KEY,
+                DEFAULT_MAX_BYTES_PER_KEY);
+    }
+
+    /**
+     * @param kms the client to generate and decrypt data keys with
+     * @param maxEntries the maximum number of data keys cached for
+     *            encryption, and separately of data keys cached for decryption
+     * @param maxAgeMillis how long a data key is used after it is generated
+     *            or decrypted
+     * @param maxMessagesPerKey the maximum number of messages encrypted with a
+     *            data key
+     * @param maxBytesPerKey the maximum number of bytes encrypted with a data
+     *            key
+     */
+    public DataKeyCache(AWSKMS kms, final int maxEntries, long maxAgeMillis,
+            long maxMessagesPerKey, long maxBytesPerKey) {
+        if (kms == null)
+            throw new IllegalArgumentException("kms cannot be null");
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        if (maxAgeMillis <= 0)
+            throw new IllegalArgumentException("maxAgeMillis must be positive");
+        if (maxMessagesPerKey <= 0)
+            throw new IllegalArgumentException("maxMessagesPerKey must be positive");
+        if (maxBytesPerKey <= 0)
+            throw new IllegalArgumentException("maxBytesPerKey must be positive");
+        this.kms = kms;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxMessagesPerKey = maxMessagesPerKey;
+        this.maxBytesPerKey = maxBytesPerKey;
+        this.generated = newLruMap(maxEntries);
+        this.decrypted = newLruMap(maxEntries);
+    }
+
+    /**
+     * Returns a data key for encrypting a message of the given size, reusing
+     * a cached data key generated for the same request if it is still within
+     * its limits, and generating a new one otherwise.
+     *
+     * @param request the request to generate a data key with
+     * @param messageBytes the number of bytes that will be encrypted with the
+     *            data key, or 0 if unknown
+     * @return the data key, with a copy of its plaintext
+     */
+    public GenerateDataKeyResult generateDataKey(GenerateDataKeyRequest request,
+            long messageBytes) {
+        if (request == null)
+            throw new IllegalArgumentException("request cannot be null");
+        if (messageBytes < 0)
+            throw new IllegalArgumentException("messageBytes cannot be negative");
+        if (messageBytes > maxBytesPerKey)
+            return kms.generateDataKey(request);
+
+        List<Object> key = Arrays.<Object> asList(request.getKeyId(),
+                request.getKeySpec(), request.getNumberOfBytes(),
+                sorted(request.getEncryptionContext()));
+        synchronized (this) {
+            Entry entry = generated.get(key);
+            if (entry != null) {
+                if (isUsable(entry, messageBytes)) {
+                    entry.messages++;
+                    entry.bytes += messageBytes;
+                    return new GenerateDataKeyResult()
+                            .withKeyId(entry.keyId)
+                            .withPlaintext(ByteBuffer.wrap(entry.plaintext.clone()))
+                            .withCiphertextBlob(entry.ciphertextBlob.asReadOnlyBuffer());
+                }
+                generated.remove(key).destroy();
+            }
+        }
+
+        // Call AWS KMS outside the lock; concurrent misses for the same
+        // request may both generate a data key, and the last one is kept
+        GenerateDataKeyResult result = kms.generateDataKey(request);
+        byte[] plaintext = toArray(result.getPlaintext());
+        ByteBuffer ciphertextBlob = copy(result.getCiphertextBlob());
+        long expiresAt = System.currentTimeMillis() + maxAgeMillis;
+        Entry entry = new Entry(result.getKeyId(), plaintext, ciphertextBlob, expiresAt);
+        entry.messages = 1;
+        entry.bytes = messageBytes;
+        synchronized (this) {
+            put(generated, key, entry);
+            // Data read back soon after it is written decrypts from the cache
+            put(decrypted, decryptKey(ciphertextBlob, request.getEncryptionContext()),
+                    new Entry(result.getKeyId(), plaintext.clone(), ciphertextBlob, expiresAt));
+        }
+        return result;
+    }
+
+    /**
+     * Decrypts a data key, returning the cached plaintext if the data key was
+     * recently generated or decrypted.
+     *
+     * @param request the request to decrypt a data key with
+     * @return the plaintext of the data key, as a copy
+     */
+    public DecryptResult decrypt(DecryptRequest request) {
+        if (request == null)
+            throw new IllegalArgumentException("request cannot be null");
+        if (request.getCiphertextBlob() == null)
+            throw new IllegalArgumentException("ciphertextBlob cannot be null");
+
+        ByteBuffer ciphertextBlob = copy(request.getCiphertextBlob());
+        List<Object> key = decryptKey(ciphertextBlob, request.getEncryptionContext());
+        synchronized (this) {
+            Entry entry = decrypted.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > System.currentTimeMillis()) {
+                    return new DecryptResult()
+                            .withKeyId(entry.keyId)
+                            .withPlaintext(ByteBuffer.wrap(entry.plaintext.clone()));
+                }
+                decrypted.remove(key).destroy();
+            }
+        }
+
+        DecryptResult result = kms.decrypt(request);
+        Entry entry = new Entry(result.getKeyId(), toArray(result.getPlaintext()),
+                ciphertextBlob, System.currentTimeMillis() + maxAgeMillis);
+        synchronized (this) {
+            put(decrypted, key, entry);
+        }
+        return result;
+    }
+
+    /**
+     * Evicts all the data keys, zeroing their plaintext.
+     */
+    public synchronized void clear() {
+        clear(generated);
+        clear(decrypted);
+    }
+
+    /**
+     * Returns the number of data keys in the cache, counting a data key cached
+     * both for encryption and for decryption twice.
+     */
+    public synchronized int size() {
+        return generated.size() + decrypted.size();
+    }
+
+    private boolean isUsable(Entry entry, long messageBytes) {
+        return entry.expiresAt > System.currentTimeMillis()
+                && entry.messages < maxMessagesPerKey
+                && entry.bytes <= maxBytesPerKey - messageBytes;
+    }
+
+    private static LinkedHashMap<List<Object>, Entry> newLruMap(final int maxEntries) {
+        return new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                if (size() <= maxEntries)
+                    return false;
+                eldest.getValue().destroy();
+                return true;
+            }
+        };
+    }
+
+    private static void put(Map<List<Object>, Entry> entries, List<Object> key, Entry entry) {
+        Entry replaced = entries.put(key, entry);
+        if (replaced != null)
+            replaced.destroy();
+    }
+
+    private static void clear(Map<List<Object>, Entry> entries) {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            it.next().destroy();
+            it.remove();
+        }
+    }
+
+    private static List<Object> decryptKey(ByteBuffer ciphertextBlob,
+            Map<String, String> encryptionContext) {
+        return Arrays.<Object> asList(ciphertextBlob, sorted(encryptionContext));
+    }
+
+    private static SortedMap<String, String> sorted(Map<String, String> encryptionContext) {
+        if (encryptionContext == null || encryptionContext.isEmpty())
+            return Collections.unmodifiableSortedMap(new TreeMap<String, String>());
+        return new TreeMap<String, String>(encryptionContext);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        return ByteBuffer.wrap(toArray(buffer)).asReadOnlyBuffer();
+    }
+}
@@ -23,6 +23,8 @@ import com.amazonaws.services.machinelearning.model.PredictRequest;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Predict calls are sent to a predictor-specific endpoint. This handler
@@ -31,6 +33,19 @@ import java.net.URISyntaxException;
  */
 public class PredictEndpointHandler extends RequestHandler2 {
 
+    /** How many parsed endpoints are kept; there is one per model. */
+    private static final int MAX_ENDPOINTS = 64;
+
+    /** The parsed endpoints, by PredictEndpoint, in access order. */
+    private final Map<String, URI> endpoints = new LinkedHashMap<String, URI>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, URI> eldest) {
+            return size() > MAX_ENDPOINTS;
+        }
+    };
+
     @Override
     public void beforeRequest(Request<?> request) {
         if (request.getOriginalRequest() instanceof PredictRequest) {
@@ -40,13 +55,27 @@ public class PredictEndpointHandler extends RequestHandler2 {
                         "PredictRequest.PredictEndpoint is required!");
             }
 
-            try {
-                request.setEndpoint(new URI(pr.getPredictEndpoint()));
-            } catch (URISyntaxException e) {
-                throw new AmazonClientException(
-                        "Unable to parse PredictRequest.EndpointUrl", e);
-            }
+            request.setEndpoint(toEndpoint(pr.getPredictEndpoint()));
+        }
+    }
+
+    private URI toEndpoint(String predictEndpoint) {
+        synchronized (endpoints) {
+            URI endpoint = endpoints.get(predictEndpoint);
+            if (endpoint != null)
+                return endpoint;
+        }
+        URI endpoint;
+        try {
+            endpoint = new URI(predictEndpoint);
+        } catch (URISyntaxException e) {
+            throw new AmazonClientException(
+                    "Unable to parse PredictRequest.EndpointUrl", e);
+        }
+        synchronized (endpoints) {
+            endpoints.put(predictEndpoint, endpoint);
         }
+        return endpoint;
     }
 
     @Override
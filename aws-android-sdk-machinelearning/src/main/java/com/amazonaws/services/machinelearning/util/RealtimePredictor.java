@@ -0,0 +1,377 @@
+/*
+ * Copyright 2015-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.machinelearning.util;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.machinelearning.AmazonMachineLearning;
+import com.amazonaws.services.machinelearning.model.GetMLModelRequest;
+import com.amazonaws.services.machinelearning.model.PredictRequest;
+import com.amazonaws.services.machinelearning.model.PredictResult;
+import com.amazonaws.services.machinelearning.model.RealtimeEndpointInfo;
+import com.amazonaws.services.machinelearning.model.RealtimeEndpointStatus;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores records against the real-time endpoints of Amazon Machine Learning
+ * models concurrently.
+ * <p>
+ * The endpoint of each model is looked up with
+ * {@link AmazonMachineLearning#getMLModel(GetMLModelRequest)} once and
+ * cached. At most a bounded number of predictions are in flight, and the
+ * predictions sent to each endpoint are paced at its PeakRequestsPerSecond,
+ * so that scoring many records runs close to the throughput the endpoint was
+ * provisioned for without being throttled. The submitting methods block while
+ * the maximum number of predictions are in flight.
+ *
+ * <pre class="brush: java">
+ * RealtimePredictor predictor = new RealtimePredictor(machineLearning);
+ * Iterator&lt;PredictResult&gt; results = predictor.predictInOrder(mlModelId, records);
+ * while (results.hasNext()) {
+ *     Prediction prediction = results.next().getPrediction();
+ *     ...
+ * }
+ * </pre>
+ */
+public class RealtimePredictor {
+
+    /** Default maximum number of predictions in flight. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 20;
+    /** The rate used for endpoints that do not report their peak. */
+    private static final int DEFAULT_PEAK_REQUESTS_PER_SECOND = 200;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The real-time endpoint of a model, with the time the next prediction
+     * may be sent to it.
+     */
+    private static final class Endpoint {
+        final String url;
+        final long intervalNanos;
+        private long nextSendNanos = System.nanoTime();
+
+        Endpoint(String url, int peakRequestsPerSecond) {
+            this.url = url;
+            this.intervalNanos = NANOS_PER_SECOND / peakRequestsPerSecond;
+        }
+
+        /**
+         * Reserves the next send time under the lock, and waits for it
+         * outside, so that concurrent predictions are spaced out.
+         */
+        void pace() throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (nextSendNanos < now)
+                    nextSendNanos = now;
+                waitNanos = nextSendNanos - now;
+                nextSendNanos += intervalNanos;
+            }
+            if (waitNanos > 0)
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private final AmazonMachineLearning machineLearning;
+    private final int maxConcurrency;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore inFlight;
+    private final ConcurrentMap<String, Endpoint> endpoints =
+            new ConcurrentHashMap<String, Endpoint>();
+
+    /**
+     * Creates a predictor with the default maximum number of predictions in
+     * flight.
+     *
+     * @param machineLearning the client to predict with
+     */
+    public RealtimePredictor(AmazonMachineLearning machineLearning) {
+        this(machineLearning, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * @param machineLearning the client to predict with
+     * @param maxConcurrency the maximum number of predictions in flight, which
+     *            is also the number of threads of the predictor
+     */
+    public RealtimePredictor(AmazonMachineLearning machineLearning, int maxConcurrency) {
+        if (machineLearning == null)
+            throw new IllegalArgumentException("machineLearning cannot be null");
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        this.machineLearning = machineLearning;
+        this.maxConcurrency = maxConcurrency;
+        this.inFlight = new Semaphore(maxConcurrency);
+        this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "RealtimePredictor-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Scores the given record, waiting while the maximum number of
+     * predictions are in flight.
+     *
+     * @param mlModelId the id of the model, which must have a ready real-time
+     *            endpoint
+     * @param record the record to score
+     * @param handler the handler notified of the outcome, or null
+     * @return the future result of the prediction
+     */
+    public Future<PredictResult> predict(String mlModelId, Map<String, String> record,
+            final AsyncHandler<PredictRequest, PredictResult> handler) {
+        if (mlModelId == null)
+            throw new IllegalArgumentException("mlModelId cannot be null");
+        if (record == null)
+            throw new IllegalArgumentException("record cannot be null");
+        final Endpoint endpoint = getEndpoint(mlModelId);
+        final PredictRequest request = new PredictRequest()
+                .withMLModelId(mlModelId)
+                .withRecord(record)
+                .withPredictEndpoint(endpoint.url);
+        inFlight.acquireUninterruptibly();
+        try {
+            return executor.submit(new Callable<PredictResult>() {
+                @Override
+                public PredictResult call() throws Exception {
+                    PredictResult result;
+                    try {
+                        endpoint.pace();
+                        result = machineLearning.predict(request);
+                    } catch (Exception e) {
+                        inFlight.release();
+                        if (handler != null)
+                            handler.onError(e);
+                        throw e;
+                    }
+                    inFlight.release();
+                    if (handler != null)
+                        handler.onSuccess(request, result);
+                    return result;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Scores a stream of records, returning their results in the order of the
+     * records. Records are submitted as the results are consumed, keeping the
+     * maximum number of predictions in flight. A failed prediction is thrown
+     * as an {@link AmazonClientException} from {@link Iterator#next()}.
+     *
+     * @param mlModelId the id of the model, which must have a ready real-time
+     *            endpoint
+     * @param records the records to score
+     * @return the results, in the order of the records
+     */
+    public Iterator<PredictResult> predictInOrder(final String mlModelId,
+            final Iterator<Map<String, String>> records) {
+        if (records == null)
+            throw new IllegalArgumentException("records cannot be null");
+        return new Iterator<PredictResult>() {
+            private final LinkedList<Future<PredictResult>> pending =
+                    new LinkedList<Future<PredictResult>>();
+
+            @Override
+            public boolean hasNext() {
+                fill();
+                return !pending.isEmpty();
+            }
+
+            @Override
+            public PredictResult next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getResult(pending.removeFirst());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private void fill() {
+                while (pending.size() < maxConcurrency && records.hasNext())
+                    pending.add(predict(mlModelId, records.next(), null));
+            }
+        };
+    }
+
+    /**
+     * Scores a stream of records, notifying the handler of each result in the
+     * order the predictions complete; the record of a result is available from
+     * the request passed to the handler. Returns once every record has been
+     * scored.
+     *
+     * @param mlModelId the id of the model, which must have a ready real-time
+     *            endpoint
+     * @param records the records to score
+     * @param handler the handler notified of each outcome
+     */
+    public void predictAll(String mlModelId, Iterator<Map<String, String>> records,
+            final AsyncHandler<PredictRequest, PredictResult> handler) {
+        if (records == null)
+            throw new IllegalArgumentException("records cannot be null");
+        if (handler == null)
+            throw new IllegalArgumentException("handler cannot be null");
+        final AtomicInteger remaining = new AtomicInteger();
+        AsyncHandler<PredictRequest, PredictResult> counting =
+                new AsyncHandler<PredictRequest, PredictResult>() {
+                    @Override
+                    public void onError(Exception exception) {
+                        try {
+                            handler.onError(exception);
+                        } finally {
+                            done();
+                        }
+                    }
+
+                    @Override
+                    public void onSuccess(PredictRequest request, PredictResult result) {
+                        try {
+                            handler.onSuccess(request, result);
+                        } finally {
+                            done();
+                        }
+                    }
+
+                    private void done() {
+                        synchronized (remaining) {
+                            if (remaining.decrementAndGet() == 0)
+                                remaining.notifyAll();
+                        }
+                    }
+                };
+        while (records.hasNext()) {
+            Map<String, String> record = records.next();
+            remaining.incrementAndGet();
+            try {
+                predict(mlModelId, record, counting);
+            } catch (RuntimeException e) {
+                remaining.decrementAndGet();
+                throw e;
+            }
+        }
+        boolean interrupted = false;
+        synchronized (remaining) {
+            while (remaining.get() > 0) {
+                try {
+                    remaining.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Forgets the cached endpoint of the given model, for instance after its
+     * endpoint was deleted and created again.
+     */
+    public void evictEndpoint(String mlModelId) {
+        endpoints.remove(mlModelId);
+    }
+
+    /**
+     * Stops accepting records. The records already accepted are still
+     * scored.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the accepted records to be scored after {@link #shutdown()}.
+     *
+     * @return true if they were all scored, false if the timeout elapsed
+     *         first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private Endpoint getEndpoint(String mlModelId) {
+        Endpoint endpoint = endpoints.get(mlModelId);
+        if (endpoint != null)
+            return endpoint;
+        // Concurrent misses may both look the model up; the first one is kept
+        RealtimeEndpointInfo info = machineLearning.getMLModel(
+                new GetMLModelRequest().withMLModelId(mlModelId)).getEndpointInfo();
+        if (info == null || info.getEndpointUrl() == null
+                || !RealtimeEndpointStatus.READY.toString().equals(info.getEndpointStatus()))
+            throw new AmazonClientException("ML model " + mlModelId
+                    + " has no ready real-time endpoint");
+        Integer peak = info.getPeakRequestsPerSecond();
+        endpoint = new Endpoint(info.getEndpointUrl(),
+                peak == null || peak <= 0 ? DEFAULT_PEAK_REQUESTS_PER_SECOND : peak);
+        Endpoint existing = endpoints.putIfAbsent(mlModelId, endpoint);
+        return existing != null ? existing : endpoint;
+    }
+
+    private static PredictResult getResult(Future<PredictResult> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AmazonClientException)
+                throw (AmazonClientException) cause;
+            throw new AmazonClientException("Unable to score the record", cause);
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -22,27 +22,32 @@ import com.amazonaws.mobileconnectors.amazonmobileanalytics.MobileAnalyticsManag
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.AnalyticsContext;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.util.StringUtil;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery.EventStore.EventIterator;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery.EventStore.Position;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery.policy.DefaultDeliveryPolicyFactory;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery.policy.DeliveryPolicy;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.event.InternalEvent;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.event.adapter.EventAdapter;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.event.adapter.JSONEventAdapter;
-import com.amazonaws.services.mobileanalytics.model.PutEventsRequest;
 import com.amazonaws.util.VersionInfoUtils;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class DefaultDeliveryClient implements DeliveryClient {
@@ -55,15 +60,32 @@ public class DefaultDeliveryClient implements DeliveryClient {
     private final static int MAX_EVENT_OPERATIONS = 1000;
     private final static int MAX_SUBMIT_OPERATIONS = 100;
     private static final int CLIPPED_EVENT_LENGTH = 5;
+    /** The maximum compressed size of the body of a submission. */
     static final String KEY_MAX_SUBMISSION_SIZE = "maxSubmissionSize";
     static final long DEFAULT_MAX_SUBMISSION_SIZE = 1024 * 100;
+    /**
+     * The maximum number of submissions per delivery attempt, however many of
+     * them are in flight at once.
+     */
     static final String KEY_MAX_SUBMISSIONS_ALLOWED = "maxSubmissionAllowed";
     static final int DEFAULT_MAX_SUBMISSIONS_ALLOWED = 3;
+    /** The maximum number of submissions in flight at once. */
+    static final String KEY_MAX_CONCURRENT_SUBMISSIONS = "maxConcurrentSubmissions";
+    static final int DEFAULT_MAX_CONCURRENT_SUBMISSIONS = 4;
+    /** The most submissions ever in flight at once, whatever the configuration. */
+    static final int MAX_CONCURRENT_SUBMISSIONS_LIMIT = 8;
+    /**
+     * Once the latency of submissions grows beyond this multiple of the lowest
+     * latency observed, the network is assumed to be saturated and fewer
+     * submissions are kept in flight.
+     */
+    private static final int SATURATED_LATENCY_FACTOR = 2;
     static final Set<Integer> RETRY_REQUEST_CODES;
 
     private final DefaultDeliveryPolicyFactory policyFactory;
     private final ExecutorService eventsRunnableQueue;
     private final ExecutorService submissionRunnableQueue;
+    private final ExecutorService putEventsExecutor;
     private final AnalyticsContext context;
     private final ERSRequestBuilder requestBuilder;
     private final EventStore eventStore;
@@ -73,6 +95,10 @@ public class DefaultDeliveryClient implements DeliveryClient {
 
     private long lastAttemptTime = 0;
 
+    // only accessed from the submission runnable queue
+    private int submissionConcurrency = 0;
+    private long minSubmissionLatencyMillis = Long.MAX_VALUE;
+
     static {
         RETRY_REQUEST_CODES = new HashSet<Integer>();
         RETRY_REQUEST_CODES.add(401);
@@ -93,6 +119,7 @@ public class DefaultDeliveryClient implements DeliveryClient {
                 TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
                         MAX_SUBMIT_OPERATIONS), new ThreadPoolExecutor.DiscardPolicy());
         ERSRequestBuilder requestBuilder = new ERSRequestBuilder();
+        context.getERSClient().addRequestHandler(new EncodedPutEventsHandler());
         DefaultDeliveryPolicyFactory policyFactory = new DefaultDeliveryPolicyFactory(context,
                 allowWANDelivery);
 
@@ -106,15 +133,48 @@ public class DefaultDeliveryClient implements DeliveryClient {
             final ExecutorService submissionRunnableQueue, ERSRequestBuilder requestBuilder,
             EventStore eventStore,
             EventAdapter<JSONObject> eventAdapter) {
+        this(context, policyFactory, eventsRunnableQueue, submissionRunnableQueue,
+                newPutEventsExecutor(), requestBuilder, eventStore, eventAdapter);
+    }
+
+    DefaultDeliveryClient(AnalyticsContext context, DefaultDeliveryPolicyFactory policyFactory,
+            final ExecutorService eventsRunnableQueue,
+            final ExecutorService submissionRunnableQueue,
+            final ExecutorService putEventsExecutor, ERSRequestBuilder requestBuilder,
+            EventStore eventStore,
+            EventAdapter<JSONObject> eventAdapter) {
         this.policyFactory = policyFactory;
         this.eventsRunnableQueue = eventsRunnableQueue;
         this.submissionRunnableQueue = submissionRunnableQueue;
+        this.putEventsExecutor = putEventsExecutor;
         this.context = context;
         this.requestBuilder = requestBuilder;
         this.eventStore = eventStore;
         this.eventAdapter = eventAdapter;
     }
 
+    /**
+     * Creates the executor that sends the submissions which are in flight at
+     * once, with a daemon thread for each, which goes away when idle.
+     */
+    private static ExecutorService newPutEventsExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_CONCURRENT_SUBMISSIONS_LIMIT, MAX_CONCURRENT_SUBMISSIONS_LIMIT, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger threadCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r,
+                                "DefaultDeliveryClient-putEvents-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @Override
     public void notify(InternalEvent event) {
         enqueueEventForDelivery(event);
@@ -203,34 +263,6 @@ public class DefaultDeliveryClient implements DeliveryClient {
                 - lastSubmissionAttemptTime < 0);
     }
 
-    /**
-     * Gets the next array of json objects to submit, up to the max number of
-     * events These events will be removed from the iterator
-     *
-     * @param itr
-     * @param maxNumOfEvents
-     * @return JSONArray the array of events
-     * @throws JSONException
-     */
-    JSONArray getNextBatchToSubmit(EventIterator iter, long maxRequestSize)
-            throws JSONException {
-        if (iter == null) {
-            throw new IllegalArgumentException(
-                    "Iterator cannot be null");
-        }
-
-        long currentRequestSize = 0;
-        long eventLength = (iter.peek() != null) ? iter.peek().length() : 0L;
-        JSONArray eventArray = new JSONArray();
-        while (currentRequestSize + eventLength <= maxRequestSize && iter.hasNext()) {
-            currentRequestSize += eventLength;
-            eventLength = (iter.peek() != null) ? iter.peek().length() : 0L;
-            eventArray.put(new JSONObject(iter.next()));
-        }
-
-        return eventArray;
-    }
-
     public void attemptDelivery(final List<DeliveryPolicy> policies) {
 
         if (shouldAttemptDelivery(lastAttemptTime, policyFactory.forceSubmissionInterval)) {
@@ -260,26 +292,41 @@ public class DefaultDeliveryClient implements DeliveryClient {
                     try {
                         submitWaitLatch.await(getSubmissionLatchWaitTime(), TimeUnit.MILLISECONDS);
                     } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
                     }
                     boolean successful = true;
                     final long maxRequestSize = context.getConfiguration().optLong(
                             KEY_MAX_SUBMISSION_SIZE, DEFAULT_MAX_SUBMISSION_SIZE);
 
-                    // get the batched items (they are stored in the event store
-                    // as
-                    // json strings
-                    JSONArray toSend = new JSONArray();
+                    // the batched items are stored in the event store as json
+                    // strings, and are encoded straight into the request body
                     EventIterator iter = eventStore.iterator();
 
                     int submissions = 0;
                     int maxAllowedSubmissions = context.getConfiguration().optInt(
                             KEY_MAX_SUBMISSIONS_ALLOWED, DEFAULT_MAX_SUBMISSIONS_ALLOWED);
+                    int maxConcurrentSubmissions = Math.min(MAX_CONCURRENT_SUBMISSIONS_LIMIT,
+                            context.getConfiguration().optInt(KEY_MAX_CONCURRENT_SUBMISSIONS,
+                                    DEFAULT_MAX_CONCURRENT_SUBMISSIONS));
+                    if (maxConcurrentSubmissions > 1) {
+                        submitConcurrently(iter, policies, maxRequestSize,
+                                maxAllowedSubmissions, maxConcurrentSubmissions);
+                        Log.v(TAG, String.format("Time of attemptDelivery: %d",
+                                System.currentTimeMillis() - start));
+                        return;
+                    }
                     while (iter.hasNext() && submissions < maxAllowedSubmissions) {
                         try {
-                            toSend = getNextBatchToSubmit(iter,
-                                    maxRequestSize);
+                            EncodedPutEventsRequest request = requestBuilder
+                                    .createRecordEventsRequest(iter, maxRequestSize,
+                                            context.getNetworkType());
+                            if (request.getEventCount() == 0) {
+                                // only invalid events were read, drop them
+                                iter.removeReadEvents();
+                                continue;
+                            }
 
-                            successful = submitEvents(toSend, policies);
+                            successful = submitEvents(request, policies);
 
                             if (successful) {
                                 submissions++;
@@ -287,8 +334,6 @@ public class DefaultDeliveryClient implements DeliveryClient {
                             } else {
                                 break;
                             }
-                        } catch (JSONException e) {
-                            Log.e(TAG, "Could not convert stored event into json", e);
                         } catch (Exception e) {
                             Log.e(TAG, "An internal error occured, events could not be submitted",
                                     e);
@@ -303,44 +348,143 @@ public class DefaultDeliveryClient implements DeliveryClient {
         }
     }
 
-    boolean submitEvents(final JSONArray eventArray, final List<DeliveryPolicy> policies) {
-        boolean submitted = false;
+    /**
+     * Submits up to the given number of batches, keeping several of them in
+     * flight at once. The number in flight grows up to the given maximum, and
+     * is halved when the latency of the submissions shows that the network is
+     * saturated. The events of each batch are removed from the event store as
+     * soon as it is submitted, whether the batches read before it were or not.
+     * After a batch fails, or the thread is interrupted, no more batches are
+     * submitted, but the ones in flight are still waited for, so that their
+     * events aren't sent again.
+     */
+    private void submitConcurrently(final EventIterator iter, final List<DeliveryPolicy> policies,
+            final long maxRequestSize, final int maxBatches, final int maxConcurrentSubmissions) {
+        if (submissionConcurrency <= 0 || submissionConcurrency > maxConcurrentSubmissions) {
+            submissionConcurrency = maxConcurrentSubmissions;
+        }
+
+        final CompletionService<Submission> completions = new ExecutorCompletionService<Submission>(
+                putEventsExecutor);
+        Position batchStart = iter.getReadPosition();
+        int inflight = 0;
+        int submissions = 0;
+        boolean failed = false;
+        boolean interrupted = false;
+        while (true) {
+            while (!failed && inflight < submissionConcurrency && submissions < maxBatches
+                    && iter.hasNext()) {
+                try {
+                    final EncodedPutEventsRequest request = requestBuilder
+                            .createRecordEventsRequest(iter, maxRequestSize,
+                                    context.getNetworkType());
+                    final Position batchEnd = iter.getReadPosition();
+                    final Submission submission = new Submission(request, batchStart, batchEnd);
+                    batchStart = batchEnd;
+                    if (request.getEventCount() == 0) {
+                        // only invalid events were read, drop them
+                        eventStore.removeEvents(submission.from, submission.to);
+                        continue;
+                    }
+                    completions.submit(submission);
+                    inflight++;
+                    submissions++;
+                } catch (RejectedExecutionException e) {
+                    Log.e(TAG, "Unable to submit events, the executor was shut down", e);
+                    failed = true;
+                } catch (Exception e) {
+                    Log.e(TAG, "An internal error occured, events could not be submitted", e);
+                    failed = true;
+                }
+            }
+            if (inflight == 0) {
+                break;
+            }
+
+            final Submission submission;
+            try {
+                submission = completions.take().get();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                failed = true;
+                continue;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "An internal error occured, events could not be submitted", e);
+                inflight--;
+                failed = true;
+                continue;
+            }
+            inflight--;
+            for (DeliveryPolicy policy : policies) {
+                policy.handleDeliveryAttempt(submission.successful);
+            }
+            if (submission.successful) {
+                eventStore.removeEvents(submission.from, submission.to);
+                adjustSubmissionConcurrency(submission.latencyMillis, maxConcurrentSubmissions);
+            } else {
+                failed = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of submissions currently kept in flight at once.
+     */
+    int getSubmissionConcurrency() {
+        return submissionConcurrency;
+    }
+
+    private void adjustSubmissionConcurrency(long latencyMillis, int maxConcurrentSubmissions) {
+        minSubmissionLatencyMillis = Math.min(minSubmissionLatencyMillis, Math.max(latencyMillis, 1));
+        if (latencyMillis > SATURATED_LATENCY_FACTOR * minSubmissionLatencyMillis
+                && submissionConcurrency > 1) {
+            submissionConcurrency /= 2;
+            // the network may have changed, learn its latency again
+            minSubmissionLatencyMillis = Long.MAX_VALUE;
+        } else if (submissionConcurrency < maxConcurrentSubmissions) {
+            submissionConcurrency++;
+        }
+    }
+
+    boolean submitEvents(final EncodedPutEventsRequest request,
+            final List<DeliveryPolicy> policies) {
+        boolean submitted = putEvents(request);
+        for (DeliveryPolicy policy : policies) {
+            policy.handleDeliveryAttempt(submitted);
+        }
+        return submitted;
+    }
+
+    /**
+     * Sends the request, returning whether its events can be removed, which
+     * they can unless sending them again might succeed.
+     */
+    private boolean putEvents(final EncodedPutEventsRequest request) {
+        int eventCount = request.getEventCount();
 
-        // package them into an ers request
-        PutEventsRequest request = requestBuilder.createRecordEventsRequest(eventArray,
-                context.getNetworkType());
         request.withClientContextEncoding("base64");
 
         request.getRequestClientOptions().appendUserAgent(USER_AGENT);
 
         try {
             context.getERSClient().putEvents(request);
-            submitted = true;
-            Log.i(TAG, String.format("Successful submission of %d events", eventArray.length()));
-
-            for (DeliveryPolicy policy : policies) {
-                policy.handleDeliveryAttempt(submitted);
-            }
-
-            return submitted;
+            Log.i(TAG, String.format("Successful submission of %d events", eventCount));
+            return true;
         } catch (AmazonServiceException e) {
             Log.e(TAG, "AmazonServiceException occured during send of put event ", e);
             String errorCode = e.getErrorCode();
             if (errorCode.equalsIgnoreCase("ValidationException")
                     || errorCode.equalsIgnoreCase("SerializationException")
                     || errorCode.equalsIgnoreCase("BadRequestException")) {
-                submitted = true;
                 Log.e(TAG, String.format(
                         "Failed to submit events to EventService: statusCode: " + e.getStatusCode()
                                 + " errorCode: ", errorCode));
                 Log.e(TAG, String.format("Failed submission of %d events, events will be removed",
-                        eventArray.length()), e);
-
-                for (DeliveryPolicy policy : policies) {
-                    policy.handleDeliveryAttempt(submitted);
-                }
-
-                return submitted;
+                        eventCount), e);
+                return true;
             } else {
                 Log.w(TAG,
                         "Unable to successfully deliver events to server. Events will be saved, error likely recoverable.  Response status code "
@@ -354,12 +498,33 @@ public class DefaultDeliveryClient implements DeliveryClient {
                     "Unable to successfully deliver events to server. Events will be saved, error likely recoverable."
                             + e2.getMessage());
         }
+        return false;
+    }
 
-        for (DeliveryPolicy policy : policies) {
-            policy.handleDeliveryAttempt(submitted);
+    /**
+     * A batch of events read from the event store, in flight or submitted.
+     */
+    private final class Submission implements Callable<Submission> {
+        final EncodedPutEventsRequest request;
+        /** The positions of the stored events read for the batch, valid or not. */
+        final Position from;
+        final Position to;
+        volatile boolean successful;
+        volatile long latencyMillis;
+
+        Submission(EncodedPutEventsRequest request, Position from, Position to) {
+            this.request = request;
+            this.from = from;
+            this.to = to;
         }
 
-        return submitted;
+        @Override
+        public Submission call() {
+            long start = System.currentTimeMillis();
+            successful = putEvents(request);
+            latencyMillis = System.currentTimeMillis() - start;
+            return this;
+        }
     }
 
 }
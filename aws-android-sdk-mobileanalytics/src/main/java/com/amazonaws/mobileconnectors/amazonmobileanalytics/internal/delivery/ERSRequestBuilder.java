@@ -17,82 +17,350 @@ package com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery;
 
 import android.util.Log;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.system.AndroidDeviceDetails;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.system.DeviceDetails;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery.EventStore.EventIterator;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.event.ClientContext;
-import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.event.InternalEvent;
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.event.adapter.JSONEventAdapter;
-import com.amazonaws.services.mobileanalytics.model.Event;
-import com.amazonaws.services.mobileanalytics.model.PutEventsRequest;
-import com.amazonaws.services.mobileanalytics.model.Session;
 import com.amazonaws.util.Base64;
 import com.amazonaws.util.DateUtils;
 import com.amazonaws.util.StringUtils;
+import com.amazonaws.util.json.AwsJsonReader;
+import com.amazonaws.util.json.AwsJsonToken;
+import com.amazonaws.util.json.AwsJsonWriter;
+import com.amazonaws.util.json.JsonUtils;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
 import java.util.Date;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 public class ERSRequestBuilder {
 
     private static final String TAG = "ERSRequestBuilder";
 
-    public PutEventsRequest createRecordEventsRequest(JSONArray events, String networkType) {
+    /** Size of the gzip trailer, which is only written when the body is finished. */
+    private static final int GZIP_TRAILER_SIZE = 8;
+    /** Compression ratio assumed until one is measured. */
+    private static final double INITIAL_COMPRESSION_RATIO = 0.5;
+    private static final double MIN_COMPRESSION_RATIO = 0.02;
 
-        String body = events.toString();
-        if (body == null) {
-            return null;
+    /**
+     * Compression ratio of the last encoded request, used to estimate the
+     * compressed size of the events the compressor has not output yet.
+     */
+    private volatile double compressionRatio = INITIAL_COMPRESSION_RATIO;
+
+    /**
+     * Creates a request from the events of the given iterator, transcoding
+     * them from their stored form straight into the gzip-compressed JSON body
+     * of the request, without building intermediate JSON objects or model
+     * events. Events are read until the compressed body would exceed the given
+     * size, but at least one event is read. Stored events that are invalid are
+     * read and dropped.
+     *
+     * @param iter the stored events
+     * @param maxCompressedSize the maximum size of the compressed body
+     * @param networkType the network type reported in the client context
+     * @return the request, whose event count is zero if only invalid events
+     *         were read
+     */
+    EncodedPutEventsRequest createRecordEventsRequest(EventIterator iter,
+            long maxCompressedSize, String networkType) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        StoredEvent event = new StoredEvent();
+        StoredEvent lastEvent = null;
+        int eventCount = 0;
+        long uncompressedSize = 0;
+        long compressedSize = 0;
+        long uncompressedSizeWhenCompressed = 0;
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(body, 8192);
+            Writer writer = new OutputStreamWriter(gzip, StringUtils.UTF8);
+            AwsJsonWriter jsonWriter = JsonUtils.getJsonWriter(writer);
+            jsonWriter.beginObject();
+            jsonWriter.name("events");
+            jsonWriter.beginArray();
+
+            boolean first = true;
+            while (iter.hasNext()) {
+                String stored = iter.peek();
+                if (stored == null) {
+                    break;
+                }
+
+                // the compressor holds back its output, so estimate the size
+                // of what it hasn't output yet by the ratio it achieved so far
+                if (body.size() != compressedSize) {
+                    compressedSize = body.size();
+                    uncompressedSizeWhenCompressed = uncompressedSize;
+                }
+                double ratio = uncompressedSizeWhenCompressed > 0
+                        ? (double) compressedSize / uncompressedSizeWhenCompressed
+                        : compressionRatio;
+                long estimatedSize = compressedSize + GZIP_TRAILER_SIZE + (long) Math.ceil(
+                        (uncompressedSize - uncompressedSizeWhenCompressed + stored.length())
+                                * ratio);
+                if (!first && estimatedSize > maxCompressedSize) {
+                    break;
+                }
+                first = false;
+                iter.next();
+
+                if (!event.read(stored)) {
+                    event = new StoredEvent();
+                    continue;
+                }
+                event.write(jsonWriter);
+                // push the event into the compressor, so that its output
+                // can be measured
+                jsonWriter.flush();
+                uncompressedSize += stored.length();
+                eventCount++;
+                lastEvent = event;
+                event = new StoredEvent();
+            }
+
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+            jsonWriter.flush();
+            gzip.finish();
+            writer.close();
+        } catch (IOException e) {
+            throw new AmazonClientException("Unable to encode the events: " + e.getMessage(), e);
         }
 
-        PutEventsRequest putRequest = new PutEventsRequest();
-        List<Event> eventList = new ArrayList<Event>();
-        JSONEventAdapter eventAdapter = new JSONEventAdapter();
+        byte[] content = body.toByteArray();
+        if (uncompressedSize > 0) {
+            compressionRatio = Math.max(MIN_COMPRESSION_RATIO,
+                    Math.min(1.0, (double) content.length / uncompressedSize));
+        }
 
-        ClientContext clientContext = null;
-        for (int i = 0; i < events.length(); i++) {
-            JSONObject eventJSON = null;
-            InternalEvent internalEvent = null;
+        EncodedPutEventsRequest putRequest = new EncodedPutEventsRequest(content, eventCount);
+        if (lastEvent != null) {
+            putRequest.withClientContext(Base64.encodeAsString(lastEvent
+                    .createClientContext(networkType).toJSONObject().toString()
+                    .getBytes(StringUtils.UTF8)));
+        } else {
+            Log.e(TAG, "No valid events were read");
+        }
+        return putRequest;
+    }
+
+    /**
+     * The fields of an event, read from the JSON it is stored as by
+     * {@link JSONEventAdapter}.
+     */
+    private static final class StoredEvent {
+        String eventType;
+        Long timestamp;
+        String uniqueId;
+        String sessionId;
+        Long sessionStart;
+        long sessionStop;
+        long sessionDuration;
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        final Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+
+        String appPackageName = "";
+        String appVersionCode = "";
+        String appVersionName = "";
+        String appTitle = "";
+        String appId = "";
+        String carrier = "";
+
+        /**
+         * Reads the given stored event, returning whether it is valid. The
+         * same fields as {@link JSONEventAdapter#translateToEvent(JSONObject)}
+         * are required.
+         */
+        boolean read(String stored) {
+            AwsJsonReader reader = JsonUtils.getJsonReader(new StringReader(stored));
             try {
-                eventJSON = events.getJSONObject(i);
-                internalEvent = eventAdapter.translateToEvent(eventJSON);
-            } catch (JSONException e) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("event_type".equals(name)) {
+                        eventType = reader.nextString();
+                    } else if ("timestamp".equals(name)) {
+                        timestamp = parseLong(reader.nextString());
+                    } else if ("unique_id".equals(name)) {
+                        uniqueId = reader.nextString();
+                    } else if ("session".equals(name)) {
+                        readSession(reader);
+                    } else if ("attributes".equals(name)) {
+                        readAttributes(reader);
+                    } else if ("metrics".equals(name)) {
+                        readMetrics(reader);
+                    } else if ("app_package_name".equals(name)) {
+                        appPackageName = optString(reader);
+                    } else if ("app_version_code".equals(name)) {
+                        appVersionCode = optString(reader);
+                    } else if ("app_version_name".equals(name)) {
+                        appVersionName = optString(reader);
+                    } else if ("app_title".equals(name)) {
+                        appTitle = optString(reader);
+                    } else if (ClientContext.APP_ID_KEY.equals(name)) {
+                        appId = optString(reader);
+                    } else if ("carrier".equals(name)) {
+                        carrier = optString(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } catch (Exception e) {
                 Log.e(TAG, "Stored event was invalid JSON", e);
-                continue;
+                return false;
+            } finally {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // reading from a string
+                }
             }
-            clientContext = internalEvent.createClientContext(networkType);
-            Event event = new Event();
-            Session session = new Session();
-            session.withId(internalEvent.getSessionId());
-            session.withStartTimestamp(DateUtils.formatISO8601Date(new Date(internalEvent
-                    .getSessionStart())));
-            if (internalEvent.getSessionStop() != null && internalEvent.getSessionStop() != 0L) {
-                session.withStopTimestamp(DateUtils.formatISO8601Date(new Date(internalEvent
-                        .getSessionStop())));
+            if (eventType == null || timestamp == null || uniqueId == null
+                    || sessionId == null || sessionStart == null) {
+                Log.e(TAG, "Stored event was missing required fields");
+                return false;
+            }
+            return true;
+        }
+
+        private void readSession(AwsJsonReader reader) throws IOException {
+            if (reader.peek() == AwsJsonToken.VALUE_NULL) {
+                reader.skipValue();
+                return;
             }
-            if (internalEvent.getSessionDuration() != null
-                    && internalEvent.getSessionDuration() != 0L) {
-                session.withDuration(internalEvent.getSessionDuration());
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("id".equals(name)) {
+                    sessionId = reader.nextString();
+                } else if ("startTimestamp".equals(name)) {
+                    sessionStart = parseLong(reader.nextString());
+                } else if ("stopTimestamp".equals(name)) {
+                    Long stop = parseLong(reader.nextString());
+                    sessionStop = stop == null ? 0L : stop;
+                } else if ("duration".equals(name)) {
+                    Long duration = parseLong(reader.nextString());
+                    sessionDuration = duration == null ? 0L : duration;
+                } else {
+                    reader.skipValue();
+                }
             }
+            reader.endObject();
+        }
 
-            event.withAttributes(internalEvent.getAllAttributes())
-                    .withMetrics(internalEvent.getAllMetrics())
-                    .withEventType(internalEvent.getEventType())
-                    .withTimestamp(
-                            DateUtils.formatISO8601Date(new Date(internalEvent.getEventTimestamp())))
-                    .withSession(session);
+        private void readAttributes(AwsJsonReader reader) throws IOException {
+            if (reader.peek() == AwsJsonToken.VALUE_NULL) {
+                reader.skipValue();
+                return;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                attributes.put(name, optString(reader));
+            }
+            reader.endObject();
+        }
 
-            eventList.add(event);
+        private void readMetrics(AwsJsonReader reader) throws IOException {
+            if (reader.peek() == AwsJsonToken.VALUE_NULL) {
+                reader.skipValue();
+                return;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                String value = reader.nextString();
+                try {
+                    metrics.put(name, Double.valueOf(value));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to convert metric back to double from JSON value", e);
+                }
+            }
+            reader.endObject();
         }
 
-        if (clientContext != null && eventList.size() > 0) {
-            putRequest.withEvents(eventList).withClientContext(
-                    Base64.encodeAsString(clientContext.toJSONObject().toString()
-                            .getBytes(StringUtils.UTF8)));
-        } else {
-            Log.e(TAG, "ClientContext is null or event list is empty");
+        /**
+         * Writes the event as it is sent to the service.
+         */
+        void write(AwsJsonWriter jsonWriter) throws IOException {
+            jsonWriter.beginObject();
+            jsonWriter.name("eventType").value(eventType);
+            jsonWriter.name("timestamp").value(
+                    DateUtils.formatISO8601Date(new Date(timestamp)));
+
+            jsonWriter.name("session");
+            jsonWriter.beginObject();
+            jsonWriter.name("id").value(sessionId);
+            if (sessionDuration != 0L) {
+                jsonWriter.name("duration").value(sessionDuration);
+            }
+            jsonWriter.name("startTimestamp").value(
+                    DateUtils.formatISO8601Date(new Date(sessionStart)));
+            if (sessionStop != 0L) {
+                jsonWriter.name("stopTimestamp").value(
+                        DateUtils.formatISO8601Date(new Date(sessionStop)));
+            }
+            jsonWriter.endObject();
+
+            jsonWriter.name("attributes");
+            jsonWriter.beginObject();
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                jsonWriter.name(attribute.getKey()).value(attribute.getValue());
+            }
+            jsonWriter.endObject();
+
+            jsonWriter.name("metrics");
+            jsonWriter.beginObject();
+            for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                jsonWriter.name(metric.getKey()).value(metric.getValue());
+            }
+            jsonWriter.endObject();
+            jsonWriter.endObject();
+        }
+
+        ClientContext createClientContext(String networkType) {
+            DeviceDetails deviceDetails = new AndroidDeviceDetails(carrier);
+            return new ClientContext.ClientContextBuilder()
+                    .withAppPackageName(appPackageName)
+                    .withAppVersionCode(appVersionCode)
+                    .withAppVersionName(appVersionName)
+                    .withLocale(deviceDetails.locale().toString())
+                    .withMake(deviceDetails.manufacturer()).withModel(deviceDetails.model())
+                    .withPlatformVersion(deviceDetails.platformVersion())
+                    .withUniqueId(uniqueId)
+                    .withAppTitle(appTitle).withNetworkType(networkType)
+                    .withCarrier(deviceDetails.carrier())
+                    .withAppId(appId)
+                    .build();
+        }
+
+        private static String optString(AwsJsonReader reader) throws IOException {
+            String value = reader.nextString();
+            return value == null ? "" : value;
+        }
+
+        private static Long parseLong(String value) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                return Long.valueOf(value);
+            } catch (NumberFormatException e) {
+                // numbers may have been stored in floating point notation
+                return (long) Double.parseDouble(value);
+            }
         }
-        return putRequest;
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Sends the body of an {@link EncodedPutEventsRequest} as is, in place of the
+ * body the client marshalled for its empty list of events. Request handlers
+ * run before the request is signed, so the signature covers the encoded body.
+ */
+final class EncodedPutEventsHandler extends RequestHandler2 {
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        if (request == null
+                || !(request.getOriginalRequest() instanceof EncodedPutEventsRequest)) {
+            return;
+        }
+        byte[] content = ((EncodedPutEventsRequest) request.getOriginalRequest())
+                .getEncodedBody();
+        request.setContent(new ByteArrayInputStream(content));
+        request.addHeader("Content-Length", Integer.toString(content.length));
+        request.addHeader("Content-Type", "application/x-amz-json-1.0");
+        request.addHeader("Content-Encoding", "gzip");
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+    }
+}
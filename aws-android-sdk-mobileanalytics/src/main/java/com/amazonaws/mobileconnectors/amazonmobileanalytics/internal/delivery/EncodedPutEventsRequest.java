@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery;
+
+import com.amazonaws.services.mobileanalytics.model.PutEventsRequest;
+
+/**
+ * A {@link PutEventsRequest} whose events have already been encoded as the
+ * gzip-compressed JSON body of the request by {@link ERSRequestBuilder}. The
+ * {@link #getEvents() events} of the request are left empty, and
+ * {@link EncodedPutEventsHandler} replaces the body the client marshalled for
+ * them with the encoded one.
+ */
+class EncodedPutEventsRequest extends PutEventsRequest {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] encodedBody;
+
+    private final int eventCount;
+
+    /**
+     * @param encodedBody the gzip-compressed JSON body of the request
+     * @param eventCount the number of events in the body
+     */
+    EncodedPutEventsRequest(byte[] encodedBody, int eventCount) {
+        if (encodedBody == null) {
+            throw new IllegalArgumentException("encodedBody cannot be null");
+        }
+        this.encodedBody = encodedBody;
+        this.eventCount = eventCount;
+    }
+
+    /**
+     * Returns the gzip-compressed JSON body of the request.
+     */
+    byte[] getEncodedBody() {
+        return encodedBody;
+    }
+
+    /**
+     * Returns the number of events in the body.
+     */
+    int getEventCount() {
+        return eventCount;
+    }
+}
@@ -22,9 +22,62 @@ public interface EventStore {
 
     public EventIterator iterator();
 
+    /**
+     * Removes the events between the two positions, even if events before
+     * them haven't been removed yet. Those are still read, while the removed
+     * ones are skipped from then on.
+     */
+    public void removeEvents(final Position from, final Position to);
+
     public static interface EventIterator extends Iterator<String> {
         public void removeReadEvents();
 
         public String peek();
+
+        /**
+         * Returns the position after the last event returned by next().
+         */
+        public Position getReadPosition();
+    }
+
+    /**
+     * A position between two stored events: a segment of the store and an
+     * offset in it.
+     */
+    public static final class Position implements Comparable<Position> {
+        final long segment;
+        final long offset;
+
+        Position(final long segment, final long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        @Override
+        public int compareTo(final Position other) {
+            if (segment != other.segment) {
+                return segment < other.segment ? -1 : 1;
+            }
+            return offset < other.offset ? -1 : (offset == other.offset ? 0 : 1);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Position)) {
+                return false;
+            }
+            final Position other = (Position) obj;
+            return segment == other.segment && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (segment * 31 + offset);
+        }
+
+        @Override
+        public String toString() {
+            return segment + " " + offset;
+        }
     }
 }
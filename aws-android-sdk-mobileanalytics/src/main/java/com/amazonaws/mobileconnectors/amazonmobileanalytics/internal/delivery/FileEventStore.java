@@ -21,32 +21,73 @@ import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.Analyt
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.system.FileManager;
 import com.amazonaws.util.StringUtils;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.Writer;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * An event store that appends events, one per line, to a series of segment
+ * files in the events directory. The position up to which events have been
+ * submitted is persisted in a cursor file, so removing the read events only
+ * advances the cursor and deletes the segments that have been read entirely,
+ * rather than rewriting the unread events. Events that are removed while
+ * events before them are still stored, such as those of a batch submitted
+ * ahead of an earlier one, are recorded as ranges in the cursor file, and
+ * skipped by the readers until the cursor moves past them.
+ * <p>
+ * Events are appended through a long-lived stream that is flushed after every
+ * event, and synced to the disk at most every {@link #SYNC_INTERVAL_MILLIS}.
+ * If the process dies, at worst events that were read but not yet removed are
+ * read again, as the cursor is only moved after they have been submitted.
+ */
 public class FileEventStore implements EventStore {
     private static final String TAG = "FileEventStore";
     static final String EVENTS_DIRECTORY = "events";
     static final String EVENT_FILE_NAME = "eventsFile";
+    static final String SEGMENT_FILE_PREFIX = EVENT_FILE_NAME + ".";
+    static final String CURSOR_FILE_NAME = "eventsCursor";
     static final String KEY_MAX_STORAGE_SIZE = "maxStorageSize";
     static final double ERROR_LENGTH_THRESHOLD_PERCENTAGE = 1.1;
-    private final ReentrantLock accessLock = new ReentrantLock(true);
 
     static long MAX_STORAGE_SIZE = 1024 * 1024 * 5L;
+    static long MAX_SEGMENT_SIZE = 256 * 1024L;
+    static long SYNC_INTERVAL_MILLIS = 1000L;
+
+    private final ReentrantLock accessLock = new ReentrantLock();
 
     private final AnalyticsContext context;
-    private File eventsFile;
+    private File eventsDir;
+
+    /** The sequence numbers of the segments on disk, oldest first. */
+    private final TreeSet<Long> segments = new TreeSet<Long>();
+    /** The segment and offset of the first event that hasn't been removed. */
+    private long cursorSegment;
+    private long cursorOffset;
+    /**
+     * The ranges of events removed after the cursor, from their start to their
+     * end, persisted along with the cursor.
+     */
+    private final TreeMap<Position, Position> removedRanges = new TreeMap<Position, Position>();
+    /** The segment events are appended to. */
+    private long activeSegment;
+    private long activeSegmentSize;
+    private OutputStream output;
+    private FileOutputStream fileOutput;
+    private long lastSyncTime;
+    /** The number of bytes of events that haven't been removed. */
+    private long storedSize;
 
     public static FileEventStore newInstance(final AnalyticsContext context) {
         return new FileEventStore(context);
@@ -54,72 +95,315 @@ public class FileEventStore implements EventStore {
 
     public FileEventStore(final AnalyticsContext context) {
         this.context = context;
-        tryCreateEventsFile();
+        accessLock.lock();
+        try {
+            recover();
+        } finally {
+            accessLock.unlock();
+        }
     }
 
     @Override
     public boolean put(final String event) throws EventStoreException {
-        boolean success = false;
-        BufferedWriter writer = null;
-
+        final byte[] bytes = event.getBytes(StringUtils.UTF8);
         accessLock.lock();
         try {
-            writer = tryInitializeWriter();
-            if (writer != null) {
-                final long maxStorageSize = context.getConfiguration().optLong(
-                        KEY_MAX_STORAGE_SIZE, MAX_STORAGE_SIZE);
-                if (eventsFile.length() + event.length() <= maxStorageSize) {
-                    writer.write(event);
-                    writer.newLine();
-                    writer.flush();
-                    success = true;
-                }
+            final long maxStorageSize = context.getConfiguration().optLong(
+                    KEY_MAX_STORAGE_SIZE, MAX_STORAGE_SIZE);
+            if (storedSize + bytes.length + 1 > maxStorageSize) {
+                return false;
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to persist the event", e);
+            if (activeSegmentSize > 0 && activeSegmentSize + bytes.length + 1 > MAX_SEGMENT_SIZE) {
+                closeOutput();
+                activeSegment++;
+                activeSegmentSize = 0;
+            }
+            final OutputStream out = tryInitializeOutput();
+            try {
+                out.write(bytes);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to persist the event", e);
+                // the segment may end with a partial event, so append to a
+                // new one from now on
+                closeOutput();
+                activeSegment++;
+                activeSegmentSize = 0;
+                return false;
+            }
+            activeSegmentSize += bytes.length + 1;
+            storedSize += bytes.length + 1;
+            syncIfDue();
+            return true;
         } finally {
-            tryCloseWriter(writer);
             accessLock.unlock();
         }
-
-        return success;
     }
 
-    private boolean tryCreateEventsFile() {
-        if (eventsFile != null && eventsFile.exists()) {
-            return true;
+    /**
+     * Reads the segments and the cursor left on disk, deleting the segments
+     * that were read entirely.
+     */
+    private void recover() {
+        final FileManager fileManager = context.getSystem().getFileManager();
+        eventsDir = fileManager.createDirectory(EVENTS_DIRECTORY);
+        if (eventsDir == null) {
+            Log.e(TAG, "Unable to create the events directory");
+            return;
         }
 
-        synchronized (this) {
-            if (eventsFile != null && eventsFile.exists()) {
-                return true;
+        // a temporary file left by older versions, which rewrote the events
+        // file when events were removed
+        deleteQuietly(new File(eventsDir, EVENT_FILE_NAME + ".tmp"));
+        deleteQuietly(new File(eventsDir, CURSOR_FILE_NAME + ".tmp"));
+
+        for (File file : fileManager.listFilesInDirectory(eventsDir)) {
+            final String name = file.getName();
+            if (name.startsWith(SEGMENT_FILE_PREFIX)) {
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignoring unexpected file in the events directory: " + name);
+                }
+            }
+        }
+
+        // older versions stored all the events in a single file, which
+        // becomes the first segment
+        final File legacyFile = new File(eventsDir, EVENT_FILE_NAME);
+        if (legacyFile.exists()) {
+            final long segment = segments.isEmpty() ? 0 : segments.first() - 1;
+            if (legacyFile.length() > 0 && legacyFile.renameTo(segmentFile(segment))) {
+                segments.add(segment);
+            } else {
+                deleteQuietly(legacyFile);
             }
+        }
 
-            try {
-                FileManager fileManager = context.getSystem().getFileManager();
-                File eventsDir = fileManager.createDirectory(EVENTS_DIRECTORY);
-                eventsFile = fileManager.createFile(new File(eventsDir, EVENT_FILE_NAME));
-                return true;
-            } catch (IOException e) {
-                Log.e(TAG, "Unable to open events file");
-                Log.e(TAG, "An error occurred while attempting to create/open the events file", e);
+        readCursor();
+        if (segments.isEmpty() || cursorSegment < segments.first()) {
+            cursorSegment = segments.isEmpty() ? Math.max(cursorSegment, 0) : segments.first();
+            cursorOffset = 0;
+        }
+        if (segments.isEmpty()) {
+            removedRanges.clear();
+        }
+        final Position cursor = skipRemovedRanges(new Position(cursorSegment, cursorOffset));
+        cursorSegment = cursor.segment;
+        cursorOffset = cursor.offset;
+        removedRanges.headMap(cursor, true).clear();
+        while (!segments.isEmpty() && segments.first() < cursorSegment) {
+            deleteQuietly(segmentFile(segments.pollFirst()));
+        }
+
+        activeSegment = segments.isEmpty() ? cursorSegment : segments.last();
+        activeSegmentSize = segments.isEmpty() ? 0 : segmentFile(activeSegment).length();
+        if (activeSegmentSize > 0 && !endsWithNewLine(segmentFile(activeSegment))) {
+            // the last event was only partially written, don't append to it
+            activeSegment++;
+            activeSegmentSize = 0;
+        }
+        storedSize = computeStoredSize();
+    }
+
+    private void readCursor() {
+        final File cursorFile = new File(eventsDir, CURSOR_FILE_NAME);
+        if (!cursorFile.exists()) {
+            return;
+        }
+        InputStream in = null;
+        try {
+            in = context.getSystem().getFileManager().newInputStream(cursorFile);
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[64];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            // the cursor, followed by the removed ranges, one per line
+            final String[] lines = new String(bytes.toByteArray(), StringUtils.UTF8)
+                    .trim().split("\n");
+            final String[] position = lines[0].trim().split(" ");
+            cursorSegment = Long.parseLong(position[0]);
+            cursorOffset = Long.parseLong(position[1]);
+            for (int i = 1; i < lines.length; i++) {
+                final String[] range = lines[i].trim().split(" ");
+                removedRanges.put(
+                        new Position(Long.parseLong(range[0]), Long.parseLong(range[1])),
+                        new Position(Long.parseLong(range[2]), Long.parseLong(range[3])));
+            }
+        } catch (Exception e) {
+            // read all the events again rather than lose any
+            Log.e(TAG, "Unable to read the events cursor", e);
+            cursorSegment = 0;
+            cursorOffset = 0;
+            removedRanges.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the cursor, and the removed ranges after it, to a temporary file,
+     * and then renames it to the cursor file, so that the cursor is never
+     * partially written.
+     */
+    private boolean writeCursor(final long segment, final long offset) {
+        final File cursorFile = new File(eventsDir, CURSOR_FILE_NAME);
+        final File tempFile = new File(eventsDir, CURSOR_FILE_NAME + ".tmp");
+        final StringBuilder cursor = new StringBuilder().append(segment).append(' ')
+                .append(offset);
+        for (Map.Entry<Position, Position> range : removedRanges
+                .tailMap(new Position(segment, offset), false).entrySet()) {
+            cursor.append('\n').append(range.getKey()).append(' ').append(range.getValue());
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(cursor.toString().getBytes(StringUtils.UTF8));
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(cursorFile)) {
+                // some platforms don't rename over an existing file
+                if (!cursorFile.delete() || !tempFile.renameTo(cursorFile)) {
+                    Log.e(TAG, "Failed to rename the temporary events cursor file");
+                    return false;
+                }
             }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "An error occurred while attempting to write the events cursor", e);
             return false;
+        } finally {
+            closeQuietly(out);
+            if (tempFile.exists()) {
+                deleteQuietly(tempFile);
+            }
         }
     }
 
-    private BufferedWriter tryInitializeWriter() throws EventStoreException {
-        BufferedWriter writer = null;
+    @Override
+    public void removeEvents(final Position from, final Position to) {
+        accessLock.lock();
         try {
-            if (tryCreateEventsFile()) {
-                OutputStream stream = context.getSystem().getFileManager()
-                        .newOutputStream(eventsFile, true);
-                writer = new BufferedWriter(new OutputStreamWriter(stream, StringUtils.UTF8));
-            } else {
+            if (eventsDir == null) {
+                return;
+            }
+            if (from.compareTo(new Position(cursorSegment, cursorOffset)) <= 0) {
+                removeEventsBefore(to.segment, to.offset);
+                return;
+            }
+            // merge the range with those it overlaps or adjoins
+            Position start = from;
+            Position end = to;
+            final Map.Entry<Position, Position> before = removedRanges.floorEntry(from);
+            if (before != null && before.getValue().compareTo(from) >= 0) {
+                start = before.getKey();
+                end = max(end, before.getValue());
+            }
+            Position next;
+            while ((next = removedRanges.ceilingKey(start)) != null && next.compareTo(end) <= 0) {
+                end = max(end, removedRanges.remove(next));
+            }
+            removedRanges.put(start, end);
+            writeCursor(cursorSegment, cursorOffset);
+        } finally {
+            accessLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the given position, or the end of the removed ranges that start
+     * at or before it.
+     */
+    private Position skipRemovedRanges(Position position) {
+        for (Map.Entry<Position, Position> range : removedRanges.entrySet()) {
+            if (range.getKey().compareTo(position) > 0) {
+                break;
+            }
+            position = max(position, range.getValue());
+        }
+        return position;
+    }
+
+    private static Position max(final Position a, final Position b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    /**
+     * Removes the events before the given position, by moving the cursor there,
+     * or past the removed ranges it reaches, and deleting the segments before
+     * it.
+     */
+    private void removeEventsBefore(long segment, long offset) {
+        if (eventsDir == null || segment < cursorSegment
+                || (segment == cursorSegment && offset <= cursorOffset)) {
+            return;
+        }
+        final Position end = skipRemovedRanges(new Position(segment, offset));
+        segment = end.segment;
+        offset = end.offset;
+        // move past the segments that were read entirely
+        while (segment != activeSegment && offset >= segmentFile(segment).length()) {
+            final Long next = segments.higher(segment);
+            segment = next != null ? next : activeSegment;
+            offset = 0;
+        }
+        if (segment == activeSegment && offset >= activeSegmentSize) {
+            // all the events were read, start over with a new segment
+            closeOutput();
+            segment = ++activeSegment;
+            offset = 0;
+            activeSegmentSize = 0;
+        }
+
+        if (!writeCursor(segment, offset)) {
+            return;
+        }
+        cursorSegment = segment;
+        cursorOffset = offset;
+        removedRanges.headMap(new Position(cursorSegment, cursorOffset), true).clear();
+        while (!segments.isEmpty() && segments.first() < cursorSegment) {
+            if (!segmentFile(segments.pollFirst()).delete()) {
+                Log.e(TAG, "Failed to delete a segment of read events");
+            }
+        }
+        storedSize = computeStoredSize();
+    }
+
+    private long computeStoredSize() {
+        long size = 0;
+        for (Long segment : segments) {
+            size += segment == activeSegment ? activeSegmentSize : segmentFile(segment).length();
+        }
+        if (segments.contains(cursorSegment)) {
+            size -= cursorOffset;
+        }
+        return Math.max(size, 0);
+    }
+
+    private OutputStream tryInitializeOutput() throws EventStoreException {
+        if (output != null) {
+            return output;
+        }
+        if (eventsDir == null) {
+            recover();
+            if (eventsDir == null) {
                 throw new EventStoreException("Unable to create eventsFile");
             }
-        } catch (EventStoreException e) {
-            throw e;
+        }
+        try {
+            final File file = segmentFile(activeSegment);
+            final OutputStream stream = context.getSystem().getFileManager()
+                    .newOutputStream(file, true);
+            fileOutput = stream instanceof FileOutputStream ? (FileOutputStream) stream : null;
+            output = new BufferedOutputStream(stream, 8192);
+            segments.add(activeSegment);
+            activeSegmentSize = file.length();
+            lastSyncTime = System.currentTimeMillis();
+            return output;
         } catch (FileNotFoundException e) {
             Log.e(TAG, "Events file not found to persist event to", e);
             throw new EventStoreException("Unable to open events file writer", e);
@@ -127,257 +411,280 @@ public class FileEventStore implements EventStore {
             Log.e(TAG, "Unexpected exception", e);
             throw new EventStoreException("Unexpected error while creating eventsFile writer", e);
         }
-        return writer;
     }
 
-    private void tryCloseWriter(final Writer writer) throws EventStoreException {
-        if (writer != null) {
+    private void syncIfDue() {
+        final long now = System.currentTimeMillis();
+        if (fileOutput != null && now - lastSyncTime >= SYNC_INTERVAL_MILLIS) {
+            lastSyncTime = now;
             try {
-                writer.close();
+                fileOutput.getFD().sync();
             } catch (IOException e) {
-                Log.e(TAG, "Unable to close writer for events file", e);
+                Log.e(TAG, "Unable to sync the events file", e);
             }
         }
     }
 
-    private File deleteReadEvents(final int lineNumber) {
-        // Write all events after line number to a temporary file
-        FileManager fileManager = context.getSystem().getFileManager();
-        File eventsDir = fileManager.createDirectory(EVENTS_DIRECTORY);
-
-        File tempEventsFile = null;
+    private void closeOutput() {
+        if (output == null) {
+            return;
+        }
         try {
-            File tempFile = new File(eventsDir, EVENT_FILE_NAME + ".tmp");
-            if (tempFile.exists()) {
-                if (!tempFile.delete()) {
-                    Log.e(TAG, "Failed to delete previous temp file");
-                }
+            output.flush();
+            if (fileOutput != null) {
+                fileOutput.getFD().sync();
             }
-            tempEventsFile = fileManager.createFile(tempFile);
         } catch (IOException e) {
-            Log.e(TAG,
-                    "An error occurred while attempting to create/open the temporary events file",
-                    e);
-            return eventsFile;
+            Log.e(TAG, "Unable to flush the events file", e);
+        } finally {
+            closeQuietly(output);
+            output = null;
+            fileOutput = null;
         }
+    }
 
-        boolean errorsOccurred = false;
-        if (tempEventsFile != null && eventsFile.exists() && tempEventsFile.exists()) {
-            BufferedReader reader = null;
-            PrintWriter writer = null;
-            try {
-                reader = new BufferedReader(new FileReader(eventsFile));
-                writer = new PrintWriter(new FileWriter(tempEventsFile, true));
-
-                String line = null;
-                int currentLineNumber = 0;
-                while ((line = reader.readLine()) != null) {
-                    currentLineNumber++;
-                    if (currentLineNumber > lineNumber) {
-                        writer.println(line);
-                        writer.flush();
-                    }
-                }
-            } catch (FileNotFoundException e) {
-                errorsOccurred = true;
-                Log.e(TAG, "The events file count not be found", e);
-            } catch (IOException e) {
-                Log.e(TAG, "An error occurred while attempting to delete the read events", e);
-                errorsOccurred = true;
-            } finally {
-                if (writer != null) {
-                    writer.close();
-                }
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException e) {
+    private File segmentFile(final long segment) {
+        return new File(eventsDir, SEGMENT_FILE_PREFIX + segment);
+    }
 
-                    }
-                }
+    private static boolean endsWithNewLine(final File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
 
-                if (!errorsOccurred) {
-                    if (eventsFile.delete()) {
-                        if (!tempEventsFile.renameTo(eventsFile)) {
-                            Log.e(TAG, "Failed to rename temp file to events file");
-                        }
-                        try {
-                            eventsFile = fileManager
-                                    .createFile(new File(eventsDir, EVENT_FILE_NAME));
-                        } catch (IOException e) {
-                            Log.e(TAG,
-                                    "An error occurred while attempting to create the eventsFile",
-                                    e);
-                        }
-                    } else {
-                        Log.e(TAG, "Failed to delete previous events file");
-                    }
-                }
-            }
+    private static void deleteQuietly(final File file) {
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, "Failed to delete " + file.getName());
+        }
+    }
 
-            File tempFile = new File(eventsDir, EVENT_FILE_NAME + ".tmp");
-            if (tempFile.exists()) {
-                if (!tempFile.delete()) {
-                    Log.e(TAG, "Failed to delete temp file");
-                }
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to close the events file", e);
             }
         }
-        return eventsFile;
     }
 
     @Override
     public EventIterator iterator() {
-        return new EventIterator() {
-            int linesRead = 0;
-            String nextBuffer = null;
-            BufferedReader reader = null;
-            boolean isEndOfFile = false;
-
-            private boolean tryOpenReader() {
-                if (reader != null) {
-                    return true;
-                }
+        accessLock.lock();
+        try {
+            return new SegmentIterator(cursorSegment, cursorOffset);
+        } finally {
+            accessLock.unlock();
+        }
+    }
 
-                if (!isEndOfFile) {
-                    InputStreamReader streamReader = null;
-                    try {
-                        streamReader = new InputStreamReader(context.getSystem().getFileManager()
-                                .newInputStream(eventsFile), StringUtils.UTF8);
-                    } catch (FileNotFoundException e) {
-                        Log.e(TAG, "Could not open the events file", e);
-                    }
+    /**
+     * Reads the events line by line across the segments, keeping track of the
+     * position after the last event returned by {@link #next()}, which is
+     * where the cursor is moved to when the read events are removed.
+     */
+    private final class SegmentIterator implements EventIterator {
+        /** The position after the last event returned by next(). */
+        private long readSegment;
+        private long readOffset;
+        /** The position of the reader. */
+        private long segment;
+        private long offset;
+        private InputStream reader;
+        private String nextBuffer;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(1024);
+
+        SegmentIterator(final long segment, final long offset) {
+            this.readSegment = this.segment = segment;
+            this.readOffset = this.offset = offset;
+        }
 
-                    if (streamReader != null) {
-                        reader = new BufferedReader(streamReader);
-                        return true;
-                    }
+        @Override
+        public boolean hasNext() {
+            accessLock.lock();
+            try {
+                if (nextBuffer == null) {
+                    nextBuffer = readLine();
                 }
-                return false;
+                return nextBuffer != null;
+            } finally {
+                accessLock.unlock();
             }
+        }
 
-            private void tryCloseReader() {
-                if (reader != null) {
-                    try {
-                        reader.close();
-                    } catch (IOException ioe) {
-                        Log.e(TAG, "Unable to close reader for events file", ioe);
-                    } finally {
-                        reader = null;
-                    }
+        @Override
+        public String next() {
+            accessLock.lock();
+            try {
+                final String next = hasNext() ? nextBuffer : null;
+                if (next != null) {
+                    nextBuffer = null;
+                    readSegment = segment;
+                    readOffset = offset;
                 }
+                return next;
+            } finally {
+                accessLock.unlock();
             }
+        }
 
-            @Override
-            public boolean hasNext() {
-                boolean hasNext = false;
-                accessLock.lock();
-                try {
-                    // If there is something already buffered then there is a
-                    // next
-                    if (nextBuffer != null) {
-                        hasNext = true;
-                    } else {
-                        if (!tryOpenReader()) {
-                            return hasNext;
-                        }
-                        // Nothing was previously buffered so try to read one
-                        // more line
-                        boolean found = false;
-                        while (!found) {
-                            try {
-                                nextBuffer = reader.readLine();
-                                found = true;
-                            } catch (IOException e) {
-                                nextBuffer = null;
-                                found = true;
-                            }
-                        }
-                        if (nextBuffer != null) {
-                            // There was at least one more line so there is a
-                            // next
-                            hasNext = true;
-                        } else {
-                            // The next line was null so it should be the end of
-                            // the file. Try to close the reader
-                            isEndOfFile = true;
-                            tryCloseReader();
-                        }
-                    }
-                    return hasNext;
-                } finally {
-                    accessLock.unlock();
-                }
+        @Override
+        public String peek() {
+            accessLock.lock();
+            try {
+                hasNext();
+                return nextBuffer;
+            } finally {
+                accessLock.unlock();
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "The remove() operation is not supported for this iterator");
+        }
+
+        @Override
+        public Position getReadPosition() {
+            accessLock.lock();
+            try {
+                return new Position(readSegment, readOffset);
+            } finally {
+                accessLock.unlock();
+            }
+        }
+
+        @Override
+        public void removeReadEvents() {
+            accessLock.lock();
+            try {
+                removeEventsBefore(readSegment, readOffset);
+                // read again from the cursor, dropping what was buffered
+                tryCloseReader();
+                nextBuffer = null;
+                segment = readSegment = cursorSegment;
+                offset = readOffset = cursorOffset;
+            } finally {
+                accessLock.unlock();
             }
+        }
 
-            @Override
-            public String next() {
-                String next = null;
-                accessLock.lock();
+        /**
+         * Reads the next line, moving on to the next segment at the end of a
+         * segment, or returns null if there are no more lines.
+         */
+        private String readLine() {
+            if (segment < cursorSegment) {
+                // the events were removed through another iterator
+                tryCloseReader();
+                segment = cursorSegment;
+                offset = cursorOffset;
+            }
+            while (true) {
+                skipRemovedRange();
+                if (!tryOpenReader()) {
+                    return null;
+                }
+                line.reset();
                 try {
-                    if (nextBuffer != null) {
-                        next = nextBuffer;
-                        linesRead++;
-                        nextBuffer = null;
-                    } else {
-                        if (!tryOpenReader()) {
-                            return next;
-                        }
-                        boolean found = false;
-                        while (!found) {
-                            try {
-                                next = reader.readLine();
-                                found = true;
-                            } catch (IOException e) {
-                                next = null;
-                                found = true;
-                            }
-                        }
-                        if (next != null) {
-                            linesRead++;
-                        } else {
-                            isEndOfFile = true;
-                            tryCloseReader();
+                    int b;
+                    while ((b = reader.read()) != -1) {
+                        offset++;
+                        if (b == '\n') {
+                            return decodeLine();
                         }
+                        line.write(b);
                     }
-                    return next;
-                } finally {
-                    accessLock.unlock();
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to read the events file", e);
+                    tryCloseReader();
+                    return null;
+                }
+                tryCloseReader();
+                if (line.size() > 0) {
+                    // an event that was only partially written
+                    return decodeLine();
+                }
+                final Long next = segments.higher(segment);
+                if (next == null) {
+                    return null;
                 }
+                segment = next;
+                offset = 0;
             }
+        }
 
-            @Override
-            public String peek() {
-                accessLock.lock();
-                try {
-                    hasNext();
-                    return nextBuffer;
-                } finally {
-                    accessLock.unlock();
-                }
+        /**
+         * Moves the reader past the removed range it is in, if any.
+         */
+        private void skipRemovedRange() {
+            if (removedRanges.isEmpty()) {
+                return;
+            }
+            final Position position = new Position(segment, offset);
+            final Map.Entry<Position, Position> range = removedRanges.floorEntry(position);
+            if (range != null && range.getValue().compareTo(position) > 0) {
+                tryCloseReader();
+                segment = range.getValue().segment;
+                offset = range.getValue().offset;
             }
+        }
 
-            @Override
-            public void remove() {
-                throw new UnsupportedOperationException(
-                        "The remove() operation is not supported for this iterator");
+        private String decodeLine() {
+            int length = line.size();
+            final byte[] bytes = line.toByteArray();
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
             }
+            return new String(bytes, 0, length, StringUtils.UTF8);
+        }
 
-            @Override
-            public void removeReadEvents() {
-                accessLock.lock();
-                try {
-                    deleteReadEvents(linesRead);
-                    resetReader();
-                } finally {
-                    accessLock.unlock();
+        private boolean tryOpenReader() {
+            if (reader != null) {
+                return true;
+            }
+            if (!segments.contains(segment)) {
+                final Long next = segments.higher(segment);
+                if (next == null) {
+                    return false;
                 }
+                segment = next;
+                offset = 0;
             }
-
-            private void resetReader() {
-                tryCloseReader();
-                linesRead = 0;
-                nextBuffer = null;
+            InputStream stream = null;
+            try {
+                stream = context.getSystem().getFileManager()
+                        .newInputStream(segmentFile(segment));
+                long skipped = 0;
+                while (skipped < offset) {
+                    final long n = stream.skip(offset - skipped);
+                    if (n <= 0) {
+                        break;
+                    }
+                    skipped += n;
+                }
+                offset = skipped;
+                reader = new BufferedInputStream(stream, 8192);
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Could not open the events file", e);
+                closeQuietly(stream);
+                return false;
             }
-        };
+        }
+
+        private void tryCloseReader() {
+            closeQuietly(reader);
+            reader = null;
+        }
     }
 }
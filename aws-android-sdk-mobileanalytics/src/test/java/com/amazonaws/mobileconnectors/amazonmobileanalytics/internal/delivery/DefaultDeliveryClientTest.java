@@ -18,6 +18,9 @@ package com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -37,13 +40,13 @@ import com.amazonaws.mobileconnectors.amazonmobileanalytics.utils.AnalyticsConte
 import com.amazonaws.services.mobileanalytics.AmazonMobileAnalyticsClient;
 import com.amazonaws.services.mobileanalytics.model.PutEventsRequest;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
@@ -52,9 +55,14 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
@@ -67,6 +75,7 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
     public static final String EVENTS_DIR = "events";
 
     private DefaultDeliveryClient target;
+    private AnalyticsContext mockContext;
 
     ThreadPoolExecutor mockEventExecutor = Mockito.mock(ThreadPoolExecutor.class);
     ThreadPoolExecutor mockSubmissionExecutor = Mockito.mock(ThreadPoolExecutor.class);
@@ -75,7 +84,7 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
     Configuration mockConfig = Mockito.mock(Configuration.class);
     EventStore mockEventStore = Mockito.mock(EventStore.class);
     DefaultDeliveryPolicyFactory mockFactory = Mockito.mock(DefaultDeliveryPolicyFactory.class);
-    PutEventsRequest mockRequest = Mockito.mock(PutEventsRequest.class);
+    EncodedPutEventsRequest mockRequest = Mockito.mock(EncodedPutEventsRequest.class);
     @SuppressWarnings("unchecked")
     EventAdapter<JSONObject> mockAdapter = (EventAdapter<JSONObject>) Mockito
             .mock(EventAdapter.class);
@@ -91,7 +100,7 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
     public void setup() {
         MockitoAnnotations.initMocks(this);
 
-        AnalyticsContext mockContext = new AnalyticsContextBuilder()
+        mockContext = new AnalyticsContextBuilder()
                 .withSdkInfo(SDK_NAME, SDK_VERSION)
                 .withUniqueIdValue(UNIQUE_ID)
                 .withERSClient(mockErs)
@@ -112,8 +121,9 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
                 DefaultDeliveryClient.DEFAULT_MAX_SUBMISSIONS_ALLOWED);
 
         when(mockRequest.getRequestClientOptions()).thenReturn(new RequestClientOptions());
-        when(mockRequestBuilder.createRecordEventsRequest(any(JSONArray.class), any(String.class)))
-                .thenReturn(mockRequest);
+        when(mockRequest.getEventCount()).thenReturn(1);
+        when(mockRequestBuilder.createRecordEventsRequest(any(EventIterator.class), anyLong(),
+                any(String.class))).thenReturn(mockRequest);
         target = new DefaultDeliveryClient(mockContext, mockFactory, mockEventExecutor,
                 mockSubmissionExecutor, mockRequestBuilder, mockEventStore, mockAdapter);
     }
@@ -158,24 +168,23 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
         final JSONObject expectedJson = new JSONObject();
         expectedJson.put("event_type", "event_type");
 
-        // mock the file store to return 3 events via hasNext iterator calls
+        // mock the file store to return 3 events, all of which the request
+        // builder reads
         EventIterator mockIterator = mock(EventIterator.class);
-        when(mockIterator.hasNext()).thenReturn(true, true, true, true, false);
+        when(mockIterator.hasNext()).thenReturn(true, false);
         when(mockIterator.peek()).thenReturn(expectedJson.toString());
         when(mockIterator.next()).thenReturn(expectedJson.toString());
         when(mockEventStore.iterator()).thenReturn(mockIterator);
 
-        when(mockRequestBuilder.createRecordEventsRequest(any(JSONArray.class), any(String.class)))
-                .thenAnswer(
+        when(mockRequestBuilder.createRecordEventsRequest(any(EventIterator.class), anyLong(),
+                any(String.class))).thenAnswer(
                         new Answer<PutEventsRequest>() {
                             @Override
                             public PutEventsRequest answer(InvocationOnMock invocation)
                                     throws Throwable {
-                                JSONArray requestArray = (JSONArray) invocation.getArguments()[0];
-                                assertThat(requestArray.length(), is(3));
+                                EventIterator iter = (EventIterator) invocation.getArguments()[0];
                                 for (int i = 0; i < 3; i++) {
-                                    assertThat(requestArray.get(i).toString(),
-                                            is(expectedJson.toString()));
+                                    assertThat(iter.next(), is(expectedJson.toString()));
                                 }
                                 return mockRequest;
                             }
@@ -194,9 +203,9 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
         final JSONObject expectedJson = new JSONObject();
         expectedJson.put("event_type", "event_type");
 
-        // mock the file store to return 3 events via hasNext iterator calls
+        // mock the file store to return 3 events, one per request
         EventIterator mockIterator = mock(EventIterator.class);
-        when(mockIterator.hasNext()).thenReturn(true, true, true, true, true, true, false);
+        when(mockIterator.hasNext()).thenReturn(true, true, true, false);
         when(mockIterator.peek()).thenReturn(expectedJson.toString());
         when(mockIterator.next()).thenReturn(expectedJson.toString());
         when(mockEventStore.iterator()).thenReturn(mockIterator);
@@ -207,17 +216,15 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
                 mockConfig.optLong(DefaultDeliveryClient.KEY_MAX_SUBMISSION_SIZE,
                         DefaultDeliveryClient.DEFAULT_MAX_SUBMISSION_SIZE)).thenReturn(27L);
 
-        //
-        when(mockRequestBuilder.createRecordEventsRequest(any(JSONArray.class), any(String.class)))
-                .thenAnswer(
+        // The builder fits one event under the size limit
+        when(mockRequestBuilder.createRecordEventsRequest(any(EventIterator.class), eq(27L),
+                any(String.class))).thenAnswer(
                         new Answer<PutEventsRequest>() {
                             @Override
                             public PutEventsRequest answer(InvocationOnMock invocation)
                                     throws Throwable {
-                                JSONArray requestArray = (JSONArray) invocation.getArguments()[0];
-                                assertThat(requestArray.length(), is(1));
-                                assertThat(requestArray.get(0).toString(),
-                                        is(expectedJson.toString()));
+                                EventIterator iter = (EventIterator) invocation.getArguments()[0];
+                                assertThat(iter.next(), is(expectedJson.toString()));
                                 return mockRequest;
                             }
                         });
@@ -226,8 +233,8 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
 
         verifyAndRunEventsExecutorService(1);
         verifyAndRunSubmissionExecutorService(1);
-        verify(mockRequestBuilder, times(3)).createRecordEventsRequest(any(JSONArray.class),
-                any(String.class));
+        verify(mockRequestBuilder, times(3)).createRecordEventsRequest(any(EventIterator.class),
+                eq(27L), any(String.class));
         verify(mockIterator, times(3)).removeReadEvents();
     }
 
@@ -482,6 +489,265 @@ public class DefaultDeliveryClientTest extends MobileAnalyticsTestBase {
         }
     }
 
+    @Test
+    public void attemptDelivery_concurrentSubmissionsRemoveEventsOfEachSuccessfulBatch()
+            throws JSONException {
+        setupConcurrentSubmissions(2);
+        EventIterator mockIterator = setupOneEventBatches(3);
+        EventStore.Position[] positions = setupReadPositions(mockIterator, 3);
+
+        // the second request fails
+        AmazonServiceException mockUnavailable = Mockito.mock(AmazonServiceException.class);
+        when(mockUnavailable.getErrorCode()).thenReturn("ServiceUnavailable");
+        Mockito.doNothing().doThrow(mockUnavailable).doNothing().when(mockErs)
+                .putEvents(any(PutEventsRequest.class));
+
+        target.attemptDelivery();
+
+        verifyAndRunEventsExecutorService(1);
+        verifyAndRunSubmissionExecutorService(1);
+        // the third request is sent before the failure of the second one is
+        // known, and its events are removed along with the ones of the first
+        verify(mockRequestBuilder, times(3)).createRecordEventsRequest(any(EventIterator.class),
+                anyLong(), any(String.class));
+        verify(mockEventStore, times(1)).removeEvents(positions[0], positions[1]);
+        verify(mockEventStore, times(0)).removeEvents(positions[1], positions[2]);
+        verify(mockEventStore, times(1)).removeEvents(positions[2], positions[3]);
+        verify(mockIterator, times(0)).removeReadEvents();
+    }
+
+    @Test
+    public void attemptDelivery_concurrentSubmissionsWaitForBatchesInFlightWhenInterrupted()
+            throws JSONException {
+        setupConcurrentSubmissions(2);
+        EventIterator mockIterator = setupOneEventBatches(3);
+        EventStore.Position[] positions = setupReadPositions(mockIterator, 3);
+
+        target.attemptDelivery();
+
+        verifyAndRunEventsExecutorService(1);
+        Thread.currentThread().interrupt();
+        try {
+            verifyAndRunSubmissionExecutorService(1);
+        } finally {
+            assertThat(Thread.interrupted(), is(true));
+        }
+        // no batch is sent after the interrupt, but the events of the ones in
+        // flight are still removed
+        verify(mockRequestBuilder, times(2)).createRecordEventsRequest(any(EventIterator.class),
+                anyLong(), any(String.class));
+        verify(mockEventStore, times(1)).removeEvents(positions[0], positions[1]);
+        verify(mockEventStore, times(1)).removeEvents(positions[1], positions[2]);
+        verify(mockEventStore, times(0)).removeEvents(positions[2], positions[3]);
+    }
+
+    @Test
+    public void attemptDelivery_concurrentSubmissionsSendAtMostMaxSubmissionAllowedBatches()
+            throws JSONException {
+        setupConcurrentSubmissions(4);
+        setupOneEventBatches(10);
+
+        target.attemptDelivery();
+
+        verifyAndRunEventsExecutorService(1);
+        verifyAndRunSubmissionExecutorService(1);
+        // the limit is on the batches of the attempt, not per batch in flight
+        verify(mockRequestBuilder, times(DefaultDeliveryClient.DEFAULT_MAX_SUBMISSIONS_ALLOWED))
+                .createRecordEventsRequest(any(EventIterator.class), anyLong(),
+                        any(String.class));
+        verify(mockErs, times(DefaultDeliveryClient.DEFAULT_MAX_SUBMISSIONS_ALLOWED))
+                .putEvents(any(PutEventsRequest.class));
+    }
+
+    @Test
+    public void attemptDelivery_concurrentSubmissionsRemoveEventsInTheOrderTheyComplete()
+            throws Exception {
+        when(mockConfig.optInt(DefaultDeliveryClient.KEY_MAX_CONCURRENT_SUBMISSIONS,
+                DefaultDeliveryClient.DEFAULT_MAX_CONCURRENT_SUBMISSIONS)).thenReturn(2);
+        ExecutorService putEventsExecutor = Executors.newFixedThreadPool(2);
+        target = new DefaultDeliveryClient(mockContext, mockFactory, mockEventExecutor,
+                mockSubmissionExecutor, putEventsExecutor, mockRequestBuilder,
+                mockEventStore, mockAdapter);
+        EventIterator mockIterator = setupOneEventBatches(2);
+        final EventStore.Position[] positions = setupReadPositions(mockIterator, 2);
+
+        final EncodedPutEventsRequest firstRequest = mockRequest(1);
+        EncodedPutEventsRequest secondRequest = mockRequest(1);
+        Mockito.doReturn(firstRequest).doReturn(secondRequest).when(mockRequestBuilder)
+                .createRecordEventsRequest(any(EventIterator.class), anyLong(),
+                        any(String.class));
+
+        // the first batch completes only once the events of the second one
+        // have been removed
+        final CountDownLatch secondRemoved = new CountDownLatch(1);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                secondRemoved.countDown();
+                return null;
+            }
+        }).when(mockEventStore).removeEvents(positions[1], positions[2]);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getArguments()[0] == firstRequest) {
+                    assertThat(secondRemoved.await(5, TimeUnit.SECONDS), is(true));
+                }
+                return null;
+            }
+        }).when(mockErs).putEvents(any(PutEventsRequest.class));
+
+        try {
+            target.attemptDelivery();
+
+            verifyAndRunEventsExecutorService(1);
+            verifyAndRunSubmissionExecutorService(1);
+        } finally {
+            putEventsExecutor.shutdownNow();
+        }
+        InOrder removals = inOrder(mockEventStore);
+        removals.verify(mockEventStore).removeEvents(positions[1], positions[2]);
+        removals.verify(mockEventStore).removeEvents(positions[0], positions[1]);
+        verify(mockIterator, times(0)).removeReadEvents();
+    }
+
+    @Test
+    public void attemptDelivery_concurrentSubmissionsBackOffWhenLatencyGrows()
+            throws JSONException {
+        setupConcurrentSubmissions(4);
+        setupOneEventBatches(3);
+
+        // the third batch takes much longer than the first two
+        Mockito.doNothing().doNothing().doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(50);
+                return null;
+            }
+        }).doNothing().when(mockErs).putEvents(any(PutEventsRequest.class));
+
+        target.attemptDelivery(new ArrayList<DeliveryPolicy>());
+        verifyAndRunEventsExecutorService(1);
+        verifyAndRunSubmissionExecutorService(1);
+        assertThat(target.getSubmissionConcurrency(), is(2));
+
+        // fast batches raise the concurrency again, one at a time
+        setupStoredEvents(3);
+        waitForNextAttempt();
+        target.attemptDelivery(new ArrayList<DeliveryPolicy>());
+        verifyAndRunEventsExecutorService(2);
+        runLastSubmissionRunnable(2);
+        assertThat(target.getSubmissionConcurrency(), is(4));
+    }
+
+    /**
+     * Returns a mock request of the given number of events.
+     */
+    private static EncodedPutEventsRequest mockRequest(int eventCount) {
+        EncodedPutEventsRequest request = Mockito.mock(EncodedPutEventsRequest.class);
+        when(request.getRequestClientOptions()).thenReturn(new RequestClientOptions());
+        when(request.getEventCount()).thenReturn(eventCount);
+        return request;
+    }
+
+    /**
+     * Waits until a new delivery attempt is allowed, which it isn't within
+     * the millisecond of the previous one.
+     */
+    private static void waitForNextAttempt() {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Allows the given number of concurrent submissions, which are run as
+     * soon as they are submitted.
+     */
+    private void setupConcurrentSubmissions(int maxConcurrentSubmissions) {
+        when(mockConfig.optInt(DefaultDeliveryClient.KEY_MAX_CONCURRENT_SUBMISSIONS,
+                DefaultDeliveryClient.DEFAULT_MAX_CONCURRENT_SUBMISSIONS)).thenReturn(
+                maxConcurrentSubmissions);
+
+        ThreadPoolExecutor mockPutEventsExecutor = Mockito.mock(ThreadPoolExecutor.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return null;
+            }
+        }).when(mockPutEventsExecutor).execute(any(Runnable.class));
+        target = new DefaultDeliveryClient(mockContext, mockFactory, mockEventExecutor,
+                mockSubmissionExecutor, mockPutEventsExecutor, mockRequestBuilder,
+                mockEventStore, mockAdapter);
+    }
+
+    /**
+     * Mocks the event store to return the given number of events, which the
+     * request builder reads one per request.
+     */
+    private EventIterator setupOneEventBatches(int batches) throws JSONException {
+        EventIterator mockIterator = setupStoredEvents(batches);
+        when(mockRequestBuilder.createRecordEventsRequest(any(EventIterator.class), anyLong(),
+                any(String.class))).thenAnswer(
+                        new Answer<PutEventsRequest>() {
+                            @Override
+                            public PutEventsRequest answer(InvocationOnMock invocation)
+                                    throws Throwable {
+                                EventIterator iter = (EventIterator) invocation.getArguments()[0];
+                                assertThat(iter.next(), is(storedEvent().toString()));
+                                return mockRequest;
+                            }
+                        });
+        return mockIterator;
+    }
+
+    /**
+     * Mocks the event store to return the given number of events.
+     */
+    private EventIterator setupStoredEvents(int count) throws JSONException {
+        EventIterator mockIterator = mock(EventIterator.class);
+        Boolean[] hasNext = new Boolean[count];
+        for (int i = 0; i < count; i++) {
+            hasNext[i] = i < count - 1;
+        }
+        when(mockIterator.hasNext()).thenReturn(true, hasNext);
+        when(mockIterator.next()).thenReturn(storedEvent().toString());
+        when(mockEventStore.iterator()).thenReturn(mockIterator);
+        return mockIterator;
+    }
+
+    private static JSONObject storedEvent() throws JSONException {
+        final JSONObject json = new JSONObject();
+        json.put("event_type", "event_type");
+        return json;
+    }
+
+    /**
+     * Mocks the iterator to be at a new position after each batch, and returns
+     * the positions, from the start of the first batch to the end of the last
+     * one.
+     */
+    private static EventStore.Position[] setupReadPositions(EventIterator mockIterator,
+            int batches) {
+        EventStore.Position[] positions = new EventStore.Position[batches + 1];
+        for (int i = 0; i <= batches; i++) {
+            positions[i] = new EventStore.Position(0, i);
+        }
+        when(mockIterator.getReadPosition()).thenReturn(positions[0],
+                Arrays.copyOfRange(positions, 1, positions.length));
+        return positions;
+    }
+
+    private void runLastSubmissionRunnable(int numExpectedRunnables) {
+        ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockSubmissionExecutor, times(numExpectedRunnables)).execute(
+                runnableCaptor.capture());
+        runnableCaptor.getValue().run();
+    }
+
     private void verifyAndRunSubmissionExecutorService(int numExpectedRunnables) {
         ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
         verify(mockSubmissionExecutor, times(numExpectedRunnables)).execute(
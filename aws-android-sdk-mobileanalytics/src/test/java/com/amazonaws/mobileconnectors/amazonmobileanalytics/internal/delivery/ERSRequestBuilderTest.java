@@ -16,10 +16,13 @@
 package com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import com.amazonaws.mobileconnectors.amazonmobileanalytics.MobileAnalyticsTestBase;
-import com.amazonaws.services.mobileanalytics.model.PutEventsRequest;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery.EventStore.EventIterator;
+import com.amazonaws.util.IOUtils;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -29,59 +32,150 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
 public class ERSRequestBuilderTest extends MobileAnalyticsTestBase {
 
     @Test
-    public void createPutEventsRequest() throws JSONException {
-
-        JSONArray events = new JSONArray();
-        JSONObject event1 = new JSONObject();
-        event1.put("platform", "ANDROID");
-        event1.put("model", "test");
-        event1.put("app_verison_code", "0");
-        event1.put("event_type", "testEvent 1");
-        event1.put("locale", "en_US");
-        event1.put("sdk_version", "2.1.10");
-        event1.put("sdk_name", "AmazonMobileAnalyticsSDK");
-        event1.put("unique_id", "26586999-0f31-4593-a220-68834c6859c4");
-        event1.put("timestamp", "1426634280111");
-        event1.put("app_package_name", "aws.tests.ERSRequestBuilderTests");
-        event1.put("carrier", "Motorola");
-        event1.put("unique_id", "26586999-0f31-4593-a220-68834c6859c4");
-        event1.put("app_id", "dd0fe530-edca-11e3-ac10-0800200c9a66+TEST-1739129675");
-        event1.put("make", "unknown");
-        JSONObject session1 = new JSONObject();
-        session1.put("id", "4c6859c4-20150317-231800110");
-        session1.put("startTimestamp", 1426634280110L);
-        event1.put("session", session1);
-
-        JSONObject event2 = new JSONObject();
-        event2.put("platform", "ANDROID");
-        event2.put("model", "test");
-        event2.put("app_verison_code", "0");
-        event2.put("event_type", "testEvent 2");
-        event2.put("locale", "en_US");
-        event2.put("sdk_version", "2.1.10");
-        event2.put("sdk_name", "AmazonMobileAnalyticsSDK");
-        event2.put("unique_id", "26586999-0f31-4593-a220-68834c6859c4");
-        event2.put("timestamp", "1426634280111");
-        event2.put("app_package_name", "aws.tests.ERSRequestBuilderTests");
-        event2.put("carrier", "Motorola");
-        event2.put("unique_id", "26586999-0f31-4593-a220-68834c6859c4");
-        event2.put("app_id", "dd0fe530-edca-11e3-ac10-0800200c9a66+TEST-1739129675");
-        event2.put("session", session1);
-
-        events.put(event1);
-        events.put(event2);
+    public void createEncodedPutEventsRequest() throws Exception {
+        List<String> stored = new ArrayList<String>();
+        stored.add(storedEvent("testEvent 1", 1426634280111L, null).toString());
+        stored.add("{not json");
+        JSONObject event2 = storedEvent("testEvent 2", 1426634280112L, "a");
+        event2.getJSONObject("session").put("stopTimestamp", 1426634290110L);
+        event2.getJSONObject("session").put("duration", 9999L);
+        stored.add(event2.toString());
+        ListEventIterator iter = new ListEventIterator(stored);
 
         ERSRequestBuilder builder = new ERSRequestBuilder();
-        PutEventsRequest putRequest = builder.createRecordEventsRequest(events, "testNetwork");
+        EncodedPutEventsRequest putRequest = builder.createRecordEventsRequest(iter,
+                Long.MAX_VALUE, "testNetwork");
 
-        assertEquals(2, putRequest.getEvents().size());
+        assertFalse(iter.hasNext());
+        assertEquals(2, putRequest.getEventCount());
         assertNotNull(putRequest.getClientContext());
+        assertTrue(putRequest.getEvents().isEmpty());
+
+        JSONArray events = decode(putRequest).getJSONArray("events");
+        assertEquals(2, events.length());
+
+        JSONObject first = events.getJSONObject(0);
+        assertEquals("testEvent 1", first.getString("eventType"));
+        assertEquals("2015-03-17T23:18:00.111Z", first.getString("timestamp"));
+        JSONObject session = first.getJSONObject("session");
+        assertEquals("4c6859c4-20150317-231800110", session.getString("id"));
+        assertEquals("2015-03-17T23:18:00.110Z", session.getString("startTimestamp"));
+        assertFalse(session.has("stopTimestamp"));
+        assertFalse(session.has("duration"));
+        assertEquals(0, first.getJSONObject("attributes").length());
+
+        JSONObject second = events.getJSONObject(1);
+        assertEquals("a", second.getJSONObject("attributes").getString("attr"));
+        assertEquals(1.5, second.getJSONObject("metrics").getDouble("metric"), 0.0);
+        assertEquals(9999L, second.getJSONObject("session").getLong("duration"));
+        assertEquals("2015-03-17T23:18:10.110Z",
+                second.getJSONObject("session").getString("stopTimestamp"));
+    }
+
+    @Test
+    public void createEncodedPutEventsRequestBoundedByCompressedSize() throws Exception {
+        Random random = new Random(0);
+        List<String> stored = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            // random attribute values, which don't compress well
+            stored.add(storedEvent("testEvent " + i, 1426634280111L + i,
+                    Long.toHexString(random.nextLong())).toString());
+        }
+        ListEventIterator iter = new ListEventIterator(stored);
+
+        ERSRequestBuilder builder = new ERSRequestBuilder();
+        long maxCompressedSize = 16 * 1024;
+        int total = 0;
+        while (iter.hasNext()) {
+            EncodedPutEventsRequest putRequest = builder.createRecordEventsRequest(iter,
+                    maxCompressedSize, "testNetwork");
+            // the size of the compressed body is estimated while it's built,
+            // so allow for some error
+            assertTrue(putRequest.getEncodedBody().length <= maxCompressedSize * 1.1);
+            assertTrue(putRequest.getEncodedBody().length > maxCompressedSize / 2
+                    || !iter.hasNext());
+            assertEquals(putRequest.getEventCount(),
+                    decode(putRequest).getJSONArray("events").length());
+            total += putRequest.getEventCount();
+        }
+        assertEquals(stored.size(), total);
+    }
 
+    private static JSONObject storedEvent(String eventType, long timestamp, String attribute)
+            throws JSONException {
+        JSONObject event = new JSONObject();
+        event.put("platform", "ANDROID");
+        event.put("event_type", eventType);
+        event.put("sdk_version", "2.1.10");
+        event.put("sdk_name", "AmazonMobileAnalyticsSDK");
+        event.put("unique_id", "26586999-0f31-4593-a220-68834c6859c4");
+        event.put("timestamp", timestamp);
+        event.put("app_package_name", "aws.tests.ERSRequestBuilderTests");
+        event.put("carrier", "Motorola");
+        event.put("app_id", "dd0fe530-edca-11e3-ac10-0800200c9a66+TEST-1739129675");
+        JSONObject session = new JSONObject();
+        session.put("id", "4c6859c4-20150317-231800110");
+        session.put("startTimestamp", 1426634280110L);
+        event.put("session", session);
+        if (attribute != null) {
+            event.put("attributes", new JSONObject().put("attr", attribute));
+            event.put("metrics", new JSONObject().put("metric", 1.5));
+        }
+        return event;
     }
 
+    private static JSONObject decode(EncodedPutEventsRequest putRequest) throws Exception {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(
+                putRequest.getEncodedBody()));
+        return new JSONObject(IOUtils.toString(in));
+    }
+
+    private static class ListEventIterator implements EventIterator {
+        private final List<String> events;
+        private int position;
+
+        ListEventIterator(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < events.size();
+        }
+
+        @Override
+        public String next() {
+            return events.get(position++);
+        }
+
+        @Override
+        public String peek() {
+            return hasNext() ? events.get(position) : null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeReadEvents() {
+        }
+
+        @Override
+        public EventStore.Position getReadPosition() {
+            return new EventStore.Position(0, position);
+        }
+    }
 }
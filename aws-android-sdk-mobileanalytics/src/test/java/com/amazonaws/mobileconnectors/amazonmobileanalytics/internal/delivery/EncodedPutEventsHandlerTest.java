@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.amazonaws.Request;
+import com.amazonaws.services.mobileanalytics.model.PutEventsRequest;
+import com.amazonaws.services.mobileanalytics.model.transform.PutEventsRequestMarshaller;
+import com.amazonaws.util.IOUtils;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+
+public class EncodedPutEventsHandlerTest {
+
+    @Test
+    public void encodedBodyReplacesMarshalledBody() throws Exception {
+        byte[] body = new byte[] {
+                1, 2, 3
+        };
+        EncodedPutEventsRequest putEventsRequest = new EncodedPutEventsRequest(body, 1);
+        putEventsRequest.setClientContext("context");
+        Request<PutEventsRequest> request = new PutEventsRequestMarshaller()
+                .marshall(putEventsRequest);
+
+        new EncodedPutEventsHandler().beforeRequest(request);
+
+        assertEquals("content encoding", "gzip", request.getHeaders().get("Content-Encoding"));
+        assertEquals("content length", "3", request.getHeaders().get("Content-Length"));
+        assertEquals("context", request.getHeaders().get("x-amz-Client-Context"));
+        assertArrayEquals(body, IOUtils.toByteArray(request.getContent()));
+    }
+
+    @Test
+    public void otherRequestsAreLeftAlone() throws Exception {
+        Request<PutEventsRequest> request = new PutEventsRequestMarshaller()
+                .marshall(new PutEventsRequest());
+        InputStream content = request.getContent();
+        String contentLength = request.getHeaders().get("Content-Length");
+
+        new EncodedPutEventsHandler().beforeRequest(request);
+
+        assertSame(content, request.getContent());
+        assertEquals(contentLength, request.getHeaders().get("Content-Length"));
+    }
+}
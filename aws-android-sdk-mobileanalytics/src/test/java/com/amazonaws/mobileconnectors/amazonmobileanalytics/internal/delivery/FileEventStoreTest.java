@@ -0,0 +1,273 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.MobileAnalyticsTestBase;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.AnalyticsContext;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.configuration.Configuration;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.core.system.DefaultFileManager;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.internal.delivery.EventStore.EventIterator;
+import com.amazonaws.mobileconnectors.amazonmobileanalytics.utils.AnalyticsContextBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class FileEventStoreTest extends MobileAnalyticsTestBase {
+
+    private static final long MAX_SEGMENT_SIZE = FileEventStore.MAX_SEGMENT_SIZE;
+
+    private File rootDirectory;
+    private AnalyticsContext context;
+    private Configuration mockConfig = Mockito.mock(Configuration.class);
+
+    @Before
+    public void setup() {
+        rootDirectory = new File("/tmp/AmazonMobileAnalyticsSDK/tests/FileEventStoreTest");
+        deleteRecursively(rootDirectory);
+        rootDirectory.mkdirs();
+        context = new AnalyticsContextBuilder()
+                .withConfiguration(mockConfig)
+                .withFileManager(new DefaultFileManager(rootDirectory))
+                .build();
+        when(mockConfig.optLong(eq(FileEventStore.KEY_MAX_STORAGE_SIZE), anyLong()))
+                .thenReturn(FileEventStore.MAX_STORAGE_SIZE);
+        FileEventStore.MAX_SEGMENT_SIZE = 100;
+    }
+
+    @After
+    public void teardown() {
+        FileEventStore.MAX_SEGMENT_SIZE = MAX_SEGMENT_SIZE;
+        deleteRecursively(rootDirectory);
+    }
+
+    @Test
+    public void removeReadEvents_onlyRemovesEventsReturnedByNext() {
+        FileEventStore store = new FileEventStore(context);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(store.put(event(i)));
+        }
+
+        EventIterator iter = store.iterator();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(event(i), iter.next());
+        }
+        assertEquals(event(10), iter.peek());
+        iter.removeReadEvents();
+
+        assertEquals(events(10, 20), readAll(store.iterator()));
+    }
+
+    @Test
+    public void removeReadEvents_deletesSegmentsOnceRead() {
+        FileEventStore store = new FileEventStore(context);
+        for (int i = 0; i < 20; i++) {
+            store.put(event(i));
+        }
+        assertTrue(countSegments() > 1);
+
+        EventIterator iter = store.iterator();
+        readAll(iter);
+        iter.removeReadEvents();
+
+        assertEquals(0, countSegments());
+        assertFalse(store.iterator().hasNext());
+        store.put(event(20));
+        assertEquals(events(20, 21), readAll(store.iterator()));
+    }
+
+    @Test
+    public void readPositionIsRestoredByNewStore() {
+        FileEventStore store = new FileEventStore(context);
+        for (int i = 0; i < 20; i++) {
+            store.put(event(i));
+        }
+        EventIterator iter = store.iterator();
+        for (int i = 0; i < 15; i++) {
+            iter.next();
+        }
+        iter.removeReadEvents();
+
+        FileEventStore restored = new FileEventStore(context);
+        restored.put(event(20));
+        assertEquals(events(15, 21), readAll(restored.iterator()));
+    }
+
+    @Test
+    public void removeEvents_skipsBatchesRemovedOutOfOrder() {
+        FileEventStore store = new FileEventStore(context);
+        for (int i = 0; i < 30; i++) {
+            store.put(event(i));
+        }
+        EventIterator iter = store.iterator();
+        EventStore.Position[] positions = readBatches(iter, 3, 10);
+
+        // the second batch is removed before the first one
+        store.removeEvents(positions[1], positions[2]);
+        List<String> expected = events(0, 10);
+        expected.addAll(events(20, 30));
+        assertEquals(expected, readAll(store.iterator()));
+
+        store.removeEvents(positions[0], positions[1]);
+        assertEquals(events(20, 30), readAll(store.iterator()));
+    }
+
+    @Test
+    public void removeReadEvents_movesPastBatchesRemovedOutOfOrder() {
+        FileEventStore store = new FileEventStore(context);
+        for (int i = 0; i < 30; i++) {
+            store.put(event(i));
+        }
+        EventStore.Position[] positions = readBatches(store.iterator(), 3, 10);
+        store.removeEvents(positions[1], positions[2]);
+
+        EventIterator iter = store.iterator();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(event(i), iter.next());
+        }
+        assertEquals(event(20), iter.peek());
+        iter.removeReadEvents();
+        assertEquals(events(20, 30), readAll(store.iterator()));
+    }
+
+    @Test
+    public void removedBatchesAreRestoredByNewStore() {
+        FileEventStore store = new FileEventStore(context);
+        for (int i = 0; i < 30; i++) {
+            store.put(event(i));
+        }
+        EventStore.Position[] positions = readBatches(store.iterator(), 3, 10);
+        store.removeEvents(positions[2], positions[3]);
+        store.removeEvents(positions[1], positions[2]);
+
+        FileEventStore restored = new FileEventStore(context);
+        restored.put(event(30));
+        List<String> expected = events(0, 10);
+        expected.add(event(30));
+        assertEquals(expected, readAll(restored.iterator()));
+    }
+
+    @Test
+    public void eventsFileOfPreviousVersionIsRead() throws IOException {
+        File eventsDir = new File(rootDirectory, FileEventStore.EVENTS_DIRECTORY);
+        eventsDir.mkdirs();
+        Writer writer = new FileWriter(new File(eventsDir, FileEventStore.EVENT_FILE_NAME));
+        writer.write(event(0) + "\n" + event(1) + "\n");
+        writer.close();
+
+        FileEventStore store = new FileEventStore(context);
+        store.put(event(2));
+
+        assertEquals(events(0, 3), readAll(store.iterator()));
+        assertFalse(new File(eventsDir, FileEventStore.EVENT_FILE_NAME).exists());
+    }
+
+    @Test
+    public void put_rejectsEventsOverMaxStorageSize() {
+        when(mockConfig.optLong(eq(FileEventStore.KEY_MAX_STORAGE_SIZE), anyLong()))
+                .thenReturn(100L);
+        FileEventStore store = new FileEventStore(context);
+
+        // each event takes 10 bytes with its line separator
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.put("event " + i + ".."));
+        }
+        assertFalse(store.put("event 10"));
+
+        EventIterator iter = store.iterator();
+        iter.next();
+        iter.removeReadEvents();
+        assertTrue(store.put("event 10"));
+    }
+
+    private static String event(int i) {
+        return "{\"event\":" + i + "}";
+    }
+
+    private static List<String> events(int from, int to) {
+        List<String> events = new ArrayList<String>();
+        for (int i = from; i < to; i++) {
+            events.add(event(i));
+        }
+        return events;
+    }
+
+    /**
+     * Reads the given number of batches of events, returning the positions
+     * before and after each batch.
+     */
+    private static EventStore.Position[] readBatches(EventIterator iter, int batches,
+            int batchSize) {
+        EventStore.Position[] positions = new EventStore.Position[batches + 1];
+        positions[0] = iter.getReadPosition();
+        for (int i = 1; i <= batches; i++) {
+            for (int j = 0; j < batchSize; j++) {
+                iter.next();
+            }
+            positions[i] = iter.getReadPosition();
+        }
+        return positions;
+    }
+
+    private static List<String> readAll(EventIterator iter) {
+        List<String> events = new ArrayList<String>();
+        while (iter.hasNext()) {
+            events.add(iter.next());
+        }
+        return events;
+    }
+
+    private int countSegments() {
+        File[] files = new File(rootDirectory, FileEventStore.EVENTS_DIRECTORY).listFiles();
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().startsWith(FileEventStore.SEGMENT_FILE_PREFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
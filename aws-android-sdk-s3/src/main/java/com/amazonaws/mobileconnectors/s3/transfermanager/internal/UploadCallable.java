@@ -175,17 +175,28 @@ public class UploadCallable implements Callable<UploadResult> {
     private UploadResult uploadInParts() throws Exception {
         boolean isUsingEncryption = s3 instanceof AmazonS3EncryptionClient;
         long optimalPartSize = getOptimalPartSize(isUsingEncryption);
+        // Parts of a file can be encrypted in parallel when the encryption
+        // client is told the part size up front
+        boolean isEncryptedInParallel = isUsingEncryption
+                && ((AmazonS3EncryptionClient) s3).isParallelMultipartUploadSupported()
+                && TransferManagerUtils.isUploadParallelizable(putObjectRequest, false);
 
         if (multipartUploadId == null) {
             multipartUploadId = initiateMultipartUpload(putObjectRequest,
-                    isUsingEncryption);
+                    isUsingEncryption, isEncryptedInParallel ? optimalPartSize : 0);
         }
 
         try {
             UploadPartRequestFactory requestFactory = new UploadPartRequestFactory(
                     putObjectRequest, multipartUploadId, optimalPartSize);
 
-            if (TransferManagerUtils.isUploadParallelizable(putObjectRequest, isUsingEncryption)) {
+            if (isEncryptedInParallel) {
+                // The encryption context lives in the client and cannot be
+                // resumed, so the upload state is not captured
+                uploadPartsInParallel(requestFactory, multipartUploadId);
+                return null;
+            } else if (TransferManagerUtils.isUploadParallelizable(putObjectRequest,
+                    isUsingEncryption)) {
                 captureUploadStateIfPossible();
                 uploadPartsInParallel(requestFactory, multipartUploadId);
                 return null;
@@ -328,19 +339,26 @@ public class UploadCallable implements Callable<UploadResult> {
      * Initiates a multipart upload and returns the upload id
      *
      * @param isUsingEncryption
+     * @param encryptedPartSize the part size to declare to the encryption
+     *            client so the parts can be encrypted in parallel, or zero
      */
     private String initiateMultipartUpload(PutObjectRequest putObjectRequest,
-            boolean isUsingEncryption) {
+            boolean isUsingEncryption, long encryptedPartSize) {
 
         InitiateMultipartUploadRequest initiateMultipartUploadRequest = null;
-        if (isUsingEncryption && putObjectRequest instanceof EncryptedPutObjectRequest) {
+        if (isUsingEncryption && (putObjectRequest instanceof EncryptedPutObjectRequest
+                || encryptedPartSize > 0)) {
             initiateMultipartUploadRequest = new EncryptedInitiateMultipartUploadRequest(
                     putObjectRequest.getBucketName(), putObjectRequest.getKey()).withCannedACL(
                     putObjectRequest.getCannedAcl()).withObjectMetadata(
                     putObjectRequest.getMetadata());
+            if (putObjectRequest instanceof EncryptedPutObjectRequest) {
+                ((EncryptedInitiateMultipartUploadRequest) initiateMultipartUploadRequest)
+                        .setMaterialsDescription(((EncryptedPutObjectRequest) putObjectRequest)
+                                .getMaterialsDescription());
+            }
             ((EncryptedInitiateMultipartUploadRequest) initiateMultipartUploadRequest)
-                    .setMaterialsDescription(((EncryptedPutObjectRequest) putObjectRequest)
-                            .getMaterialsDescription());
+                    .setPartSize(encryptedPartSize);
         } else {
             initiateMultipartUploadRequest = new InitiateMultipartUploadRequest(
                     putObjectRequest.getBucketName(), putObjectRequest.getKey())
@@ -25,6 +25,8 @@ import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.Map;
+
 /**
  * Provides methods to access database through which applications can interact
  * with transfer tasks.
@@ -190,6 +192,34 @@ class TransferDBBase {
         return rowsUpdated;
     }
 
+    /**
+     * Updates multiple records, each identified by its id, in a single
+     * transaction. It shares the lock with
+     * {@link #update(Uri, ContentValues, String, String[])} so that batched
+     * writes never interleave with single record updates.
+     *
+     * @param valuesById A map of transfer id to the values to update.
+     * @return Number of rows updated.
+     */
+    public synchronized int bulkUpdate(Map<Integer, ContentValues> valuesById) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        int rowsUpdated = 0;
+        try {
+            db.beginTransaction();
+            for (Map.Entry<Integer, ContentValues> entry : valuesById.entrySet()) {
+                rowsUpdated += db.update(TransferTable.TABLE_TRANSFER, entry.getValue(),
+                        TransferTable.COLUMN_ID + "=" + entry.getKey(), null);
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TransferDBBase.class.getSimpleName(),
+                    "bulkUpdate error : " + e.getMessage());
+        } finally {
+            db.endTransaction();
+        }
+        return rowsUpdated;
+    }
+
     /**
      * Deletes a record in the table.
      *
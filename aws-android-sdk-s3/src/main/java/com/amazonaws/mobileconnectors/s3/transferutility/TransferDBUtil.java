@@ -28,7 +28,9 @@ import com.amazonaws.util.json.JsonUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides methods to conveniently perform database operations.
@@ -171,6 +173,42 @@ class TransferDBUtil {
         return transferDBBase.update(getRecordUri(id), values, null, null);
     }
 
+    /**
+     * Writes the transfer progress of multiple records in a single database
+     * transaction.
+     *
+     * @param progress A map of transfer id to a two-element array of current
+     *            bytes and total bytes.
+     * @return Number of rows updated.
+     */
+    public int updateBytesTransferred(Map<Integer, long[]> progress) {
+        Map<Integer, ContentValues> valuesById = new HashMap<Integer, ContentValues>(
+                progress.size());
+        for (Map.Entry<Integer, long[]> entry : progress.entrySet()) {
+            ContentValues values = new ContentValues();
+            values.put(TransferTable.COLUMN_BYTES_CURRENT, entry.getValue()[0]);
+            values.put(TransferTable.COLUMN_BYTES_TOTAL, entry.getValue()[1]);
+            valuesById.put(entry.getKey(), values);
+        }
+        return transferDBBase.bulkUpdate(valuesById);
+    }
+
+    /**
+     * Marks a part of a multipart upload as completed and records its Etag in
+     * a single write, so that a completed part is never persisted without the
+     * Etag needed to complete the multipart upload.
+     *
+     * @param id The id of the part record.
+     * @param etag The Etag of the uploaded part.
+     * @return Number of rows updated.
+     */
+    public int updatePartCompleted(int id, String etag) {
+        ContentValues values = new ContentValues();
+        values.put(TransferTable.COLUMN_STATE, TransferState.PART_COMPLETED.toString());
+        values.put(TransferTable.COLUMN_ETAG, etag);
+        return transferDBBase.update(getRecordUri(id), values, null, null);
+    }
+
     /**
      * Updates the total bytes of a download record.
      *
@@ -201,6 +201,7 @@ public class TransferService extends Service {
         }
         handlerThread.quit();
         TransferThreadPool.closeThreadPool();
+        updater.shutdown();
         S3ClientReference.clear();
         super.onDestroy();
     }
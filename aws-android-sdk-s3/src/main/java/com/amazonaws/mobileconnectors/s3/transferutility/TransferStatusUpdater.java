@@ -29,6 +29,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A class that tracks active transfers. It has a static map that holds weak
@@ -48,6 +52,11 @@ class TransferStatusUpdater {
      * listeners too often.
      */
     private static final int UPDATE_THRESHOLD_MS = 1000;
+    /**
+     * The interval in milliseconds at which pending progress is written to
+     * database in one transaction.
+     */
+    private static final int PERSIST_INTERVAL_MS = 1000;
 
     /**
      * A map of listeners.
@@ -71,6 +80,21 @@ class TransferStatusUpdater {
      * The handler of main thread that runs callbacks.
      */
     private final Handler mainHandler;
+    /**
+     * A map of transfer to its latest progress, as a two-element array of
+     * current bytes and total bytes, that hasn't been written to database yet.
+     * Progress of the same transfer is coalesced, and all pending progress is
+     * flushed in one transaction. Guarded by itself.
+     */
+    private final Map<Integer, long[]> pendingProgress;
+    /**
+     * A single thread that flushes pending progress periodically.
+     */
+    private final ScheduledExecutorService persistExecutor;
+    /**
+     * Whether a flush has been scheduled. Guarded by pendingProgress.
+     */
+    private boolean isFlushScheduled;
 
     /**
      * This class is instantiated by TransferService.
@@ -80,6 +104,15 @@ class TransferStatusUpdater {
         mainHandler = new Handler(Looper.getMainLooper());
         transfers = new HashMap<Integer, TransferRecord>();
         lastUpdateTime = new HashMap<Integer, Long>();
+        pendingProgress = new HashMap<Integer, long[]>();
+        persistExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, TAG + "-persist");
+                t.setDaemon(true);
+                return t;
+            }
+        });
     }
 
     /**
@@ -116,6 +149,9 @@ class TransferStatusUpdater {
      * @param id id of the transfer to remove
      */
     void removeTransfer(int id) {
+        synchronized (pendingProgress) {
+            pendingProgress.remove(id);
+        }
         transfers.remove(id);
         listeners.remove(id);
         lastUpdateTime.remove(id);
@@ -125,9 +161,9 @@ class TransferStatusUpdater {
      * Updates the state of an active transfer. If the transfer isn't tracked,
      * i.e. not active, it won't do anything. It writes the status of the
      * transfer, including current state, bytes transfer, bytes total, etc into
-     * database. It then triggers
-     * {@link TransferListener#onStateChanged(int, TransferState)} event of
-     * associated listeners if new state is different.
+     * database right away, along with any pending progress of the transfer. It
+     * then triggers {@link TransferListener#onStateChanged(int, TransferState)}
+     * event of associated listeners if new state is different.
      * <p>
      * Note that when the newState is CANCELED, COMPLETED, or FAILED, associated
      * listeners will be removed after being invoked. Make sure you call
@@ -148,9 +184,17 @@ class TransferStatusUpdater {
         } else {
             shouldNotNotify |= newState.equals(transfer.state);
             transfer.state = newState;
-            // save to database
-            if (dbUtil.updateTransferRecord(transfer) == 0) {
-                Log.w(TAG, "Failed to update the status of transfer " + id);
+            /*
+             * The record carries the latest progress, so the pending progress
+             * is superseded. Holding the lock prevents a concurrent flush from
+             * writing stale progress after this update.
+             */
+            synchronized (pendingProgress) {
+                pendingProgress.remove(id);
+                // save to database
+                if (dbUtil.updateTransferRecord(transfer) == 0) {
+                    Log.w(TAG, "Failed to update the status of transfer " + id);
+                }
             }
         }
 
@@ -183,9 +227,10 @@ class TransferStatusUpdater {
     }
 
     /**
-     * Updates the transfer progress of a transfer. It will trigger
-     * {@link TransferListener#onProgressChanged(int, long, long)} of associated
-     * listeners if the update exceeds either time threshold.
+     * Updates the transfer progress of a transfer. The progress is written to
+     * database asynchronously, coalesced with other progress updates. It will
+     * trigger {@link TransferListener#onProgressChanged(int, long, long)} of
+     * associated listeners if the update exceeds either time threshold.
      *
      * @param id id of the transfer
      * @param bytesCurrent current transferred bytes
@@ -196,6 +241,7 @@ class TransferStatusUpdater {
         if (transfer != null) {
             transfer.bytesCurrent = bytesCurrent;
             transfer.bytesTotal = bytesTotal;
+            queueProgress(id, bytesCurrent, bytesTotal);
         }
 
         // invoke listeners
@@ -248,10 +294,67 @@ class TransferStatusUpdater {
         });
     }
 
+    /**
+     * Saves the progress of a transfer to be written to database later. Only
+     * the latest progress of each transfer is kept.
+     *
+     * @param id id of the transfer
+     * @param bytesCurrent current transferred bytes
+     * @param bytesTotal total bytes
+     */
+    private void queueProgress(int id, long bytesCurrent, long bytesTotal) {
+        synchronized (pendingProgress) {
+            long[] progress = pendingProgress.get(id);
+            if (progress == null) {
+                pendingProgress.put(id, new long[] {
+                        bytesCurrent, bytesTotal
+                });
+            } else {
+                progress[0] = bytesCurrent;
+                progress[1] = bytesTotal;
+            }
+            if (!isFlushScheduled && !persistExecutor.isShutdown()) {
+                isFlushScheduled = true;
+                persistExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, PERSIST_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending progress into database in a single transaction.
+     */
+    void flush() {
+        synchronized (pendingProgress) {
+            isFlushScheduled = false;
+            if (pendingProgress.isEmpty()) {
+                return;
+            }
+            dbUtil.updateBytesTransferred(pendingProgress);
+            pendingProgress.clear();
+        }
+    }
+
+    /**
+     * Flushes pending progress and stops the background writer. Progress
+     * updated afterwards is only written along with state changes.
+     */
+    void shutdown() {
+        persistExecutor.shutdown();
+        flush();
+    }
+
     /**
      * Clears all transfers, listeners, etc.
      */
     void clear() {
+        synchronized (pendingProgress) {
+            pendingProgress.clear();
+        }
         listeners.clear();
         transfers.clear();
         lastUpdateTime.clear();
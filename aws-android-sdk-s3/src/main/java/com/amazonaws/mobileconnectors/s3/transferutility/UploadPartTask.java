@@ -45,8 +45,7 @@ class UploadPartTask implements Callable<Boolean> {
     public Boolean call() throws Exception {
         try {
             UploadPartResult putPartResult = s3.uploadPart(request);
-            dbUtil.updateState(request.getId(), TransferState.PART_COMPLETED);
-            dbUtil.updateETag(request.getId(), putPartResult.getETag());
+            dbUtil.updatePartCompleted(request.getId(), putPartResult.getETag());
             return true;
         } catch (Exception e) {
             dbUtil.updateState(request.getId(), TransferState.FAILED);
@@ -165,6 +165,7 @@ import com.amazonaws.services.s3.model.transform.RequestXmlFactory;
 import com.amazonaws.services.s3.model.transform.Unmarshallers;
 import com.amazonaws.services.s3.model.transform.XmlResponsesSaxParser.CompleteMultipartUploadHandler;
 import com.amazonaws.services.s3.model.transform.XmlResponsesSaxParser.CopyObjectResultHandler;
+import com.amazonaws.services.s3.util.BucketRegionCache;
 import com.amazonaws.services.s3.util.Mimetypes;
 import com.amazonaws.transform.Unmarshaller;
 import com.amazonaws.util.AWSRequestMetrics;
@@ -267,6 +268,12 @@ public class AmazonS3Client extends AmazonWebServiceClient implements AmazonS3 {
     /** Whether or not this client has an explicit region configured. */
     private boolean hasExplicitRegion;
 
+    /**
+     * Regions of buckets learned from the region hints of Amazon S3, or null
+     * if disabled.
+     */
+    private volatile BucketRegionCache bucketRegionCache = new BucketRegionCache();
+
     /**
      * Constructs a new client to invoke service methods on Amazon S3. A
      * credentials provider chain will be used that searches for credentials in
@@ -493,6 +500,30 @@ public class AmazonS3Client extends AmazonWebServiceClient implements AmazonS3 {
         super.setRegion(region);
     }
 
+    /**
+     * Sets the cache of bucket regions used by this client. When this client
+     * is configured with the default, global endpoint, it remembers the region
+     * of each bucket that Amazon S3 reports in a region header, a redirect or
+     * a region error, and sends subsequent requests for the bucket directly to,
+     * and signs them for, that region. A cache can be shared by multiple
+     * clients, and persisted across process restarts by creating it with a
+     * file. By default a client uses a private in-memory cache.
+     *
+     * @param bucketRegionCache The cache to use, or null to disable caching of
+     *            bucket regions.
+     */
+    public void setBucketRegionCache(BucketRegionCache bucketRegionCache) {
+        this.bucketRegionCache = bucketRegionCache;
+    }
+
+    /**
+     * Returns the cache of bucket regions used by this client, or null if
+     * caching of bucket regions is disabled.
+     */
+    public BucketRegionCache getBucketRegionCache() {
+        return bucketRegionCache;
+    }
+
     /**
      * <p>
      * Override the default S3 client options for this client.
@@ -1430,6 +1461,12 @@ public class AmazonS3Client extends AmazonWebServiceClient implements AmazonS3 {
         Request<DeleteBucketRequest> request = createRequest(bucketName, null, deleteBucketRequest,
                 HttpMethodName.DELETE);
         invoke(request, voidResponseHandler, bucketName, null);
+
+        // The bucket name may be taken again in another region
+        BucketRegionCache cache = bucketRegionCache;
+        if (cache != null) {
+            cache.removeRegion(bucketName);
+        }
     }
 
     /*
@@ -3569,6 +3606,16 @@ public class AmazonS3Client extends AmazonWebServiceClient implements AmazonS3 {
 
         Signer signer = getSigner();
 
+        String bucketRegion = getRoutedBucketRegion(request);
+        if (bucketRegion != null) {
+            // The request was routed to the cached region of the bucket, so
+            // sign it for that region
+            AWSS3V4Signer v4Signer = new AWSS3V4Signer();
+            v4Signer.setServiceName(getServiceNameIntern());
+            v4Signer.setRegionName(bucketRegion);
+            return v4Signer;
+        }
+
         if (upgradeToSigV4(request) && !(signer instanceof AWSS3V4Signer)) {
 
             AWSS3V4Signer v4Signer = new AWSS3V4Signer();
@@ -3719,6 +3766,10 @@ public class AmazonS3Client extends AmazonWebServiceClient implements AmazonS3 {
      *         specified bucket.
      */
     private URI convertToVirtualHostEndpoint(String bucketName) {
+        return convertToVirtualHostEndpoint(endpoint, bucketName);
+    }
+
+    private static URI convertToVirtualHostEndpoint(URI endpoint, String bucketName) {
         try {
             return new URI(endpoint.getScheme() + "://" + bucketName + "."
                     + endpoint.getAuthority());
@@ -4125,10 +4176,11 @@ public class AmazonS3Client extends AmazonWebServiceClient implements AmazonS3 {
     private void configRequest(
             Request<?> request, String bucketName, String key)
     {
+        URI endpoint = resolveBucketEndpoint(bucketName);
         if (!clientOptions.isPathStyleAccess()
                 && BucketNameUtils.isDNSBucketName(bucketName)
                 && !validIP(endpoint.getHost())) {
-            request.setEndpoint(convertToVirtualHostEndpoint(bucketName));
+            request.setEndpoint(convertToVirtualHostEndpoint(endpoint, bucketName));
             /*
              * If the key name starts with a slash character, in order to
              * prevent it being treated as a path delimiter, we need to add
@@ -4148,6 +4200,74 @@ public class AmazonS3Client extends AmazonWebServiceClient implements AmazonS3 {
         }
     }
 
+    /**
+     * Returns the endpoint of the cached region of the given bucket, if this
+     * client uses the global endpoint and the region of the bucket is known;
+     * otherwise the endpoint of this client.
+     */
+    private URI resolveBucketEndpoint(String bucketName) {
+        BucketRegionCache cache = bucketRegionCache;
+        if (cache == null || bucketName == null || hasExplicitRegion
+                || getSignerRegionOverride() != null) {
+            return endpoint;
+        }
+        String bucketRegion = cache.getRegion(bucketName);
+        // The global endpoint already serves US Standard
+        if (bucketRegion == null || "us-east-1".equals(bucketRegion)) {
+            return endpoint;
+        }
+        com.amazonaws.regions.Region region = RegionUtils.getRegion(bucketRegion);
+        if (region == null || !region.isServiceSupported(S3_SERVICE_NAME)) {
+            return endpoint;
+        }
+        try {
+            return new URI(endpoint.getScheme() + "://"
+                    + region.getServiceEndpoint(S3_SERVICE_NAME));
+        } catch (URISyntaxException e) {
+            return endpoint;
+        }
+    }
+
+    /**
+     * Returns the region the given request was routed to by
+     * {@link #resolveBucketEndpoint(String)}, or null if it was sent to the
+     * endpoint of this client.
+     */
+    private String getRoutedBucketRegion(Request<?> request) {
+        URI requestEndpoint = request.getEndpoint();
+        if (requestEndpoint == null || hasExplicitRegion
+                || requestEndpoint.getHost().endsWith(endpoint.getHost())) {
+            return null;
+        }
+        return BucketRegionCache.regionOfEndpoint(requestEndpoint.getHost());
+    }
+
+    /**
+     * Records the region of the given bucket hinted by a response, a redirect
+     * or an error of Amazon S3.
+     */
+    private void learnBucketRegion(String bucketName, Response<?> response,
+            ExecutionContext executionContext, AmazonS3Exception exception) {
+        BucketRegionCache cache = bucketRegionCache;
+        if (cache == null || bucketName == null) {
+            return;
+        }
+        String bucketRegion = null;
+        if (exception != null) {
+            bucketRegion = exception.getBucketRegion();
+        } else if (response != null && response.getHttpResponse() != null) {
+            bucketRegion = response.getHttpResponse().getHeaders()
+                    .get(Headers.S3_BUCKET_REGION);
+        }
+        if (bucketRegion == null && executionContext.getRedirectedURI() != null) {
+            bucketRegion = BucketRegionCache.regionOfEndpoint(
+                    executionContext.getRedirectedURI().getHost());
+        }
+        if (bucketRegion != null && bucketRegion.length() > 0) {
+            cache.putRegion(bucketName, bucketRegion);
+        }
+    }
+
     private boolean validIP(String IP) {
         if (IP == null) {
             return false;
@@ -4218,8 +4338,14 @@ public class AmazonS3Client extends AmazonWebServiceClient implements AmazonS3 {
             }
             executionContext.setSigner(createSigner(request, bucket, key));
             executionContext.setCredentials(credentials);
-            response = client.execute(request, responseHandler,
-                    errorResponseHandler, executionContext);
+            try {
+                response = client.execute(request, responseHandler,
+                        errorResponseHandler, executionContext);
+            } catch (AmazonS3Exception e) {
+                learnBucketRegion(bucket, null, executionContext, e);
+                throw e;
+            }
+            learnBucketRegion(bucket, response, executionContext, null);
             return response.getAwsResponse();
         } finally {
             endClientExecution(awsRequestMetrics, request, response);
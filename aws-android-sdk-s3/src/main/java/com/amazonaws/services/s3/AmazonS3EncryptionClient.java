@@ -45,6 +45,7 @@ import com.amazonaws.services.s3.model.Permission;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SeekableS3ObjectInputStream;
 import com.amazonaws.services.s3.model.StaticEncryptionMaterialsProvider;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
@@ -417,6 +418,28 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         return crypto.getObjectSecurely(req);
     }
 
+    /**
+     * Returns a seekable input stream over the decrypted content of the
+     * specified object, which must have been encrypted with AES/GCM in
+     * authenticated encryption mode. The content is fetched with range gets
+     * on demand, so only the parts of the object that are actually read are
+     * downloaded, and the stream can be repositioned anywhere within the
+     * content without re-reading it from the start. The range set on the
+     * request, if any, is ignored.
+     * <p>
+     * As with range gets, the content returned is not authenticated, so this
+     * method is not allowed in strict authenticated encryption mode.
+     *
+     * @param req The request object identifying the object to read.
+     * @return A seekable input stream over the decrypted content; or null if
+     *         the constraints specified in the request were not met.
+     * @throws SecurityException if strict authenticated encryption mode is in
+     *             use.
+     */
+    public SeekableS3ObjectInputStream getSeekableObject(GetObjectRequest req) {
+        return crypto.getSeekableObjectSecurely(req);
+    }
+
     @Override
     public ObjectMetadata getObject(GetObjectRequest req, File dest) {
         return crypto.getObjectSecurely(req, dest);
@@ -463,7 +486,11 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
      * N-1 in order to encrypt block N, parts uploaded with the
      * AmazonS3EncryptionClient (as opposed to the normal AmazonS3Client) must
      * be uploaded serially, and in order. Otherwise, the previous encryption
-     * context isn't available to use when encrypting the current part.
+     * context isn't available to use when encrypting the current part. If
+     * {@link #isParallelMultipartUploadSupported()} returns true, this
+     * restriction is lifted for uploads initiated with an
+     * {@link EncryptedInitiateMultipartUploadRequest} that declares the part
+     * size.
      */
     @Override
     public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest)
@@ -471,6 +498,17 @@ public class AmazonS3EncryptionClient extends AmazonS3Client {
         return crypto.uploadPartSecurely(uploadPartRequest);
     }
 
+    /**
+     * Returns true if the parts of a multipart upload initiated with an
+     * {@link EncryptedInitiateMultipartUploadRequest} that declares the part
+     * size can be encrypted and uploaded in parallel, which is the case in
+     * authenticated encryption mode; false if parts must be uploaded serially
+     * and in order.
+     */
+    public boolean isParallelMultipartUploadSupported() {
+        return crypto.isParallelMultipartUploadSupported();
+    }
+
     @Override
     public CopyPartResult copyPart(CopyPartRequest copyPartRequest) {
         return crypto.copyPartSecurely(copyPartRequest);
@@ -64,6 +64,9 @@ public interface Headers {
     /** S3 response header for a request's extended debugging ID */
     public static final String EXTENDED_REQUEST_ID = "x-amz-id-2";
 
+    /** S3 response header for the region of the bucket of a request */
+    public static final String S3_BUCKET_REGION = "x-amz-bucket-region";
+
     /**
      * S3 request header indicating how to handle metadata when copying an
      * object
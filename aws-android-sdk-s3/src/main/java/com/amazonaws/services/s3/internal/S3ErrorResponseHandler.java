@@ -21,6 +21,7 @@ import com.amazonaws.http.HttpResponse;
 import com.amazonaws.http.HttpResponseHandler;
 import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.util.BucketRegionCache;
 import com.amazonaws.util.IOUtils;
 import com.amazonaws.util.XpathUtils;
 
@@ -31,6 +32,8 @@ import org.w3c.dom.Document;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.xml.xpath.XPathExpressionException;
+
 /**
  * Response handler for S3 error responses. S3 error responses are different
  * from other AWS error responses in a few ways. Most error responses will
@@ -62,6 +65,7 @@ public class S3ErrorResponseHandler
             ase.setRequestId(requestId);
             ase.setExtendedRequestId(extendedRequestId);
             ase.setErrorType(errorTypeOf(statusCode));
+            ase.setBucketRegion(errorResponse.getHeaders().get(Headers.S3_BUCKET_REGION));
             return ase;
         }
         // Try to read the error response
@@ -86,6 +90,7 @@ public class S3ErrorResponseHandler
             ase.setErrorCode(errorCode);
             ase.setRequestId(requestId);
             ase.setExtendedRequestId(extendedRequestId);
+            ase.setBucketRegion(bucketRegionOf(errorResponse, document));
             return ase;
         } catch (Exception ex) {
             if (log.isDebugEnabled())
@@ -94,6 +99,25 @@ public class S3ErrorResponseHandler
         }
     }
 
+    /**
+     * Returns the region of the bucket hinted by the error response, from the
+     * region header, the region of an AuthorizationHeaderMalformed error, or
+     * the endpoint of a PermanentRedirect error; or null if there is no hint.
+     */
+    private String bucketRegionOf(HttpResponse errorResponse, Document document)
+            throws XPathExpressionException {
+        String region = errorResponse.getHeaders().get(Headers.S3_BUCKET_REGION);
+        if (region != null)
+            return region;
+        region = XpathUtils.asString("Error/Region", document);
+        if (region != null && region.length() > 0)
+            return region;
+        String endpoint = XpathUtils.asString("Error/Endpoint", document);
+        if (endpoint == null || endpoint.length() == 0)
+            return null;
+        return BucketRegionCache.regionOfEndpoint(endpoint);
+    }
+
     /**
      * Used to create an {@link AmazonS3Exception} when we failed to read the
      * error response or parsed the error response as XML.
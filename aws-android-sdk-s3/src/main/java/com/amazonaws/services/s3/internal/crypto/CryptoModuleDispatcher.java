@@ -35,6 +35,7 @@ import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SeekableS3ObjectInputStream;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
 
@@ -100,6 +101,13 @@ public class CryptoModuleDispatcher extends S3CryptoModule<MultipartUploadContex
         return ae.getObjectSecurely(req, destinationFile);
     }
 
+    @Override
+    public SeekableS3ObjectInputStream getSeekableObjectSecurely(GetObjectRequest req)
+            throws AmazonClientException, AmazonServiceException {
+        // AE module can handle S3 objects encrypted in either AE or OE format
+        return ae.getSeekableObjectSecurely(req);
+    }
+
     @Override
     public CompleteMultipartUploadResult completeMultipartUploadSecurely(
             CompleteMultipartUploadRequest req)
@@ -133,7 +141,10 @@ public class CryptoModuleDispatcher extends S3CryptoModule<MultipartUploadContex
      * N-1 in order to encrypt block N, parts uploaded with the
      * AmazonS3EncryptionClient (as opposed to the normal AmazonS3Client) must
      * be uploaded serially, and in order. Otherwise, the previous encryption
-     * context isn't available to use when encrypting the current part.
+     * context isn't available to use when encrypting the current part. This
+     * restriction is lifted in authenticated encryption mode for uploads that
+     * declare their part size via
+     * {@link com.amazonaws.services.s3.model.EncryptedInitiateMultipartUploadRequest#setPartSize(long)}.
      */
     @Override
     public UploadPartResult uploadPartSecurely(UploadPartRequest req)
@@ -143,6 +154,13 @@ public class CryptoModuleDispatcher extends S3CryptoModule<MultipartUploadContex
                 : ae.uploadPartSecurely(req);
     }
 
+    @Override
+    public boolean isParallelMultipartUploadSupported() {
+        return defaultCryptoMode == CryptoMode.EncryptionOnly
+                ? eo.isParallelMultipartUploadSupported()
+                : ae.isParallelMultipartUploadSupported();
+    }
+
     @Override
     public CopyPartResult copyPartSecurely(CopyPartRequest req) {
         return defaultCryptoMode == CryptoMode.EncryptionOnly
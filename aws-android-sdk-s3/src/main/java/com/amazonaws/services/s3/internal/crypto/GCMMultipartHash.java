@@ -0,0 +1,206 @@
+/*
+ * Copyright 2013-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.internal.crypto;
+
+import com.amazonaws.AmazonClientException;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+
+/**
+ * Computes the AES/GCM authentication tag of a multipart upload whose parts
+ * are encrypted independently, and possibly concurrently, with AES/CTR.
+ * <p>
+ * Every part except the last must be exactly {@link #getPartSize()} bytes of
+ * plaintext, so that the byte offset of each part, and hence its counter
+ * block, is known up front. Each part reports the GHASH of its own ciphertext
+ * via {@link #partEncrypted(int, long[], long)}; the partial hashes are folded
+ * into the running hash in part order as soon as they become contiguous, so
+ * only out of order parts are kept in memory.
+ */
+final class GCMMultipartHash {
+    private static final int BLOCK_SIZE = ContentCryptoScheme.AES_GCM.getBlockSizeInBytes();
+
+    private final CipherLite cipherLite;
+    private final long partSize;
+    private final GHash ghash;
+    /** H raised to the number of blocks in a part. */
+    private final long[] partPower;
+    /** The encryption of the pre-counter block J0, used to mask the tag. */
+    private final long[] tagMask;
+
+    /** Partial hashes of parts not yet folded into {@link #y}. */
+    private final Map<Integer, long[]> pending = new HashMap<Integer, long[]>();
+    /** GHASH of the ciphertext of parts 1 to {@link #contiguous}. */
+    private final long[] y = new long[2];
+    /** All parts up to and including this part number have been folded. */
+    private int contiguous;
+    /** Parts whose upload failed before they were fully encrypted. */
+    private final Set<Integer> failed = new HashSet<Integer>();
+
+    /**
+     * @param cipherLite the AES/GCM content encrypting cipher lite of the
+     *            multipart upload
+     * @param partSize the plaintext size of every part except the last; must be
+     *            a positive multiple of the cipher block size
+     */
+    GCMMultipartHash(CipherLite cipherLite, long partSize) {
+        if (partSize <= 0 || partSize % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException(
+                    "Part size must be a positive multiple of the cipher block size ("
+                            + BLOCK_SIZE + ") but was " + partSize);
+        }
+        byte[] iv = cipherLite.getIV();
+        if (iv.length != 12)
+            throw new UnsupportedOperationException();
+        this.cipherLite = cipherLite;
+        this.partSize = partSize;
+        try {
+            Cipher aes = Cipher.getInstance("AES/ECB/NoPadding",
+                    cipherLite.getCipherProvider());
+            aes.init(Cipher.ENCRYPT_MODE, cipherLite.getSecretKey());
+            ghash = new GHash(aes.doFinal(new byte[BLOCK_SIZE]));
+            byte[] j0 = new byte[BLOCK_SIZE];
+            System.arraycopy(iv, 0, j0, 0, iv.length);
+            j0[BLOCK_SIZE - 1] = 1;
+            tagMask = GHash.toLongs(aes.doFinal(j0));
+        } catch (Exception e) {
+            throw new AmazonClientException(
+                    "Unable to initialize parallel multipart encryption: " + e.getMessage(), e);
+        }
+        partPower = ghash.power(partSize / BLOCK_SIZE);
+    }
+
+    long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Returns a new cipher lite for encrypting the given part.
+     */
+    CipherLite newPartCipherLite(int partNumber, boolean isLastPart) {
+        if (partNumber < 1)
+            throw new IllegalArgumentException("Invalid part number: " + partNumber);
+        return new GCMPartCipherLite(this, partNumber, isLastPart);
+    }
+
+    /**
+     * Returns an AES/CTR cipher lite positioned at the given byte offset of
+     * the plaintext.
+     */
+    CipherLite createAuxiliary(long startingBytePos) throws Exception {
+        return cipherLite.createAuxiliary(startingBytePos);
+    }
+
+    GHash.Accumulator newAccumulator() {
+        return ghash.newAccumulator();
+    }
+
+    /**
+     * Records the hash of the ciphertext of a part that is not the last part.
+     * Recording the same part more than once, as happens when a part is
+     * retried, is harmless since the ciphertext is deterministic.
+     */
+    synchronized void partEncrypted(int partNumber, long[] digest, long byteCount) {
+        if (byteCount != partSize) {
+            throw new AmazonClientException("Part " + partNumber + " has " + byteCount
+                    + " bytes but all parts except the last must have " + partSize
+                    + " bytes for a parallel encrypted multipart upload");
+        }
+        failed.remove(partNumber);
+        if (partNumber <= contiguous)
+            return;
+        pending.put(partNumber, digest);
+        final int folded = contiguous;
+        long[] next;
+        while ((next = pending.remove(contiguous + 1)) != null) {
+            GHash.multiply(y, partPower, y);
+            y[0] ^= next[0];
+            y[1] ^= next[1];
+            contiguous++;
+        }
+        if (contiguous > folded)
+            notifyAll();
+    }
+
+    /**
+     * Records that the upload of a part that is not the last part has failed,
+     * so that the last part stops waiting for it. A successful retry of the
+     * part clears the failure.
+     */
+    synchronized void partFailed(int partNumber) {
+        if (partNumber > contiguous && !pending.containsKey(partNumber)) {
+            failed.add(partNumber);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until all the parts before the given part have been encrypted.
+     *
+     * @throws AmazonClientException if a preceding part failed to be uploaded
+     *             or the current thread is interrupted
+     */
+    synchronized void awaitPartsBefore(int partNumber) {
+        try {
+            while (contiguous < partNumber - 1) {
+                if (!failed.isEmpty()) {
+                    throw new AmazonClientException("Unable to upload the last part: part "
+                            + failed.iterator().next() + " failed to be uploaded");
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException(
+                    "Interrupted while waiting for the preceding parts to be encrypted", e);
+        }
+    }
+
+    /**
+     * Returns the authentication tag of the whole upload given the hash of the
+     * ciphertext of the last part.
+     */
+    synchronized byte[] tag(int lastPartNumber, long[] digest, long byteCount) {
+        if (contiguous < lastPartNumber - 1) {
+            throw new AmazonClientException("Unable to compute the authentication tag: part "
+                    + (contiguous + 1) + " has not yet been encrypted");
+        }
+        if (contiguous > lastPartNumber - 1) {
+            throw new AmazonClientException("Part " + contiguous
+                    + " is numbered after the last part " + lastPartNumber);
+        }
+        long[] s = y.clone();
+        long blocks = (byteCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (blocks > 0) {
+            GHash.multiply(s, ghash.power(blocks), s);
+            s[0] ^= digest[0];
+            s[1] ^= digest[1];
+        }
+        // The length block: no additional authenticated data, followed by the
+        // length of the ciphertext in bits
+        long totalBytes = (lastPartNumber - 1) * partSize + byteCount;
+        s[1] ^= totalBytes << 3;
+        ghash.multiplyH(s);
+        s[0] ^= tagMask[0];
+        s[1] ^= tagMask[1];
+        return GHash.toBytes(s);
+    }
+}
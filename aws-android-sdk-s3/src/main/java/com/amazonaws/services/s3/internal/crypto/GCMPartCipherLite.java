@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.internal.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * A cipher lite that encrypts a single part of an AES/GCM encrypted multipart
+ * upload independently of the other parts. The part is encrypted with AES/CTR
+ * starting from the counter block at the part's offset, which yields exactly
+ * the same ciphertext as AES/GCM over the whole object, while the GHASH of
+ * the part's ciphertext is accumulated on the side and reported to the
+ * {@link GCMMultipartHash} of the upload upon {@link #doFinal()}. The last
+ * part appends the authentication tag of the whole upload.
+ * <p>
+ * Mark and reset are supported at any position that is a multiple of the
+ * cipher block size, which is always the case for a
+ * {@link CipherLiteInputStream} whose buffer size is a multiple of the block
+ * size.
+ */
+final class GCMPartCipherLite extends CipherLite {
+    private final GCMMultipartHash hash;
+    private final int partNumber;
+    private final boolean isLastPart;
+    private final long partOffset;
+
+    private CipherLite ctr;
+    private final GHash.Accumulator accumulator;
+    private long markedCount;
+
+    GCMPartCipherLite(GCMMultipartHash hash, int partNumber, boolean isLastPart) {
+        this(hash, partNumber, isLastPart, createCtr(hash, (partNumber - 1) * hash.getPartSize()));
+    }
+
+    private GCMPartCipherLite(GCMMultipartHash hash, int partNumber, boolean isLastPart,
+            CipherLite ctr) {
+        super(ctr.getCipher(), ContentCryptoScheme.AES_CTR, ctr.getSecretKey(),
+                Cipher.ENCRYPT_MODE);
+        this.hash = hash;
+        this.partNumber = partNumber;
+        this.isLastPart = isLastPart;
+        this.partOffset = (partNumber - 1) * hash.getPartSize();
+        this.ctr = ctr;
+        this.accumulator = hash.newAccumulator();
+    }
+
+    private static CipherLite createCtr(GCMMultipartHash hash, long startingBytePos) {
+        try {
+            return hash.createAuxiliary(startingBytePos);
+        } catch (Exception e) {
+            throw ((e instanceof RuntimeException)
+                    ? (RuntimeException) e
+                    : new IllegalStateException(e));
+        }
+    }
+
+    @Override
+    byte[] update(byte[] input, int inputOffset, int inputLen) {
+        byte[] out = ctr.update(input, inputOffset, inputLen);
+        accumulator.update(out);
+        return out;
+    }
+
+    @Override
+    byte[] doFinal() throws IllegalBlockSizeException, BadPaddingException {
+        return doFinal(new byte[0], 0, 0);
+    }
+
+    @Override
+    byte[] doFinal(byte[] input) throws IllegalBlockSizeException, BadPaddingException {
+        return doFinal(input, 0, input.length);
+    }
+
+    @Override
+    byte[] doFinal(byte[] input, int inputOffset, int inputLen)
+            throws IllegalBlockSizeException, BadPaddingException {
+        byte[] out = ctr.doFinal(input, inputOffset, inputLen);
+        accumulator.update(out);
+        long[] digest = accumulator.digest();
+        long byteCount = accumulator.getByteCount();
+        if (!isLastPart) {
+            hash.partEncrypted(partNumber, digest, byteCount);
+            return out;
+        }
+        byte[] tag = hash.tag(partNumber, digest, byteCount);
+        int outLen = out == null ? 0 : out.length;
+        byte[] finalBytes = new byte[outLen + tag.length];
+        if (outLen > 0)
+            System.arraycopy(out, 0, finalBytes, 0, outLen);
+        System.arraycopy(tag, 0, finalBytes, outLen, tag.length);
+        return finalBytes;
+    }
+
+    @Override
+    boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    long mark() {
+        accumulator.mark();
+        return markedCount = accumulator.getByteCount();
+    }
+
+    @Override
+    void reset() {
+        ctr = createCtr(hash, partOffset + markedCount);
+        accumulator.reset();
+    }
+
+    @Override
+    int getOutputSize(int inputLen) {
+        return isLastPart ? inputLen + ContentCryptoScheme.AES_GCM.getTagLengthInBits() / 8
+                : inputLen;
+    }
+}
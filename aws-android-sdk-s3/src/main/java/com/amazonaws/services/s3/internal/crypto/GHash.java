@@ -0,0 +1,254 @@
+/*
+ * Copyright 2013-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.internal.crypto;
+
+/**
+ * The GHASH function of AES/GCM over GF(2^128), as defined in <a href=
+ * "http://csrc.nist.gov/publications/nistpubs/800-38D/SP-800-38D.pdf"> NIST
+ * Special Publication 800-38D</a>.
+ * <p>
+ * GHASH is linear, so the ciphertext of a multipart upload can be hashed part
+ * by part, in any order, starting from a zero state; the partial hashes are
+ * then combined in part order by multiplying the running hash by H raised to
+ * the number of blocks in the next part. This is what allows the parts of an
+ * AES/GCM encrypted multipart upload to be encrypted in parallel.
+ * <p>
+ * Field elements are represented as two longs holding the 16 byte block in
+ * big endian order.
+ */
+final class GHash {
+    private static final int BLOCK_SIZE = 16;
+    /** The reduction polynomial x^128 + x^7 + x^2 + x + 1, bit reflected. */
+    private static final long R = 0xE100000000000000L;
+
+    private final long[] h;
+    /**
+     * Multiplication table of H: the element at [i][b] is the product of H
+     * and the block with byte b at position i and zeros everywhere else.
+     */
+    private final long[][] tableHi = new long[BLOCK_SIZE][256];
+    private final long[][] tableLo = new long[BLOCK_SIZE][256];
+
+    /**
+     * @param hashSubkey the hash subkey H, which is the encryption of the zero
+     *            block under the content encrypting key.
+     */
+    GHash(byte[] hashSubkey) {
+        if (hashSubkey.length != BLOCK_SIZE)
+            throw new IllegalArgumentException();
+        h = toLongs(hashSubkey);
+        long[] x = new long[2];
+        long[] z = new long[2];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            for (int bit = 1; bit < 256; bit <<= 1) {
+                x[0] = x[1] = 0;
+                long b = ((long) bit) << (56 - 8 * (i % 8));
+                if (i < 8)
+                    x[0] = b;
+                else
+                    x[1] = b;
+                multiply(x, h, z);
+                tableHi[i][bit] = z[0];
+                tableLo[i][bit] = z[1];
+            }
+            for (int b = 3; b < 256; b++) {
+                int lowestBit = b & -b;
+                if (lowestBit == b)
+                    continue;
+                tableHi[i][b] = tableHi[i][lowestBit] ^ tableHi[i][b ^ lowestBit];
+                tableLo[i][b] = tableLo[i][lowestBit] ^ tableLo[i][b ^ lowestBit];
+            }
+        }
+    }
+
+    /**
+     * Multiplies the given element in place by H.
+     */
+    void multiplyH(long[] y) {
+        long hi = 0, lo = 0;
+        long y0 = y[0], y1 = y[1];
+        for (int i = 0; i < 8; i++) {
+            int b0 = (int) (y0 >>> (56 - 8 * i)) & 0xFF;
+            int b1 = (int) (y1 >>> (56 - 8 * i)) & 0xFF;
+            hi ^= tableHi[i][b0] ^ tableHi[i + 8][b1];
+            lo ^= tableLo[i][b0] ^ tableLo[i + 8][b1];
+        }
+        y[0] = hi;
+        y[1] = lo;
+    }
+
+    /**
+     * Returns H raised to the given power.
+     */
+    long[] power(long n) {
+        long[] result = {
+                0x8000000000000000L, 0
+        }; // the multiplicative identity
+        long[] base = h.clone();
+        while (n > 0) {
+            if ((n & 1) != 0)
+                multiply(result, base, result);
+            n >>>= 1;
+            if (n > 0)
+                multiply(base, base, base);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new accumulator that computes GHASH from a zero state.
+     */
+    Accumulator newAccumulator() {
+        return new Accumulator();
+    }
+
+    /**
+     * Computes z = x * y over GF(2^128). The output may alias either input.
+     */
+    static void multiply(long[] x, long[] y, long[] z) {
+        long zHi = 0, zLo = 0;
+        long vHi = y[0], vLo = y[1];
+        for (int i = 0; i < 128; i++) {
+            long word = i < 64 ? x[0] : x[1];
+            if (((word >>> (63 - (i & 63))) & 1) != 0) {
+                zHi ^= vHi;
+                zLo ^= vLo;
+            }
+            boolean carry = (vLo & 1) != 0;
+            vLo = (vLo >>> 1) | (vHi << 63);
+            vHi >>>= 1;
+            if (carry)
+                vHi ^= R;
+        }
+        z[0] = zHi;
+        z[1] = zLo;
+    }
+
+    static long[] toLongs(byte[] block) {
+        return new long[] {
+                getLong(block, 0), getLong(block, 8)
+        };
+    }
+
+    static byte[] toBytes(long[] x) {
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int i = 0; i < 8; i++) {
+            block[i] = (byte) (x[0] >>> (56 - 8 * i));
+            block[i + 8] = (byte) (x[1] >>> (56 - 8 * i));
+        }
+        return block;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++)
+            v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    /**
+     * Accumulates the GHASH of a sequence of ciphertext bytes, zero padding the
+     * final partial block, if any. Supports mark and reset.
+     */
+    final class Accumulator {
+        private final long[] y = new long[2];
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private int blockLen;
+        private long byteCount;
+
+        private final long[] markedY = new long[2];
+        private final byte[] markedBlock = new byte[BLOCK_SIZE];
+        private int markedBlockLen;
+        private long markedByteCount;
+
+        private Accumulator() {
+        }
+
+        void update(byte[] in, int off, int len) {
+            if (in == null || len <= 0)
+                return;
+            byteCount += len;
+            if (blockLen > 0) {
+                int n = Math.min(len, BLOCK_SIZE - blockLen);
+                System.arraycopy(in, off, block, blockLen, n);
+                blockLen += n;
+                off += n;
+                len -= n;
+                if (blockLen < BLOCK_SIZE)
+                    return;
+                y[0] ^= getLong(block, 0);
+                y[1] ^= getLong(block, 8);
+                multiplyH(y);
+                blockLen = 0;
+            }
+            while (len >= BLOCK_SIZE) {
+                y[0] ^= getLong(in, off);
+                y[1] ^= getLong(in, off + 8);
+                multiplyH(y);
+                off += BLOCK_SIZE;
+                len -= BLOCK_SIZE;
+            }
+            if (len > 0) {
+                System.arraycopy(in, off, block, 0, len);
+                blockLen = len;
+            }
+        }
+
+        void update(byte[] in) {
+            if (in != null)
+                update(in, 0, in.length);
+        }
+
+        /**
+         * Returns the hash of all the bytes accumulated so far, with the final
+         * partial block zero padded. This accumulator is left unchanged.
+         */
+        long[] digest() {
+            long[] result = y.clone();
+            if (blockLen > 0) {
+                byte[] padded = new byte[BLOCK_SIZE];
+                System.arraycopy(block, 0, padded, 0, blockLen);
+                result[0] ^= getLong(padded, 0);
+                result[1] ^= getLong(padded, 8);
+                multiplyH(result);
+            }
+            return result;
+        }
+
+        /**
+         * Returns the total number of bytes accumulated so far.
+         */
+        long getByteCount() {
+            return byteCount;
+        }
+
+        void mark() {
+            markedY[0] = y[0];
+            markedY[1] = y[1];
+            System.arraycopy(block, 0, markedBlock, 0, blockLen);
+            markedBlockLen = blockLen;
+            markedByteCount = byteCount;
+        }
+
+        void reset() {
+            y[0] = markedY[0];
+            y[1] = markedY[1];
+            System.arraycopy(markedBlock, 0, block, 0, markedBlockLen);
+            blockLen = markedBlockLen;
+            byteCount = markedByteCount;
+        }
+    }
+}
@@ -17,11 +17,21 @@ package com.amazonaws.services.s3.internal.crypto;
 
 final class MultipartUploadCryptoContext extends MultipartUploadContext {
     private final ContentCryptoMaterial cekMaterial;
+    /**
+     * Non-null if the parts of this upload can be encrypted in parallel.
+     */
+    private final GCMMultipartHash gcmHash;
 
     MultipartUploadCryptoContext(String bucketName, String key,
             ContentCryptoMaterial cekMaterial) {
+        this(bucketName, key, cekMaterial, null);
+    }
+
+    MultipartUploadCryptoContext(String bucketName, String key,
+            ContentCryptoMaterial cekMaterial, GCMMultipartHash gcmHash) {
         super(bucketName, key);
         this.cekMaterial = cekMaterial;
+        this.gcmHash = gcmHash;
     }
 
     /**
@@ -39,4 +49,13 @@ final class MultipartUploadCryptoContext extends MultipartUploadContext {
     ContentCryptoMaterial getContentCryptoMaterial() {
         return cekMaterial;
     }
+
+    /**
+     * Returns the state shared by the parts of this upload if they can be
+     * encrypted in parallel; or null if the parts must be encrypted serially
+     * using the stateful cipher lite returned by {@link #getCipherLite()}.
+     */
+    GCMMultipartHash getGCMMultipartHash() {
+        return gcmHash;
+    }
 }
@@ -27,6 +27,7 @@ import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SeekableS3ObjectInputStream;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
 
@@ -55,4 +56,22 @@ public abstract class S3CryptoModule<T extends MultipartUploadContext> {
     public abstract CopyPartResult copyPartSecurely(CopyPartRequest req);
 
     public abstract void abortMultipartUploadSecurely(AbortMultipartUploadRequest req);
+
+    /**
+     * Returns a seekable input stream over the decrypted content of the
+     * specified object; or null if the constraints of the request are not met.
+     * Not supported by default; subclass may override.
+     */
+    public SeekableS3ObjectInputStream getSeekableObjectSecurely(GetObjectRequest req) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns true if the parts of a multipart upload initiated with a declared
+     * part size can be uploaded in parallel; false if parts must be uploaded
+     * serially and in order.
+     */
+    public boolean isParallelMultipartUploadSupported() {
+        return false;
+    }
 }
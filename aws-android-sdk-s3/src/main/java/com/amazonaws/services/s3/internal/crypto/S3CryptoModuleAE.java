@@ -33,6 +33,7 @@ import com.amazonaws.services.s3.model.CopyPartRequest;
 import com.amazonaws.services.s3.model.CopyPartResult;
 import com.amazonaws.services.s3.model.CryptoConfiguration;
 import com.amazonaws.services.s3.model.CryptoStorageMode;
+import com.amazonaws.services.s3.model.EncryptedInitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.EncryptionMaterialsProvider;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
@@ -42,6 +43,7 @@ import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.SeekableS3ObjectInputStream;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
 import com.amazonaws.util.json.JsonUtils;
@@ -65,6 +67,12 @@ class S3CryptoModuleAE extends S3CryptoModuleBase<MultipartUploadCryptoContext>
         CryptoRuntime.enableBouncyCastle();
     }
     private static final boolean IS_MULTI_PART = true;
+    /**
+     * Each part encrypted in parallel has its own cipher input stream, so a
+     * larger buffer than the default is used to reduce the number of cipher
+     * invocations per part.
+     */
+    private static final int PARALLEL_PART_BUFFER_SIZE = 1024 * 16; // 16K
 
     S3CryptoModuleAE(S3Direct s3,
             AWSCredentialsProvider credentialsProvider,
@@ -163,6 +171,72 @@ class S3CryptoModuleAE extends S3CryptoModuleBase<MultipartUploadCryptoContext>
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only objects encrypted with AES/GCM can be read at arbitrary offsets. The
+     * content crypto material is resolved once from the response to a range
+     * get of the first cipher block, or from the instruction file.
+     */
+    @Override
+    public SeekableS3ObjectInputStream getSeekableObjectSecurely(GetObjectRequest req)
+            throws AmazonClientException, AmazonServiceException {
+        if (isStrict())
+            throw new SecurityException("Range get is not allowed in strict crypto mode");
+        final int blockSize = contentCryptoScheme.getBlockSizeInBytes();
+        // Work on a copy, so that the caller can reuse its request
+        GetObjectRequest firstBlockReq = SeekableCipherLiteInputStream.copyOf(req);
+        appendUserAgent(firstBlockReq, USER_AGENT);
+        firstBlockReq.setRange(0, blockSize - 1);
+        S3Object retrieved = s3.getObject(firstBlockReq);
+        if (retrieved == null)
+            return null;
+        try {
+            retrieved.getObjectContent().close();
+        } catch (IOException e) {
+            log.debug("Safely ignoring", e);
+        }
+        S3ObjectWrapper wrapped = new S3ObjectWrapper(retrieved);
+        ContentCryptoMaterial cekMaterial = null;
+        if (wrapped.hasEncryptionInfo()) {
+            cekMaterial = ContentCryptoMaterial.fromObjectMetadata(
+                    retrieved.getObjectMetadata(), kekMaterialsProvider,
+                    cryptoConfig.getCryptoProvider(), null);
+        } else {
+            S3ObjectWrapper instructionFile = fetchInstructionFile(req);
+            if (instructionFile != null) {
+                try {
+                    if (instructionFile.isInstructionFile()) {
+                        cekMaterial = ContentCryptoMaterial.fromInstructionFile(
+                                JsonUtils.jsonToMap(instructionFile.toJsonString()),
+                                kekMaterialsProvider, cryptoConfig.getCryptoProvider(),
+                                null);
+                    }
+                } finally {
+                    try {
+                        instructionFile.getObjectContent().close();
+                    } catch (Exception ignore) {
+                    }
+                }
+            }
+        }
+        if (cekMaterial == null) {
+            throw new AmazonClientException("S3 object with bucket name: "
+                    + retrieved.getBucketName() + ", key: "
+                    + retrieved.getKey() + " is not encrypted");
+        }
+        if (cekMaterial.getContentCryptoScheme() != ContentCryptoScheme.AES_GCM) {
+            throw new AmazonClientException(
+                    "Seekable reads are only supported for objects encrypted with AES/GCM");
+        }
+        securityCheck(cekMaterial, wrapped);
+        final int tagLen = ContentCryptoScheme.AES_GCM.getTagLengthInBits() / 8;
+        long contentLength = retrieved.getObjectMetadata().getInstanceLength() - tagLen;
+        return new SeekableCipherLiteInputStream(s3, req,
+                retrieved.getObjectMetadata().getETag(), cekMaterial.getCipherLite(),
+                contentLength);
+    }
+
     private S3Object decipher(GetObjectRequest req,
             long[] desiredRange, long[] cryptoRange,
             S3Object retrieved) {
@@ -395,9 +469,15 @@ class S3CryptoModuleAE extends S3CryptoModuleBase<MultipartUploadCryptoContext>
             req.setObjectMetadata(updateMetadataWithContentCryptoMaterial(
                     metadata, null, cekMaterial));
         }
+        GCMMultipartHash gcmHash = null;
+        if (req instanceof EncryptedInitiateMultipartUploadRequest) {
+            long partSize = ((EncryptedInitiateMultipartUploadRequest) req).getPartSize();
+            if (partSize > 0)
+                gcmHash = new GCMMultipartHash(cekMaterial.getCipherLite(), partSize);
+        }
         InitiateMultipartUploadResult result = s3.initiateMultipartUpload(req);
         MultipartUploadCryptoContext uploadContext = new MultipartUploadCryptoContext(
-                req.getBucketName(), req.getKey(), cekMaterial);
+                req.getBucketName(), req.getKey(), cekMaterial, gcmHash);
         multipartUploadContexts.put(result.getUploadId(), uploadContext);
         return result;
     }
@@ -410,6 +490,13 @@ class S3CryptoModuleAE extends S3CryptoModuleBase<MultipartUploadCryptoContext>
      * opposed to the normal AmazonS3Client) must be uploaded serially, and in
      * order. Otherwise, the previous encryption context isn't available to use
      * when encrypting the current part.
+     * <p>
+     * The exception is an upload initiated with an
+     * {@link EncryptedInitiateMultipartUploadRequest} that declares the part
+     * size. Each part is then encrypted on its own, so parts other than the
+     * last may be uploaded in parallel and in any order; the last part, which
+     * carries the authentication tag, blocks until all the preceding parts have
+     * been encrypted.
      */
     @Override
     public UploadPartResult uploadPartSecurely(UploadPartRequest req)
@@ -436,8 +523,21 @@ class S3CryptoModuleAE extends S3CryptoModuleBase<MultipartUploadCryptoContext>
                     "No client-side information available on upload ID " + uploadId);
         }
 
-        CipherLite cipherLite = uploadContext.getCipherLite();
-        req.setInputStream(newMultipartS3CipherInputStream(req, cipherLite));
+        GCMMultipartHash gcmHash = uploadContext.getGCMMultipartHash();
+        if (gcmHash == null) {
+            CipherLite cipherLite = uploadContext.getCipherLite();
+            req.setInputStream(newMultipartS3CipherInputStream(req, cipherLite));
+        } else {
+            if (!isLastPart && partSize != gcmHash.getPartSize()) {
+                throw new AmazonClientException("Invalid part size: all parts except the last "
+                        + "must be of the part size declared when the upload was initiated ("
+                        + gcmHash.getPartSize() + ")");
+            }
+            if (isLastPart)
+                gcmHash.awaitPartsBefore(req.getPartNumber());
+            CipherLite cipherLite = gcmHash.newPartCipherLite(req.getPartNumber(), isLastPart);
+            req.setInputStream(newParallelPartCipherInputStream(req, cipherLite));
+        }
         // Treat all encryption requests as input stream upload requests, not as
         // file upload requests.
         req.setFile(null);
@@ -455,6 +555,14 @@ class S3CryptoModuleAE extends S3CryptoModuleBase<MultipartUploadCryptoContext>
             uploadContext.setHasFinalPartBeenSeen(true);
         }
 
+        if (gcmHash != null && !isLastPart) {
+            try {
+                return s3.uploadPart(req);
+            } catch (RuntimeException e) {
+                gcmHash.partFailed(req.getPartNumber());
+                throw e;
+            }
+        }
         UploadPartResult result = s3.uploadPart(req);
         return result;
     }
@@ -462,17 +570,7 @@ class S3CryptoModuleAE extends S3CryptoModuleBase<MultipartUploadCryptoContext>
     protected final CipherLiteInputStream newMultipartS3CipherInputStream(
             UploadPartRequest req, CipherLite cipherLite) {
         try {
-            InputStream is = req.getInputStream();
-            if (req.getFile() != null) {
-                is = new InputSubstream(
-                        new RepeatableFileInputStream(
-                                req.getFile()),
-                        req.getFileOffset(),
-                        req.getPartSize(),
-                        req.isLastPart());
-            }
-
-            return new CipherLiteInputStream(is, cipherLite,
+            return new CipherLiteInputStream(partInputStream(req), cipherLite,
                     DEFAULT_BUFFER_SIZE,
                     IS_MULTI_PART, req.isLastPart());
         } catch (Exception e) {
@@ -482,6 +580,41 @@ class S3CryptoModuleAE extends S3CryptoModuleBase<MultipartUploadCryptoContext>
         }
     }
 
+    /**
+     * Returns a cipher input stream for a part that is encrypted independently
+     * of the other parts. Every such part is finalized at the end of its input
+     * so that its hash is recorded, or, for the last part, the tag appended.
+     */
+    private CipherLiteInputStream newParallelPartCipherInputStream(
+            UploadPartRequest req, CipherLite cipherLite) {
+        try {
+            return new CipherLiteInputStream(partInputStream(req), cipherLite,
+                    PARALLEL_PART_BUFFER_SIZE, IS_MULTI_PART, true);
+        } catch (Exception e) {
+            throw new AmazonClientException(
+                    "Unable to create cipher input stream: " + e.getMessage(),
+                    e);
+        }
+    }
+
+    private InputStream partInputStream(UploadPartRequest req) throws IOException {
+        InputStream is = req.getInputStream();
+        if (req.getFile() != null) {
+            is = new InputSubstream(
+                    new RepeatableFileInputStream(
+                            req.getFile()),
+                    req.getFileOffset(),
+                    req.getPartSize(),
+                    req.isLastPart());
+        }
+        return is;
+    }
+
+    @Override
+    public boolean isParallelMultipartUploadSupported() {
+        return true;
+    }
+
     @Override
     public CopyPartResult copyPartSecurely(CopyPartRequest copyPartRequest) {
         String uploadId = copyPartRequest.getUploadId();
@@ -113,9 +113,12 @@ public abstract class S3CryptoModuleBase<T extends MultipartUploadContext>
     }
 
     protected final ContentCryptoMaterial createContentCryptoMaterial(AmazonWebServiceRequest req) {
-        if (req instanceof MaterialsDescriptionProvider) {
+        Map<String, String> materialsDescription = req instanceof MaterialsDescriptionProvider
+                ? ((MaterialsDescriptionProvider) req).getMaterialsDescription()
+                : null;
+        if (materialsDescription != null) {
             return newContentCryptoMaterial(this.kekMaterialsProvider,
-                    ((MaterialsDescriptionProvider) req).getMaterialsDescription(),
+                    materialsDescription,
                     this.cryptoConfig.getCryptoProvider());
         } else {
             return newContentCryptoMaterial(this.kekMaterialsProvider,
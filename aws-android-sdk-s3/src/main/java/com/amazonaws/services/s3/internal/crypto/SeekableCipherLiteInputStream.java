@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.internal.crypto;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.internal.S3Direct;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SeekableS3ObjectInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A seekable input stream over the plaintext of an S3 object encrypted with
+ * AES/GCM.
+ * <p>
+ * The ciphertext is fetched in chunks via block aligned range gets. Each chunk
+ * is decrypted on its own with AES/CTR, starting from the counter block at the
+ * chunk's offset, so a seek never requires re-reading the object from the
+ * start. The content crypto material is resolved once for the lifetime of the
+ * stream. The most recently used chunks are kept in memory, and the chunk
+ * following the current one is fetched in the background while the stream is
+ * read sequentially.
+ * <p>
+ * Every range get carries the settings of the original request, such as its
+ * version id, SSE-C key and requester pays flag, and is constrained to the ETag
+ * of the first response, so that an object overwritten while it is being read
+ * fails the read instead of mixing the ciphertext of two versions.
+ * <p>
+ * Since the authentication tag can only be verified over the whole object, the
+ * plaintext returned by this stream is not authenticated, which is the same
+ * trade-off made by range gets.
+ */
+final class SeekableCipherLiteInputStream extends SeekableS3ObjectInputStream {
+    private static final Log log = LogFactory.getLog(SeekableCipherLiteInputStream.class);
+    /** Default size of a chunk; must be a multiple of the cipher block size. */
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 64; // 64K
+    /** Default maximum number of decrypted chunks kept in memory. */
+    static final int DEFAULT_MAX_CACHED_CHUNKS = 8;
+
+    private final S3Direct s3;
+    private final GetObjectRequest template;
+    private final String eTag;
+    private final CipherLite cipherLite;
+    private final long contentLength;
+    private final int chunkSize;
+
+    /** Decrypted chunks by chunk index, in access order. */
+    private final LinkedHashMap<Long, byte[]> cache;
+    /** Chunks being fetched in the background by chunk index. */
+    private final Map<Long, Future<byte[]>> prefetching = new HashMap<Long, Future<byte[]>>();
+    private ExecutorService prefetcher;
+
+    private long position;
+    private long lastChunkRead = -1;
+    private boolean closed;
+
+    /**
+     * @param s3 used to issue the range gets
+     * @param template identifies the object; its range is ignored
+     * @param eTag the ETag of the object when it was first read, which every
+     *            range get must match, or null
+     * @param cipherLite the AES/GCM cipher lite of the object, used to create
+     *            an AES/CTR cipher at the offset of each chunk
+     * @param contentLength the length of the plaintext
+     */
+    SeekableCipherLiteInputStream(S3Direct s3, GetObjectRequest template, String eTag,
+            CipherLite cipherLite, long contentLength) {
+        this(s3, template, eTag, cipherLite, contentLength, DEFAULT_CHUNK_SIZE,
+                DEFAULT_MAX_CACHED_CHUNKS);
+    }
+
+    SeekableCipherLiteInputStream(S3Direct s3, GetObjectRequest template, String eTag,
+            CipherLite cipherLite, long contentLength, int chunkSize,
+            final int maxCachedChunks) {
+        if (chunkSize <= 0 || chunkSize % cipherLite.getBlockSize() != 0) {
+            throw new IllegalArgumentException(
+                    "Chunk size must be a positive multiple of the cipher block size");
+        }
+        this.s3 = s3;
+        this.template = copyOf(template);
+        this.eTag = eTag;
+        this.cipherLite = cipherLite;
+        this.contentLength = contentLength;
+        this.chunkSize = chunkSize;
+        this.cache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > maxCachedChunks;
+            }
+        };
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        abortIfClosed();
+        if (len == 0)
+            return 0;
+        if (position >= contentLength)
+            return -1;
+        long chunkIndex = position / chunkSize;
+        byte[] chunk = getChunk(chunkIndex);
+        int chunkOffset = (int) (position - chunkIndex * chunkSize);
+        int n = Math.min(len, chunk.length - chunkOffset);
+        System.arraycopy(chunk, chunkOffset, b, off, n);
+        position += n;
+        // Read ahead only for sequential access
+        if (chunkIndex == lastChunkRead || chunkIndex == lastChunkRead + 1)
+            prefetch(chunkIndex + 1);
+        lastChunkRead = chunkIndex;
+        return n;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        abortIfClosed();
+        if (position < 0)
+            throw new IllegalArgumentException("Negative position: " + position);
+        this.position = position;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public int available() throws IOException {
+        abortIfClosed();
+        if (position >= contentLength)
+            return 0;
+        long chunkIndex = position / chunkSize;
+        byte[] chunk;
+        synchronized (this) {
+            chunk = cache.get(chunkIndex);
+        }
+        return chunk == null ? 0 : (int) (chunk.length - (position - chunkIndex * chunkSize));
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            for (Future<byte[]> f : prefetching.values())
+                f.cancel(true);
+            prefetching.clear();
+            cache.clear();
+        }
+        if (prefetcher != null)
+            prefetcher.shutdownNow();
+    }
+
+    private void abortIfClosed() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+
+    /**
+     * Returns the decrypted chunk with the given index, from the cache if
+     * available, waiting for the background fetch if one is in progress, or
+     * fetching it in the current thread otherwise.
+     */
+    private byte[] getChunk(long chunkIndex) throws IOException {
+        Future<byte[]> pending;
+        synchronized (this) {
+            byte[] chunk = cache.get(chunkIndex);
+            if (chunk != null)
+                return chunk;
+            pending = prefetching.remove(chunkIndex);
+        }
+        byte[] chunk;
+        if (pending != null) {
+            try {
+                chunk = pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching object content");
+            } catch (ExecutionException e) {
+                // Fetch again in the current thread to surface the failure
+                log.debug("Prefetch failed: " + e.getCause());
+                chunk = fetchChunk(chunkIndex);
+            }
+        } else {
+            chunk = fetchChunk(chunkIndex);
+        }
+        synchronized (this) {
+            cache.put(chunkIndex, chunk);
+        }
+        return chunk;
+    }
+
+    private void prefetch(final long chunkIndex) {
+        if (chunkIndex * chunkSize >= contentLength)
+            return;
+        synchronized (this) {
+            if (closed || cache.containsKey(chunkIndex)
+                    || prefetching.containsKey(chunkIndex))
+                return;
+            if (prefetcher == null) {
+                prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "s3-seekable-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            prefetching.put(chunkIndex, prefetcher.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return fetchChunk(chunkIndex);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Returns a copy of the given request without its range, so that the
+     * caller's request is never modified.
+     */
+    static GetObjectRequest copyOf(GetObjectRequest req) {
+        GetObjectRequest copy = new GetObjectRequest(req.getBucketName(), req.getKey(),
+                req.getVersionId());
+        copy.setMatchingETagConstraints(
+                new ArrayList<String>(req.getMatchingETagConstraints()));
+        copy.setNonmatchingETagConstraints(
+                new ArrayList<String>(req.getNonmatchingETagConstraints()));
+        copy.setModifiedSinceConstraint(req.getModifiedSinceConstraint());
+        copy.setUnmodifiedSinceConstraint(req.getUnmodifiedSinceConstraint());
+        copy.setResponseHeaders(req.getResponseHeaders());
+        copy.setRequesterPays(req.isRequesterPays());
+        copy.setSSECustomerKey(req.getSSECustomerKey());
+        copy.setGeneralProgressListener(req.getGeneralProgressListener());
+        copy.setRequestCredentials(req.getRequestCredentials());
+        return copy;
+    }
+
+    /**
+     * Fetches the ciphertext of the given chunk with a range get and returns
+     * the decrypted chunk.
+     */
+    private byte[] fetchChunk(long chunkIndex) throws IOException {
+        final long start = chunkIndex * chunkSize;
+        final int length = (int) Math.min(chunkSize, contentLength - start);
+        GetObjectRequest req = copyOf(template);
+        req.setRange(start, start + length - 1);
+        if (eTag != null)
+            req.setMatchingETagConstraints(Collections.singletonList(eTag));
+        S3Object object = s3.getObject(req);
+        if (object == null) {
+            throw new AmazonClientException("Object " + template.getKey()
+                    + " changed while it was being read, or no longer satisfies"
+                    + " the constraints of the request");
+        }
+        byte[] ciphertext = new byte[length];
+        InputStream in = object.getObjectContent();
+        try {
+            int read = 0;
+            while (read < length) {
+                int n = in.read(ciphertext, read, length - read);
+                if (n == -1)
+                    throw new IOException("Unexpected end of object content at offset "
+                            + (start + read));
+                read += n;
+            }
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.debug("Safely ignoring", e);
+            }
+        }
+        try {
+            byte[] plaintext = cipherLite.createAuxiliary(start).doFinal(ciphertext);
+            return plaintext == null ? new byte[0] : plaintext;
+        } catch (Exception e) {
+            throw new AmazonClientException(
+                    "Unable to decrypt object content: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.iterable;
+
+import com.amazonaws.AmazonClientException;
+
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the pages of a listing in the background, keeping up to a bounded
+ * number of pages buffered ahead of the consumer.
+ * <p>
+ * Since each page is requested with the marker of the previous page, at most
+ * one request is in flight at a time; it is issued as soon as the previous
+ * page arrives, as long as the buffer is not full. No thread is ever blocked
+ * on a full buffer, so a listing that is abandoned half way simply stops
+ * being fetched.
+ *
+ * @param <P> the type of a page
+ */
+abstract class PagePrefetcher<P> {
+
+    /**
+     * Executor used when none is specified. Its threads are daemon threads,
+     * and idle threads are reclaimed.
+     */
+    private static final class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "s3-listing-prefetch-"
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    private final ExecutorService executor;
+    private final int maxPagesAhead;
+
+    private final LinkedList<P> buffered = new LinkedList<P>();
+    private P lastFetched;
+    private boolean fetching;
+    private boolean exhausted;
+    private RuntimeException failure;
+
+    /**
+     * @param executor the executor to fetch pages with, or null to use a
+     *            shared pool of daemon threads
+     * @param maxPagesAhead the maximum number of pages buffered ahead of the
+     *            consumer; must be positive
+     */
+    PagePrefetcher(ExecutorService executor, int maxPagesAhead) {
+        if (maxPagesAhead <= 0)
+            throw new IllegalArgumentException("maxPagesAhead must be positive");
+        this.executor = executor == null ? DefaultExecutorHolder.EXECUTOR : executor;
+        this.maxPagesAhead = maxPagesAhead;
+    }
+
+    /**
+     * Fetches the page following the given page, or the first page if the
+     * given page is null.
+     */
+    protected abstract P fetchPage(P previous);
+
+    protected abstract boolean isTruncated(P page);
+
+    /**
+     * Starts fetching pages in the background, if not already started.
+     */
+    synchronized void start() {
+        scheduleIfNeeded();
+    }
+
+    /**
+     * Returns the next page, waiting for it to be fetched if necessary; or
+     * null if all the pages have been returned.
+     *
+     * @throws AmazonClientException if fetching the page failed, or the
+     *             current thread is interrupted while waiting
+     */
+    synchronized P nextPage() {
+        scheduleIfNeeded();
+        while (buffered.isEmpty()) {
+            if (failure != null)
+                throw failure;
+            if (exhausted)
+                return null;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted while waiting for the next page", e);
+            }
+        }
+        P page = buffered.removeFirst();
+        scheduleIfNeeded();
+        return page;
+    }
+
+    private void scheduleIfNeeded() {
+        if (fetching || exhausted || failure != null || buffered.size() >= maxPagesAhead)
+            return;
+        fetching = true;
+        final P previous = lastFetched;
+        Runnable fetch = new Runnable() {
+            @Override
+            public void run() {
+                P page = null;
+                RuntimeException error = null;
+                try {
+                    page = fetchPage(previous);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                synchronized (PagePrefetcher.this) {
+                    fetching = false;
+                    if (error != null) {
+                        failure = error;
+                    } else {
+                        buffered.addLast(page);
+                        lastFetched = page;
+                        exhausted = !isTruncated(page);
+                        scheduleIfNeeded();
+                    }
+                    PagePrefetcher.this.notifyAll();
+                }
+            }
+        };
+        try {
+            executor.execute(fetch);
+        } catch (RejectedExecutionException e) {
+            fetching = false;
+            failure = new AmazonClientException("Unable to fetch the next page", e);
+        }
+    }
+}
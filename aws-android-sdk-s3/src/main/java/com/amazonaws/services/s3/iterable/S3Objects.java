@@ -20,7 +20,14 @@ import com.amazonaws.services.s3.model.ListObjectsRequest;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Provides an easy way to iterate Amazon S3 objects in a "foreach" statement.
@@ -34,7 +41,11 @@ import java.util.Iterator;
  * <p>
  * The list of {@link S3ObjectSummary}s will be fetched lazily, a page at a
  * time, as they are needed. The size of the page can be controlled with the
- * {@link S3Objects#withBatchSize(int)} method.
+ * {@link S3Objects#withBatchSize(int)} method. Pages can instead be fetched in
+ * the background ahead of the consumer with the
+ * {@link S3Objects#withPrefetch(int)} method, and the key space of very large
+ * buckets can be listed concurrently in shards with the
+ * {@link S3Objects#withDelimiterShards(String, int)} method.
  */
 public class S3Objects implements Iterable<S3ObjectSummary> {
 
@@ -42,6 +53,10 @@ public class S3Objects implements Iterable<S3ObjectSummary> {
     private String prefix = null;
     private String bucketName;
     private Integer batchSize = null;
+    private int pagesAhead = 0;
+    private ExecutorService prefetchExecutor = null;
+    private String shardDelimiter = null;
+    private int concurrentShards = 0;
 
     private S3Objects(AmazonS3 s3, String bucketName) {
         this.s3 = s3;
@@ -86,6 +101,57 @@ public class S3Objects implements Iterable<S3ObjectSummary> {
         return this;
     }
 
+    /**
+     * Fetches pages in the background, keeping up to the given number of pages
+     * buffered ahead of the consumer, so that iterating does not stall on
+     * every page boundary. Pages are fetched by a shared pool of daemon
+     * threads.
+     *
+     * @param pagesAhead How many pages to buffer ahead; zero to fetch pages
+     *            lazily in the iterating thread.
+     */
+    public S3Objects withPrefetch(int pagesAhead) {
+        return withPrefetch(pagesAhead, null);
+    }
+
+    /**
+     * Fetches pages in the background with the given executor, keeping up to
+     * the given number of pages buffered ahead of the consumer.
+     *
+     * @param pagesAhead How many pages to buffer ahead; zero to fetch pages
+     *            lazily in the iterating thread.
+     * @param executor The executor to fetch pages with, or null to use a
+     *            shared pool of daemon threads.
+     */
+    public S3Objects withPrefetch(int pagesAhead, ExecutorService executor) {
+        if (pagesAhead < 0)
+            throw new IllegalArgumentException("pagesAhead must not be negative");
+        this.pagesAhead = pagesAhead;
+        this.prefetchExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Splits the key space into shards, one per common prefix found by
+     * listing the first level of keys under the prefix with the given
+     * delimiter, and lists up to the given number of shards concurrently. The
+     * first level is listed a page at a time as shards are needed, and the
+     * summaries are still returned in key order. Each shard buffers pages
+     * ahead as configured by {@link #withPrefetch(int)}, and at least one.
+     *
+     * @param delimiter The delimiter used to discover the shards, e.g. "/".
+     * @param concurrentShards How many shards to list concurrently.
+     */
+    public S3Objects withDelimiterShards(String delimiter, int concurrentShards) {
+        if (delimiter == null || delimiter.length() == 0)
+            throw new IllegalArgumentException("delimiter must not be empty");
+        if (concurrentShards <= 0)
+            throw new IllegalArgumentException("concurrentShards must be positive");
+        this.shardDelimiter = delimiter;
+        this.concurrentShards = concurrentShards;
+        return this;
+    }
+
     public Integer getBatchSize() {
         return batchSize;
     }
@@ -104,10 +170,38 @@ public class S3Objects implements Iterable<S3ObjectSummary> {
 
     private class S3ObjectIterator implements Iterator<S3ObjectSummary> {
 
+        private final String prefix;
+
+        private final PagePrefetcher<ObjectListing> prefetcher;
+
         private ObjectListing currentListing = null;
 
         private Iterator<S3ObjectSummary> currentIterator = null;
 
+        S3ObjectIterator(String prefix, int pagesAhead) {
+            this.prefix = prefix;
+            this.prefetcher = pagesAhead == 0 ? null
+                    : new PagePrefetcher<ObjectListing>(prefetchExecutor, pagesAhead) {
+                        @Override
+                        protected ObjectListing fetchPage(ObjectListing previous) {
+                            return fetchListing(previous);
+                        }
+
+                        @Override
+                        protected boolean isTruncated(ObjectListing page) {
+                            return page.isTruncated();
+                        }
+                    };
+        }
+
+        /**
+         * Starts fetching pages in the background, if prefetching.
+         */
+        void start() {
+            if (prefetcher != null)
+                prefetcher.start();
+        }
+
         @Override
         public boolean hasNext() {
             prepareCurrentListing();
@@ -129,25 +223,185 @@ public class S3Objects implements Iterable<S3ObjectSummary> {
             while (currentListing == null
                     || (!currentIterator.hasNext() && currentListing.isTruncated())) {
 
-                if (currentListing == null) {
-                    ListObjectsRequest req = new ListObjectsRequest();
-                    req.setBucketName(getBucketName());
-                    req.setPrefix(getPrefix());
-                    req.setMaxKeys(getBatchSize());
-                    currentListing = getS3().listObjects(req);
-                } else {
-                    currentListing = getS3().listNextBatchOfObjects(currentListing);
-                }
+                currentListing = prefetcher == null
+                        ? fetchListing(currentListing)
+                        : prefetcher.nextPage();
 
                 currentIterator = currentListing.getObjectSummaries().iterator();
             }
         }
 
+        private ObjectListing fetchListing(ObjectListing previous) {
+            if (previous == null) {
+                ListObjectsRequest req = new ListObjectsRequest();
+                req.setBucketName(getBucketName());
+                req.setPrefix(prefix);
+                req.setMaxKeys(getBatchSize());
+                return getS3().listObjects(req);
+            } else {
+                return getS3().listNextBatchOfObjects(previous);
+            }
+        }
+
+    }
+
+    /**
+     * Iterates the keys directly under the prefix, and the shards under each
+     * common prefix, in key order, keeping up to the configured number of
+     * shards listed concurrently.
+     */
+    private class ShardedObjectIterator implements Iterator<S3ObjectSummary> {
+
+        /**
+         * Object summaries and common prefixes of the first level that have
+         * been listed and not yet iterated, in key order.
+         */
+        private final LinkedList<Object> entries = new LinkedList<Object>();
+
+        /**
+         * Iterators of the shards of the first common prefixes in
+         * {@link #entries}, started ahead of the consumer.
+         */
+        private final LinkedList<S3ObjectIterator> startedShards =
+                new LinkedList<S3ObjectIterator>();
+
+        private S3ObjectIterator currentShard;
+
+        /** The last page of the first level listed, or null before the first. */
+        private ObjectListing firstLevel;
+
+        @Override
+        public boolean hasNext() {
+            prepareNext();
+            return currentShard != null || !entries.isEmpty();
+        }
+
+        @Override
+        public S3ObjectSummary next() {
+            prepareNext();
+            if (currentShard != null)
+                return currentShard.next();
+            if (entries.isEmpty())
+                throw new NoSuchElementException();
+            return (S3ObjectSummary) entries.removeFirst();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void prepareNext() {
+            while (currentShard == null || !currentShard.hasNext()) {
+                currentShard = null;
+                if (entries.isEmpty()) {
+                    if (!hasMoreFirstLevel())
+                        return;
+                    listFirstLevel();
+                    startShards();
+                    continue;
+                }
+                if (!(entries.getFirst() instanceof String))
+                    return;
+                entries.removeFirst();
+                currentShard = startedShards.removeFirst();
+                startShards();
+            }
+        }
+
+        /**
+         * Starts listing the shards that follow, up to the configured number
+         * of concurrent shards. While shards are left to start, the first
+         * level is listed further, as long as no more than a page of it is
+         * buffered.
+         */
+        private void startShards() {
+            while (true) {
+                int prefixes = 0;
+                for (Object entry : entries) {
+                    int listing = startedShards.size() + (currentShard == null ? 0 : 1);
+                    if (listing >= concurrentShards)
+                        return;
+                    if (!(entry instanceof String))
+                        continue;
+                    if (prefixes++ < startedShards.size())
+                        continue;
+                    S3ObjectIterator shard = new S3ObjectIterator((String) entry,
+                            Math.max(1, pagesAhead));
+                    shard.start();
+                    startedShards.addLast(shard);
+                }
+                int maxBuffered = getBatchSize() == null ? 1000 : getBatchSize();
+                if (!hasMoreFirstLevel() || entries.size() >= maxBuffered)
+                    return;
+                listFirstLevel();
+            }
+        }
+
+        private boolean hasMoreFirstLevel() {
+            return firstLevel == null || firstLevel.isTruncated();
+        }
+
+        /**
+         * Lists the next page of the first level into {@link #entries}.
+         */
+        private void listFirstLevel() {
+            if (firstLevel == null) {
+                ListObjectsRequest req = new ListObjectsRequest();
+                req.setBucketName(getBucketName());
+                req.setPrefix(getPrefix());
+                req.setDelimiter(shardDelimiter);
+                req.setMaxKeys(getBatchSize());
+                firstLevel = getS3().listObjects(req);
+            } else {
+                firstLevel = getS3().listNextBatchOfObjects(firstLevel);
+            }
+            List<Object> page = new ArrayList<Object>();
+            page.addAll(firstLevel.getObjectSummaries());
+            page.addAll(firstLevel.getCommonPrefixes());
+            // Pages follow each other in key order, and the keys under a
+            // common prefix sort right after the prefix, so ordering each
+            // page the way S3 does, i.e. by code point, yields the order of
+            // the whole listing.
+            Collections.sort(page, new Comparator<Object>() {
+                @Override
+                public int compare(Object a, Object b) {
+                    return compareCodePoints(keyOf(a), keyOf(b));
+                }
+            });
+            entries.addAll(page);
+        }
+
+        private String keyOf(Object entry) {
+            return entry instanceof String ? (String) entry
+                    : ((S3ObjectSummary) entry).getKey();
+        }
+    }
+
+    /**
+     * Compares two strings by code point, which is the order of their UTF-8
+     * encodings.
+     */
+    static int compareCodePoints(String a, String b) {
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb)
+                return ca < cb ? -1 : 1;
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return (a.length() - i) - (b.length() - j);
     }
 
     @Override
     public Iterator<S3ObjectSummary> iterator() {
-        return new S3ObjectIterator();
+        if (shardDelimiter != null)
+            return new ShardedObjectIterator();
+        S3ObjectIterator iterator = new S3ObjectIterator(getPrefix(), pagesAhead);
+        iterator.start();
+        return iterator;
     }
 
 }
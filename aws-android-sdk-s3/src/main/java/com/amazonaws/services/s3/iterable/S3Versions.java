@@ -21,6 +21,7 @@ import com.amazonaws.services.s3.model.S3VersionSummary;
 import com.amazonaws.services.s3.model.VersionListing;
 
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Provides an easy way to iterate Amazon S3 object versions in a "foreach"
@@ -34,7 +35,9 @@ import java.util.Iterator;
  * <p>
  * The list of {@link S3VersionSummary}s will be fetched lazily, a page at a
  * time, as they are needed. The size of the page can be controlled with the
- * {@link S3Versions#withBatchSize(int)} method.
+ * {@link S3Versions#withBatchSize(int)} method. Pages can instead be fetched in
+ * the background ahead of the consumer with the
+ * {@link S3Versions#withPrefetch(int)} method.
  */
 public class S3Versions implements Iterable<S3VersionSummary> {
 
@@ -43,6 +46,8 @@ public class S3Versions implements Iterable<S3VersionSummary> {
     private String prefix;
     private String key;
     private Integer batchSize;
+    private int pagesAhead;
+    private ExecutorService prefetchExecutor;
 
     private S3Versions(AmazonS3 s3, String bucketName) {
         this.s3 = s3;
@@ -103,6 +108,36 @@ public class S3Versions implements Iterable<S3VersionSummary> {
         return this;
     }
 
+    /**
+     * Fetches pages in the background, keeping up to the given number of pages
+     * buffered ahead of the consumer, so that iterating does not stall on
+     * every page boundary. Pages are fetched by a shared pool of daemon
+     * threads.
+     *
+     * @param pagesAhead How many pages to buffer ahead; zero to fetch pages
+     *            lazily in the iterating thread.
+     */
+    public S3Versions withPrefetch(int pagesAhead) {
+        return withPrefetch(pagesAhead, null);
+    }
+
+    /**
+     * Fetches pages in the background with the given executor, keeping up to
+     * the given number of pages buffered ahead of the consumer.
+     *
+     * @param pagesAhead How many pages to buffer ahead; zero to fetch pages
+     *            lazily in the iterating thread.
+     * @param executor The executor to fetch pages with, or null to use a
+     *            shared pool of daemon threads.
+     */
+    public S3Versions withPrefetch(int pagesAhead, ExecutorService executor) {
+        if (pagesAhead < 0)
+            throw new IllegalArgumentException("pagesAhead must not be negative");
+        this.pagesAhead = pagesAhead;
+        this.prefetchExecutor = executor;
+        return this;
+    }
+
     public Integer getBatchSize() {
         return batchSize;
     }
@@ -125,10 +160,30 @@ public class S3Versions implements Iterable<S3VersionSummary> {
 
     private class VersionIterator implements Iterator<S3VersionSummary> {
 
+        private final PagePrefetcher<VersionListing> prefetcher;
         private VersionListing currentListing = null;
         private Iterator<S3VersionSummary> currentIterator = null;
         private S3VersionSummary nextSummary = null;
 
+        VersionIterator() {
+            if (pagesAhead == 0) {
+                prefetcher = null;
+            } else {
+                prefetcher = new PagePrefetcher<VersionListing>(prefetchExecutor, pagesAhead) {
+                    @Override
+                    protected VersionListing fetchPage(VersionListing previous) {
+                        return fetchListing(previous);
+                    }
+
+                    @Override
+                    protected boolean isTruncated(VersionListing page) {
+                        return page.isTruncated();
+                    }
+                };
+                prefetcher.start();
+            }
+        }
+
         @Override
         public boolean hasNext() {
             prepareCurrentListing();
@@ -162,22 +217,9 @@ public class S3Versions implements Iterable<S3VersionSummary> {
             while (currentListing == null
                     || (!currentIterator.hasNext() && currentListing
                             .isTruncated())) {
-                if (currentListing == null) {
-                    ListVersionsRequest req = new ListVersionsRequest();
-                    req.setBucketName(getBucketName());
-
-                    if (getKey() != null) {
-                        req.setPrefix(getKey());
-                    } else {
-                        req.setPrefix(getPrefix());
-                    }
-
-                    req.setMaxResults(getBatchSize());
-                    currentListing = getS3().listVersions(req);
-                } else {
-                    currentListing = getS3().listNextBatchOfVersions(
-                            currentListing);
-                }
+                currentListing = prefetcher == null
+                        ? fetchListing(currentListing)
+                        : prefetcher.nextPage();
                 currentIterator = currentListing.getVersionSummaries()
                         .iterator();
             }
@@ -187,6 +229,24 @@ public class S3Versions implements Iterable<S3VersionSummary> {
             }
         }
 
+        private VersionListing fetchListing(VersionListing previous) {
+            if (previous == null) {
+                ListVersionsRequest req = new ListVersionsRequest();
+                req.setBucketName(getBucketName());
+
+                if (getKey() != null) {
+                    req.setPrefix(getKey());
+                } else {
+                    req.setPrefix(getPrefix());
+                }
+
+                req.setMaxResults(getBatchSize());
+                return getS3().listVersions(req);
+            } else {
+                return getS3().listNextBatchOfVersions(previous);
+            }
+        }
+
     }
 
     @Override
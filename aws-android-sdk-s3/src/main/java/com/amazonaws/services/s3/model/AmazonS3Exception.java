@@ -32,6 +32,11 @@ public class AmazonS3Exception extends AmazonServiceException {
      */
     private String extendedRequestId;
 
+    /**
+     * The region of the bucket of the request, when reported by Amazon S3.
+     */
+    private String bucketRegion;
+
     /**
      * Constructs a new {@link AmazonS3Exception} with the specified message.
      *
@@ -78,6 +83,27 @@ public class AmazonS3Exception extends AmazonServiceException {
         this.extendedRequestId = extendedRequestId;
     }
 
+    /**
+     * Gets the region of the bucket of the failed request, as reported by
+     * Amazon S3 when a request is sent to or signed for the wrong region.
+     *
+     * @return The region of the bucket, or null if it was not reported.
+     * @see AmazonS3Exception#setBucketRegion(String)
+     */
+    public String getBucketRegion() {
+        return bucketRegion;
+    }
+
+    /**
+     * Sets the region of the bucket of the failed request.
+     *
+     * @param bucketRegion The region of the bucket.
+     * @see AmazonS3Exception#getBucketRegion()
+     */
+    public void setBucketRegion(String bucketRegion) {
+        this.bucketRegion = bucketRegion;
+    }
+
     /**
      * Extends the implementation from AmazonServiceException to include
      * additional information on S3's extended request ID.
@@ -41,6 +41,11 @@ public class EncryptedInitiateMultipartUploadRequest extends InitiateMultipartUp
      */
     private Map<String, String> materialsDescription;
 
+    /**
+     * The plaintext size of every part except the last, or zero if unknown.
+     */
+    private long partSize;
+
     public EncryptedInitiateMultipartUploadRequest(String bucketName, String key) {
         super(bucketName, key);
     }
@@ -78,4 +83,46 @@ public class EncryptedInitiateMultipartUploadRequest extends InitiateMultipartUp
         setMaterialsDescription(materialsDescription);
         return this;
     }
+
+    /**
+     * Returns the plaintext size of every part except the last part of this
+     * upload, or zero if the part size has not been declared.
+     */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Declares the plaintext size of every part except the last part of this
+     * upload. The size must be a multiple of the cipher block size (16 bytes).
+     * <p>
+     * When the part size is declared up front and authenticated encryption is
+     * in use, the byte offset of each part is known before the part is
+     * encrypted, so the parts can be encrypted and uploaded in parallel and in
+     * any order. The last part is only uploaded after all the preceding parts
+     * have been encrypted, since it carries the authentication tag of the
+     * whole object. Every part other than the last must then be exactly of the
+     * declared size. This setting has no effect in
+     * {@link CryptoMode#EncryptionOnly} mode, where parts must still be
+     * uploaded serially and in order.
+     *
+     * @param partSize the part size in bytes, or zero to upload the parts
+     *            serially
+     */
+    public void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
+
+    /**
+     * Declares the plaintext size of every part except the last part of this
+     * upload, and returns the updated request object.
+     *
+     * @param partSize the part size in bytes, or zero to upload the parts
+     *            serially
+     * @see #setPartSize(long)
+     */
+    public EncryptedInitiateMultipartUploadRequest withPartSize(long partSize) {
+        setPartSize(partSize);
+        return this;
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.model;
+
+import com.amazonaws.services.kms.AWSKMS;
+import com.amazonaws.services.kms.model.DataKeySpec;
+import com.amazonaws.services.kms.model.DecryptRequest;
+import com.amazonaws.services.kms.model.DecryptResult;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import com.amazonaws.services.kms.util.DataKeyCache;
+import com.amazonaws.util.Base64;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An EncryptionMaterialsProvider whose key-encrypting keys are AWS KMS data
+ * keys, for use with {@link com.amazonaws.services.s3.AmazonS3EncryptionClient}.
+ * The data key encrypted under the customer master key is stored in the
+ * materials description of each object, and decrypted again when the object
+ * is read.
+ * <p>
+ * Data keys go through a {@link DataKeyCache}, so that a data key is reused
+ * for many objects within the limits of the cache, and reading objects
+ * encrypted with a recently used data key does not call AWS KMS. The cache
+ * counts each object as one message. The size of the objects is not known to
+ * the provider, which asks the cache for data keys with a size of 0, so the
+ * maximum number of bytes per data key of the cache has no effect here; bound
+ * the use of a data key by its maximum number of messages and age instead.
+ * Using this provider requires the aws-android-sdk-kms library.
+ */
+public class KMSEncryptionMaterialsProvider implements EncryptionMaterialsProvider {
+
+    /** The materials description entry holding the customer master key id. */
+    public static final String CUSTOMER_MASTER_KEY_ID = "kms_cmk_id";
+    /** The materials description entry holding the encrypted data key. */
+    public static final String ENCRYPTED_DATA_KEY = "kms_encrypted_data_key";
+
+    private static final String KEY_ALGORITHM = "AES";
+
+    private final DataKeyCache cache;
+    private final String customerMasterKeyId;
+
+    /**
+     * Creates a provider caching data keys with the default limits of
+     * {@link DataKeyCache}.
+     *
+     * @param kms the client to generate and decrypt data keys with
+     * @param customerMasterKeyId the id or ARN of the customer master key
+     */
+    public KMSEncryptionMaterialsProvider(AWSKMS kms, String customerMasterKeyId) {
+        this(new DataKeyCache(kms), customerMasterKeyId);
+    }
+
+    /**
+     * @param cache the cache to generate and decrypt data keys through, which
+     *            may be shared with other users of the same AWS KMS client
+     * @param customerMasterKeyId the id or ARN of the customer master key
+     */
+    public KMSEncryptionMaterialsProvider(DataKeyCache cache, String customerMasterKeyId) {
+        if (cache == null)
+            throw new IllegalArgumentException("cache cannot be null");
+        if (customerMasterKeyId == null)
+            throw new IllegalArgumentException("customerMasterKeyId cannot be null");
+        this.cache = cache;
+        this.customerMasterKeyId = customerMasterKeyId;
+    }
+
+    @Override
+    public EncryptionMaterials getEncryptionMaterials() {
+        GenerateDataKeyResult result = cache.generateDataKey(new GenerateDataKeyRequest()
+                .withKeyId(customerMasterKeyId)
+                .withKeySpec(DataKeySpec.AES_256)
+                .withEncryptionContext(encryptionContext(customerMasterKeyId)), 0);
+        Map<String, String> materialsDescription = new HashMap<String, String>();
+        materialsDescription.put(CUSTOMER_MASTER_KEY_ID, customerMasterKeyId);
+        materialsDescription.put(ENCRYPTED_DATA_KEY,
+                Base64.encodeAsString(toArray(result.getCiphertextBlob())));
+        return newMaterials(result.getPlaintext(), materialsDescription);
+    }
+
+    /**
+     * Returns the materials of an object encrypted by a provider of this
+     * class, or null if the materials description does not hold an AWS KMS
+     * data key.
+     */
+    @Override
+    public EncryptionMaterials getEncryptionMaterials(Map<String, String> materialsDescription) {
+        if (materialsDescription == null)
+            return null;
+        String masterKeyId = materialsDescription.get(CUSTOMER_MASTER_KEY_ID);
+        String encryptedDataKey = materialsDescription.get(ENCRYPTED_DATA_KEY);
+        if (masterKeyId == null || encryptedDataKey == null)
+            return null;
+        DecryptResult result = cache.decrypt(new DecryptRequest()
+                .withCiphertextBlob(ByteBuffer.wrap(Base64.decode(encryptedDataKey)))
+                .withEncryptionContext(encryptionContext(masterKeyId)));
+        return newMaterials(result.getPlaintext(),
+                new HashMap<String, String>(materialsDescription));
+    }
+
+    /**
+     * Evicts the data keys of the cache, so that the next object is encrypted
+     * with a new data key.
+     */
+    @Override
+    public void refresh() {
+        cache.clear();
+    }
+
+    private static Map<String, String> encryptionContext(String masterKeyId) {
+        return Collections.singletonMap(CUSTOMER_MASTER_KEY_ID, masterKeyId);
+    }
+
+    private static EncryptionMaterials newMaterials(ByteBuffer plaintext,
+            final Map<String, String> materialsDescription) {
+        byte[] key = toArray(plaintext);
+        // SecretKeySpec keeps its own copy of the key
+        SecretKeySpec symmetricKey = new SecretKeySpec(key, KEY_ALGORITHM);
+        Arrays.fill(key, (byte) 0);
+        return new EncryptionMaterials(symmetricKey) {
+            @Override
+            public Map<String, String> getMaterialsDescription() {
+                return materialsDescription;
+            }
+        };
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream over the content of an {@link S3Object} that supports random
+ * access. In addition to the methods supplied by the {@link InputStream}
+ * class, {@link SeekableS3ObjectInputStream} supplies the {@link #seek(long)}
+ * method, which repositions the stream anywhere within the object without
+ * reading the bytes in between.
+ */
+public abstract class SeekableS3ObjectInputStream extends InputStream {
+
+    /**
+     * Returns the current position in the content of the object.
+     */
+    public abstract long getPosition();
+
+    /**
+     * Sets the position from which the next byte will be read. Setting the
+     * position at or beyond the end of the content causes subsequent reads to
+     * return -1.
+     *
+     * @param position the new position, a non-negative number of bytes
+     *            counted from the start of the content
+     * @throws IOException if this stream has been closed
+     */
+    public abstract void seek(long position) throws IOException;
+
+    /**
+     * Returns the length of the content of the object.
+     */
+    public abstract long getContentLength();
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+        long position = getPosition();
+        long skipped = Math.min(n, Math.max(0, getContentLength() - position));
+        seek(position + skipped);
+        return skipped;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded, thread-safe cache of the region of Amazon S3 buckets, learned
+ * from the region hints returned by Amazon S3. The cache lets a client send
+ * requests to, and sign them for, the region of a bucket the first time
+ * instead of being redirected there.
+ * <p>
+ * Entries expire after a time to live, since a bucket can be deleted and
+ * re-created in another region, and the least recently used entry is evicted
+ * once the cache is full. The cache can optionally be persisted to a file, so
+ * that the regions are remembered across process restarts; the file is read
+ * when the cache is created and rewritten in the background whenever a region
+ * is learned or forgotten, with changes made while a write is pending saved
+ * together. Multiple clients may share one cache.
+ */
+public class BucketRegionCache {
+    private static final Log log = LogFactory.getLog(BucketRegionCache.class);
+
+    /** Default maximum number of buckets in the cache. */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    /** Default time to live of an entry in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 24 * 60 * 60 * 1000L; // 1 day
+
+    /**
+     * Matches the region of a regional endpoint, such as s3-us-west-2 or
+     * s3.eu-central-1, but not the global or external endpoints. The match is
+     * anchored to the end of the host, so that a bucket name containing dots,
+     * such as my.s3-logs.bucket, is not mistaken for the endpoint.
+     */
+    private static final Pattern ENDPOINT_REGION_PATTERN = Pattern.compile(
+            "(?:^|\\.)s3[.-]((?!dualstack\\.|external-)[a-z0-9-]+)"
+                    + "\\.amazonaws\\.com(?:\\.cn)?$");
+
+    /**
+     * Writes the files of all caches off the request threads; the thread
+     * goes away when idle.
+     */
+    private static final ThreadPoolExecutor SAVE_EXECUTOR = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BucketRegionCache-save");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        SAVE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static final class Entry {
+        final String region;
+        final long expiresAt;
+
+        Entry(String region, long expiresAt) {
+            this.region = region;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+    private final File file;
+    private final LinkedHashMap<String, Entry> entries;
+    /** Serializes writes of the file. */
+    private final Object saveLock = new Object();
+    /** Whether a write of the file is scheduled and not yet started. */
+    private final AtomicBoolean savePending = new AtomicBoolean();
+
+    /**
+     * Creates an in-memory cache with the default size and time to live.
+     */
+    public BucketRegionCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS, null);
+    }
+
+    /**
+     * Creates a cache with the default size and time to live, persisted to the
+     * given file.
+     *
+     * @param file the file the cache is loaded from and saved to
+     */
+    public BucketRegionCache(File file) {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS, file);
+    }
+
+    /**
+     * @param maxEntries the maximum number of buckets in the cache
+     * @param timeToLiveMillis how long an entry is used after it is learned
+     * @param file the file the cache is loaded from and saved to, or null to
+     *            keep the cache in memory only
+     */
+    public BucketRegionCache(final int maxEntries, long timeToLiveMillis, File file) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        if (timeToLiveMillis <= 0)
+            throw new IllegalArgumentException("timeToLiveMillis must be positive");
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.file = file;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        if (file != null)
+            load();
+    }
+
+    /**
+     * Returns the cached region of the given bucket, or null if the region is
+     * not known or has expired.
+     */
+    public synchronized String getRegion(String bucketName) {
+        if (bucketName == null)
+            return null;
+        Entry entry = entries.get(bucketName);
+        if (entry == null)
+            return null;
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(bucketName);
+            return null;
+        }
+        return entry.region;
+    }
+
+    /**
+     * Records the region of the given bucket.
+     */
+    public void putRegion(String bucketName, String region) {
+        if (bucketName == null || region == null)
+            return;
+        synchronized (this) {
+            Entry previous = entries.get(bucketName);
+            entries.put(bucketName, new Entry(region,
+                    System.currentTimeMillis() + timeToLiveMillis));
+            // Only a newly learned region is worth a write; refreshing the
+            // expiry of a known one is not
+            if (previous != null && previous.region.equals(region))
+                return;
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Forgets the region of the given bucket.
+     */
+    public void removeRegion(String bucketName) {
+        synchronized (this) {
+            if (entries.remove(bucketName) == null)
+                return;
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Forgets the regions of all buckets.
+     */
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Writes the entries to the file right away, instead of waiting for the
+     * background write. Does nothing for an in-memory cache.
+     */
+    public void flush() {
+        if (file == null)
+            return;
+        savePending.set(false);
+        save();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTimeToLiveMillis() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Returns the region of the given regional Amazon S3 endpoint host, such
+     * as "bucket.s3-us-west-2.amazonaws.com", or null if the host is not a
+     * regional endpoint.
+     */
+    public static String regionOfEndpoint(String host) {
+        if (host == null)
+            return null;
+        Matcher matcher = ENDPOINT_REGION_PATTERN.matcher(host);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Loads the unexpired entries from the file, if it exists.
+     */
+    private void load() {
+        if (!file.isFile())
+            return;
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            log.warn("Unable to load the bucket region cache from " + file, e);
+            return;
+        } finally {
+            closeQuietly(in);
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (String bucketName : properties.stringPropertyNames()) {
+                String value = properties.getProperty(bucketName);
+                int comma = value.lastIndexOf(',');
+                if (comma <= 0)
+                    continue;
+                long expiresAt;
+                try {
+                    expiresAt = Long.parseLong(value.substring(comma + 1));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (expiresAt > now)
+                    entries.put(bucketName, new Entry(value.substring(0, comma), expiresAt));
+            }
+        }
+    }
+
+    /**
+     * Schedules a write of the file, unless one is already pending, in which
+     * case it will pick up the latest entries too.
+     */
+    private void scheduleSave() {
+        if (file == null || !savePending.compareAndSet(false, true))
+            return;
+        try {
+            SAVE_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (savePending.compareAndSet(true, false))
+                        save();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            savePending.set(false);
+            log.warn("Unable to schedule saving the bucket region cache to " + file, e);
+        }
+    }
+
+    /**
+     * Writes the unexpired entries to a temporary file, and then renames it to
+     * the file, so that a concurrent reader never sees a partial cache.
+     */
+    private void save() {
+        synchronized (saveLock) {
+            // Taken under the save lock, so that an older snapshot is never
+            // written over a newer one
+            Properties properties = new Properties();
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    if (entry.expiresAt > now)
+                        properties.setProperty(e.getKey(), entry.region + "," + entry.expiresAt);
+                }
+            }
+            File parent = file.getAbsoluteFile().getParentFile();
+            OutputStream out = null;
+            File temp = null;
+            try {
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+                    throw new IOException("Unable to create directory " + parent);
+                temp = File.createTempFile(file.getName(), ".tmp", parent);
+                out = new FileOutputStream(temp);
+                properties.store(out, "Amazon S3 bucket regions");
+                out.close();
+                out = null;
+                if (!temp.renameTo(file)) {
+                    // Some platforms don't rename over an existing file
+                    if (!file.delete() || !temp.renameTo(file))
+                        throw new IOException("Unable to rename " + temp + " to " + file);
+                }
+                temp = null;
+            } catch (IOException e) {
+                log.warn("Unable to save the bucket region cache to " + file, e);
+            } finally {
+                closeQuietly(out);
+                if (temp != null && !temp.delete())
+                    log.debug("Unable to delete " + temp);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Safely ignoring", e);
+        }
+    }
+}
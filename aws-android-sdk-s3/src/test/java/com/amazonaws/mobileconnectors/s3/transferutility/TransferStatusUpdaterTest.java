@@ -0,0 +1,138 @@
+/**
+ * Copyright 2015-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.s3.transferutility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class TransferStatusUpdaterTest {
+
+    private static final int TICKS = 1000;
+    private static final long BYTES_TOTAL = TICKS * 1024L;
+
+    /**
+     * Counts the writes instead of going to the database, and keeps the last
+     * progress written for each transfer.
+     */
+    private static class CountingDBUtil extends TransferDBUtil {
+        final Map<Integer, long[]> written = new HashMap<Integer, long[]>();
+        int progressWrites;
+        int singleProgressWrites;
+        int recordWrites;
+
+        CountingDBUtil(Context context) {
+            super(context);
+        }
+
+        @Override
+        public synchronized int updateBytesTransferred(Map<Integer, long[]> progress) {
+            progressWrites++;
+            for (Map.Entry<Integer, long[]> entry : progress.entrySet())
+                written.put(entry.getKey(), entry.getValue().clone());
+            return progress.size();
+        }
+
+        @Override
+        public synchronized int updateBytesTransferred(int id, long bytes) {
+            singleProgressWrites++;
+            return 1;
+        }
+
+        @Override
+        public synchronized int updateTransferRecord(TransferRecord transfer) {
+            recordWrites++;
+            return 1;
+        }
+    }
+
+    private CountingDBUtil dbUtil;
+    private TransferStatusUpdater updater;
+
+    @Before
+    public void setup() {
+        dbUtil = new CountingDBUtil(Robolectric.application);
+        updater = new TransferStatusUpdater(dbUtil);
+    }
+
+    @After
+    public void teardown() {
+        updater.shutdown();
+        dbUtil.closeDB();
+    }
+
+    @Test
+    public void testProgressTicksAreCoalesced() {
+        updater.addTransfer(new TransferRecord(1));
+        updater.addTransfer(new TransferRecord(2));
+        for (int tick = 1; tick <= TICKS; tick++) {
+            updater.updateProgress(1, tick * 1024L, BYTES_TOTAL);
+            updater.updateProgress(2, tick * 512L, BYTES_TOTAL);
+        }
+        updater.flush();
+
+        // One write from flush(), and at most one more if the periodic flush
+        // ran while ticking
+        assertTrue("progress writes: " + dbUtil.progressWrites,
+                dbUtil.progressWrites >= 1 && dbUtil.progressWrites <= 2);
+        assertEquals(0, dbUtil.singleProgressWrites);
+        assertArrayEquals(new long[] {
+                BYTES_TOTAL, BYTES_TOTAL
+        }, dbUtil.written.get(1));
+        assertArrayEquals(new long[] {
+                TICKS * 512L, BYTES_TOTAL
+        }, dbUtil.written.get(2));
+    }
+
+    @Test
+    public void testFlushWithoutProgressWritesNothing() {
+        updater.addTransfer(new TransferRecord(1));
+        updater.flush();
+        assertEquals(0, dbUtil.progressWrites);
+    }
+
+    @Test
+    public void testStateChangeSupersedesPendingProgress() {
+        TransferRecord transfer = new TransferRecord(1);
+        updater.addTransfer(transfer);
+        for (int tick = 1; tick <= TICKS; tick++) {
+            updater.updateProgress(1, tick * 1024L, BYTES_TOTAL);
+        }
+        updater.updateState(1, TransferState.COMPLETED);
+        updater.flush();
+
+        // The record carries the progress, which is not written again
+        assertEquals(1, dbUtil.recordWrites);
+        assertEquals(BYTES_TOTAL, transfer.bytesCurrent);
+        assertTrue(dbUtil.written.isEmpty()
+                || dbUtil.written.get(1)[0] <= transfer.bytesCurrent);
+    }
+}
@@ -16,6 +16,7 @@
 package com.amazonaws.services.s3.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import com.amazonaws.AmazonServiceException.ErrorType;
 import com.amazonaws.http.HttpResponse;
@@ -100,4 +101,56 @@ public class S3ErrorResponseHandlerTest {
 
     }
 
+    @Test
+    public void testBucketRegionFromHeader() throws IOException {
+        HttpResponse errorResponse = new HttpResponse.Builder()
+                .statusCode(301)
+                .content(null)
+                .statusText("Moved Permanently")
+                .header(Headers.S3_BUCKET_REGION, "eu-west-1").build();
+
+        AmazonS3Exception ase = (AmazonS3Exception) new S3ErrorResponseHandler()
+                .handle(errorResponse);
+
+        assertEquals("eu-west-1", ase.getBucketRegion());
+    }
+
+    @Test
+    public void testBucketRegionFromAuthorizationHeaderMalformed() throws IOException {
+        String response = "<Error>"
+                + "<Code>AuthorizationHeaderMalformed</Code>"
+                + "<Message>testError</Message>"
+                + "<Region>eu-central-1</Region>"
+                + "</Error>";
+
+        AmazonS3Exception ase = handleWithBody(400, response);
+
+        assertEquals("eu-central-1", ase.getBucketRegion());
+    }
+
+    @Test
+    public void testBucketRegionFromPermanentRedirect() throws IOException {
+        String response = "<Error>"
+                + "<Code>PermanentRedirect</Code>"
+                + "<Message>testError</Message>"
+                + "<Endpoint>my-bucket.s3-us-west-2.amazonaws.com</Endpoint>"
+                + "</Error>";
+        assertEquals("us-west-2", handleWithBody(301, response).getBucketRegion());
+
+        String global = "<Error>"
+                + "<Code>PermanentRedirect</Code>"
+                + "<Endpoint>my-bucket.s3.amazonaws.com</Endpoint>"
+                + "</Error>";
+        assertNull(handleWithBody(301, global).getBucketRegion());
+    }
+
+    private static AmazonS3Exception handleWithBody(int statusCode, String response)
+            throws IOException {
+        HttpResponse errorResponse = new HttpResponse.Builder()
+                .statusCode(statusCode)
+                .content(new ByteArrayInputStream(response.getBytes(StringUtils.UTF8)))
+                .statusText("testError").build();
+        return (AmazonS3Exception) new S3ErrorResponseHandler().handle(errorResponse);
+    }
+
 }
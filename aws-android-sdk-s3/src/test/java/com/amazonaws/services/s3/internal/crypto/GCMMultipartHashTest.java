@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.internal.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonClientException;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class GCMMultipartHashTest {
+    private static final int PART_SIZE = 4096;
+    private static final int PART_COUNT = 5;
+
+    private final SecureRandom random = new SecureRandom();
+
+    @Test
+    public void testPartsEncryptedOutOfOrderMatchGCM() throws Exception {
+        int[] lastPartSizes = {
+                1, 15, 16, 17, 1000, PART_SIZE
+        };
+        for (int lastPartSize : lastPartSizes) {
+            assertMatchesGCM(PART_SIZE * (PART_COUNT - 1) + lastPartSize);
+        }
+    }
+
+    @Test
+    public void testSinglePart() throws Exception {
+        assertMatchesGCM(100);
+    }
+
+    @Test
+    public void testFailedPartReleasesLastPart() throws Exception {
+        GCMMultipartHash hash = new GCMMultipartHash(newGCMCipherLite(), PART_SIZE);
+        hash.partFailed(1);
+        try {
+            hash.awaitPartsBefore(2);
+            fail();
+        } catch (AmazonClientException expected) {
+        }
+    }
+
+    @Test(expected = AmazonClientException.class)
+    public void testShortPartRejected() throws Exception {
+        GCMMultipartHash hash = new GCMMultipartHash(newGCMCipherLite(), PART_SIZE);
+        CipherLite cipherLite = hash.newPartCipherLite(1, false);
+        readAll(new CipherLiteInputStream(new ByteArrayInputStream(new byte[PART_SIZE - 16]),
+                cipherLite, 1024, true, true));
+    }
+
+    private void assertMatchesGCM(int length) throws Exception {
+        byte[] plaintext = new byte[length];
+        random.nextBytes(plaintext);
+        CipherLite gcm = newGCMCipherLite();
+        Cipher reference = Cipher.getInstance("AES/GCM/NoPadding");
+        reference.init(Cipher.ENCRYPT_MODE, gcm.getSecretKey(),
+                new GCMParameterSpec(128, gcm.getIV()));
+        byte[] expected = reference.doFinal(plaintext);
+
+        GCMMultipartHash hash = new GCMMultipartHash(gcm, PART_SIZE);
+        int partCount = (length + PART_SIZE - 1) / PART_SIZE;
+        List<Integer> order = new ArrayList<Integer>();
+        for (int partNumber = 1; partNumber < partCount; partNumber++)
+            order.add(partNumber);
+        Collections.shuffle(order);
+        order.add(partCount);
+
+        byte[][] parts = new byte[partCount][];
+        for (int partNumber : order) {
+            int offset = (partNumber - 1) * PART_SIZE;
+            int partLength = Math.min(PART_SIZE, length - offset);
+            CipherLite cipherLite = hash.newPartCipherLite(partNumber, partNumber == partCount);
+            CipherLiteInputStream in = new CipherLiteInputStream(
+                    new ByteArrayInputStream(plaintext, offset, partLength),
+                    cipherLite, 1024, true, true);
+            // Exercise re-encryption after a reset in the middle of a part
+            in.mark(PART_SIZE);
+            in.read(new byte[1024]);
+            in.reset();
+            parts[partNumber - 1] = readAll(in);
+        }
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            actual.write(part);
+        assertArrayEquals(expected, actual.toByteArray());
+    }
+
+    private CipherLite newGCMCipherLite() throws Exception {
+        byte[] keyBytes = new byte[32];
+        random.nextBytes(keyBytes);
+        byte[] iv = new byte[12];
+        random.nextBytes(iv);
+        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        return new GCMCipherLite(cipher, key, Cipher.ENCRYPT_MODE);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[777];
+        int len;
+        while ((len = in.read(buf)) != -1)
+            out.write(buf, 0, len);
+        return out.toByteArray();
+    }
+}
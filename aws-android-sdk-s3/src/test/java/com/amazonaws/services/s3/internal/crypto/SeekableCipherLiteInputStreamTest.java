@@ -0,0 +1,234 @@
+/*
+ * Copyright 2013-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.internal.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.services.s3.internal.S3Direct;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SSECustomerKey;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class SeekableCipherLiteInputStreamTest {
+    private static final int CHUNK_SIZE = 1024;
+    private static final int LENGTH = CHUNK_SIZE * 10 + 100;
+
+    private byte[] plaintext;
+    private byte[] ciphertext;
+    private CipherLite cipherLite;
+    private int rangeGets;
+    private GetObjectRequest lastRequest;
+
+    @Before
+    public void setup() throws Exception {
+        SecureRandom random = new SecureRandom();
+        plaintext = new byte[LENGTH];
+        random.nextBytes(plaintext);
+        byte[] keyBytes = new byte[32];
+        random.nextBytes(keyBytes);
+        byte[] iv = new byte[12];
+        random.nextBytes(iv);
+        SecretKey key = new SecretKeySpec(keyBytes, "AES");
+
+        Cipher encrypt = Cipher.getInstance("AES/GCM/NoPadding");
+        encrypt.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        ciphertext = encrypt.doFinal(plaintext);
+
+        Cipher decrypt = Cipher.getInstance("AES/GCM/NoPadding");
+        decrypt.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        cipherLite = new GCMCipherLite(decrypt, key, Cipher.DECRYPT_MODE);
+    }
+
+    @Test
+    public void testSequentialRead() throws Exception {
+        SeekableCipherLiteInputStream in = newStream(2);
+        byte[] actual = new byte[LENGTH];
+        int read = 0;
+        int n;
+        while ((n = in.read(actual, read, Math.min(333, LENGTH - read))) > 0)
+            read += n;
+        assertEquals(LENGTH, read);
+        assertEquals(-1, in.read());
+        assertArrayEquals(plaintext, actual);
+        in.close();
+    }
+
+    @Test
+    public void testRandomAccess() throws Exception {
+        SeekableCipherLiteInputStream in = newStream(2);
+        long[] positions = {
+                5000, 17, CHUNK_SIZE - 1, LENGTH - 1, 0, 4 * CHUNK_SIZE + 5
+        };
+        for (long position : positions) {
+            in.seek(position);
+            assertEquals(position, in.getPosition());
+            int len = (int) Math.min(100, LENGTH - position);
+            byte[] actual = readFully(in, len);
+            assertArrayEquals(Arrays.copyOfRange(plaintext, (int) position,
+                    (int) position + len), actual);
+        }
+        in.seek(LENGTH);
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void testCachedChunksAreNotFetchedAgain() throws Exception {
+        SeekableCipherLiteInputStream in = newStream(4);
+        in.seek(3 * CHUNK_SIZE + 10);
+        readFully(in, 10);
+        int fetched = rangeGets;
+        in.seek(3 * CHUNK_SIZE);
+        readFully(in, 10);
+        assertEquals(fetched, rangeGets);
+        in.close();
+    }
+
+    @Test
+    public void testRangeGetsArePinnedToTheFirstResponse() throws Exception {
+        GetObjectRequest req = new GetObjectRequest("bucket", "key", "version");
+        req.setRequesterPays(true);
+        SSECustomerKey sseKey = new SSECustomerKey(new byte[32]);
+        req.setSSECustomerKey(sseKey);
+        req.setRange(5, 10);
+        SeekableCipherLiteInputStream in = new SeekableCipherLiteInputStream(
+                new RangeS3Direct(), req, "etag", cipherLite, LENGTH, CHUNK_SIZE, 2);
+        readFully(in, 10);
+        assertEquals(Collections.singletonList("etag"), lastRequest.getMatchingETagConstraints());
+        assertEquals("version", lastRequest.getVersionId());
+        assertTrue(lastRequest.isRequesterPays());
+        assertEquals(sseKey, lastRequest.getSSECustomerKey());
+        assertFalse(Arrays.equals(new long[] {
+                5, 10
+        }, lastRequest.getRange()));
+        // The caller's request is left untouched
+        assertTrue(req.getMatchingETagConstraints().isEmpty());
+        assertEquals(5, req.getRange()[0]);
+        in.close();
+    }
+
+    @Test
+    public void testCopyOfLeavesOutTheRange() {
+        GetObjectRequest req = new GetObjectRequest("bucket", "key");
+        req.setRange(0, 15);
+        assertNull(SeekableCipherLiteInputStream.copyOf(req).getRange());
+    }
+
+    private SeekableCipherLiteInputStream newStream(int maxCachedChunks) {
+        return new SeekableCipherLiteInputStream(new RangeS3Direct(),
+                new GetObjectRequest("bucket", "key"), null, cipherLite, LENGTH,
+                CHUNK_SIZE, maxCachedChunks);
+    }
+
+    private static byte[] readFully(SeekableCipherLiteInputStream in, int len)
+            throws Exception {
+        byte[] b = new byte[len];
+        int read = 0;
+        while (read < len) {
+            int n = in.read(b, read, len - read);
+            if (n == -1)
+                break;
+            read += n;
+        }
+        assertEquals(len, read);
+        return b;
+    }
+
+    /**
+     * Serves range gets of the ciphertext from memory.
+     */
+    private class RangeS3Direct extends S3Direct {
+        @Override
+        public S3Object getObject(GetObjectRequest req) {
+            synchronized (SeekableCipherLiteInputStreamTest.this) {
+                rangeGets++;
+                lastRequest = req;
+            }
+            long[] range = req.getRange();
+            S3Object object = new S3Object();
+            object.setObjectContent(new ByteArrayInputStream(ciphertext,
+                    (int) range[0], (int) (range[1] - range[0] + 1)));
+            return object;
+        }
+
+        @Override
+        public PutObjectResult putObject(PutObjectRequest req) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ObjectMetadata getObject(GetObjectRequest req, File dest) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(
+                CompleteMultipartUploadRequest req) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(
+                InitiateMultipartUploadRequest req) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest req) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CopyPartResult copyPart(CopyPartRequest req) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void abortMultipartUpload(AbortMultipartUploadRequest req) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
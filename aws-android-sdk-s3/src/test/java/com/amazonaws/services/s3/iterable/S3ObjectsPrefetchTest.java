@@ -0,0 +1,217 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ *
+ *    http://aws.amazon.com/apache2.0
+ *
+ * This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES
+ * OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.services.s3.iterable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+public class S3ObjectsPrefetchTest {
+
+    private InMemoryS3 s3;
+    private List<String> expectedKeys;
+
+    @Before
+    public void setUp() throws Exception {
+        s3 = new InMemoryS3();
+        for (int i = 0; i < 20; i++)
+            s3.keys.add("top-" + i);
+        for (String dir : new String[] {
+                "a/", "b/", "b/c/", "d/", "\u00e9/", "\ud83d\ude00/"
+        }) {
+            for (int i = 0; i < 15; i++)
+                s3.keys.add(dir + i);
+        }
+        s3.keys.add("b");
+        s3.keys.add("b0");
+        expectedKeys = new ArrayList<String>();
+        for (String key : s3.keys)
+            expectedKeys.add(key);
+        Collections.sort(expectedKeys, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return S3Objects.compareCodePoints(a, b);
+            }
+        });
+    }
+
+    @Test
+    public void testPrefetchReturnsAllKeysInOrder() throws Exception {
+        assertEquals(expectedKeys, keysOf(S3Objects.inBucket(s3, "bucket")
+                .withBatchSize(7).withPrefetch(2)));
+    }
+
+    @Test
+    public void testPrefetchWithPrefix() throws Exception {
+        List<String> expected = new ArrayList<String>();
+        for (String key : expectedKeys) {
+            if (key.startsWith("b/"))
+                expected.add(key);
+        }
+        assertEquals(expected, keysOf(S3Objects.withPrefix(s3, "bucket", "b/")
+                .withBatchSize(4).withPrefetch(3)));
+    }
+
+    @Test
+    public void testDelimiterShardsReturnAllKeysInOrder() throws Exception {
+        assertEquals(expectedKeys, keysOf(S3Objects.inBucket(s3, "bucket")
+                .withBatchSize(5).withDelimiterShards("/", 3)));
+    }
+
+    @Test
+    public void testDelimiterShardsWithSmallPages() throws Exception {
+        assertEquals(expectedKeys, keysOf(S3Objects.inBucket(s3, "bucket")
+                .withBatchSize(1).withDelimiterShards("/", 2)));
+    }
+
+    @Test
+    public void testDelimiterShardsListFirstLevelLazily() throws Exception {
+        Iterator<S3ObjectSummary> iter = S3Objects.inBucket(s3, "bucket")
+                .withBatchSize(2).withDelimiterShards("/", 1).iterator();
+        assertEquals("a/0", iter.next().getKey());
+        // The first level takes 14 pages, but only the first one is needed
+        assertEquals(1, s3.delimitedListCalls);
+    }
+
+    @Test
+    public void testPrefetchStopsAtBufferLimit() throws Exception {
+        Iterator<S3ObjectSummary> iter = S3Objects.inBucket(s3, "bucket")
+                .withBatchSize(1).withPrefetch(2).iterator();
+        iter.next();
+        // Give the background fetches time to fill the buffer
+        Thread.sleep(200);
+        // One page consumed, two buffered, and at most one more in flight
+        assertTrue(s3.listCalls <= 4);
+    }
+
+    @Test
+    public void testPrefetchFailureIsRethrown() throws Exception {
+        s3.failAfter = 2;
+        Iterator<S3ObjectSummary> iter = S3Objects.inBucket(s3, "bucket")
+                .withBatchSize(3).withPrefetch(1).iterator();
+        try {
+            while (iter.hasNext())
+                iter.next();
+            fail();
+        } catch (AmazonClientException expected) {
+        }
+    }
+
+    private static List<String> keysOf(S3Objects objects) {
+        List<String> keys = new ArrayList<String>();
+        for (S3ObjectSummary summary : objects)
+            keys.add(summary.getKey());
+        return keys;
+    }
+
+    /**
+     * Lists keys from memory, honoring prefix, marker, delimiter and max keys.
+     */
+    private static class InMemoryS3 extends AmazonS3Client {
+        final TreeSet<String> keys = new TreeSet<String>(new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return S3Objects.compareCodePoints(a, b);
+            }
+        });
+        volatile int listCalls;
+        volatile int delimitedListCalls;
+        int failAfter = -1;
+
+        @Override
+        public synchronized ObjectListing listObjects(ListObjectsRequest req) {
+            if (failAfter >= 0 && listCalls >= failAfter)
+                throw new AmazonClientException("List failed");
+            listCalls++;
+            if (req.getDelimiter() != null)
+                delimitedListCalls++;
+            String prefix = req.getPrefix() == null ? "" : req.getPrefix();
+            int maxKeys = req.getMaxKeys() == null ? 1000 : req.getMaxKeys();
+            ObjectListing listing = new ObjectListing();
+            listing.setBucketName(req.getBucketName());
+            listing.setPrefix(req.getPrefix());
+            listing.setDelimiter(req.getDelimiter());
+            listing.setMaxKeys(maxKeys);
+            List<String> commonPrefixes = new ArrayList<String>();
+            String last = null;
+            int count = 0;
+            Iterable<String> candidates = req.getMarker() == null ? keys
+                    : keys.tailSet(req.getMarker(), false);
+            for (String key : candidates) {
+                if (!key.startsWith(prefix))
+                    continue;
+                if (req.getDelimiter() != null) {
+                    int i = key.indexOf(req.getDelimiter(), prefix.length());
+                    if (i >= 0) {
+                        String commonPrefix = key.substring(0, i + req.getDelimiter().length());
+                        if (commonPrefixes.contains(commonPrefix))
+                            continue;
+                        if (count == maxKeys) {
+                            listing.setTruncated(true);
+                            break;
+                        }
+                        commonPrefixes.add(commonPrefix);
+                        // Skip the rest of the common prefix
+                        last = commonPrefix + Character.MAX_VALUE;
+                        count++;
+                        continue;
+                    }
+                }
+                if (count == maxKeys) {
+                    listing.setTruncated(true);
+                    break;
+                }
+                S3ObjectSummary summary = new S3ObjectSummary();
+                summary.setBucketName(req.getBucketName());
+                summary.setKey(key);
+                listing.getObjectSummaries().add(summary);
+                last = key;
+                count++;
+            }
+            listing.setCommonPrefixes(commonPrefixes);
+            if (listing.isTruncated())
+                listing.setNextMarker(last);
+            return listing;
+        }
+
+        @Override
+        public ObjectListing listNextBatchOfObjects(ObjectListing previous) {
+            ListObjectsRequest req = new ListObjectsRequest();
+            req.setBucketName(previous.getBucketName());
+            req.setPrefix(previous.getPrefix());
+            req.setDelimiter(previous.getDelimiter());
+            req.setMarker(previous.getNextMarker());
+            req.setMaxKeys(previous.getMaxKeys());
+            return listObjects(req);
+        }
+    }
+}
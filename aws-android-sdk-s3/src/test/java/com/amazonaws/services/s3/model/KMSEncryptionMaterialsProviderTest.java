@@ -0,0 +1,174 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.kms.AWSKMSClient;
+import com.amazonaws.services.kms.model.DecryptRequest;
+import com.amazonaws.services.kms.model.DecryptResult;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import com.amazonaws.services.kms.util.DataKeyCache;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class KMSEncryptionMaterialsProviderTest {
+
+    private static final String CMK = "alias/test";
+
+    /**
+     * Generates data keys whose ciphertext is a counter, and decrypts them
+     * back.
+     */
+    private static class StubKMSClient extends AWSKMSClient {
+        final Map<ByteBuffer, byte[]> keys = new HashMap<ByteBuffer, byte[]>();
+        int generateCalls;
+        int decryptCalls;
+
+        StubKMSClient() {
+            super(new BasicAWSCredentials("access", "secret"));
+        }
+
+        @Override
+        public GenerateDataKeyResult generateDataKey(GenerateDataKeyRequest request) {
+            generateCalls++;
+            byte[] plaintext = new byte[32];
+            Arrays.fill(plaintext, (byte) generateCalls);
+            ByteBuffer ciphertextBlob = ByteBuffer.wrap(("key-" + generateCalls).getBytes());
+            keys.put(ciphertextBlob, plaintext.clone());
+            return new GenerateDataKeyResult()
+                    .withKeyId(request.getKeyId())
+                    .withPlaintext(ByteBuffer.wrap(plaintext))
+                    .withCiphertextBlob(ciphertextBlob.duplicate());
+        }
+
+        @Override
+        public DecryptResult decrypt(DecryptRequest request) {
+            decryptCalls++;
+            return new DecryptResult()
+                    .withKeyId(CMK)
+                    .withPlaintext(ByteBuffer.wrap(keys.get(request.getCiphertextBlob()).clone()));
+        }
+    }
+
+    @Test
+    public void reusesDataKeyAcrossObjects() {
+        StubKMSClient kms = new StubKMSClient();
+        KMSEncryptionMaterialsProvider provider = new KMSEncryptionMaterialsProvider(kms, CMK);
+        EncryptionMaterials first = provider.getEncryptionMaterials();
+        EncryptionMaterials second = provider.getEncryptionMaterials();
+        assertEquals(1, kms.generateCalls);
+        assertEquals(first.getMaterialsDescription(), second.getMaterialsDescription());
+        assertArrayEquals(first.getSymmetricKey().getEncoded(),
+                second.getSymmetricKey().getEncoded());
+        assertEquals(CMK, first.getMaterialsDescription().get(
+                KMSEncryptionMaterialsProvider.CUSTOMER_MASTER_KEY_ID));
+    }
+
+    @Test
+    public void decryptsRecentlyGeneratedKeyFromCache() {
+        StubKMSClient kms = new StubKMSClient();
+        KMSEncryptionMaterialsProvider provider = new KMSEncryptionMaterialsProvider(kms, CMK);
+        EncryptionMaterials encryption = provider.getEncryptionMaterials();
+        EncryptionMaterials decryption = provider.getEncryptionMaterials(
+                encryption.getMaterialsDescription());
+        assertEquals(0, kms.decryptCalls);
+        assertArrayEquals(encryption.getSymmetricKey().getEncoded(),
+                decryption.getSymmetricKey().getEncoded());
+    }
+
+    @Test
+    public void decryptsUnknownKeyOnceThroughKms() {
+        StubKMSClient kms = new StubKMSClient();
+        EncryptionMaterials encryption = new KMSEncryptionMaterialsProvider(kms, CMK)
+                .getEncryptionMaterials();
+
+        KMSEncryptionMaterialsProvider reader = new KMSEncryptionMaterialsProvider(kms, CMK);
+        EncryptionMaterials first = reader.getEncryptionMaterials(
+                encryption.getMaterialsDescription());
+        EncryptionMaterials second = reader.getEncryptionMaterials(
+                encryption.getMaterialsDescription());
+        assertEquals(1, kms.decryptCalls);
+        assertArrayEquals(encryption.getSymmetricKey().getEncoded(),
+                first.getSymmetricKey().getEncoded());
+        assertArrayEquals(first.getSymmetricKey().getEncoded(),
+                second.getSymmetricKey().getEncoded());
+    }
+
+    @Test
+    public void generatesNewDataKeyAfterMaxMessages() {
+        StubKMSClient kms = new StubKMSClient();
+        DataKeyCache cache = new DataKeyCache(kms, 10, 60 * 1000L, 2, Long.MAX_VALUE);
+        KMSEncryptionMaterialsProvider provider = new KMSEncryptionMaterialsProvider(cache, CMK);
+        EncryptionMaterials first = provider.getEncryptionMaterials();
+        provider.getEncryptionMaterials();
+        EncryptionMaterials third = provider.getEncryptionMaterials();
+        assertEquals(2, kms.generateCalls);
+        assertFalse(first.getMaterialsDescription().equals(third.getMaterialsDescription()));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedKeys() {
+        StubKMSClient kms = new StubKMSClient();
+        DataKeyCache cache = new DataKeyCache(kms, 1, 60 * 1000L, 100, Long.MAX_VALUE);
+        KMSEncryptionMaterialsProvider provider = new KMSEncryptionMaterialsProvider(cache, CMK);
+        EncryptionMaterials encryption = provider.getEncryptionMaterials();
+        // The generated key is cached for encryption and for decryption
+        assertEquals(2, cache.size());
+        provider.getEncryptionMaterials();
+        assertEquals(1, kms.generateCalls);
+        provider.getEncryptionMaterials(encryption.getMaterialsDescription());
+        assertEquals(0, kms.decryptCalls);
+
+        // A key for another customer master key evicts both
+        new KMSEncryptionMaterialsProvider(cache, "alias/other").getEncryptionMaterials();
+        assertEquals(2, cache.size());
+        provider.getEncryptionMaterials();
+        assertEquals(3, kms.generateCalls);
+        provider.getEncryptionMaterials(encryption.getMaterialsDescription());
+        assertEquals(1, kms.decryptCalls);
+    }
+
+    @Test
+    public void refreshGeneratesNewDataKey() {
+        StubKMSClient kms = new StubKMSClient();
+        KMSEncryptionMaterialsProvider provider = new KMSEncryptionMaterialsProvider(kms, CMK);
+        provider.getEncryptionMaterials();
+        provider.refresh();
+        provider.getEncryptionMaterials();
+        assertEquals(2, kms.generateCalls);
+    }
+
+    @Test
+    public void ignoresOtherMaterialsDescriptions() {
+        KMSEncryptionMaterialsProvider provider = new KMSEncryptionMaterialsProvider(
+                new StubKMSClient(), CMK);
+        Map<String, String> description = new HashMap<String, String>();
+        description.put("Foo", "Bar");
+        assertNull(provider.getEncryptionMaterials(description));
+        assertNull(provider.getEncryptionMaterials(null));
+    }
+}
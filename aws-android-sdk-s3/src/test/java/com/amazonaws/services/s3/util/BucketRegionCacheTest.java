@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.s3.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+public class BucketRegionCacheTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("bucket-regions", ".properties");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        BucketRegionCache cache = new BucketRegionCache();
+        assertNull(cache.getRegion("bucket"));
+        cache.putRegion("bucket", "eu-west-1");
+        assertEquals("eu-west-1", cache.getRegion("bucket"));
+        cache.putRegion("bucket", "us-west-2");
+        assertEquals("us-west-2", cache.getRegion("bucket"));
+        cache.removeRegion("bucket");
+        assertNull(cache.getRegion("bucket"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        BucketRegionCache cache = new BucketRegionCache(2, 60000, null);
+        cache.putRegion("a", "eu-west-1");
+        cache.putRegion("b", "eu-west-1");
+        cache.getRegion("a");
+        cache.putRegion("c", "eu-west-1");
+        assertEquals("eu-west-1", cache.getRegion("a"));
+        assertNull(cache.getRegion("b"));
+        assertEquals("eu-west-1", cache.getRegion("c"));
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        BucketRegionCache cache = new BucketRegionCache(10, 50, null);
+        cache.putRegion("bucket", "eu-west-1");
+        Thread.sleep(100);
+        assertNull(cache.getRegion("bucket"));
+    }
+
+    @Test
+    public void testPersistsToFile() {
+        BucketRegionCache cache = new BucketRegionCache(file);
+        cache.putRegion("bucket", "ap-southeast-2");
+        cache.putRegion("other.bucket", "sa-east-1");
+        cache.flush();
+
+        BucketRegionCache reloaded = new BucketRegionCache(file);
+        assertEquals("ap-southeast-2", reloaded.getRegion("bucket"));
+        assertEquals("sa-east-1", reloaded.getRegion("other.bucket"));
+
+        reloaded.clear();
+        reloaded.flush();
+        assertNull(new BucketRegionCache(file).getRegion("bucket"));
+    }
+
+    @Test
+    public void testPersistsRemoval() {
+        BucketRegionCache cache = new BucketRegionCache(file);
+        cache.putRegion("bucket", "ap-southeast-2");
+        cache.putRegion("other.bucket", "sa-east-1");
+        cache.removeRegion("bucket");
+        cache.flush();
+
+        BucketRegionCache reloaded = new BucketRegionCache(file);
+        assertNull(reloaded.getRegion("bucket"));
+        assertEquals("sa-east-1", reloaded.getRegion("other.bucket"));
+    }
+
+    @Test
+    public void testSavesInBackground() throws Exception {
+        BucketRegionCache cache = new BucketRegionCache(file);
+        cache.putRegion("bucket", "ap-southeast-2");
+        for (int i = 0; i < 100 && new BucketRegionCache(file).getRegion("bucket") == null; i++)
+            Thread.sleep(20);
+        assertEquals("ap-southeast-2", new BucketRegionCache(file).getRegion("bucket"));
+    }
+
+    @Test
+    public void testExpiredEntriesAreNotLoaded() throws Exception {
+        BucketRegionCache cache = new BucketRegionCache(10, 50, file);
+        cache.putRegion("bucket", "eu-west-1");
+        cache.flush();
+        Thread.sleep(100);
+        assertNull(new BucketRegionCache(file).getRegion("bucket"));
+    }
+
+    @Test
+    public void testRegionOfEndpoint() {
+        assertEquals("us-west-2",
+                BucketRegionCache.regionOfEndpoint("bucket.s3-us-west-2.amazonaws.com"));
+        assertEquals("eu-central-1",
+                BucketRegionCache.regionOfEndpoint("bucket.s3.eu-central-1.amazonaws.com"));
+        assertEquals("us-west-2", BucketRegionCache.regionOfEndpoint("s3-us-west-2.amazonaws.com"));
+        assertEquals("cn-north-1",
+                BucketRegionCache.regionOfEndpoint("s3.cn-north-1.amazonaws.com.cn"));
+        assertNull(BucketRegionCache.regionOfEndpoint("bucket.s3.amazonaws.com"));
+        assertNull(BucketRegionCache.regionOfEndpoint("bucket.s3-external-1.amazonaws.com"));
+        assertNull(BucketRegionCache.regionOfEndpoint(
+                "bucket.s3.dualstack.us-west-2.amazonaws.com"));
+    }
+
+    @Test
+    public void testRegionOfEndpointWithDottedBucketName() {
+        assertNull(BucketRegionCache.regionOfEndpoint("my.s3-logs.bucket.s3.amazonaws.com"));
+        assertNull(BucketRegionCache.regionOfEndpoint("my.s3.logs.s3-external-1.amazonaws.com"));
+        assertEquals("eu-west-1", BucketRegionCache.regionOfEndpoint(
+                "my.s3-logs.bucket.s3-eu-west-1.amazonaws.com"));
+        assertEquals("ap-northeast-1", BucketRegionCache.regionOfEndpoint(
+                "my.s3.backups.s3.ap-northeast-1.amazonaws.com"));
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.simpledb.util;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads the items of an Amazon SimpleDB domain with a select partitioned over
+ * ranges of item names. The partitions are paged concurrently, each following
+ * its own NextToken, instead of paging a single select serially.
+ * <p>
+ * The ranges are given by boundaries: n boundaries make n + 1 partitions,
+ * from the first item name to the first boundary, between consecutive
+ * boundaries, and from the last boundary on. Boundaries that split the item
+ * names evenly give the best throughput; for item names drawn from a known
+ * alphabet, such as hexadecimal identifiers, {@link #boundaries(String, int)}
+ * computes them.
+ *
+ * <pre class="brush: java">
+ * BulkItemReader reader = new BulkItemReader(simpleDB, 8);
+ * List&lt;Item&gt; items = reader.selectAll(domainName, "*", "`status` = 'active'",
+ *         BulkItemReader.boundaries("0123456789abcdef", 8), false);
+ * </pre>
+ */
+public class BulkItemReader {
+
+    /** Default maximum number of selects in flight. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+    private final AmazonSimpleDB simpleDB;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a reader with the default maximum number of selects in flight.
+     *
+     * @param simpleDB the client to read with
+     */
+    public BulkItemReader(AmazonSimpleDB simpleDB) {
+        this(simpleDB, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * @param simpleDB the client to read with
+     * @param maxConcurrency the maximum number of selects in flight, which is
+     *            also the number of threads of the reader; further partitions
+     *            wait for a thread
+     */
+    public BulkItemReader(AmazonSimpleDB simpleDB, int maxConcurrency) {
+        if (simpleDB == null)
+            throw new IllegalArgumentException("simpleDB cannot be null");
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        this.simpleDB = simpleDB;
+        this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "BulkItemReader-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs a partitioned select, notifying the handler of each page as it is
+     * read. The pages of a partition arrive in order, but the pages of
+     * different partitions are interleaved, and the handler is called from
+     * several threads at once. A partition that fails is reported to
+     * {@link AsyncHandler#onError(Exception)} and stops, while the others
+     * carry on. Returns once every partition is done.
+     * <p>
+     * An exception thrown by the handler itself stops its partition too, and
+     * is rethrown once the other partitions are done.
+     *
+     * @param domainName the domain to read
+     * @param outputList the output list of the select, such as "*" or
+     *            "itemName()"
+     * @param whereExpression a condition on the items, without order by or
+     *            limit clauses, or null to read every item
+     * @param boundaries the item names splitting the partitions, in
+     *            increasing order
+     * @param consistentRead whether the select is consistent
+     * @param handler the handler notified of each page
+     * @throws AmazonClientException if the handler throws an exception
+     */
+    public void select(String domainName, String outputList, String whereExpression,
+            List<String> boundaries, final boolean consistentRead,
+            final AsyncHandler<SelectRequest, SelectResult> handler) {
+        if (domainName == null)
+            throw new IllegalArgumentException("domainName cannot be null");
+        if (outputList == null)
+            throw new IllegalArgumentException("outputList cannot be null");
+        if (handler == null)
+            throw new IllegalArgumentException("handler cannot be null");
+        List<String> selectExpressions = selectExpressions(domainName, outputList,
+                whereExpression, boundaries);
+
+        List<Future<?>> partitions = new ArrayList<Future<?>>(selectExpressions.size());
+        for (final String selectExpression : selectExpressions) {
+            partitions.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    readPartition(selectExpression, consistentRead, handler);
+                }
+            }));
+        }
+        boolean interrupted = false;
+        Throwable handlerFailure = null;
+        for (Future<?> partition : partitions) {
+            while (true) {
+                try {
+                    partition.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // readPartition reports the failures of the selects to the
+                    // handler, so this one was thrown by the handler
+                    if (handlerFailure == null)
+                        handlerFailure = e.getCause();
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (handlerFailure instanceof AmazonClientException)
+            throw (AmazonClientException) handlerFailure;
+        if (handlerFailure != null)
+            throw new AmazonClientException("Unable to handle the items of the domain "
+                    + domainName, handlerFailure);
+    }
+
+    /**
+     * Runs a partitioned select and returns all the items read, in no
+     * particular order.
+     *
+     * @see #select(String, String, String, List, boolean, AsyncHandler)
+     * @throws AmazonClientException if a partition fails
+     */
+    public List<Item> selectAll(String domainName, String outputList, String whereExpression,
+            List<String> boundaries, boolean consistentRead) {
+        final List<Item> items = Collections.synchronizedList(new ArrayList<Item>());
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        select(domainName, outputList, whereExpression, boundaries, consistentRead,
+                new AsyncHandler<SelectRequest, SelectResult>() {
+                    @Override
+                    public void onError(Exception exception) {
+                        failure.compareAndSet(null, exception);
+                    }
+
+                    @Override
+                    public void onSuccess(SelectRequest request, SelectResult result) {
+                        items.addAll(result.getItems());
+                    }
+                });
+        Exception e = failure.get();
+        if (e instanceof AmazonClientException)
+            throw (AmazonClientException) e;
+        if (e != null)
+            throw new AmazonClientException("Unable to read the domain " + domainName, e);
+        return new ArrayList<Item>(items);
+    }
+
+    /**
+     * Releases the threads of the reader.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the boundaries splitting item names that start with characters
+     * of the given alphabet into partitions of about equal numbers of
+     * characters.
+     *
+     * @param alphabet the characters item names start with, in increasing
+     *            order, such as "0123456789abcdef"
+     * @param partitions the number of partitions, at most the size of the
+     *            alphabet
+     */
+    public static List<String> boundaries(String alphabet, int partitions) {
+        if (alphabet == null || alphabet.length() == 0)
+            throw new IllegalArgumentException("alphabet cannot be empty");
+        if (partitions <= 0 || partitions > alphabet.length())
+            throw new IllegalArgumentException(
+                    "partitions must be positive and at most the size of the alphabet");
+        List<String> boundaries = new ArrayList<String>(partitions - 1);
+        for (int i = 1; i < partitions; i++)
+            boundaries.add(String.valueOf(alphabet.charAt(i * alphabet.length() / partitions)));
+        return boundaries;
+    }
+
+    private void readPartition(String selectExpression, boolean consistentRead,
+            AsyncHandler<SelectRequest, SelectResult> handler) {
+        String nextToken = null;
+        do {
+            SelectRequest request = new SelectRequest(selectExpression, consistentRead)
+                    .withNextToken(nextToken);
+            SelectResult result;
+            try {
+                result = simpleDB.select(request);
+            } catch (Exception e) {
+                handler.onError(e);
+                return;
+            }
+            handler.onSuccess(request, result);
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+    }
+
+    /**
+     * Returns the select expression of each partition.
+     */
+    static List<String> selectExpressions(String domainName, String outputList,
+            String whereExpression, List<String> boundaries) {
+        if (boundaries == null)
+            boundaries = Collections.emptyList();
+        for (int i = 1; i < boundaries.size(); i++) {
+            if (boundaries.get(i - 1).compareTo(boundaries.get(i)) >= 0)
+                throw new IllegalArgumentException("boundaries must be in increasing order");
+        }
+        String prefix = "select " + outputList + " from "
+                + SimpleDBUtils.quoteName(domainName);
+        String condition = whereExpression == null || whereExpression.trim().length() == 0
+                ? null
+                : "(" + whereExpression + ")";
+
+        List<String> selectExpressions = new ArrayList<String>(boundaries.size() + 1);
+        for (int i = 0; i <= boundaries.size(); i++) {
+            StringBuilder sb = new StringBuilder(prefix);
+            String separator = " where ";
+            if (condition != null) {
+                sb.append(separator).append(condition);
+                separator = " and ";
+            }
+            if (i > 0) {
+                sb.append(separator).append("itemName() >= ")
+                        .append(SimpleDBUtils.quoteValue(boundaries.get(i - 1)));
+                separator = " and ";
+            }
+            if (i < boundaries.size()) {
+                sb.append(separator).append("itemName() < ")
+                        .append(SimpleDBUtils.quoteValue(boundaries.get(i)));
+            }
+            selectExpressions.add(sb.toString());
+        }
+        return selectExpressions;
+    }
+}
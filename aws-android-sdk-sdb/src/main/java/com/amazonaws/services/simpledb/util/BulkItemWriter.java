@@ -0,0 +1,415 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.simpledb.util;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.simpledb.AmazonSimpleDB;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a stream of items to Amazon SimpleDB domains with
+ * BatchPutAttributes. Items are buffered per domain and sent in batches of up
+ * to 25 items and 1 MB, with a bounded number of batches in flight;
+ * {@link #put(String, ReplaceableItem)} blocks while the maximum number of
+ * batches are in flight.
+ * <p>
+ * When a domain throttles a batch, the writer backs off every batch for that
+ * domain, doubling the delay while the domain keeps throttling, and retries
+ * the batch. Batches backing off don't count as in flight, so writes to other
+ * domains carry on meanwhile, while {@link #put(String, ReplaceableItem)}
+ * blocks until the domain of the item is done backing off.
+ *
+ * <pre class="brush: java">
+ * BulkItemWriter writer = new BulkItemWriter(simpleDB, 10, null);
+ * for (ReplaceableItem item : items) {
+ *     writer.put(domainName, item);
+ * }
+ * writer.flush();
+ * List&lt;BatchPutAttributesRequest&gt; failed = writer.getFailedBatches();
+ * </pre>
+ */
+public class BulkItemWriter {
+    private static final Log log = LogFactory.getLog(BulkItemWriter.class);
+
+    /** The maximum number of items of a BatchPutAttributes call. */
+    public static final int MAX_ITEMS_PER_BATCH = 25;
+    /** The maximum size of a BatchPutAttributes call. */
+    public static final int MAX_BYTES_PER_BATCH = 1024 * 1024;
+
+    /** How many times a throttled batch is retried. */
+    private static final int MAX_THROTTLED_RETRIES = 5;
+    private static final long BASE_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 20 * 1000;
+    /** How long a resumed batch waits for a slot in flight before trying again. */
+    private static final long RESUME_RETRY_MILLIS = 50;
+    /**
+     * An allowance for the parameter names and separators of each item and
+     * attribute, such as "&amp;Item.25.Attribute.256.Replace=true".
+     */
+    private static final int PARAMETER_OVERHEAD_BYTES = 64;
+
+    private static final Random RANDOM = new Random();
+
+    /** The items waiting to be sent to a domain. */
+    private static final class Batch {
+        final List<ReplaceableItem> items = new ArrayList<ReplaceableItem>(MAX_ITEMS_PER_BATCH);
+        int bytes;
+    }
+
+    /** The throttling state of a domain. */
+    private static final class DomainBackoff {
+        private int consecutiveThrottles;
+        private long pausedUntilMillis;
+
+        synchronized void throttled() {
+            long backoff = Math.min(MAX_BACKOFF_MILLIS,
+                    BASE_BACKOFF_MILLIS << Math.min(consecutiveThrottles, 16));
+            consecutiveThrottles++;
+            long pausedUntil = System.currentTimeMillis() + backoff / 2
+                    + (long) (RANDOM.nextDouble() * backoff / 2);
+            pausedUntilMillis = Math.max(pausedUntilMillis, pausedUntil);
+        }
+
+        synchronized void succeeded() {
+            consecutiveThrottles = 0;
+        }
+
+        synchronized long remainingMillis() {
+            return pausedUntilMillis - System.currentTimeMillis();
+        }
+
+        /**
+         * Waits until the domain is done backing off, keeping the interrupt
+         * status of the thread.
+         */
+        void awaitResume() {
+            boolean interrupted = false;
+            for (long waitMillis; (waitMillis = remainingMillis()) > 0;) {
+                try {
+                    Thread.sleep(waitMillis);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a batch, giving up its slot in flight and rescheduling itself
+     * while its domain backs off, instead of holding the slot and a thread.
+     */
+    private final class BatchWrite implements Runnable {
+        final BatchPutAttributesRequest request;
+        final DomainBackoff backoff;
+        int retries;
+        boolean holdsPermit;
+
+        BatchWrite(BatchPutAttributesRequest request, DomainBackoff backoff) {
+            this.request = request;
+            this.backoff = backoff;
+            this.holdsPermit = true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!holdsPermit) {
+                    if (!inFlight.tryAcquire()) {
+                        executor.schedule(this, RESUME_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    holdsPermit = true;
+                }
+                long waitMillis = backoff.remainingMillis();
+                if (waitMillis > 0) {
+                    reschedule(waitMillis);
+                    return;
+                }
+                try {
+                    simpleDB.batchPutAttributes(request);
+                    backoff.succeeded();
+                } catch (AmazonServiceException e) {
+                    if (!isThrottling(e) || retries >= MAX_THROTTLED_RETRIES)
+                        throw e;
+                    if (log.isDebugEnabled())
+                        log.debug("Domain " + request.getDomainName()
+                                + " throttled, backing off");
+                    backoff.throttled();
+                    retries++;
+                    reschedule(backoff.remainingMillis());
+                    return;
+                }
+            } catch (Exception e) {
+                finish(e);
+                return;
+            }
+            finish(null);
+        }
+
+        private void reschedule(long delayMillis) {
+            inFlight.release();
+            holdsPermit = false;
+            executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void finish(Exception failure) {
+            if (holdsPermit)
+                inFlight.release();
+            try {
+                if (failure != null) {
+                    failedBatches.add(request);
+                    if (handler != null)
+                        handler.onError(failure);
+                } else if (handler != null) {
+                    handler.onSuccess(request, null);
+                }
+            } finally {
+                done();
+            }
+        }
+    }
+
+    private final AmazonSimpleDB simpleDB;
+    private final AsyncHandler<BatchPutAttributesRequest, Void> handler;
+    private final ScheduledThreadPoolExecutor executor;
+    /** Slots for the batches in flight, not counting those backing off. */
+    private final Semaphore inFlight;
+
+    /** The batches being filled, by domain; guarded by this. */
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+    private final ConcurrentMap<String, DomainBackoff> backoffs =
+            new ConcurrentHashMap<String, DomainBackoff>();
+    private final List<BatchPutAttributesRequest> failedBatches =
+            new CopyOnWriteArrayList<BatchPutAttributesRequest>();
+
+    /** The number of batches submitted and not done; guarded by this. */
+    private int pending;
+
+    /**
+     * @param simpleDB the client to write with
+     * @param maxConcurrency the maximum number of batches in flight, which is
+     *            also the number of threads of the writer
+     * @param handler the handler notified of the outcome of each batch, or
+     *            null
+     */
+    public BulkItemWriter(AmazonSimpleDB simpleDB, int maxConcurrency,
+            AsyncHandler<BatchPutAttributesRequest, Void> handler) {
+        if (simpleDB == null)
+            throw new IllegalArgumentException("simpleDB cannot be null");
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        this.simpleDB = simpleDB;
+        this.handler = handler;
+        this.inFlight = new Semaphore(maxConcurrency);
+        this.executor = new ScheduledThreadPoolExecutor(maxConcurrency, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r,
+                        "BulkItemWriter-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Adds an item to the batch of the given domain, sending the batch once
+     * it is full.
+     *
+     * @param domainName the domain to write the item to
+     * @param item the item
+     */
+    public void put(String domainName, ReplaceableItem item) {
+        if (domainName == null)
+            throw new IllegalArgumentException("domainName cannot be null");
+        if (item == null)
+            throw new IllegalArgumentException("item cannot be null");
+        int itemBytes = encodedSize(item);
+        List<ReplaceableItem> full = null;
+        synchronized (this) {
+            Batch batch = batches.get(domainName);
+            if (batch == null) {
+                batch = new Batch();
+                batches.put(domainName, batch);
+            } else if (batch.bytes + itemBytes > MAX_BYTES_PER_BATCH) {
+                full = batch.items;
+                batch = new Batch();
+                batches.put(domainName, batch);
+            }
+            batch.items.add(item);
+            batch.bytes += itemBytes;
+            if (full == null && batch.items.size() == MAX_ITEMS_PER_BATCH) {
+                full = batch.items;
+                batches.remove(domainName);
+            }
+        }
+        if (full != null)
+            send(domainName, full);
+    }
+
+    /**
+     * Sends the partially filled batches, and waits until every batch sent
+     * so far is done.
+     */
+    public void flush() {
+        Map<String, Batch> partial;
+        synchronized (this) {
+            partial = new HashMap<String, Batch>(batches);
+            batches.clear();
+        }
+        for (Map.Entry<String, Batch> entry : partial.entrySet())
+            send(entry.getKey(), entry.getValue().items);
+
+        boolean interrupted = false;
+        synchronized (this) {
+            while (pending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Returns the batches that could not be written, for retrying them
+     * later.
+     */
+    public List<BatchPutAttributesRequest> getFailedBatches() {
+        return Collections.unmodifiableList(
+                new ArrayList<BatchPutAttributesRequest>(failedBatches));
+    }
+
+    /**
+     * Flushes the writer and releases its threads.
+     */
+    public void shutdown() {
+        flush();
+        executor.shutdown();
+    }
+
+    private void send(String domainName, List<ReplaceableItem> items) {
+        BatchPutAttributesRequest request = new BatchPutAttributesRequest(domainName, items);
+        DomainBackoff backoff = getBackoff(domainName);
+        // Hold back the producer of a throttled domain, rather than piling up
+        // batches that would only back off
+        backoff.awaitResume();
+        inFlight.acquireUninterruptibly();
+        synchronized (this) {
+            pending++;
+        }
+        try {
+            executor.execute(new BatchWrite(request, backoff));
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            done();
+            throw e;
+        }
+    }
+
+    private synchronized void done() {
+        if (--pending == 0)
+            notifyAll();
+    }
+
+    private DomainBackoff getBackoff(String domainName) {
+        DomainBackoff backoff = backoffs.get(domainName);
+        if (backoff == null) {
+            backoff = new DomainBackoff();
+            DomainBackoff existing = backoffs.putIfAbsent(domainName, backoff);
+            if (existing != null)
+                backoff = existing;
+        }
+        return backoff;
+    }
+
+    /**
+     * Amazon SimpleDB throttles with a 503 ServiceUnavailable error.
+     */
+    private static boolean isThrottling(AmazonServiceException e) {
+        return e.getStatusCode() == 503
+                || "ServiceUnavailable".equals(e.getErrorCode())
+                || RetryUtils.isThrottlingException(e);
+    }
+
+    /**
+     * Returns the number of bytes the item takes in a form-encoded request.
+     */
+    static int encodedSize(ReplaceableItem item) {
+        int bytes = PARAMETER_OVERHEAD_BYTES + encodedSize(item.getName());
+        if (item.getAttributes() != null) {
+            for (ReplaceableAttribute attribute : item.getAttributes()) {
+                bytes += PARAMETER_OVERHEAD_BYTES + encodedSize(attribute.getName())
+                        + encodedSize(attribute.getValue());
+            }
+        }
+        return bytes;
+    }
+
+    private static int encodedSize(String value) {
+        if (value == null)
+            return 0;
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~')
+                bytes += 1;
+            else if (c < 0x80)
+                bytes += 3;
+            else if (c < 0x800)
+                bytes += 6;
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+                bytes += 6; // half of a 4-byte code point
+            else
+                bytes += 9;
+        }
+        return bytes;
+    }
+}
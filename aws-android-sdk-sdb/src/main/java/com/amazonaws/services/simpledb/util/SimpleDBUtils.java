@@ -18,6 +18,7 @@ package com.amazonaws.services.simpledb.util;
 import com.amazonaws.util.DateUtils;
 
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 
@@ -43,14 +44,7 @@ public class SimpleDBUtils {
      * @return string representation of the zero-padded integer
      */
     public static String encodeZeroPadding(int number, int maxNumDigits) {
-        String integerString = Integer.toString(number);
-        int numZeroes = maxNumDigits - integerString.length();
-        StringBuffer strBuffer = new StringBuffer(numZeroes + integerString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(integerString);
-        return strBuffer.toString();
+        return zeroPad(number, maxNumDigits);
     }
 
     /**
@@ -63,14 +57,7 @@ public class SimpleDBUtils {
      * @return string representation of the zero-padded long
      */
     public static String encodeZeroPadding(long number, int maxNumDigits) {
-        String longString = Long.toString(number);
-        int numZeroes = maxNumDigits - longString.length();
-        StringBuffer strBuffer = new StringBuffer(numZeroes + longString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(longString);
-        return strBuffer.toString();
+        return zeroPad(number, maxNumDigits);
     }
 
     /**
@@ -122,7 +109,7 @@ public class SimpleDBUtils {
      * @return original float value
      */
     public static float decodeZeroPaddingFloat(String value) {
-        return Float.valueOf(value).floatValue();
+        return Float.parseFloat(value);
     }
 
     /**
@@ -140,14 +127,7 @@ public class SimpleDBUtils {
     public static String encodeRealNumberRange(int number, int maxNumDigits,
             int offsetValue) {
         long offsetNumber = number + offsetValue;
-        String longString = Long.toString(offsetNumber);
-        int numZeroes = maxNumDigits - longString.length();
-        StringBuffer strBuffer = new StringBuffer(numZeroes + longString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(longString);
-        return strBuffer.toString();
+        return zeroPad(offsetNumber, maxNumDigits);
     }
 
     /**
@@ -166,14 +146,7 @@ public class SimpleDBUtils {
     public static String encodeRealNumberRange(long number, int maxNumDigits,
             long offsetValue) {
         long offsetNumber = number + offsetValue;
-        String longString = Long.toString(offsetNumber);
-        int numZeroes = maxNumDigits - longString.length();
-        StringBuffer strBuffer = new StringBuffer(numZeroes + longString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(longString);
-        return strBuffer.toString();
+        return zeroPad(offsetNumber, maxNumDigits);
     }
 
     /**
@@ -204,8 +177,7 @@ public class SimpleDBUtils {
                     + "], maxDigitsRight[" + maxDigitsRight + "], offsetValue[" + offsetValue + "]");
         }
 
-        String longString = Long.toString(offsetNumber);
-        int numBeforeDecimal = longString.length();
+        int numBeforeDecimal = numDigits(offsetNumber);
         int numZeroes = maxDigitsLeft + maxDigitsRight - numBeforeDecimal;
 
         if (numZeroes < 0)
@@ -215,12 +187,7 @@ public class SimpleDBUtils {
                     + "], maxDigitsRight[" + maxDigitsRight + "], offsetValue[" + offsetValue + "]");
         }
 
-        StringBuffer strBuffer = new StringBuffer(numZeroes + longString.length());
-        for (int i = 0; i < numZeroes; i++) {
-            strBuffer.insert(i, '0');
-        }
-        strBuffer.append(longString);
-        return strBuffer.toString();
+        return zeroPad(offsetNumber, maxDigitsLeft + maxDigitsRight);
     }
 
     /**
@@ -360,4 +327,47 @@ public class SimpleDBUtils {
         return buffer.toString();
     }
 
+    /**
+     * Formats the given number, left-padded with zeroes up to the given
+     * number of characters, directly into the characters of the result.
+     */
+    private static String zeroPad(long number, int length) {
+        if (number == Long.MIN_VALUE) {
+            // Its magnitude does not fit in a long
+            String longString = Long.toString(number);
+            return zeroes(length - longString.length()) + longString;
+        }
+        boolean negative = number < 0;
+        long magnitude = negative ? -number : number;
+        int numChars = numDigits(magnitude) + (negative ? 1 : 0);
+        char[] chars = new char[Math.max(length, numChars)];
+        int pos = chars.length;
+        do {
+            chars[--pos] = (char) ('0' + (int) (magnitude % 10));
+            magnitude /= 10;
+        } while (magnitude != 0);
+        if (negative)
+            chars[--pos] = '-';
+        while (pos > 0)
+            chars[--pos] = '0';
+        return new String(chars);
+    }
+
+    private static String zeroes(int count) {
+        char[] chars = new char[Math.max(count, 0)];
+        Arrays.fill(chars, '0');
+        return new String(chars);
+    }
+
+    /**
+     * Returns the number of decimal digits of the given non-negative number.
+     */
+    private static int numDigits(long number) {
+        int numDigits = 1;
+        while (number >= 10) {
+            number /= 10;
+            numDigits++;
+        }
+        return numDigits;
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.simpledb.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.simpledb.AmazonSimpleDBClient;
+import com.amazonaws.services.simpledb.model.Item;
+import com.amazonaws.services.simpledb.model.SelectRequest;
+import com.amazonaws.services.simpledb.model.SelectResult;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class BulkItemReaderTest {
+
+    @Test
+    public void boundaries() {
+        assertEquals(Arrays.asList("4", "8", "c"),
+                BulkItemReader.boundaries("0123456789abcdef", 4));
+        assertEquals(Collections.emptyList(), BulkItemReader.boundaries("abc", 1));
+    }
+
+    @Test
+    public void selectExpressions() {
+        assertEquals(Arrays.asList(
+                "select * from `my``domain` where (`a` = '1') and itemName() < 'm'",
+                "select * from `my``domain` where (`a` = '1') and itemName() >= 'm'"),
+                BulkItemReader.selectExpressions("my`domain", "*", "`a` = '1'",
+                        Arrays.asList("m")));
+        assertEquals(Arrays.asList(
+                "select itemName() from `d` where itemName() < 'f'",
+                "select itemName() from `d` where itemName() >= 'f' and itemName() < 'o''k'",
+                "select itemName() from `d` where itemName() >= 'o''k'"),
+                BulkItemReader.selectExpressions("d", "itemName()", null,
+                        Arrays.asList("f", "o'k")));
+        assertEquals(Arrays.asList("select * from `d`"),
+                BulkItemReader.selectExpressions("d", "*", " ", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnorderedBoundaries() {
+        BulkItemReader.selectExpressions("d", "*", null, Arrays.asList("b", "a"));
+    }
+
+    @Test
+    public void pagesEveryPartition() {
+        // Each partition returns two pages of one item each
+        AmazonSimpleDBClient simpleDB = new AmazonSimpleDBClient(
+                new BasicAWSCredentials("access", "secret")) {
+            @Override
+            public SelectResult select(SelectRequest request) {
+                String expression = request.getSelectExpression();
+                String page = request.getNextToken() == null ? "1" : "2";
+                return new SelectResult()
+                        .withItems(new Item().withName(expression + "#" + page))
+                        .withNextToken(request.getNextToken() == null ? "token" : null);
+            }
+        };
+        BulkItemReader reader = new BulkItemReader(simpleDB, 2);
+        List<Item> items = reader.selectAll("d", "*", null, Arrays.asList("4", "8", "c"), true);
+        reader.shutdown();
+
+        Set<String> names = new HashSet<String>();
+        for (Item item : items)
+            names.add(item.getName());
+        assertEquals(8, names.size());
+    }
+
+    @Test
+    public void rethrowsHandlerFailures() {
+        AmazonSimpleDBClient simpleDB = new AmazonSimpleDBClient(
+                new BasicAWSCredentials("access", "secret")) {
+            @Override
+            public SelectResult select(SelectRequest request) {
+                return new SelectResult().withItems(new Item().withName("item"));
+            }
+        };
+        final IllegalStateException failure = new IllegalStateException("handler failed");
+        BulkItemReader reader = new BulkItemReader(simpleDB, 2);
+        try {
+            reader.select("d", "*", null, Arrays.asList("m"), false,
+                    new AsyncHandler<SelectRequest, SelectResult>() {
+                        @Override
+                        public void onError(Exception exception) {
+                        }
+
+                        @Override
+                        public void onSuccess(SelectRequest request, SelectResult result) {
+                            throw failure;
+                        }
+                    });
+            fail();
+        } catch (AmazonClientException expected) {
+            assertSame(failure, expected.getCause());
+        } finally {
+            reader.shutdown();
+        }
+    }
+}
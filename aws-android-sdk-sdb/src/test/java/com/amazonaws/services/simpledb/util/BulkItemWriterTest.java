@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.simpledb.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.simpledb.AmazonSimpleDBClient;
+import com.amazonaws.services.simpledb.model.BatchPutAttributesRequest;
+import com.amazonaws.services.simpledb.model.ReplaceableAttribute;
+import com.amazonaws.services.simpledb.model.ReplaceableItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BulkItemWriterTest {
+
+    /**
+     * Records batches, throttling the first calls, or those of one domain, if
+     * asked to.
+     */
+    private static class StubSimpleDBClient extends AmazonSimpleDBClient {
+        final List<BatchPutAttributesRequest> batches =
+                Collections.synchronizedList(new ArrayList<BatchPutAttributesRequest>());
+        volatile int throttles;
+        String throttledDomain;
+
+        StubSimpleDBClient() {
+            super(new BasicAWSCredentials("access", "secret"));
+        }
+
+        @Override
+        public void batchPutAttributes(BatchPutAttributesRequest request) {
+            synchronized (this) {
+                if (throttles > 0 && (throttledDomain == null
+                        || throttledDomain.equals(request.getDomainName()))) {
+                    throttles--;
+                    AmazonServiceException e = new AmazonServiceException("Slow down");
+                    e.setErrorCode("ServiceUnavailable");
+                    e.setStatusCode(503);
+                    throw e;
+                }
+            }
+            batches.add(request);
+        }
+    }
+
+    private static ReplaceableItem item(int i, String value) {
+        return new ReplaceableItem("item" + i).withAttributes(
+                new ReplaceableAttribute("attribute", value, true));
+    }
+
+    @Test
+    public void sendsBatchesOf25Items() {
+        StubSimpleDBClient simpleDB = new StubSimpleDBClient();
+        BulkItemWriter writer = new BulkItemWriter(simpleDB, 4, null);
+        for (int i = 0; i < 60; i++)
+            writer.put("domain", item(i, "value"));
+        writer.put("other", item(0, "value"));
+        writer.shutdown();
+
+        int items = 0;
+        for (BatchPutAttributesRequest batch : simpleDB.batches) {
+            assertTrue(batch.getItems().size() <= BulkItemWriter.MAX_ITEMS_PER_BATCH);
+            items += batch.getItems().size();
+        }
+        assertEquals(61, items);
+        assertEquals(4, simpleDB.batches.size());
+        assertTrue(writer.getFailedBatches().isEmpty());
+    }
+
+    @Test
+    public void splitsBatchesAtOneMegabyte() {
+        StubSimpleDBClient simpleDB = new StubSimpleDBClient();
+        BulkItemWriter writer = new BulkItemWriter(simpleDB, 2, null);
+        char[] chars = new char[100 * 1024];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        for (int i = 0; i < 20; i++)
+            writer.put("domain", item(i, value));
+        writer.flush();
+
+        assertEquals(2, simpleDB.batches.size());
+        for (BatchPutAttributesRequest batch : simpleDB.batches) {
+            int bytes = 0;
+            for (ReplaceableItem item : batch.getItems())
+                bytes += BulkItemWriter.encodedSize(item);
+            assertTrue(bytes <= BulkItemWriter.MAX_BYTES_PER_BATCH);
+        }
+    }
+
+    @Test
+    public void retriesThrottledBatches() {
+        StubSimpleDBClient simpleDB = new StubSimpleDBClient();
+        simpleDB.throttles = 2;
+        BulkItemWriter writer = new BulkItemWriter(simpleDB, 1, null);
+        writer.put("domain", item(0, "value"));
+        writer.flush();
+
+        assertEquals(1, simpleDB.batches.size());
+        assertTrue(writer.getFailedBatches().isEmpty());
+    }
+
+    @Test
+    public void otherDomainsProceedWhileOneBacksOff() {
+        StubSimpleDBClient simpleDB = new StubSimpleDBClient();
+        simpleDB.throttles = 3;
+        simpleDB.throttledDomain = "slow";
+        BulkItemWriter writer = new BulkItemWriter(simpleDB, 1, null);
+        for (int i = 0; i < BulkItemWriter.MAX_ITEMS_PER_BATCH; i++)
+            writer.put("slow", item(i, "value"));
+        for (int i = 0; i < BulkItemWriter.MAX_ITEMS_PER_BATCH; i++)
+            writer.put("fast", item(i, "value"));
+        writer.flush();
+
+        // The only slot in flight is free while the slow domain backs off
+        assertEquals(2, simpleDB.batches.size());
+        assertEquals("fast", simpleDB.batches.get(0).getDomainName());
+        assertEquals("slow", simpleDB.batches.get(1).getDomainName());
+        assertTrue(writer.getFailedBatches().isEmpty());
+    }
+
+    @Test
+    public void backoffKeepsInterruptStatus() {
+        StubSimpleDBClient simpleDB = new StubSimpleDBClient();
+        simpleDB.throttles = 1;
+        BulkItemWriter writer = new BulkItemWriter(simpleDB, 1, null);
+        for (int i = 0; i < BulkItemWriter.MAX_ITEMS_PER_BATCH; i++)
+            writer.put("domain", item(i, "value"));
+        // Wait until the domain is throttled, then put while it backs off
+        while (simpleDB.throttles > 0)
+            Thread.yield();
+        Thread.currentThread().interrupt();
+        for (int i = 0; i < BulkItemWriter.MAX_ITEMS_PER_BATCH; i++)
+            writer.put("domain", item(i, "value"));
+        assertTrue(Thread.interrupted());
+        writer.flush();
+
+        assertEquals(2, simpleDB.batches.size());
+        assertTrue(writer.getFailedBatches().isEmpty());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.simpledb.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SimpleDBUtilsTest {
+
+    /** The padding the encoders produced when they went through Strings. */
+    private static String pad(String number, int maxNumDigits) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = number.length(); i < maxNumDigits; i++)
+            sb.append('0');
+        return sb.append(number).toString();
+    }
+
+    @Test
+    public void encodeZeroPadding() {
+        long[] numbers = {
+                0, 7, 42, 999, 1000, 123456789, Integer.MAX_VALUE, Long.MAX_VALUE,
+                -1, -42, Long.MIN_VALUE
+        };
+        for (long number : numbers) {
+            for (int maxNumDigits = 0; maxNumDigits <= 22; maxNumDigits++) {
+                assertEquals(pad(Long.toString(number), maxNumDigits),
+                        SimpleDBUtils.encodeZeroPadding(number, maxNumDigits));
+                if (number == (int) number)
+                    assertEquals(pad(Long.toString(number), maxNumDigits),
+                            SimpleDBUtils.encodeZeroPadding((int) number, maxNumDigits));
+            }
+        }
+        assertEquals(42, SimpleDBUtils.decodeZeroPaddingInt(
+                SimpleDBUtils.encodeZeroPadding(42, 10)));
+        assertEquals(Long.MAX_VALUE, SimpleDBUtils.decodeZeroPaddingLong(
+                SimpleDBUtils.encodeZeroPadding(Long.MAX_VALUE, 20)));
+    }
+
+    @Test
+    public void encodeRealNumberRange() {
+        assertEquals("0000000958", SimpleDBUtils.encodeRealNumberRange(-42, 10, 1000));
+        assertEquals("0000001042", SimpleDBUtils.encodeRealNumberRange(42L, 10, 1000L));
+        assertEquals(-42, SimpleDBUtils.decodeRealNumberRangeInt(
+                SimpleDBUtils.encodeRealNumberRange(-42, 10, 1000), 1000));
+        assertEquals(-42L, SimpleDBUtils.decodeRealNumberRangeLong(
+                SimpleDBUtils.encodeRealNumberRange(-42L, 10, 1000L), 1000L));
+
+        assertEquals("0099750", SimpleDBUtils.encodeRealNumberRange(-2.5f, 5, 2, 1000));
+        assertEquals(-2.5f, SimpleDBUtils.decodeRealNumberRangeFloat(
+                SimpleDBUtils.encodeRealNumberRange(-2.5f, 5, 2, 1000), 2, 1000), 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encodeRealNumberRangeWithTooManyDigits() {
+        SimpleDBUtils.encodeRealNumberRange(123456f, 3, 2, 0);
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.simpleemail.util;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.simpleemail.AmazonSimpleEmailService;
+import com.amazonaws.services.simpleemail.model.Destination;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaRequest;
+import com.amazonaws.services.simpleemail.model.GetSendQuotaResult;
+import com.amazonaws.services.simpleemail.model.RawMessage;
+import com.amazonaws.services.simpleemail.model.SendEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendEmailResult;
+import com.amazonaws.services.simpleemail.model.SendRawEmailRequest;
+import com.amazonaws.services.simpleemail.model.SendRawEmailResult;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends email in bulk through Amazon SES as fast as the sending quota of the
+ * account allows. Messages are sent by a pool of threads, so that many sends
+ * are in flight at once, and all of them draw from a token bucket filled at
+ * the maximum send rate of the account, one token per recipient. The quota is
+ * read with GetSendQuota when the first message is sent, and read again every
+ * few minutes. A failed read is retried after a backoff; meanwhile messages
+ * are sent within the previous quota, or fail if it was never read.
+ *
+ * <pre class="brush: java">
+ * BulkEmailSender sender = new BulkEmailSender(ses);
+ * for (SendEmailRequest request : requests) {
+ *     sender.sendEmail(request, handler);
+ * }
+ * sender.shutdown();
+ * </pre>
+ *
+ * The result of each message is reported to its {@link AsyncHandler} and
+ * through the returned {@link Future}. A message throttled for exceeding the
+ * send rate is sent again, a few times, after waiting for tokens again. A
+ * message that would exceed the 24 hour quota fails without being sent.
+ * Sending methods block while too many messages are queued, so that queuing
+ * tens of thousands of messages does not hold them all in memory.
+ */
+public class BulkEmailSender {
+    private static final Log log = LogFactory.getLog(BulkEmailSender.class);
+
+    /** Default number of messages sent concurrently. */
+    public static final int DEFAULT_CONCURRENCY = 10;
+    /** Default maximum number of messages queued and being sent. */
+    public static final int DEFAULT_MAX_QUEUED = 1000;
+
+    /** How often the sending quota is read again. */
+    private static final long QUOTA_REFRESH_NANOS = TimeUnit.MINUTES.toNanos(5);
+    /**
+     * How long after the first failure to read the quota it is read again,
+     * doubled after each further failure, up to {@code QUOTA_REFRESH_NANOS}.
+     */
+    private static final long QUOTA_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** How many times a message throttled for the send rate is sent again. */
+    private static final int MAX_THROTTLED_RETRIES = 3;
+    /** The largest message buffer kept for the next message of a thread. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Writes a MIME message, including its headers, for
+     * {@link BulkEmailSender#sendRawEmail(String, List, RawMessageWriter, AsyncHandler)}.
+     */
+    public interface RawMessageWriter {
+        /**
+         * Writes the message to the given stream.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** A message buffer, kept by each sending thread for its next message. */
+    private static final class MessageBuffer extends ByteArrayOutputStream {
+        MessageBuffer() {
+            super(8 * 1024);
+        }
+
+        /** Empties the buffer, dropping its array if it has grown too large. */
+        void recycle() {
+            reset();
+            if (buf.length > MAX_RETAINED_BUFFER_SIZE)
+                buf = new byte[8 * 1024];
+        }
+    }
+
+    private static final ThreadLocal<MessageBuffer> MESSAGE_BUFFERS =
+            new ThreadLocal<MessageBuffer>() {
+                @Override
+                protected MessageBuffer initialValue() {
+                    return new MessageBuffer();
+                }
+            };
+
+    private final AmazonSimpleEmailService ses;
+    private final ExecutorService executor;
+    /** Permits for the messages that may be queued or being sent. */
+    private final Semaphore queued;
+    private final SendRateLimiter rateLimiter = new SendRateLimiter(1);
+
+    /** When the quota was last read or failed to be, or 0 if neither. */
+    private long quotaReadNanos;
+    /** Whether a thread is reading the quota. */
+    private boolean readingQuota;
+    /** Whether the quota has ever been read. */
+    private boolean quotaKnown;
+    /** The number of failures to read the quota since it was last read. */
+    private int quotaReadFailures;
+    /** The last failure to read the quota, while it is not known. */
+    private RuntimeException quotaReadFailure;
+    /**
+     * How many more recipients can be sent to in the last 24 hours, or a
+     * negative number if there is no limit.
+     */
+    private double remainingDailyQuota;
+
+    /**
+     * Creates a sender with the default concurrency and queue size.
+     *
+     * @param ses the client to send the email with
+     */
+    public BulkEmailSender(AmazonSimpleEmailService ses) {
+        this(ses, DEFAULT_CONCURRENCY, DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * @param ses the client to send the email with
+     * @param concurrency the number of messages sent concurrently
+     * @param maxQueued the maximum number of messages queued and being sent,
+     *            after which sending methods block
+     */
+    public BulkEmailSender(AmazonSimpleEmailService ses, int concurrency, int maxQueued) {
+        if (ses == null)
+            throw new IllegalArgumentException("ses cannot be null");
+        if (concurrency <= 0)
+            throw new IllegalArgumentException("concurrency must be positive");
+        if (maxQueued < concurrency)
+            throw new IllegalArgumentException("maxQueued must be at least concurrency");
+        this.ses = ses;
+        this.queued = new Semaphore(maxQueued);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "BulkEmailSender-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    /**
+     * Queues the given message to be sent.
+     *
+     * @param request the message
+     * @param handler the handler notified of the result, or null
+     * @return the future result of sending the message
+     */
+    public Future<SendEmailResult> sendEmail(final SendEmailRequest request,
+            AsyncHandler<SendEmailRequest, SendEmailResult> handler) {
+        return submit(new SendTask<SendEmailRequest, SendEmailResult>(request,
+                countRecipients(request.getDestination()), handler) {
+            @Override
+            SendEmailResult send() {
+                return ses.sendEmail(request);
+            }
+        });
+    }
+
+    /**
+     * Queues the given raw message to be sent.
+     *
+     * @param request the message
+     * @param handler the handler notified of the result, or null
+     * @return the future result of sending the message
+     */
+    public Future<SendRawEmailResult> sendRawEmail(final SendRawEmailRequest request,
+            AsyncHandler<SendRawEmailRequest, SendRawEmailResult> handler) {
+        return submit(new SendTask<SendRawEmailRequest, SendRawEmailResult>(request,
+                countRecipients(request.getDestinations()), handler) {
+            @Override
+            SendRawEmailResult send() {
+                return ses.sendRawEmail(request);
+            }
+        });
+    }
+
+    /**
+     * Queues a raw message to be written and sent. The message is written by
+     * the thread sending it, when it is about to be sent, into a buffer that
+     * the thread reuses for its next message, so that the messages queued are
+     * not all held in memory at once.
+     *
+     * @param source the sender of the message
+     * @param destinations the recipients of the message, or null to send it
+     *            to the recipients in its headers
+     * @param writer writes the message
+     * @param handler the handler notified of the result, or null
+     * @return the future result of sending the message
+     */
+    public Future<SendRawEmailResult> sendRawEmail(String source, List<String> destinations,
+            final RawMessageWriter writer,
+            AsyncHandler<SendRawEmailRequest, SendRawEmailResult> handler) {
+        if (writer == null)
+            throw new IllegalArgumentException("writer cannot be null");
+        final SendRawEmailRequest request = new SendRawEmailRequest().withSource(source);
+        if (destinations != null)
+            request.withDestinations(destinations);
+        return submit(new SendTask<SendRawEmailRequest, SendRawEmailResult>(request,
+                countRecipients(destinations), handler) {
+            @Override
+            SendRawEmailResult send() {
+                MessageBuffer buffer = MESSAGE_BUFFERS.get();
+                try {
+                    writer.writeTo(buffer);
+                    request.setRawMessage(new RawMessage(ByteBuffer.wrap(buffer.toByteArray())));
+                } catch (IOException e) {
+                    throw new AmazonClientException("Unable to write the message", e);
+                } finally {
+                    buffer.recycle();
+                }
+                return ses.sendRawEmail(request);
+            }
+
+            @Override
+            void completed() {
+                // The data is written again for each attempt, and is not
+                // needed once the handler has seen it
+                request.setRawMessage(null);
+            }
+        });
+    }
+
+    /**
+     * Stops accepting messages. The messages already queued are still sent.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the queued messages to be sent after {@link #shutdown()}.
+     *
+     * @return true if they were all sent, false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private <RESULT> Future<RESULT> submit(SendTask<?, RESULT> task) {
+        queued.acquireUninterruptibly();
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            queued.release();
+            throw e;
+        }
+    }
+
+    private static int countRecipients(Destination destination) {
+        if (destination == null)
+            return 1;
+        int count = size(destination.getToAddresses())
+                + size(destination.getCcAddresses())
+                + size(destination.getBccAddresses());
+        return Math.max(1, count);
+    }
+
+    private static int countRecipients(List<String> destinations) {
+        return Math.max(1, size(destinations));
+    }
+
+    private static int size(List<String> list) {
+        return list == null ? 0 : list.size();
+    }
+
+    /**
+     * Reads the sending quota if it has not been read for a while, and adjusts
+     * the send rate to it. Only one thread reads the quota at a time, without
+     * holding the lock, so that other threads keep sending with the current
+     * quota meanwhile; they only wait for the first read.
+     *
+     * @throws AmazonClientException if the quota has never been read
+     *             successfully
+     */
+    private void readQuotaIfStale() throws InterruptedException {
+        synchronized (this) {
+            while (true) {
+                if (quotaReadNanos != 0 && System.nanoTime() - quotaReadNanos < quotaReadDelay()) {
+                    if (!quotaKnown)
+                        throw new AmazonClientException("Unable to read the sending quota",
+                                quotaReadFailure);
+                    return;
+                }
+                if (!readingQuota)
+                    break;
+                if (quotaKnown)
+                    return;
+                wait();
+            }
+            readingQuota = true;
+        }
+        GetSendQuotaResult quota = null;
+        RuntimeException failure = null;
+        try {
+            quota = ses.getSendQuota(new GetSendQuotaRequest());
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        synchronized (this) {
+            readingQuota = false;
+            quotaReadNanos = System.nanoTime();
+            notifyAll();
+            if (failure != null) {
+                quotaReadFailures++;
+                if (!quotaKnown) {
+                    quotaReadFailure = failure;
+                    throw failure;
+                }
+                log.warn("Unable to read the sending quota, sending with the previous one",
+                        failure);
+                return;
+            }
+            quotaKnown = true;
+            quotaReadFailures = 0;
+            quotaReadFailure = null;
+            Double maxSendRate = quota.getMaxSendRate();
+            if (maxSendRate != null && maxSendRate > 0)
+                rateLimiter.setRate(maxSendRate);
+            Double max24HourSend = quota.getMax24HourSend();
+            Double sentLast24Hours = quota.getSentLast24Hours();
+            if (max24HourSend == null || max24HourSend < 0) {
+                remainingDailyQuota = -1;
+            } else {
+                remainingDailyQuota = Math.max(0, max24HourSend
+                        - (sentLast24Hours == null ? 0 : sentLast24Hours));
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Sending at " + rateLimiter.getRate() + " recipients per second, "
+                        + remainingDailyQuota + " recipients left for the last 24 hours");
+            }
+        }
+    }
+
+    /**
+     * Returns how long after the last attempt the quota is read again: backs
+     * off after failures.
+     */
+    private long quotaReadDelay() {
+        if (quotaReadFailures == 0)
+            return QUOTA_REFRESH_NANOS;
+        int doublings = Math.min(quotaReadFailures - 1, 20);
+        return Math.min(QUOTA_REFRESH_NANOS, QUOTA_RETRY_NANOS << doublings);
+    }
+
+    /**
+     * Takes the given number of recipients out of the 24 hour quota.
+     *
+     * @throws AmazonClientException if the quota would be exceeded
+     */
+    private synchronized void takeDailyQuota(int recipients) {
+        if (remainingDailyQuota < 0)
+            return;
+        if (remainingDailyQuota < recipients)
+            throw new AmazonClientException("Sending to " + recipients
+                    + " more recipients would exceed the 24 hour sending quota");
+        remainingDailyQuota -= recipients;
+    }
+
+    private synchronized void returnDailyQuota(int recipients) {
+        if (remainingDailyQuota >= 0)
+            remainingDailyQuota += recipients;
+    }
+
+    /**
+     * Returns whether the given exception means the send rate was exceeded,
+     * as opposed to the 24 hour quota.
+     */
+    private static boolean isSendRateExceeded(AmazonServiceException e) {
+        return "Throttling".equals(e.getErrorCode())
+                && (e.getMessage() == null || !e.getMessage().contains("Daily message quota"));
+    }
+
+    /**
+     * Sends one message within the quota, and reports its result.
+     */
+    private abstract class SendTask<REQUEST extends AmazonWebServiceRequest, RESULT>
+            implements Callable<RESULT> {
+        private final REQUEST request;
+        private final int recipients;
+        private final AsyncHandler<REQUEST, RESULT> handler;
+
+        SendTask(REQUEST request, int recipients, AsyncHandler<REQUEST, RESULT> handler) {
+            if (request == null)
+                throw new IllegalArgumentException("request cannot be null");
+            this.request = request;
+            this.recipients = recipients;
+            this.handler = handler;
+        }
+
+        abstract RESULT send();
+
+        /**
+         * Called once the result has been reported to the handler.
+         */
+        void completed() {
+        }
+
+        @Override
+        public RESULT call() throws Exception {
+            RESULT result;
+            try {
+                try {
+                    result = sendWithinQuota();
+                } catch (Exception e) {
+                    if (handler != null)
+                        handler.onError(e);
+                    throw e;
+                } finally {
+                    queued.release();
+                }
+                if (handler != null)
+                    handler.onSuccess(request, result);
+            } finally {
+                completed();
+            }
+            return result;
+        }
+
+        private RESULT sendWithinQuota() throws InterruptedException {
+            for (int retries = 0;; retries++) {
+                readQuotaIfStale();
+                takeDailyQuota(recipients);
+                rateLimiter.acquire(recipients);
+                try {
+                    return send();
+                } catch (AmazonServiceException e) {
+                    returnDailyQuota(recipients);
+                    if (!isSendRateExceeded(e) || retries >= MAX_THROTTLED_RETRIES)
+                        throw e;
+                    log.debug("Send rate exceeded, sending the message again", e);
+                } catch (RuntimeException e) {
+                    returnDailyQuota(recipients);
+                    throw e;
+                }
+            }
+        }
+    }
+}
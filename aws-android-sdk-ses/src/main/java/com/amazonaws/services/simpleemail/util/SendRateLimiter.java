@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.simpleemail.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket shared by the threads sending email. Tokens accumulate at
+ * the sending rate, up to one second's worth. A thread taking more tokens
+ * than are available reserves them anyway and sleeps, outside the lock, until
+ * they have accumulated, so that concurrent senders are spaced out at the rate
+ * instead of all waking up at once.
+ */
+class SendRateLimiter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private double permitsPerSecond;
+    private double maxPermits;
+    /** The available permits; negative when permits are reserved ahead. */
+    private double storedPermits;
+    private long lastRefillNanos;
+
+    SendRateLimiter(double permitsPerSecond) {
+        lastRefillNanos = System.nanoTime();
+        setRate(permitsPerSecond);
+    }
+
+    /**
+     * Changes the rate at which permits accumulate.
+     */
+    synchronized void setRate(double permitsPerSecond) {
+        if (permitsPerSecond <= 0)
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        refill(System.nanoTime());
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxPermits = Math.max(1, permitsPerSecond);
+        storedPermits = Math.min(storedPermits, maxPermits);
+    }
+
+    synchronized double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Takes the given number of permits, waiting until they are available.
+     */
+    void acquire(int permits) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill(System.nanoTime());
+            storedPermits -= permits;
+            waitNanos = storedPermits >= 0
+                    ? 0
+                    : (long) (-storedPermits / permitsPerSecond * NANOS_PER_SECOND);
+        }
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    private void refill(long now) {
+        storedPermits = Math.min(maxPermits, storedPermits
+                + (now - lastRefillNanos) * permitsPerSecond / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+    }
+}
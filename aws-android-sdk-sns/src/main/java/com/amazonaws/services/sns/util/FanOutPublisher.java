@@ -0,0 +1,356 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.sns.util;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.model.EndpointDisabledException;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
+import com.amazonaws.util.json.JsonUtils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes messages to many Amazon SNS targets, such as mobile push
+ * endpoints, concurrently. The number of publishes in flight adapts to
+ * Amazon SNS: it grows slowly while publishes succeed, and halves whenever
+ * one is throttled, so that a campaign is sent as fast as the rate limits of
+ * the account allow rather than as fast as the threads of the publisher. The
+ * publishing methods block while the limit is reached.
+ *
+ * <pre class="brush: java">
+ * FanOutPublisher publisher = new FanOutPublisher(sns);
+ * for (String endpointArn : endpointArns) {
+ *     publisher.publish(endpointArn, messagesByPlatform, handler);
+ * }
+ * publisher.shutdown();
+ * publisher.awaitTermination(1, TimeUnit.HOURS);
+ * // Clean up the endpoints that were found disabled
+ * for (String endpointArn : publisher.getDisabledEndpoints()) { ... }
+ * </pre>
+ *
+ * The outcome of each publish is reported to its {@link AsyncHandler} and
+ * through the returned {@link Future}. A throttled publish is retried a few
+ * times after backing off. Targets whose endpoint is disabled are collected by
+ * {@link #getDisabledEndpoints()}.
+ */
+public class FanOutPublisher {
+    private static final Log log = LogFactory.getLog(FanOutPublisher.class);
+
+    /** Default number of publishes in flight to start with. */
+    public static final int DEFAULT_INITIAL_CONCURRENCY = 10;
+    /** Default maximum number of publishes in flight. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 50;
+
+    private static final String MESSAGE_STRUCTURE_JSON = "json";
+    /** How many times a throttled publish is retried. */
+    private static final int MAX_THROTTLED_RETRIES = 3;
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    /** How many distinct message structures are kept for reuse. */
+    private static final int MAX_MESSAGE_STRUCTURES = 64;
+
+    private static final Random RANDOM = new Random();
+
+    private final AmazonSNS sns;
+    private final int maxConcurrency;
+    private final ThreadPoolExecutor executor;
+
+    /** Guards the concurrency limit and the number of publishes in flight. */
+    private final Object slots = new Object();
+    private double concurrencyLimit;
+    private int inFlight;
+    /**
+     * Counts the reductions of the limit, so that the publishes throttled
+     * together, which were all started under the same limit, only halve it
+     * once.
+     */
+    private long generation;
+
+    /** The JSON of recently published message structures, by message. */
+    private final Map<SortedMap<String, String>, String> messageStructures =
+            new LinkedHashMap<SortedMap<String, String>, String>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<SortedMap<String, String>, String> eldest) {
+                    return size() > MAX_MESSAGE_STRUCTURES;
+                }
+            };
+
+    private final Set<String> disabledEndpoints = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Creates a publisher with the default concurrency.
+     *
+     * @param sns the client to publish with
+     */
+    public FanOutPublisher(AmazonSNS sns) {
+        this(sns, DEFAULT_INITIAL_CONCURRENCY, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * @param sns the client to publish with
+     * @param initialConcurrency the number of publishes in flight to start
+     *            with
+     * @param maxConcurrency the maximum number of publishes in flight, which
+     *            is also the number of threads of the publisher
+     */
+    public FanOutPublisher(AmazonSNS sns, int initialConcurrency, int maxConcurrency) {
+        if (sns == null)
+            throw new IllegalArgumentException("sns cannot be null");
+        if (initialConcurrency <= 0 || maxConcurrency < initialConcurrency)
+            throw new IllegalArgumentException(
+                    "initialConcurrency must be positive and no more than maxConcurrency");
+        this.sns = sns;
+        this.maxConcurrency = maxConcurrency;
+        this.concurrencyLimit = initialConcurrency;
+        this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r,
+                                "FanOutPublisher-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Publishes the given message to the given target.
+     *
+     * @param targetArn the ARN of the target, such as a mobile endpoint
+     * @param message the message
+     * @param handler the handler notified of the outcome, or null
+     * @return the future result of the publish
+     */
+    public Future<PublishResult> publish(String targetArn, String message,
+            AsyncHandler<PublishRequest, PublishResult> handler) {
+        return publish(new PublishRequest().withTargetArn(targetArn).withMessage(message),
+                handler);
+    }
+
+    /**
+     * Publishes a message with a different payload per protocol or platform
+     * to the given target, with a message structure of "json". Identical
+     * messages, published to many targets, are serialized once and share
+     * their JSON.
+     *
+     * @param targetArn the ARN of the target, such as a mobile endpoint
+     * @param messagesByProtocol the payloads by protocol or platform, such as
+     *            "default", "APNS" or "GCM"
+     * @param handler the handler notified of the outcome, or null
+     * @return the future result of the publish
+     */
+    public Future<PublishResult> publish(String targetArn, Map<String, String> messagesByProtocol,
+            AsyncHandler<PublishRequest, PublishResult> handler) {
+        return publish(new PublishRequest()
+                .withTargetArn(targetArn)
+                .withMessage(toMessageStructure(messagesByProtocol))
+                .withMessageStructure(MESSAGE_STRUCTURE_JSON), handler);
+    }
+
+    /**
+     * Publishes the given request.
+     *
+     * @param request the request
+     * @param handler the handler notified of the outcome, or null
+     * @return the future result of the publish
+     */
+    public Future<PublishResult> publish(final PublishRequest request,
+            final AsyncHandler<PublishRequest, PublishResult> handler) {
+        if (request == null)
+            throw new IllegalArgumentException("request cannot be null");
+        final long startGeneration = acquireSlot();
+        try {
+            return executor.submit(new Callable<PublishResult>() {
+                @Override
+                public PublishResult call() throws Exception {
+                    return publishWithRetries(request, handler, startGeneration);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            releaseSlot(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the ARNs of the targets found disabled so far, for cleaning them
+     * up.
+     */
+    public Set<String> getDisabledEndpoints() {
+        return Collections.unmodifiableSet(new HashSet<String>(disabledEndpoints));
+    }
+
+    /**
+     * Returns the current limit of publishes in flight.
+     */
+    public int getConcurrencyLimit() {
+        synchronized (slots) {
+            return (int) concurrencyLimit;
+        }
+    }
+
+    /**
+     * Stops accepting messages. The messages already accepted are still
+     * published.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the accepted messages to be published after
+     * {@link #shutdown()}.
+     *
+     * @return true if they were all published, false if the timeout elapsed
+     *         first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private PublishResult publishWithRetries(PublishRequest request,
+            AsyncHandler<PublishRequest, PublishResult> handler, long startGeneration)
+            throws Exception {
+        PublishResult result;
+        boolean throttled = false;
+        try {
+            for (int retries = 0;; retries++) {
+                try {
+                    result = sns.publish(request);
+                    break;
+                } catch (AmazonServiceException e) {
+                    if (!RetryUtils.isThrottlingException(e) || retries >= MAX_THROTTLED_RETRIES)
+                        throw e;
+                    if (!throttled) {
+                        throttled = true;
+                        reduceConcurrency(startGeneration);
+                    }
+                    long backoff = (BASE_BACKOFF_MILLIS << retries);
+                    Thread.sleep(backoff / 2 + (long) (RANDOM.nextDouble() * backoff / 2));
+                }
+            }
+        } catch (Exception e) {
+            if (e instanceof EndpointDisabledException && request.getTargetArn() != null)
+                disabledEndpoints.add(request.getTargetArn());
+            releaseSlot(false);
+            if (handler != null)
+                handler.onError(e);
+            throw e;
+        }
+        releaseSlot(!throttled);
+        if (handler != null)
+            handler.onSuccess(request, result);
+        return result;
+    }
+
+    /**
+     * Waits until fewer publishes than the limit are in flight, and takes a
+     * slot.
+     *
+     * @return the generation of the limit the slot was taken under
+     */
+    private long acquireSlot() {
+        boolean interrupted = false;
+        long generation;
+        synchronized (slots) {
+            while (inFlight >= (int) concurrencyLimit) {
+                try {
+                    slots.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            inFlight++;
+            generation = this.generation;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return generation;
+    }
+
+    /**
+     * Gives back a slot, growing the limit by about one per round of
+     * publishes in flight if the publish went through without throttling.
+     */
+    private void releaseSlot(boolean succeeded) {
+        synchronized (slots) {
+            inFlight--;
+            if (succeeded)
+                concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+            slots.notifyAll();
+        }
+    }
+
+    /**
+     * Halves the limit, unless it was already reduced since the throttled
+     * publish was started.
+     */
+    private void reduceConcurrency(long startGeneration) {
+        synchronized (slots) {
+            if (startGeneration != generation)
+                return;
+            generation++;
+            concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+            if (log.isDebugEnabled())
+                log.debug("Throttled, reducing publishes in flight to " + (int) concurrencyLimit);
+        }
+    }
+
+    private String toMessageStructure(Map<String, String> messagesByProtocol) {
+        if (messagesByProtocol == null || messagesByProtocol.isEmpty())
+            throw new IllegalArgumentException("messagesByProtocol cannot be empty");
+        SortedMap<String, String> key = new TreeMap<String, String>(messagesByProtocol);
+        synchronized (messageStructures) {
+            String json = messageStructures.get(key);
+            if (json == null) {
+                json = JsonUtils.mapToString(key);
+                messageStructures.put(key, json);
+            }
+            return json;
+        }
+    }
+}
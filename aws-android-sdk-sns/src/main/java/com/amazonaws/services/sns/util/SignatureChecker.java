@@ -34,26 +34,100 @@ import java.util.TreeMap;
 
 /**
  * Utility for validating signatures on a Simple Notification Service JSON
- * message.
+ * message. A checker may be shared by several threads; each thread reuses its
+ * own {@link Signature} instance across messages.
  */
 public class SignatureChecker {
 
-    private Signature sigChecker;
+    private static final String NOTIFICATION_TYPE = "Notification";
+    private static final String SUBSCRIBE_TYPE = "SubscriptionConfirmation";
+    private static final String UNSUBSCRIBE_TYPE = "UnsubscribeConfirmation";
 
-    private final String NOTIFICATION_TYPE = "Notification";
-    private final String SUBSCRIBE_TYPE = "SubscriptionConfirmation";
-    private final String UNSUBSCRIBE_TYPE = "UnsubscribeConfirmation";
+    private static final String TYPE = "Type";
+    private static final String SUBSCRIBE_URL = "SubscribeURL";
+    private static final String MESSAGE = "Message";
+    private static final String TIMESTAMP = "Timestamp";
+    private static final String SIGNATURE_VERSION = "SignatureVersion";
+    private static final String SIGNATURE = "Signature";
+    private static final String SIGNING_CERT_URL = "SigningCertURL";
+    private static final String MESSAGE_ID = "MessageId";
+    private static final String SUBJECT = "Subject";
+    private static final String TOPIC = "TopicArn";
+    private static final String TOKEN = "Token";
 
-    private final String TYPE = "Type";
-    private final String SUBSCRIBE_URL = "SubscribeURL";
-    private final String MESSAGE = "Message";
-    private final String TIMESTAMP = "Timestamp";
-    private final String SIGNATURE_VERSION = "SignatureVersion";
-    private final String SIGNATURE = "Signature";
-    private final String MESSAGE_ID = "MessageId";
-    private final String SUBJECT = "Subject";
-    private final String TOPIC = "TopicArn";
-    private final String TOKEN = "Token";
+    /** The signed keys of a notification, in canonical (sorted) order. */
+    private static final String[] PUBLISH_KEYS = {
+            MESSAGE, MESSAGE_ID, SUBJECT, TIMESTAMP, TOPIC, TYPE
+    };
+
+    /** The signed keys of a subscription message, in canonical order. */
+    private static final String[] SUBSCRIBE_KEYS = {
+            MESSAGE, MESSAGE_ID, SUBSCRIBE_URL, TIMESTAMP, TOKEN, TOPIC, TYPE
+    };
+
+    /**
+     * The signature verifier of each thread, since getting one from the
+     * security providers is much slower than reinitializing it with a key.
+     */
+    private static final ThreadLocal<Signature> SIGNATURES = new ThreadLocal<Signature>() {
+        @Override
+        protected Signature initialValue() {
+            try {
+                return Signature.getInstance("SHA1withRSA");
+            } catch (NoSuchAlgorithmException e) {
+                // Rare exception: JVM does not support SHA1 with RSA
+                return null;
+            }
+        }
+    };
+
+    /** The certificate cache shared by checkers created without one. */
+    private static final class DefaultCertificateCacheHolder {
+        static final SigningCertificateCache CACHE = new SigningCertificateCache();
+    }
+
+    private final SigningCertificateCache certificateCache;
+    /**
+     * Whether a subclass overrides {@link #stringToSign(SortedMap)}, in which
+     * case the canonical string is built by the override.
+     */
+    private final boolean overridesStringToSign;
+
+    /**
+     * Creates a checker that downloads signing certificates through a cache
+     * shared with the other checkers created this way.
+     */
+    public SignatureChecker() {
+        this(null);
+    }
+
+    /**
+     * @param certificateCache the cache to download signing certificates
+     *            through, or null to use the shared one
+     */
+    public SignatureChecker(SigningCertificateCache certificateCache) {
+        this.certificateCache = certificateCache;
+        this.overridesStringToSign = overridesStringToSign(getClass());
+    }
+
+    /**
+     * Validates the signature on a Simple Notification Service message with
+     * the public key of the certificate at the SigningCertURL of the message.
+     * The certificate is downloaded, once per cache time to live, only if the
+     * URL is an HTTPS URL on an Amazon SNS host.
+     *
+     * @param message A JSON-encoded Simple Notification Service message.
+     * @return True if the message was correctly validated, otherwise false.
+     * @throws com.amazonaws.AmazonClientException if the signing certificate
+     *             cannot be obtained
+     */
+    public boolean verifyMessageSignature(String message) {
+        Map<String, String> parsed = parseJSON(message);
+        SigningCertificateCache cache = certificateCache != null
+                ? certificateCache
+                : DefaultCertificateCacheHolder.CACHE;
+        return verifySignature(parsed, cache.getPublicKey(parsed.get(SIGNING_CERT_URL)));
+    }
 
     /**
      * Validates the signature on a Simple Notification Service message. No
@@ -92,14 +166,13 @@ public class SignatureChecker {
             String signature = parsedMessage.get(SIGNATURE);
             String signed = "";
             if (type.equals(NOTIFICATION_TYPE)) {
-                signed = stringToSign(publishMessageValues(parsedMessage));
+                signed = stringToSign(parsedMessage, PUBLISH_KEYS);
             } else if (type.equals(SUBSCRIBE_TYPE)) {
-                signed = stringToSign(subscribeMessageValues(parsedMessage));
+                signed = stringToSign(parsedMessage, SUBSCRIBE_KEYS);
             } else if (type.equals(UNSUBSCRIBE_TYPE)) {
-                signed = stringToSign(subscribeMessageValues(parsedMessage)); // no
-                                                                              // difference,
-                                                                              // for
-                                                                              // now
+                signed = stringToSign(parsedMessage, SUBSCRIBE_KEYS); // no
+                                                                      // difference,
+                                                                      // for now
             } else {
                 throw new RuntimeException("Cannot process message of type " + type);
             }
@@ -123,15 +196,16 @@ public class SignatureChecker {
     public boolean verifySignature(String message, String signature, PublicKey publicKey) {
         boolean result = false;
         byte[] sigbytes = null;
+        Signature sigChecker = SIGNATURES.get();
+        if (sigChecker == null) {
+            // Rare exception: JVM does not support SHA1 with RSA
+            return false;
+        }
         try {
             sigbytes = Base64.decode(signature.getBytes(StringUtils.UTF8));
-            sigChecker = Signature.getInstance("SHA1withRSA"); // check the
-                                                               // signature
             sigChecker.initVerify(publicKey);
             sigChecker.update(message.getBytes(StringUtils.UTF8));
             result = sigChecker.verify(sigbytes);
-        } catch (NoSuchAlgorithmException e) {
-            // Rare exception: JVM does not support SHA1 with RSA
         } catch (InvalidKeyException e) {
             // Rare exception: The private key was incorrectly formatted
         } catch (SignatureException e) {
@@ -140,6 +214,13 @@ public class SignatureChecker {
         return result;
     }
 
+    /**
+     * Returns the canonical string to sign of the given signed keys and
+     * values, each key and value followed by a newline. Subclasses may
+     * override it to change the canonical string.
+     *
+     * @param signables the signed keys of the message and their values
+     */
     protected String stringToSign(SortedMap<String, String> signables) {
         // each key and value is followed by a newline
         StringBuilder sb = new StringBuilder();
@@ -151,6 +232,43 @@ public class SignatureChecker {
         return result;
     }
 
+    /**
+     * Returns the canonical string to sign of the given message, made of the
+     * given keys present in the message, in order, each key and value followed
+     * by a newline, or as built by an override of
+     * {@link #stringToSign(SortedMap)}.
+     */
+    private String stringToSign(Map<String, String> parsedMessage, String[] sortedKeys) {
+        if (overridesStringToSign) {
+            SortedMap<String, String> signables = new TreeMap<String, String>();
+            for (String key : sortedKeys) {
+                if (parsedMessage.containsKey(key))
+                    signables.put(key, parsedMessage.get(key));
+            }
+            return stringToSign(signables);
+        }
+        StringBuilder sb = new StringBuilder(256);
+        for (String key : sortedKeys) {
+            String value = parsedMessage.get(key);
+            if (value != null || parsedMessage.containsKey(key)) {
+                sb.append(key).append('\n').append(value).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean overridesStringToSign(Class<?> type) {
+        for (; type != SignatureChecker.class; type = type.getSuperclass()) {
+            try {
+                type.getDeclaredMethod("stringToSign", SortedMap.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Look further up the hierarchy
+            }
+        }
+        return false;
+    }
+
     private Map<String, String> parseJSON(String jsonmessage) {
         Map<String, String> parsed = new HashMap<String, String>();
         AwsJsonReader reader = JsonUtils.getJsonReader(new StringReader(jsonmessage));
@@ -161,15 +279,16 @@ public class SignatureChecker {
                 String value;
                 if (reader.isContainer()) {
                     reader.beginArray();
-                    value = "";
+                    StringBuilder values = new StringBuilder();
                     boolean first = true;
                     while (reader.hasNext()) {
                         if (!first)
-                            value += ",";
+                            values.append(',');
                         first = false;
-                        value += reader.nextString();
+                        values.append(reader.nextString());
                     }
                     reader.endArray();
+                    value = values.toString();
                 } else {
                     value = reader.nextString();
                 }
@@ -183,30 +302,4 @@ public class SignatureChecker {
         }
         return parsed;
     }
-
-    private TreeMap<String, String> publishMessageValues(Map<String, String> parsedMessage) {
-        TreeMap<String, String> signables = new TreeMap<String, String>();
-        String[] keys = {
-                MESSAGE, MESSAGE_ID, SUBJECT, TYPE, TIMESTAMP, TOPIC
-        };
-        for (String key : keys) {
-            if (parsedMessage.containsKey(key)) {
-                signables.put(key, parsedMessage.get(key));
-            }
-        }
-        return signables;
-    }
-
-    private TreeMap<String, String> subscribeMessageValues(Map<String, String> parsedMessage) {
-        TreeMap<String, String> signables = new TreeMap<String, String>();
-        String[] keys = {
-                SUBSCRIBE_URL, MESSAGE, MESSAGE_ID, TYPE, TIMESTAMP, TOKEN, TOPIC
-        };
-        for (String key : keys) {
-            if (parsedMessage.containsKey(key)) {
-                signables.put(key, parsedMessage.get(key));
-            }
-        }
-        return signables;
-    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.sns.util;
+
+import com.amazonaws.AmazonClientException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded, thread-safe cache of the public keys of the certificates that
+ * Amazon SNS signs messages with, by SigningCertURL. A certificate is only
+ * downloaded from an HTTPS URL on an Amazon SNS host, and is checked to be
+ * valid before its key is used. Entries expire after a time to live, and the
+ * least recently used entry is evicted once the cache is full.
+ */
+public class SigningCertificateCache {
+    private static final Log log = LogFactory.getLog(SigningCertificateCache.class);
+
+    /** Default maximum number of certificates in the cache. */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    /** Default time to live of an entry in milliseconds. */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 24 * 60 * 60 * 1000L; // 1 day
+
+    /** Matches the hosts Amazon SNS serves its signing certificates from. */
+    private static final Pattern SNS_HOST_PATTERN = Pattern.compile(
+            "^sns\\.[a-z0-9-]+\\.amazonaws\\.com(\\.cn)?$");
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final class Entry {
+        final PublicKey publicKey;
+        final long expiresAt;
+
+        Entry(PublicKey publicKey, long expiresAt) {
+            this.publicKey = publicKey;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Creates a cache with the default size and time to live.
+     */
+    public SigningCertificateCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * @param maxEntries the maximum number of certificates in the cache
+     * @param timeToLiveMillis how long a certificate is used after it is
+     *            downloaded
+     */
+    public SigningCertificateCache(final int maxEntries, long timeToLiveMillis) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        if (timeToLiveMillis <= 0)
+            throw new IllegalArgumentException("timeToLiveMillis must be positive");
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the public key of the certificate at the given SigningCertURL,
+     * downloading the certificate if it is not cached.
+     *
+     * @param signingCertUrl the SigningCertURL of an Amazon SNS message
+     * @throws AmazonClientException if the URL is not an Amazon SNS
+     *             certificate URL, or the certificate cannot be downloaded or
+     *             is not valid
+     */
+    public PublicKey getPublicKey(String signingCertUrl) {
+        if (signingCertUrl == null)
+            throw new AmazonClientException("The message has no SigningCertURL");
+        synchronized (this) {
+            Entry entry = entries.get(signingCertUrl);
+            if (entry != null) {
+                if (entry.expiresAt > System.currentTimeMillis())
+                    return entry.publicKey;
+                entries.remove(signingCertUrl);
+            }
+        }
+        // Download outside the lock; concurrent misses for the same URL may
+        // both download it, which is harmless
+        PublicKey publicKey = downloadPublicKey(toSigningCertUrl(signingCertUrl));
+        synchronized (this) {
+            entries.put(signingCertUrl,
+                    new Entry(publicKey, System.currentTimeMillis() + timeToLiveMillis));
+        }
+        return publicKey;
+    }
+
+    /**
+     * Forgets all the cached certificates.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Opens a stream to the certificate at the given URL, which has already
+     * been checked to be an Amazon SNS certificate URL.
+     */
+    protected InputStream openCertificate(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection.getInputStream();
+    }
+
+    private static URL toSigningCertUrl(String signingCertUrl) {
+        URL url;
+        try {
+            url = new URL(signingCertUrl);
+        } catch (MalformedURLException e) {
+            throw new AmazonClientException("Invalid SigningCertURL " + signingCertUrl, e);
+        }
+        if (!"https".equals(url.getProtocol())
+                || !SNS_HOST_PATTERN.matcher(url.getHost()).matches())
+            throw new AmazonClientException("SigningCertURL " + signingCertUrl
+                    + " is not an Amazon SNS certificate URL");
+        return url;
+    }
+
+    private PublicKey downloadPublicKey(URL url) {
+        InputStream in = null;
+        try {
+            in = openCertificate(url);
+            X509Certificate certificate = (X509Certificate) CertificateFactory
+                    .getInstance("X.509").generateCertificate(in);
+            certificate.checkValidity();
+            return certificate.getPublicKey();
+        } catch (IOException e) {
+            throw new AmazonClientException("Unable to download the certificate " + url, e);
+        } catch (GeneralSecurityException e) {
+            throw new AmazonClientException("Invalid certificate " + url, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.debug("Safely ignoring", e);
+                }
+            }
+        }
+    }
+}
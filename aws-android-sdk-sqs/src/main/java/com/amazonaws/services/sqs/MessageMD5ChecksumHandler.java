@@ -15,8 +15,6 @@
 
 package com.amazonaws.services.sqs;
 
-import static com.amazonaws.util.StringUtils.UTF8;
-
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.Request;
 import com.amazonaws.handlers.AbstractRequestHandler;
@@ -31,35 +29,84 @@ import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
 import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.amazonaws.util.BinaryUtils;
-import com.amazonaws.util.Md5Utils;
 import com.amazonaws.util.TimingInfo;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * SQS operations on sending and receiving messages will return the MD5 digest
  * of the message body. This custom request handler will verify that the message
  * is correctly received by SQS, by comparing the returned MD5 with the
  * calculation according to the original request.
+ * <p>
+ * The digests are computed with a message digest and an encoding buffer kept
+ * per thread, so verifying a message allocates next to nothing. Received
+ * messages can also be verified lazily, when their body or attributes are
+ * first read, or in parallel across a batch; see {@link VerificationMode}.
  */
 public class MessageMD5ChecksumHandler extends AbstractRequestHandler {
 
+    /**
+     * When the checksums of the messages are verified.
+     */
+    public static enum VerificationMode {
+        /** Verify all messages while handling the response. */
+        EAGER,
+        /**
+         * Verify each received message when its body or attributes are first
+         * read, throwing {@link AmazonClientException} from the getter if the
+         * checksums don't match. Sent messages are verified eagerly.
+         */
+        LAZY,
+        /**
+         * Verify the messages of a batch in parallel on a small shared pool of
+         * threads while handling the response.
+         */
+        PARALLEL
+    }
+
+    /**
+     * System property that selects the {@link VerificationMode} of the
+     * handlers created with the default constructor, such as the one
+     * registered by {@link AmazonSQSClient}: {@code EAGER}, {@code LAZY} or
+     * {@code PARALLEL}, {@code EAGER} if it is not set.
+     * <p>
+     * Note that with {@code LAZY}, a corrupted message is not reported by
+     * {@code receiveMessage}: instead {@link Message#getBody()} and
+     * {@link Message#getMessageAttributes()} of the received message throw
+     * {@link AmazonClientException} when first called. Code that reads
+     * received messages must then be prepared for these getters to throw.
+     */
+    public static final String VERIFICATION_MODE_SYSTEM_PROPERTY =
+            "com.amazonaws.services.sqs.md5VerificationMode";
+
     private static final int INTEGER_SIZE_IN_BYTES = 4;
     private static final byte STRING_TYPE_FIELD_INDEX = 1;
     private static final byte BINARY_TYPE_FIELD_INDEX = 2;
     private static final byte STRING_LIST_TYPE_FIELD_INDEX = 3;
     private static final byte BINARY_LIST_TYPE_FIELD_INDEX = 4;
 
+    private static final int MD5_LENGTH_IN_BYTES = 16;
+    private static final int ENCODING_BUFFER_SIZE = 4096;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /*
      * Constant strings for composing error message.
      */
@@ -75,6 +122,71 @@ public class MessageMD5ChecksumHandler extends AbstractRequestHandler {
 
     private static final Log log = LogFactory.getLog(MessageMD5ChecksumHandler.class);
 
+    /**
+     * The digest and buffers of the current thread. Digests are reset after
+     * each use, so they are always ready for the next one.
+     */
+    private static final ThreadLocal<Md5Calculator> CALCULATOR = new ThreadLocal<Md5Calculator>() {
+        @Override
+        protected Md5Calculator initialValue() {
+            return new Md5Calculator();
+        }
+    };
+
+    /**
+     * Pool for {@link VerificationMode#PARALLEL}, created when first needed.
+     * Its threads are daemon threads.
+     */
+    private static final class ExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Math.min(4, Runtime.getRuntime().availableProcessors()),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "sqs-md5-verifier-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    private final VerificationMode mode;
+
+    /**
+     * Creates a handler with the verification mode named by the
+     * {@link #VERIFICATION_MODE_SYSTEM_PROPERTY} system property, or
+     * {@link VerificationMode#EAGER} if it is not set.
+     */
+    public MessageMD5ChecksumHandler() {
+        this(modeFromSystemProperty());
+    }
+
+    public MessageMD5ChecksumHandler(VerificationMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("mode cannot be null");
+        }
+        this.mode = mode;
+    }
+
+    public VerificationMode getVerificationMode() {
+        return mode;
+    }
+
+    private static VerificationMode modeFromSystemProperty() {
+        String value = System.getProperty(VERIFICATION_MODE_SYSTEM_PROPERTY);
+        if (value == null) {
+            return VerificationMode.EAGER;
+        }
+        try {
+            return VerificationMode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring unknown MD5 verification mode " + value);
+            return VerificationMode.EAGER;
+        }
+    }
+
     @Override
     public void afterResponse(Request<?> request, Object response, TimingInfo timingInfo) {
         if (request != null && response != null) {
@@ -112,26 +224,10 @@ public class MessageMD5ChecksumHandler extends AbstractRequestHandler {
      */
     private static void sendMessageOperationMd5Check(SendMessageRequest sendMessageRequest,
             SendMessageResult sendMessageResult) {
-        String messageBodySent = sendMessageRequest.getMessageBody();
-        String bodyMd5Returned = sendMessageResult.getMD5OfMessageBody();
-        String clientSideBodyMd5 = calculateMessageBodyMd5(messageBodySent);
-        if (!clientSideBodyMd5.equals(bodyMd5Returned)) {
-            throw new AmazonClientException(String.format(
-                    MD5_MISMATCH_ERROR_MESSAGE, MESSAGE_BODY,
-                    clientSideBodyMd5, bodyMd5Returned));
-        }
-
-        Map<String, MessageAttributeValue> messageAttrSent = sendMessageRequest
-                .getMessageAttributes();
-        if (messageAttrSent != null && !messageAttrSent.isEmpty()) {
-            String clientSideAttrMd5 = calculateMessageAttributesMd5(messageAttrSent);
-            String attrMd5Returned = sendMessageResult.getMD5OfMessageAttributes();
-            if (!clientSideAttrMd5.equals(attrMd5Returned)) {
-                throw new AmazonClientException(String.format(
-                        MD5_MISMATCH_ERROR_MESSAGE, MESSAGE_ATTRIBUTES,
-                        clientSideAttrMd5, attrMd5Returned));
-            }
-        }
+        checkMessage(null, sendMessageRequest.getMessageBody(),
+                sendMessageResult.getMD5OfMessageBody(),
+                sendMessageRequest.getMessageAttributes(),
+                sendMessageResult.getMD5OfMessageAttributes());
     }
 
     /**
@@ -139,39 +235,47 @@ public class MessageMD5ChecksumHandler extends AbstractRequestHandler {
      * ReceiveMessageResult do not match the client-side calculation on the
      * received messages.
      */
-    private static void receiveMessageResultMd5Check(ReceiveMessageResult receiveMessageResult) {
-        if (receiveMessageResult.getMessages() != null) {
-            for (Message messageReceived : receiveMessageResult.getMessages()) {
-                String messageBody = messageReceived.getBody();
-                String bodyMd5Returned = messageReceived.getMD5OfBody();
-                String clientSideBodyMd5 = calculateMessageBodyMd5(messageBody);
-                if (!clientSideBodyMd5.equals(bodyMd5Returned)) {
-                    throw new AmazonClientException(String.format(
-                            MD5_MISMATCH_ERROR_MESSAGE, MESSAGE_BODY,
-                            clientSideBodyMd5, bodyMd5Returned));
-                }
-
-                Map<String, MessageAttributeValue> messageAttr = messageReceived
-                        .getMessageAttributes();
-                if (messageAttr != null && !messageAttr.isEmpty()) {
-                    String attrMd5Returned = messageReceived.getMD5OfMessageAttributes();
-                    String clientSideAttrMd5 = calculateMessageAttributesMd5(messageAttr);
-                    if (!clientSideAttrMd5.equals(attrMd5Returned)) {
-                        throw new AmazonClientException(String.format(
-                                MD5_MISMATCH_ERROR_MESSAGE, MESSAGE_ATTRIBUTES,
-                                clientSideAttrMd5, attrMd5Returned));
+    private void receiveMessageResultMd5Check(ReceiveMessageResult receiveMessageResult) {
+        List<Message> messages = receiveMessageResult.getMessages();
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        if (mode == VerificationMode.LAZY) {
+            List<Message> lazilyVerified = new ArrayList<Message>(messages.size());
+            for (Message messageReceived : messages) {
+                lazilyVerified.add(new LazilyVerifiedMessage(messageReceived));
+            }
+            receiveMessageResult.setMessages(lazilyVerified);
+        } else if (mode == VerificationMode.PARALLEL && messages.size() > 1) {
+            List<Runnable> checks = new ArrayList<Runnable>(messages.size());
+            for (final Message messageReceived : messages) {
+                checks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkReceivedMessage(messageReceived);
                     }
-                }
+                });
+            }
+            runInParallel(checks);
+        } else {
+            for (Message messageReceived : messages) {
+                checkReceivedMessage(messageReceived);
             }
         }
     }
 
+    private static void checkReceivedMessage(Message messageReceived) {
+        checkMessage(null, messageReceived.getBody(), messageReceived.getMD5OfBody(),
+                messageReceived.getMessageAttributes(),
+                messageReceived.getMD5OfMessageAttributes());
+    }
+
     /**
      * Throw an exception if the MD5 checksums returned in the
      * SendMessageBatchResult do not match the client-side calculation based on
      * the original messages in the SendMessageBatchRequest.
      */
-    private static void sendMessageBatchOperationMd5Check(
+    private void sendMessageBatchOperationMd5Check(
             SendMessageBatchRequest sendMessageBatchRequest,
             SendMessageBatchResult sendMessageBatchResult) {
         Map<String, SendMessageBatchRequestEntry> idToRequestEntryMap = new HashMap<String, SendMessageBatchRequestEntry>();
@@ -181,133 +285,429 @@ public class MessageMD5ChecksumHandler extends AbstractRequestHandler {
             }
         }
 
-        if (sendMessageBatchResult.getSuccessful() != null) {
-            for (SendMessageBatchResultEntry entry : sendMessageBatchResult.getSuccessful()) {
-                String messageBody = idToRequestEntryMap.get(entry.getId()).getMessageBody();
-                String bodyMd5Returned = entry.getMD5OfMessageBody();
-                String clientSideBodyMd5 = calculateMessageBodyMd5(messageBody);
-                if (!clientSideBodyMd5.equals(bodyMd5Returned)) {
-                    throw new AmazonClientException(String.format(
-                            MD5_MISMATCH_ERROR_MESSAGE_WITH_ID, MESSAGE_BODY,
-                            entry.getId(), clientSideBodyMd5, bodyMd5Returned));
-                }
-
-                Map<String, MessageAttributeValue> messageAttr = idToRequestEntryMap.get(
-                        entry.getId()).getMessageAttributes();
-                if (messageAttr != null && !messageAttr.isEmpty()) {
-                    String attrMd5Returned = entry.getMD5OfMessageAttributes();
-                    String clientSideAttrMd5 = calculateMessageAttributesMd5(messageAttr);
-                    if (!clientSideAttrMd5.equals(attrMd5Returned)) {
-                        throw new AmazonClientException(String.format(
-                                MD5_MISMATCH_ERROR_MESSAGE_WITH_ID, MESSAGE_ATTRIBUTES,
-                                entry.getId(), clientSideAttrMd5, attrMd5Returned));
-                    }
+        List<SendMessageBatchResultEntry> successful = sendMessageBatchResult.getSuccessful();
+        if (successful == null || successful.isEmpty()) {
+            return;
+        }
+        List<Runnable> checks = new ArrayList<Runnable>(successful.size());
+        for (final SendMessageBatchResultEntry entry : successful) {
+            final SendMessageBatchRequestEntry requestEntry = idToRequestEntryMap.get(entry
+                    .getId());
+            checks.add(new Runnable() {
+                @Override
+                public void run() {
+                    checkMessage(entry.getId(), requestEntry.getMessageBody(),
+                            entry.getMD5OfMessageBody(), requestEntry.getMessageAttributes(),
+                            entry.getMD5OfMessageAttributes());
                 }
+            });
+        }
+        if (mode == VerificationMode.PARALLEL && checks.size() > 1) {
+            runInParallel(checks);
+        } else {
+            for (Runnable check : checks) {
+                check.run();
             }
         }
     }
 
     /**
-     * Returns the hex-encoded MD5 hash String of the given message body.
+     * Throw an exception if the given MD5 checksums don't match the ones
+     * calculated on the given message body and attributes.
+     *
+     * @param messageId the id to report in the error message, or null
      */
-    private static String calculateMessageBodyMd5(String messageBody) {
+    private static void checkMessage(String messageId, String messageBody,
+            String bodyMd5Returned, Map<String, MessageAttributeValue> messageAttr,
+            String attrMd5Returned) {
+        Md5Calculator calculator = CALCULATOR.get();
         if (log.isDebugEnabled()) {
             log.debug("Message body: " + messageBody);
         }
-        byte[] expectedMd5;
-        try {
-            expectedMd5 = Md5Utils.computeMD5Hash(messageBody.getBytes(UTF8));
-        } catch (Exception e) {
-            throw new AmazonClientException(
-                    "Unable to calculate the MD5 hash of the message body. " + e.getMessage(), e);
-        }
-        String expectedMd5Hex = BinaryUtils.toHex(expectedMd5);
+        byte[] bodyMd5 = calculator.messageBodyMd5(messageBody);
         if (log.isDebugEnabled()) {
-            log.debug("Expected  MD5 of message body: " + expectedMd5Hex);
+            log.debug("Expected  MD5 of message body: " + BinaryUtils.toHex(bodyMd5));
+        }
+        if (!matchesHex(bodyMd5, bodyMd5Returned)) {
+            throw md5Mismatch(messageId, MESSAGE_BODY, bodyMd5, bodyMd5Returned);
+        }
+
+        if (messageAttr != null && !messageAttr.isEmpty()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Message attribtues: " + messageAttr);
+            }
+            byte[] attrMd5 = calculator.messageAttributesMd5(messageAttr);
+            if (log.isDebugEnabled()) {
+                log.debug("Expected  MD5 of message attributes: " + BinaryUtils.toHex(attrMd5));
+            }
+            if (!matchesHex(attrMd5, attrMd5Returned)) {
+                throw md5Mismatch(messageId, MESSAGE_ATTRIBUTES, attrMd5, attrMd5Returned);
+            }
+        }
+    }
+
+    private static AmazonClientException md5Mismatch(String messageId, String what,
+            byte[] calculated, String returned) {
+        String calculatedHex = BinaryUtils.toHex(calculated);
+        if (messageId == null) {
+            return new AmazonClientException(String.format(
+                    MD5_MISMATCH_ERROR_MESSAGE, what, calculatedHex, returned));
         }
-        return expectedMd5Hex;
+        return new AmazonClientException(String.format(
+                MD5_MISMATCH_ERROR_MESSAGE_WITH_ID, messageId, what, calculatedHex, returned));
     }
 
     /**
-     * Returns the hex-encoded MD5 hash String of the given message attributes.
+     * Returns whether the given hex string is the lower case hex encoding of
+     * the given bytes, without encoding them.
      */
-    private static String calculateMessageAttributesMd5(
-            final Map<String, MessageAttributeValue> messageAttributes) {
-        if (log.isDebugEnabled()) {
-            log.debug("Message attribtues: " + messageAttributes);
+    private static boolean matchesHex(byte[] bytes, String hex) {
+        if (hex == null || hex.length() != bytes.length * 2) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            if (hex.charAt(2 * i) != HEX_DIGITS[b >>> 4]
+                    || hex.charAt(2 * i + 1) != HEX_DIGITS[b & 0x0f]) {
+                return false;
+            }
         }
-        List<String> sortedAttributeNames = new ArrayList<String>(messageAttributes.keySet());
-        Collections.sort(sortedAttributeNames);
+        return true;
+    }
 
-        MessageDigest md5Digest = null;
+    /**
+     * Runs the given checks on the shared pool, the first one on the calling
+     * thread, and rethrows the first failure.
+     */
+    private static void runInParallel(List<Runnable> checks) {
+        List<Future<?>> futures = new ArrayList<Future<?>>(checks.size() - 1);
+        for (int i = 1; i < checks.size(); i++) {
+            futures.add(ExecutorHolder.EXECUTOR.submit(checks.get(i)));
+        }
+        AmazonClientException failure = null;
         try {
-            md5Digest = MessageDigest.getInstance("MD5");
-
-            for (String attrName : sortedAttributeNames) {
-                MessageAttributeValue attrValue = messageAttributes.get(attrName);
-
-                // Encoded Name
-                updateLengthAndBytes(md5Digest, attrName);
-                // Encoded Type
-                updateLengthAndBytes(md5Digest, attrValue.getDataType());
-
-                // Encoded Value
-                if (attrValue.getStringValue() != null) {
-                    md5Digest.update(STRING_TYPE_FIELD_INDEX);
-                    updateLengthAndBytes(md5Digest, attrValue.getStringValue());
-                } else if (attrValue.getBinaryValue() != null) {
-                    md5Digest.update(BINARY_TYPE_FIELD_INDEX);
-                    updateLengthAndBytes(md5Digest, attrValue.getBinaryValue());
-                } else if (attrValue.getStringListValues() != null) {
-                    md5Digest.update(STRING_LIST_TYPE_FIELD_INDEX);
-                    for (String strListMember : attrValue.getStringListValues()) {
-                        updateLengthAndBytes(md5Digest, strListMember);
-                    }
-                } else if (attrValue.getBinaryListValues() != null) {
-                    md5Digest.update(BINARY_LIST_TYPE_FIELD_INDEX);
-                    for (ByteBuffer byteListMember : attrValue.getBinaryListValues()) {
-                        updateLengthAndBytes(md5Digest, byteListMember);
-                    }
+            checks.get(0).run();
+        } catch (AmazonClientException e) {
+            failure = e;
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof AmazonClientException
+                            ? (AmazonClientException) e.getCause()
+                            : new AmazonClientException(
+                                    "Unable to verify the MD5 of the messages. "
+                                            + e.getCause().getMessage(), e.getCause());
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException(
+                        "Interrupted while verifying the MD5 of the messages", e);
             }
-        } catch (Exception e) {
-            throw new AmazonClientException(
-                    "Unable to calculate the MD5 hash of the message attributes. "
-                            + e.getMessage(), e);
         }
-
-        String expectedMd5Hex = BinaryUtils.toHex(md5Digest.digest());
-        if (log.isDebugEnabled()) {
-            log.debug("Expected  MD5 of message attributes: " + expectedMd5Hex);
+        if (failure != null) {
+            throw failure;
         }
-        return expectedMd5Hex;
     }
 
     /**
-     * Update the digest using a sequence of bytes that consists of the length
-     * (in 4 bytes) of the input String and the actual utf8-encoded byte values.
+     * A received message that verifies its checksums the first time its body
+     * or attributes are read.
      */
-    private static void updateLengthAndBytes(MessageDigest digest, String str)
-            throws UnsupportedEncodingException {
-        byte[] utf8Encoded = str.getBytes(UTF8);
-        ByteBuffer lengthBytes = ByteBuffer.allocate(INTEGER_SIZE_IN_BYTES).putInt(
-                utf8Encoded.length);
-        digest.update(lengthBytes.array());
-        digest.update(utf8Encoded);
+    private static final class LazilyVerifiedMessage extends Message {
+        private static final long serialVersionUID = 1L;
+
+        private transient volatile boolean verified;
+
+        LazilyVerifiedMessage(Message message) {
+            setMessageId(message.getMessageId());
+            setReceiptHandle(message.getReceiptHandle());
+            setMD5OfBody(message.getMD5OfBody());
+            setBody(message.getBody());
+            setAttributes(message.getAttributes());
+            setMD5OfMessageAttributes(message.getMD5OfMessageAttributes());
+            setMessageAttributes(message.getMessageAttributes());
+        }
+
+        @Override
+        public String getBody() {
+            verify();
+            return super.getBody();
+        }
+
+        @Override
+        public Map<String, MessageAttributeValue> getMessageAttributes() {
+            verify();
+            return super.getMessageAttributes();
+        }
+
+        // toString, hashCode and equals read the fields without verifying
+        // them, so that logging or hashing a message never throws
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{");
+            if (getMessageId() != null) sb.append("MessageId: " + getMessageId() + ",");
+            if (getReceiptHandle() != null) sb.append("ReceiptHandle: " + getReceiptHandle() + ",");
+            if (getMD5OfBody() != null) sb.append("MD5OfBody: " + getMD5OfBody() + ",");
+            if (super.getBody() != null) sb.append("Body: " + super.getBody() + ",");
+            if (getAttributes() != null) sb.append("Attributes: " + getAttributes() + ",");
+            if (getMD5OfMessageAttributes() != null) sb.append("MD5OfMessageAttributes: " + getMD5OfMessageAttributes() + ",");
+            if (super.getMessageAttributes() != null) sb.append("MessageAttributes: " + super.getMessageAttributes());
+            sb.append("}");
+            return sb.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int hashCode = 1;
+            hashCode = prime * hashCode + hashCodeOf(getMessageId());
+            hashCode = prime * hashCode + hashCodeOf(getReceiptHandle());
+            hashCode = prime * hashCode + hashCodeOf(getMD5OfBody());
+            hashCode = prime * hashCode + hashCodeOf(super.getBody());
+            hashCode = prime * hashCode + hashCodeOf(getAttributes());
+            hashCode = prime * hashCode + hashCodeOf(getMD5OfMessageAttributes());
+            hashCode = prime * hashCode + hashCodeOf(super.getMessageAttributes());
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Message)) return false;
+            Message other = (Message) obj;
+            return equal(getMessageId(), other.getMessageId())
+                    && equal(getReceiptHandle(), other.getReceiptHandle())
+                    && equal(getMD5OfBody(), other.getMD5OfBody())
+                    && equal(super.getBody(), rawBody(other))
+                    && equal(getAttributes(), other.getAttributes())
+                    && equal(getMD5OfMessageAttributes(), other.getMD5OfMessageAttributes())
+                    && equal(super.getMessageAttributes(), rawMessageAttributes(other));
+        }
+
+        private void verify() {
+            if (!verified) {
+                checkMessage(null, super.getBody(), getMD5OfBody(),
+                        super.getMessageAttributes(), getMD5OfMessageAttributes());
+                verified = true;
+            }
+        }
+
+        private static String rawBody(Message message) {
+            return message instanceof LazilyVerifiedMessage
+                    ? ((LazilyVerifiedMessage) message).unverifiedBody()
+                    : message.getBody();
+        }
+
+        private static Map<String, MessageAttributeValue> rawMessageAttributes(Message message) {
+            return message instanceof LazilyVerifiedMessage
+                    ? ((LazilyVerifiedMessage) message).unverifiedMessageAttributes()
+                    : message.getMessageAttributes();
+        }
+
+        private String unverifiedBody() {
+            return super.getBody();
+        }
+
+        private Map<String, MessageAttributeValue> unverifiedMessageAttributes() {
+            return super.getMessageAttributes();
+        }
+
+        private static int hashCodeOf(Object value) {
+            return value == null ? 0 : value.hashCode();
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
     }
 
     /**
-     * Update the digest using a sequence of bytes that consists of the length
-     * (in 4 bytes) of the input ByteBuffer and all the bytes it contains.
+     * Computes the MD5 digests of message bodies and attributes with a reused
+     * digest, encoding strings to UTF-8 a chunk at a time into a reused
+     * buffer. Not thread safe.
      */
-    private static void updateLengthAndBytes(MessageDigest digest, ByteBuffer binaryValue) {
-        // Rewind the ByteBuffer, in case that get/put operations were applied
-        // to
-        // the unmarshalled BB before it's passed to this handler.
-        binaryValue.rewind();
-        int size = binaryValue.remaining();
-        ByteBuffer lengthBytes = ByteBuffer.allocate(INTEGER_SIZE_IN_BYTES).putInt(size);
-        digest.update(lengthBytes.array());
-        digest.update(binaryValue);
+    private static final class Md5Calculator {
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[ENCODING_BUFFER_SIZE];
+        private final List<String> sortedNames = new ArrayList<String>();
+
+        Md5Calculator() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new AmazonClientException("Unable to get the MD5 message digest", e);
+            }
+        }
+
+        /**
+         * Returns the MD5 digest of the given message body.
+         */
+        byte[] messageBodyMd5(String messageBody) {
+            try {
+                updateUtf8(messageBody);
+                return finish();
+            } catch (RuntimeException e) {
+                digest.reset();
+                throw new AmazonClientException(
+                        "Unable to calculate the MD5 hash of the message body. "
+                                + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Returns the MD5 digest of the given message attributes.
+         */
+        byte[] messageAttributesMd5(Map<String, MessageAttributeValue> messageAttributes) {
+            sortedNames.addAll(messageAttributes.keySet());
+            Collections.sort(sortedNames);
+            try {
+                for (String attrName : sortedNames) {
+                    MessageAttributeValue attrValue = messageAttributes.get(attrName);
+
+                    // Encoded Name
+                    updateLengthAndBytes(attrName);
+                    // Encoded Type
+                    updateLengthAndBytes(attrValue.getDataType());
+
+                    // Encoded Value
+                    if (attrValue.getStringValue() != null) {
+                        digest.update(STRING_TYPE_FIELD_INDEX);
+                        updateLengthAndBytes(attrValue.getStringValue());
+                    } else if (attrValue.getBinaryValue() != null) {
+                        digest.update(BINARY_TYPE_FIELD_INDEX);
+                        updateLengthAndBytes(attrValue.getBinaryValue());
+                    } else if (attrValue.getStringListValues() != null) {
+                        digest.update(STRING_LIST_TYPE_FIELD_INDEX);
+                        for (String strListMember : attrValue.getStringListValues()) {
+                            updateLengthAndBytes(strListMember);
+                        }
+                    } else if (attrValue.getBinaryListValues() != null) {
+                        digest.update(BINARY_LIST_TYPE_FIELD_INDEX);
+                        for (ByteBuffer byteListMember : attrValue.getBinaryListValues()) {
+                            updateLengthAndBytes(byteListMember);
+                        }
+                    }
+                }
+                return finish();
+            } catch (RuntimeException e) {
+                digest.reset();
+                throw new AmazonClientException(
+                        "Unable to calculate the MD5 hash of the message attributes. "
+                                + e.getMessage(), e);
+            } finally {
+                sortedNames.clear();
+            }
+        }
+
+        private byte[] finish() {
+            byte[] md5 = new byte[MD5_LENGTH_IN_BYTES];
+            try {
+                digest.digest(md5, 0, MD5_LENGTH_IN_BYTES);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            return md5;
+        }
+
+        /**
+         * Update the digest using a sequence of bytes that consists of the
+         * length (in 4 bytes) of the input String and the actual utf8-encoded
+         * byte values.
+         */
+        private void updateLengthAndBytes(String str) {
+            updateLength(utf8Length(str));
+            updateUtf8(str);
+        }
+
+        /**
+         * Update the digest using a sequence of bytes that consists of the
+         * length (in 4 bytes) of the input ByteBuffer and all the bytes it
+         * contains.
+         */
+        private void updateLengthAndBytes(ByteBuffer binaryValue) {
+            // Read a rewound duplicate, in case that get/put operations were
+            // applied to the unmarshalled BB before it's passed to this
+            // handler, and so that concurrent verifications don't interfere.
+            ByteBuffer bytes = binaryValue.duplicate();
+            bytes.rewind();
+            updateLength(bytes.remaining());
+            digest.update(bytes);
+        }
+
+        private void updateLength(int length) {
+            buffer[0] = (byte) (length >>> 24);
+            buffer[1] = (byte) (length >>> 16);
+            buffer[2] = (byte) (length >>> 8);
+            buffer[3] = (byte) length;
+            digest.update(buffer, 0, INTEGER_SIZE_IN_BYTES);
+        }
+
+        /**
+         * Updates the digest with the UTF-8 encoding of the given string,
+         * encoding it the way {@link String#getBytes(String)} does, unpaired
+         * surrogates included.
+         */
+        private void updateUtf8(String str) {
+            int length = str.length();
+            int pos = 0;
+            for (int i = 0; i < length; i++) {
+                if (pos > ENCODING_BUFFER_SIZE - 4) {
+                    digest.update(buffer, 0, pos);
+                    pos = 0;
+                }
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    buffer[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[pos++] = (byte) (0xc0 | (c >> 6));
+                    buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                    buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    // unpaired surrogates are replaced, as the JDK encoder does
+                    buffer[pos++] = '?';
+                } else {
+                    buffer[pos++] = (byte) (0xe0 | (c >> 12));
+                    buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            digest.update(buffer, 0, pos);
+        }
+
+        /**
+         * Returns the number of bytes in the UTF-8 encoding of the given
+         * string, as written by {@link #updateUtf8(String)}.
+         */
+        private static int utf8Length(String str) {
+            int length = str.length();
+            int bytes = length;
+            for (int i = 0; i < length; i++) {
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    continue;
+                } else if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    // four bytes for the two chars
+                    bytes += 2;
+                    i++;
+                } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                    bytes += 2;
+                }
+            }
+            return bytes;
+        }
     }
 }
@@ -54,9 +54,9 @@ import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.amazonaws.services.sqs.model.SetQueueAttributesRequest;
 import com.amazonaws.util.VersionInfoUtils;
 
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
 /**
@@ -88,7 +88,11 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
     public static final String USER_AGENT = AmazonSQSBufferedAsyncClient.class.getSimpleName()
             + "/" + VersionInfoUtils.getVersion();
 
-    private final CachingMap buffers = new CachingMap(16, (float) 0.75, true);
+    /** Upper bound on the number of queue buffers kept by this client. */
+    private static final int MAX_BUFFERS = 100;
+
+    private final ConcurrentHashMap<String, QueueBuffer> buffers =
+            new ConcurrentHashMap<String, QueueBuffer>();
     private final AmazonSQSAsync realSQS;
     private final QueueBufferConfig bufferConfigExemplar;
 
@@ -404,29 +408,44 @@ public class AmazonSQSBufferedAsyncClient implements AmazonSQSAsync {
      *
      * @return a queue buffer associated with the provided queue URL. Never null
      */
-    private synchronized QueueBuffer getQBuffer(String qUrl) {
+    private QueueBuffer getQBuffer(String qUrl) {
         QueueBuffer toReturn = buffers.get(qUrl);
         if (null == toReturn) {
             QueueBufferConfig config = new QueueBufferConfig(bufferConfigExemplar);
-            toReturn = new QueueBuffer(config, qUrl, realSQS);
-            buffers.put(qUrl, toReturn);
+            QueueBuffer created = new QueueBuffer(config, qUrl, realSQS);
+            toReturn = buffers.putIfAbsent(qUrl, created);
+            if (null == toReturn) {
+                toReturn = created;
+                toReturn.touch();
+                if (buffers.size() > MAX_BUFFERS) {
+                    evictLeastRecentlyUsed(qUrl);
+                }
+                return toReturn;
+            }
         }
+        toReturn.touch();
         return toReturn;
     }
 
-    class CachingMap extends LinkedHashMap<String, QueueBuffer> {
-        private static final long serialVersionUID = 1;
-        private static final int MAX_ENTRIES = 100;
-
-        public CachingMap(int initial, float loadFactor, boolean accessOrder) {
-            super(initial, loadFactor, accessOrder);
+    /**
+     * Removes the least recently used queue buffer, other than the buffer of
+     * the given queue. Evicting is rare, so a scan is cheaper than keeping the
+     * buffers ordered on every access.
+     */
+    private void evictLeastRecentlyUsed(String keepUrl) {
+        String eldestUrl = null;
+        QueueBuffer eldest = null;
+        for (Map.Entry<String, QueueBuffer> e : buffers.entrySet()) {
+            if (e.getKey().equals(keepUrl))
+                continue;
+            if (eldest == null || e.getValue().getLastUsedNanos() - eldest.getLastUsedNanos() < 0) {
+                eldestUrl = e.getKey();
+                eldest = e.getValue();
+            }
         }
-
-        @Override
-        protected boolean removeEldestEntry(java.util.Map.Entry<String, QueueBuffer> eldest) {
-            return size() > MAX_ENTRIES;
+        if (eldest != null) {
+            buffers.remove(eldestUrl, eldest);
         }
-
     }
 
     @Override
@@ -30,6 +30,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -56,6 +57,15 @@ class QueueBuffer {
     private final AmazonSQSAsync realSqs;
     QueueBufferConfig config;
 
+    /**
+     * Approximate time of the last use of this buffer, in nanoseconds, used
+     * to evict the least recently used buffers.
+     */
+    private volatile long lastUsedNanos;
+
+    /** How often the time of last use is updated. */
+    private static final long TOUCH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
     /**
      * This executor that will be shared among all queue buffers. Since a single
      * JVM can access hundreds of queues, it won't do to have hundreds of
@@ -68,10 +78,26 @@ class QueueBuffer {
     QueueBuffer(QueueBufferConfig paramConfig, String url, AmazonSQSAsync sqs) {
         realSqs = sqs;
         config = paramConfig;
+        lastUsedNanos = System.nanoTime();
         sendBuffer = new SendQueueBuffer(sqs, executor, paramConfig, url);
         receiveBuffer = new ReceiveQueueBuffer(sqs, executor, paramConfig, url);
     }
 
+    /**
+     * Records that this buffer is being used. The time is updated only once
+     * in a while, so that busy buffers aren't written to on every call.
+     */
+    void touch() {
+        long now = System.nanoTime();
+        if (now - lastUsedNanos > TOUCH_INTERVAL_NANOS) {
+            lastUsedNanos = now;
+        }
+    }
+
+    long getLastUsedNanos() {
+        return lastUsedNanos;
+    }
+
     /**
      * asynchronously enqueues a message to SQS.
      *
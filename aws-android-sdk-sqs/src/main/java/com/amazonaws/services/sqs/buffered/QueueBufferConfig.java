@@ -60,7 +60,9 @@ public class QueueBufferConfig {
     /**
      * The maximum number of concurrent receive message batches. The greater
      * this number, the faster the queue will be pulling messages from the SQS
-     * servers (at the expense of consuming more threads).
+     * servers (at the expense of consuming more threads). This is an upper
+     * bound; fewer batches are kept in flight when the consumers of the
+     * messages don't need them.
      */
     private int maxInflightReceiveBatches;
 
@@ -78,7 +80,8 @@ public class QueueBufferConfig {
      * retrieves it, part of the visibility timeout may have already expired.
      * The number of messages prefetched will not exceed 10 *
      * maxDoneReceiveBatches, as there can be a maximum of 10 messages per
-     * batch.
+     * batch. Fewer are prefetched when the consumers of the messages are not
+     * expected to take them within half the visibility timeout.
      */
     private int maxDoneReceiveBatches;
 
@@ -255,7 +258,9 @@ public class QueueBufferConfig {
     /**
      * The maximum number of concurrent receive message batches. The greater
      * this number, the faster the queue will be pulling messages from the SQS
-     * servers (at the expense of consuming more threads).
+     * servers (at the expense of consuming more threads). This is an upper
+     * bound; fewer batches are kept in flight when the consumers of the
+     * messages don't need them.
      */
 
     public int getMaxInflightReceiveBatches() {
@@ -265,7 +270,9 @@ public class QueueBufferConfig {
     /**
      * The maximum number of concurrent receive message batches. The greater
      * this number, the faster the queue will be pulling messages from the SQS
-     * servers (at the expense of consuming more threads).
+     * servers (at the expense of consuming more threads). This is an upper
+     * bound; fewer batches are kept in flight when the consumers of the
+     * messages don't need them.
      */
     public void setMaxInflightReceiveBatches(int maxInflightReceiveBatches) {
         this.maxInflightReceiveBatches = maxInflightReceiveBatches;
@@ -288,7 +295,8 @@ public class QueueBufferConfig {
      * retrieves it, part of the visibility timeout may have already expired.<br>
      * The number of messages prefetched will not exceed 10 *
      * maxDoneReceiveBatches, as there can be a maximum of 10 messages per
-     * batch.<br>
+     * batch. Fewer are prefetched when the consumers of the messages are not
+     * expected to take them within half the visibility timeout.<br>
      */
     public int getMaxDoneReceiveBatches() {
         return maxDoneReceiveBatches;
@@ -306,7 +314,8 @@ public class QueueBufferConfig {
      * retrieves it, part of the visibility timeout may have already expired.<br>
      * The number of messages prefetched will not exceed 10 *
      * maxDoneReceiveBatches, as there can be a maximum of 10 messages per
-     * batch.<br>
+     * batch. Fewer are prefetched when the consumers of the messages are not
+     * expected to take them within half the visibility timeout.<br>
      */
     public void setMaxDoneReceiveBatches(int maxDoneReceiveBatches) {
         this.maxDoneReceiveBatches = maxDoneReceiveBatches;
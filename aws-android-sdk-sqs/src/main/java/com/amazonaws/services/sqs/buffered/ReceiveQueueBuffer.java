@@ -31,28 +31,49 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The ReceiveQueueBuffer class is responsible for dequeueing of messages from a
  * single SQS queue. It uses the provided executor to pre-fetch messages from
  * the server and keeps them in a buffer which it uses to satisfy incoming
- * requests. The number of requests pre-fetched and kept in the buffer, as well
- * as the maximum number of threads used to retrieve the messages are
- * configurable.
+ * requests.
  * <p>
- * Synchronization strategy: - Threads must hold the TaskSpawnSyncPoint object
- * monitor to spawn a new task or modify the number of inflight tasks - Threads
- * must hold the monitor of the "futures" list to modify the list - Threads must
- * hold the monitor of the "finishedTasks" list to modify the list - If you need
- * to lock both futures and finishedTasks, lock futures first and finishedTasks
- * second
+ * The number of receive batches kept in flight follows consumer demand: it
+ * covers the messages requested by waiting futures, plus the messages the
+ * consumers are expected to take, at their measured rate, during one receive
+ * round trip. The prefetched messages are further limited to what the
+ * consumers are expected to take within half the visibility timeout, so that
+ * they do not expire in the buffer. The configured maximum numbers of in
+ * flight and done receive batches are upper bounds.
+ * <p>
+ * Synchronization strategy: - Futures and finished batches are kept in
+ * lock-free queues - Only the thread that holds the {@code dispatching} flag
+ * removes futures and hands messages to them; a thread that finds the flag
+ * taken leaves its work to the holder, which checks again before giving it up
+ * - In flight batches are counted with an atomic counter, and shutdown waits
+ * for the count to drop to zero on a latch - Each batch synchronizes access to
+ * its own messages
  */
 public class ReceiveQueueBuffer {
 
     private static Log log = LogFactory.getLog(ReceiveQueueBuffer.class);
 
+    /** How often the consumption rate is sampled. */
+    private static final long RATE_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** Time constant of the exponential smoothing of the consumption rate. */
+    private static final long RATE_SMOOTHING_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /** Receive round trip assumed until one is measured. */
+    private static final double INITIAL_RECEIVE_LATENCY_SECONDS = 0.1;
+
     private final QueueBufferConfig config;
 
     private final String qUrl;
@@ -61,36 +82,62 @@ public class ReceiveQueueBuffer {
 
     private final AmazonSQS sqsClient;
 
-    private long bufferCounter = 0;
+    private final AtomicLong bufferCounter = new AtomicLong();
 
     /**
      * This buffer's queue visibility timeout. Used to detect expired message
-     * that should not be returned by the {@code receiveMessage} call.
-     * Synchronized by {@code receiveMessageLock}. -1 indicates that the time is
-     * uninitialized.
+     * that should not be returned by the {@code receiveMessage} call. -1
+     * indicates that the time is uninitialized.
      */
     private volatile long visibilityTimeoutNanos = -1;
 
-    /**
-     * Used as permits controlling the number of in flight receive batches.
-     * Synchronized by {@code taskSpawnSyncPoint}.
-     */
-    private volatile int inflightReceiveMessageBatches;
+    /** Guards the one-time lookup of the queue visibility timeout. */
+    private final Object visibilityTimeoutLock = new Object();
 
-    /**
-     * synchronize on this object to create new receive batches or modify
-     * inflight message count
-     */
-    private final Object taskSpawnSyncPoint = new Object();
+    /** The number of in flight receive batches. */
+    private final AtomicInteger inflightReceiveMessageBatches = new AtomicInteger();
+
+    /** Released once the buffer is shut down and no batch is in flight. */
+    private final CountDownLatch drained = new CountDownLatch(1);
 
     /** shutdown buffer does not retrieve any more messages from sqs */
     volatile boolean shutDown = false;
 
     /** message delivery futures we gave out */
-    private final LinkedList<ReceiveMessageFuture> futures = new LinkedList<ReceiveMessageFuture>();
+    private final ConcurrentLinkedQueue<ReceiveMessageFuture> futures = new ConcurrentLinkedQueue<ReceiveMessageFuture>();
+
+    /** finished batches are stored in this queue. */
+    private final ConcurrentLinkedQueue<ReceiveMessageBatchTask> finishedTasks = new ConcurrentLinkedQueue<ReceiveMessageBatchTask>();
+
+    /** The size of {@code finishedTasks}, which the queue can't tell cheaply. */
+    private final AtomicInteger finishedTaskCount = new AtomicInteger();
 
-    /** finished batches are stored in this list. */
-    private LinkedList<ReceiveMessageBatchTask> finishedTasks = new LinkedList<ReceiveMessageBatchTask>();
+    /** Whether a thread is handing messages to futures. */
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+
+    /** The number of messages requested by the waiting futures. */
+    private final AtomicInteger requestedMessages = new AtomicInteger();
+
+    /** The number of unexpired messages in the finished batches. */
+    private final AtomicInteger bufferedMessages = new AtomicInteger();
+
+    /** The number of messages handed to futures so far. */
+    private final AtomicLong deliveredMessages = new AtomicLong();
+
+    /** When the consumption rate was last sampled. */
+    private final AtomicLong rateSampleNanos;
+
+    /** {@code deliveredMessages} when the consumption rate was last sampled. */
+    private volatile long rateSampleDelivered;
+
+    /** Smoothed number of messages handed to futures per second. */
+    private volatile double consumptionRate;
+
+    /**
+     * Smoothed duration of the receive calls that returned messages. Updated
+     * without synchronization, since a lost sample does not matter.
+     */
+    private volatile double receiveLatencySeconds = INITIAL_RECEIVE_LATENCY_SECONDS;
 
     ReceiveQueueBuffer(AmazonSQS paramSQS, Executor paramExecutor, QueueBufferConfig paramConfig,
             String url) {
@@ -98,7 +145,7 @@ public class ReceiveQueueBuffer {
         executor = paramExecutor;
         sqsClient = paramSQS;
         qUrl = url;
-
+        rateSampleNanos = new AtomicLong(System.nanoTime());
     }
 
     /**
@@ -107,9 +154,11 @@ public class ReceiveQueueBuffer {
      */
     public void shutdown() {
         shutDown = true;
+        if (inflightReceiveMessageBatches.get() == 0) {
+            drained.countDown();
+        }
         try {
-            while (inflightReceiveMessageBatches > 0)
-                Thread.sleep(100);
+            drained.await();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
@@ -148,18 +197,16 @@ public class ReceiveQueueBuffer {
     }
 
     /**
-     * Creates and returns a new future object. Sleeps if the list of
-     * already-issued but as yet unsatisfied futures is over a throttle limit.
+     * Creates and returns a new future object.
      *
      * @return never null
      */
     private ReceiveMessageFuture issueFuture(int size,
             QueueBufferCallback<ReceiveMessageRequest, ReceiveMessageResult> callback) {
-        synchronized (futures) {
-            ReceiveMessageFuture theFuture = new ReceiveMessageFuture(callback, size);
-            futures.addLast(theFuture);
-            return theFuture;
-        }
+        ReceiveMessageFuture theFuture = new ReceiveMessageFuture(callback, size);
+        requestedMessages.addAndGet(size);
+        futures.add(theFuture);
+        return theFuture;
     }
 
     /**
@@ -168,111 +215,196 @@ public class ReceiveQueueBuffer {
      * won't do anything.
      */
     private void satisfyFuturesFromBuffer() {
-        synchronized (futures) {
-            synchronized (finishedTasks) {
-                // attempt to satisfy futures until we run out of either futures
-                // or
-                // finished tasks
-                while ((!futures.isEmpty()) && (!finishedTasks.isEmpty())) {
-                    ReceiveMessageFuture currentFuture = futures.poll();
-                    fillFuture(currentFuture);
+        while (dispatching.compareAndSet(false, true)) {
+            try {
+                // attempt to satisfy futures until we run out of either
+                // futures or finished tasks
+                ReceiveMessageFuture currentFuture;
+                while ((currentFuture = futures.peek()) != null) {
+                    ReceiveMessageBatchTask batch = nextUsefulBatch();
+                    if (batch == null) {
+                        break;
+                    }
+                    // only the dispatching thread removes futures
+                    futures.poll();
+                    requestedMessages.addAndGet(-currentFuture.getRequestedSize());
+                    fillFuture(currentFuture, batch);
                 }
+            } finally {
+                dispatching.set(false);
+            }
+            // a future or a batch may have arrived while this thread was
+            // dispatching, and its thread gave up on dispatching it
+            if (futures.isEmpty() || finishedTasks.isEmpty()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the finished batch to satisfy the next future from, or null if
+     * there is none. Batches that have run out of messages are thrown away,
+     * unless the batch is the only one left; an empty batch then tells the
+     * future that no messages arrived within the poll.
+     */
+    private ReceiveMessageBatchTask nextUsefulBatch() {
+        ReceiveMessageBatchTask batch;
+        while ((batch = finishedTasks.peek()) != null) {
+            if (!batch.isEmpty() || batch.getException() != null
+                    || finishedTaskCount.get() == 1) {
+                return batch;
             }
+            removeFinishedTask(batch);
         }
+        return null;
     }
 
     /**
-     * Fills the future with whatever results were received by the full batch
-     * currently at the head of the completed batch queue. Those results may be
-     * retrieved messages, or an exception. this method assumes that you are
-     * holding the finished tasks lock locks when invoking it. violate this
-     * assumption at your own peril
+     * Fills the future with whatever results were received by the given batch.
+     * Those results may be retrieved messages, or an exception. This method
+     * must only be called by the dispatching thread.
      */
-    private void fillFuture(ReceiveMessageFuture f) {
+    private void fillFuture(ReceiveMessageFuture f, ReceiveMessageBatchTask t) {
         ReceiveMessageResult r = new ReceiveMessageResult();
         LinkedList<Message> messages = new LinkedList<Message>();
-        r.setMessages(messages);
-        Exception exception = null;
-
-        if (!finishedTasks.isEmpty()) {
-            ReceiveMessageBatchTask t = finishedTasks.getFirst();
-
-            exception = t.getException();
-            int retrieved = 0;
-            boolean batchDone = false;
-            while (retrieved < f.getRequestedSize())
-            {
-                Message m = t.removeMessage();
-                // a non-empty batch can still give back a null
-                // message if the message expired.
-                if (null != m) {
-                    messages.add(m);
-                    ++retrieved;
-                }
-                else {
-                    batchDone = true;
-                    break;
-                }
 
+        Exception exception = t.getException();
+        boolean batchDone = false;
+        while (messages.size() < f.getRequestedSize()) {
+            Message m = t.removeMessage();
+            // a non-empty batch can still give back a null
+            // message if the message expired.
+            if (null == m) {
+                batchDone = true;
+                break;
             }
-            // we may have just drained the batch.
-            batchDone = batchDone || t.isEmpty() || (exception != null);
-            if (batchDone) {
-                finishedTasks.removeFirst();
-            }
-            r.setMessages(messages);
+            messages.add(m);
+        }
+        // we may have just drained the batch.
+        batchDone = batchDone || t.isEmpty() || (exception != null);
+        if (batchDone) {
+            removeFinishedTask(t);
         }
+        r.setMessages(messages);
+        deliveredMessages.addAndGet(messages.size());
 
-        // if after the above runs the exception is not null,
-        // the finished batch has encountered an error, and we will
+        // if the finished batch has encountered an error, we will
         // report that in the Future. Otherwise, we will fill
         // the future with the receive result
         if (exception != null)
             f.setFailure(exception);
         else
             f.setSuccess(r);
+    }
 
-        // now, a bit of maintenance. remove empty non-exception-bearing
-        // batches so we can get new ones.
-        while (!finishedTasks.isEmpty()) {
-            ReceiveMessageBatchTask t = finishedTasks.getFirst();
-            if ((!t.isEmpty()) || (t.getException() != null)) {
-                // if we found a finished task that has useful content,
-                // our cleanup is done
-                break;
-            }
-            // throw away the empty batch.
-            finishedTasks.removeFirst();
+    private void removeFinishedTask(ReceiveMessageBatchTask t) {
+        if (finishedTasks.remove(t)) {
+            finishedTaskCount.decrementAndGet();
         }
     }
 
     /**
      * maybe create more receive tasks. extra receive tasks won't be created if
-     * we are already at the maximum number of receive tasks, or if we are at
-     * the maximum number of prefetched buffers
+     * the in flight and finished batches already cover the demand, or if we are
+     * at the maximum number of receive tasks or of prefetched buffers
      */
     private void spawnMoreReceiveTasks() {
 
         if (shutDown)
             return;
 
-        int desiredBatches = config.getMaxDoneReceiveBatches();
-        desiredBatches = desiredBatches < 1 ? 1 : desiredBatches;
+        initVisibilityTimeout();
 
-        synchronized (finishedTasks) {
-            if (finishedTasks.size() >= desiredBatches)
-                return;
+        // must allow at least one inflight receive task, or receive won't
+        // work at all.
+        int max = config.getMaxInflightReceiveBatches();
+        max = max > 0 ? max : 1;
 
-            // if we have some finished batches already, and
-            // existing inflight batches will bring us to the limit,
-            // don't spawn more. if our finished tasks cache is empty, we will
-            // always spawn a thread.
-            if (finishedTasks.size() > 0
-                    && (finishedTasks.size() + inflightReceiveMessageBatches) >= desiredBatches)
+        while (true) {
+            int inflight = inflightReceiveMessageBatches.get();
+            if (inflight >= Math.min(max, desiredInflightBatches())) {
                 return;
+            }
+            if (!inflightReceiveMessageBatches.compareAndSet(inflight, inflight + 1)) {
+                continue;
+            }
+            if (shutDown) {
+                batchCompleted();
+                return;
+            }
+            ReceiveMessageBatchTask task = new ReceiveMessageBatchTask(this);
+            long batchNumber = bufferCounter.incrementAndGet();
+            if (log.isTraceEnabled()) {
+                log.trace("Spawned receive batch #" + batchNumber + " ("
+                        + (inflight + 1) + " of " + max + " inflight) for queue " + qUrl);
+            }
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                batchCompleted();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of receive batches that should be in flight to meet
+     * the demand. Follows Little's law: consumption rate times receive round
+     * trip is the number of messages that should be on their way, doubled to
+     * absorb the variance of both.
+     */
+    private int desiredInflightBatches() {
+        int batchSize = config.getMaxBatchSize();
+        batchSize = batchSize > 0 ? batchSize : 1;
+        int waiting = requestedMessages.get();
+
+        double rate = consumptionRate(System.nanoTime());
+        double headroomSeconds = effectiveVisibilityTimeoutNanos() / 2 / 1e9;
+        double expected = rate * Math.min(2 * receiveLatencySeconds, headroomSeconds);
+
+        double wanted = waiting + expected - bufferedMessages.get();
+        int batches = (int) Math.ceil(wanted / batchSize);
+
+        // don't prefetch more than the configured number of done batches
+        int maxDone = config.getMaxDoneReceiveBatches();
+        maxDone = maxDone > 0 ? maxDone : 1;
+        batches = Math.min(batches, maxDone - finishedTaskCount.get());
+
+        // a waiting future always gets a receive to wait on
+        if (waiting > 0 && finishedTasks.isEmpty()) {
+            batches = Math.max(batches, 1);
         }
+        return batches;
+    }
 
-        synchronized (taskSpawnSyncPoint) {
+    /**
+     * Returns the smoothed number of messages handed to futures per second,
+     * taking a new sample if the last one is old enough. Only one thread
+     * takes a given sample.
+     */
+    private double consumptionRate(long now) {
+        long sampled = rateSampleNanos.get();
+        long elapsed = now - sampled;
+        if (elapsed >= RATE_SAMPLE_NANOS && rateSampleNanos.compareAndSet(sampled, now)) {
+            long delivered = deliveredMessages.get();
+            double sample = (delivered - rateSampleDelivered) * 1e9 / elapsed;
+            rateSampleDelivered = delivered;
+            // weigh the sample by the time it covers, so that the rate decays
+            // when consumers go away, however rarely it is sampled
+            double weight = 1 - Math.exp(-(double) elapsed / RATE_SMOOTHING_NANOS);
+            consumptionRate += weight * (sample - consumptionRate);
+        }
+        return consumptionRate;
+    }
+
+    /**
+     * Looks up the visibility timeout of the queue, the first time it is
+     * needed.
+     */
+    private void initVisibilityTimeout() {
+        if (visibilityTimeoutNanos != -1)
+            return;
+        synchronized (visibilityTimeoutLock) {
             if (visibilityTimeoutNanos == -1) {
                 GetQueueAttributesRequest request = new GetQueueAttributesRequest().
                         withQueueUrl(qUrl).
@@ -283,24 +415,19 @@ public class ReceiveQueueBuffer {
                 visibilityTimeoutNanos = TimeUnit.NANOSECONDS.convert(visibilityTimeoutSeconds,
                         TimeUnit.SECONDS);
             }
+        }
+    }
 
-            int max = config.getMaxInflightReceiveBatches();
-            // must allow at least one inflight receive task, or receive won't
-            // work at all.
-            max = max > 0 ? max : 1;
-            int toSpawn = max - inflightReceiveMessageBatches;
-            if (toSpawn > 0) {
-                ReceiveMessageBatchTask task = new ReceiveMessageBatchTask(this);
-                ++inflightReceiveMessageBatches;
-                ++bufferCounter;
-                if (log.isTraceEnabled()) {
-                    log.trace("Spawned receive batch #" + bufferCounter + " ("
-                            + inflightReceiveMessageBatches
-                            + " of " + max + " inflight) for queue " + qUrl);
-                }
-                executor.execute(task);
-            }
+    /**
+     * Returns the visibility timeout of the received messages, which is the
+     * configured one if set, or else the one of the queue.
+     */
+    private long effectiveVisibilityTimeoutNanos() {
+        if (config.getVisibilityTimeoutSeconds() > 0) {
+            return TimeUnit.NANOSECONDS.convert(config.getVisibilityTimeoutSeconds(),
+                    TimeUnit.SECONDS);
         }
+        return visibilityTimeoutNanos;
     }
 
     /**
@@ -309,32 +436,38 @@ public class ReceiveQueueBuffer {
      */
     void reportBatchFinished(ReceiveMessageBatchTask batch)
     {
-        synchronized (finishedTasks) {
-            finishedTasks.addLast(batch);
+        // an empty batch that no one is waiting for would only hand an empty
+        // result to the next request, while messages may be on their way
+        if (batch.getException() != null || !batch.isEmpty() || !futures.isEmpty()) {
+            bufferedMessages.addAndGet(batch.getSize());
+            finishedTasks.add(batch);
+            int cached = finishedTaskCount.incrementAndGet();
             if (log.isTraceEnabled()) {
-                log.info("Queue " + qUrl + " now has " + finishedTasks.size()
+                log.trace("Queue " + qUrl + " now has " + cached
                         + " receive results cached ");
             }
         }
-        synchronized (taskSpawnSyncPoint) {
-            --inflightReceiveMessageBatches;
-        }
+        batchCompleted();
         satisfyFuturesFromBuffer();
         spawnMoreReceiveTasks();
     }
 
+    private void batchCompleted() {
+        if (inflightReceiveMessageBatches.decrementAndGet() == 0 && shutDown) {
+            drained.countDown();
+        }
+    }
+
     /**
      * Clears and nacks any pre-fetched messages in this buffer.
      */
     public void clear() {
         boolean done = false;
         while (!done) {
-            ReceiveMessageBatchTask currentBatch = null;
-            synchronized (finishedTasks) {
-                currentBatch = finishedTasks.poll();
-            }
+            ReceiveMessageBatchTask currentBatch = finishedTasks.poll();
 
             if (currentBatch != null) {
+                finishedTaskCount.decrementAndGet();
                 currentBatch.clear();
             } else {
                 // ran out of batches to clear
@@ -380,10 +513,9 @@ public class ReceiveQueueBuffer {
         private ReceiveQueueBuffer parentBuffer;
 
         /**
-         * Constructs a receive task waiting the specified time before calling
-         * SQS.
+         * Constructs a receive task.
          *
-         * @param waitTimeMs the time to wait before calling SQS
+         * @param paramParentBuffer the buffer to report the batch to
          */
         ReceiveMessageBatchTask(ReceiveQueueBuffer paramParentBuffer) {
             parentBuffer = paramParentBuffer;
@@ -429,14 +561,14 @@ public class ReceiveQueueBuffer {
 
             // our messages expired.
             if (System.nanoTime() > visibilityDeadlineNano) {
-                messages.clear();
+                discardMessages();
                 return null;
             }
 
             if (messages.isEmpty())
                 return null;
-            else
-                return messages.remove(messages.size() - 1);
+            bufferedMessages.decrementAndGet();
+            return messages.remove(messages.size() - 1);
         }
 
         /**
@@ -446,7 +578,7 @@ public class ReceiveQueueBuffer {
             if (!open)
                 throw new IllegalStateException("batch is not open");
 
-            if (System.nanoTime() < visibilityDeadlineNano) {
+            if (System.nanoTime() < visibilityDeadlineNano && !messages.isEmpty()) {
                 ChangeMessageVisibilityBatchRequest batchRequest = new ChangeMessageVisibilityBatchRequest()
                         .withQueueUrl(qUrl);
                 ResultConverter.appendUserAgent(batchRequest,
@@ -473,7 +605,14 @@ public class ReceiveQueueBuffer {
                     log.warn("ReceiveMessageBatchTask: changeMessageVisibility failed " + e);
                 }
             }
-            messages.clear();
+            discardMessages();
+        }
+
+        private void discardMessages() {
+            if (!messages.isEmpty()) {
+                bufferedMessages.addAndGet(-messages.size());
+                messages.clear();
+            }
         }
 
         /**
@@ -484,14 +623,15 @@ public class ReceiveQueueBuffer {
         public void run() {
 
             try {
-                visibilityDeadlineNano = System.nanoTime() + visibilityTimeoutNanos;
+                long startNano = System.nanoTime();
+                visibilityDeadlineNano = startNano + visibilityTimeoutNanos;
                 ReceiveMessageRequest request = new ReceiveMessageRequest(qUrl)
                         .withMaxNumberOfMessages(config.getMaxBatchSize());
                 ResultConverter.appendUserAgent(request, AmazonSQSBufferedAsyncClient.USER_AGENT);
 
                 if (config.getVisibilityTimeoutSeconds() > 0) {
                     request.setVisibilityTimeout(config.getVisibilityTimeoutSeconds());
-                    visibilityDeadlineNano = System.nanoTime()
+                    visibilityDeadlineNano = startNano
                             + TimeUnit.NANOSECONDS.convert(config.getVisibilityTimeoutSeconds(),
                                     TimeUnit.SECONDS);
                 }
@@ -500,12 +640,25 @@ public class ReceiveQueueBuffer {
                     request.withWaitTimeSeconds(config.getLongPollWaitTimeoutSeconds());
                 }
 
-                messages = sqsClient.receiveMessage(request).getMessages();
+                List<Message> received = sqsClient.receiveMessage(request).getMessages();
+                synchronized (this) {
+                    messages = received;
+                }
+                // a poll that came back empty measures how long the queue
+                // stayed empty, not the round trip
+                if (!received.isEmpty()) {
+                    double seconds = (System.nanoTime() - startNano) / 1e9;
+                    receiveLatencySeconds += 0.2 * (seconds - receiveLatencySeconds);
+                }
             } catch (AmazonClientException e) {
-                exception = e;
+                synchronized (this) {
+                    exception = e;
+                }
             } finally {
                 // whatever happened, we are done and can be considered open
-                open = true;
+                synchronized (this) {
+                    open = true;
+                }
                 parentBuffer.reportBatchFinished(this);
             }
 
@@ -29,6 +29,7 @@ import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
 import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
 import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
 import com.amazonaws.services.sqs.model.SendMessageBatchResult;
@@ -39,20 +40,33 @@ import com.amazonaws.services.sqs.model.SendMessageResult;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is responsible for buffering outgoing SQS requests, i.e. requests
  * to send a message, delete a message and change the visibility of the message. <br>
- * When a request arrives, the buffer adds the message to a message batch of an
- * appropriate type (creating such a batch if there currently isn't one
- * outstanding). When the outstanding batch becomes full, or when a configurable
- * timeout expires, the buffer makes a call to SQS to execute the current batch. <br>
+ * When a request arrives, the buffer appends it to a lock-free queue of pending
+ * requests of the appropriate type. As soon as enough requests are pending to
+ * fill a batch, or when a configurable timeout expires, the pending requests
+ * are assembled into batches and the buffer makes a call to SQS to execute
+ * each batch. <br>
  * Internally, the batch objects maintain a list of futures corresponding to the
  * requests added to them. When a batch completes, it loads the results into the
  * futures and marks the futures as complete.
@@ -60,10 +74,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class SendQueueBuffer {
     private static Log log = LogFactory.getLog(SendQueueBuffer.class);
 
-    // Interface to support event notifications with a parameter.
-    private interface Listener<T> {
-        void invoke(T o);
-    };
+    /**
+     * Closes batches whose {@code maxBatchOpenMs} has elapsed. A single
+     * thread is shared among all buffers, since closing a batch merely hands
+     * it to the executor.
+     */
+    private static final ScheduledExecutorService batchCloser = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    thread.setName("SQSQueueBufferBatchCloser");
+                    return thread;
+                }
+            });
 
     /** Config settings for this buffer */
     private final QueueBufferConfig config;
@@ -81,55 +106,14 @@ public class SendQueueBuffer {
      */
     private final Executor executor;
 
-    /**
-     * Object used to serialize sendMessage calls.
-     */
-    private final Object sendMessageLock = new Object();
-
-    /**
-     * Object used to serialize deleteMessage calls.
-     */
-    private final Object deleteMessageLock = new Object();
-
-    /**
-     * Object used to serialize changeMessageVisibility calls.
-     */
-    private final Object changeMessageVisibilityLock = new Object();
+    /** Pending sendMessage requests. */
+    private final OutboundQueue<SendMessageRequest, SendMessageResult> sendMessageQueue;
 
-    /**
-     * Current batching task for sendMessage. Using a size 1 array to allow
-     * "passing by reference". Synchronized by {@code sendMessageLock}.
-     */
-    private final SendMessageBatchTask[] openSendMessageBatchTask = new SendMessageBatchTask[1];
+    /** Pending deleteMessage requests. */
+    private final OutboundQueue<DeleteMessageRequest, Void> deleteMessageQueue;
 
-    /**
-     * Current batching task for deleteMessage. Using a size 1 array to allow
-     * "passing by reference". Synchronized by {@code deleteMessageLock}.
-     */
-    private final DeleteMessageBatchTask[] openDeleteMessageBatchTask = new DeleteMessageBatchTask[1];
-
-    /**
-     * Current batching task for changeMessageVisibility. Using a size 1 array
-     * to allow "passing by reference". Synchronized by
-     * {@code changeMessageVisibilityLock}.
-     */
-    private final ChangeMessageVisibilityBatchTask[] openChangeMessageVisibilityBatchTask = new ChangeMessageVisibilityBatchTask[1];
-
-    /**
-     * Permits controlling the number of in flight SendMessage batches.
-     */
-    private final Semaphore inflightSendMessageBatches;
-
-    /**
-     * Permits controlling the number of in flight DeleteMessage batches.
-     */
-    private final Semaphore inflightDeleteMessageBatches;
-
-    /**
-     * Permits controlling the number of in flight ChangeMessageVisibility
-     * batches.
-     */
-    private final Semaphore inflightChangeMessageVisibilityBatches;
+    /** Pending changeMessageVisibility requests. */
+    private final OutboundQueue<ChangeMessageVisibilityRequest, Void> changeMessageVisibilityQueue;
 
     SendQueueBuffer(AmazonSQS sqsClient, Executor executor, QueueBufferConfig paramConfig,
             String url) {
@@ -141,9 +125,35 @@ public class SendQueueBuffer {
 
         // must allow at least one outbound batch.
         maxBatch = maxBatch > 0 ? maxBatch : 1;
-        this.inflightSendMessageBatches = new Semaphore(maxBatch);
-        this.inflightDeleteMessageBatches = new Semaphore(maxBatch);
-        this.inflightChangeMessageVisibilityBatches = new Semaphore(maxBatch);
+        long maxBatchSizeBytes = Math.min(config.getMaxBatchSizeBytes(),
+                QueueBufferConfig.SERVICE_MAX_BATCH_SIZE_BYTES);
+
+        this.sendMessageQueue = new OutboundQueue<SendMessageRequest, SendMessageResult>(
+                maxBatch, maxBatchSizeBytes) {
+            @Override
+            OutboundBatchTask<SendMessageRequest, SendMessageResult> newBatchTask() {
+                return new SendMessageBatchTask();
+            }
+
+            @Override
+            long sizeOf(SendMessageRequest request) {
+                return sizeOfMessage(request);
+            }
+        };
+        this.deleteMessageQueue = new OutboundQueue<DeleteMessageRequest, Void>(
+                maxBatch, maxBatchSizeBytes) {
+            @Override
+            OutboundBatchTask<DeleteMessageRequest, Void> newBatchTask() {
+                return new DeleteMessageBatchTask();
+            }
+        };
+        this.changeMessageVisibilityQueue = new OutboundQueue<ChangeMessageVisibilityRequest, Void>(
+                maxBatch, maxBatchSizeBytes) {
+            @Override
+            OutboundBatchTask<ChangeMessageVisibilityRequest, Void> newBatchTask() {
+                return new ChangeMessageVisibilityBatchTask();
+            }
+        };
     }
 
     public QueueBufferConfig getConfig() {
@@ -157,10 +167,7 @@ public class SendQueueBuffer {
             SendMessageRequest request,
             QueueBufferCallback<SendMessageRequest, SendMessageResult> callback)
     {
-        QueueBufferFuture<SendMessageRequest, SendMessageResult> result =
-                submitOutboundRequest(sendMessageLock, openSendMessageBatchTask, request,
-                        inflightSendMessageBatches, callback);
-        return result;
+        return sendMessageQueue.submit(request, callback);
     }
 
     /**
@@ -168,11 +175,7 @@ public class SendQueueBuffer {
      */
     public QueueBufferFuture<DeleteMessageRequest, Void> deleteMessage(
             DeleteMessageRequest request, QueueBufferCallback<DeleteMessageRequest, Void> callback) {
-        return submitOutboundRequest(deleteMessageLock,
-                openDeleteMessageBatchTask,
-                request,
-                inflightDeleteMessageBatches,
-                callback);
+        return deleteMessageQueue.submit(request, callback);
     }
 
     /**
@@ -181,30 +184,7 @@ public class SendQueueBuffer {
     public QueueBufferFuture<ChangeMessageVisibilityRequest, Void> changeMessageVisibility(
             ChangeMessageVisibilityRequest request,
             QueueBufferCallback<ChangeMessageVisibilityRequest, Void> callback) {
-        return submitOutboundRequest(
-                changeMessageVisibilityLock,
-                openChangeMessageVisibilityBatchTask,
-                request,
-                inflightChangeMessageVisibilityBatches,
-                callback);
-    }
-
-    /**
-     * @return new {@code OutboundBatchTask} of appropriate type, never null
-     */
-    @SuppressWarnings("unchecked")
-    private <R extends AmazonWebServiceRequest, Result> OutboundBatchTask<R, Result> newOutboundBatchTask(
-            R request) {
-        if (request instanceof SendMessageRequest)
-            return (OutboundBatchTask<R, Result>) new SendMessageBatchTask();
-        else if (request instanceof DeleteMessageRequest)
-            return (OutboundBatchTask<R, Result>) new DeleteMessageBatchTask();
-        else if (request instanceof ChangeMessageVisibilityRequest)
-            return (OutboundBatchTask<R, Result>) new ChangeMessageVisibilityBatchTask();
-        else
-            // this should never happen
-            throw new IllegalArgumentException("Unsupported request type "
-                    + request.getClass().getName());
+        return changeMessageVisibilityQueue.submit(request, callback);
     }
 
     /**
@@ -215,221 +195,311 @@ public class SendQueueBuffer {
      * submitted before the call are completed (i.e. processed by SQS).
      */
     public void flush() {
-
         try {
-            synchronized (sendMessageLock) {
-                inflightSendMessageBatches
-                        .acquire(config.getMaxInflightOutboundBatches());
-                inflightSendMessageBatches
-                        .release(config.getMaxInflightOutboundBatches());
-            }
-            synchronized (deleteMessageLock) {
-                inflightDeleteMessageBatches
-                        .acquire(config.getMaxInflightOutboundBatches());
-                inflightDeleteMessageBatches
-                        .release(config.getMaxInflightOutboundBatches());
-            }
-            synchronized (changeMessageVisibilityLock) {
-                inflightChangeMessageVisibilityBatches
-                        .acquire(config.getMaxInflightOutboundBatches());
-                inflightChangeMessageVisibilityBatches
-                        .release(config.getMaxInflightOutboundBatches());
-            }
+            sendMessageQueue.flush();
+            deleteMessageQueue.flush();
+            changeMessageVisibilityQueue.flush();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Submits an outbound request for delivery to the queue associated with
-     * this buffer.
-     * <p>
-     *
-     * @param operationLock the lock synchronizing calls for the call type (
-     *            {@code sendMessage}, {@code deleteMessage},
-     *            {@code changeMessageVisibility} )
-     * @param openOutboundBatchTask the open batch task for this call type
-     * @param request the request to submit
-     * @param inflightOperationBatches the permits controlling the batches for
-     *            this type of request
-     * @return never null
-     * @throws AmazonClientException (see the various outbound calls for
-     *             details)
+     * Returns the number of bytes the given message counts for towards the
+     * size limit of a batch: the UTF-8 encoded body and message attributes.
      */
-    @SuppressWarnings("unchecked")
-    <OBT extends OutboundBatchTask<R, Result>, R extends AmazonWebServiceRequest, Result> QueueBufferFuture<R, Result> submitOutboundRequest(
-            Object operationLock,
-            OBT[] openOutboundBatchTask,
-            R request,
-            final Semaphore inflightOperationBatches,
-            QueueBufferCallback<R, Result> callback) {
-        /*
-         * Callers add requests to a single batch task (openOutboundBatchTask)
-         * until it is full or maxBatchOpenMs elapses. The total number of batch
-         * task in flight is controlled by the inflightOperationBatch semaphore
-         * capped at maxInflightOutboundBatches.
-         */
-        QueueBufferFuture<R, Result> theFuture = null;
-        try {
-            synchronized (operationLock) {
-                if (openOutboundBatchTask[0] == null
-                        || ((theFuture = openOutboundBatchTask[0].addRequest(request, callback))) == null) {
-                    OBT obt = (OBT) newOutboundBatchTask(request);
-                    inflightOperationBatches.acquire();
-                    openOutboundBatchTask[0] = obt;
-                    // Register a listener for the event signaling that the
-                    // batch task has completed (successfully or not).
-                    openOutboundBatchTask[0].onCompleted = new Listener<OutboundBatchTask<R, Result>>() {
-                        @Override
-                        public void invoke(OutboundBatchTask<R, Result> task) {
-                            inflightOperationBatches.release();
-                        }
-                    };
-
-                    if (log.isTraceEnabled()) {
-                        log.trace("Queue " + qUrl + " created new batch for "
-                                + request.getClass().toString()
-                                + " " + inflightOperationBatches.availablePermits()
-                                + " free slots remain");
-                    }
-
-                    theFuture = openOutboundBatchTask[0].addRequest(request, callback);
-                    executor.execute(openOutboundBatchTask[0]);
-                    if (null == theFuture) {
-                        // this can happen only if the request itself is flawed,
-                        // so that it can't be added to any batch, even a brand
-                        // new one
-                        throw new AmazonClientException("Failed to schedule request " + request
-                                + " for execution");
-                    }
-                }
+    static long sizeOfMessage(SendMessageRequest request) {
+        long size = utf8Length(request.getMessageBody());
+        Map<String, MessageAttributeValue> attributes = request.getMessageAttributes();
+        if (attributes != null) {
+            for (Map.Entry<String, MessageAttributeValue> e : attributes.entrySet()) {
+                MessageAttributeValue value = e.getValue();
+                size += utf8Length(e.getKey());
+                if (value == null)
+                    continue;
+                size += utf8Length(value.getDataType());
+                size += utf8Length(value.getStringValue());
+                ByteBuffer binary = value.getBinaryValue();
+                if (binary != null)
+                    size += binary.remaining();
             }
+        }
+        return size;
+    }
 
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            AmazonClientException toThrow = new AmazonClientException(
-                    "Interrupted while waiting for lock.");
-            toThrow.initCause(e);
-            throw toThrow;
+    /**
+     * Returns the length of the UTF-8 encoding of the given string, without
+     * encoding it.
+     */
+    static long utf8Length(String s) {
+        if (s == null)
+            return 0;
+        long length = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
         }
+        return length;
+    }
 
-        return theFuture;
+    /**
+     * A pending request and the future for its result.
+     */
+    private static final class PendingRequest<R extends AmazonWebServiceRequest, Result> {
+        final R request;
+        final QueueBufferFuture<R, Result> future;
+        final long size;
+
+        PendingRequest(R request, QueueBufferFuture<R, Result> future, long size) {
+            this.request = request;
+            this.future = future;
+            this.size = size;
+        }
     }
 
     /**
-     * Task to send a batch of outbound requests to SQS.
-     * <p>
-     * The batch task is constructed open and accepts requests until full, or
-     * until {@code maxBatchOpenMs} elapses. At that point, the batch closes and
-     * the collected requests are assembled into a single batch request to SQS.
-     * Specialized for each type of outbound request.
+     * The pending requests of one type, and the batches they are sent in.
      * <p>
-     * Instances of this class (and subclasses) are thread-safe.
-     *
-     * @param <R> the type of the SQS request to batch
-     * @param <Result> the type of result he futures issued by this task will
-     *            return
+     * Producers append requests to a lock-free queue and never block. Batches
+     * are assembled by whichever thread finds enough requests pending to fill
+     * one (or the batch closer, once {@code maxBatchOpenMs} has elapsed since
+     * the oldest pending request arrived), as long as fewer than
+     * {@code maxInflightOutboundBatches} batches are in flight; otherwise the
+     * next batch is assembled when an in-flight batch completes. Only one
+     * thread at a time assembles batches, so each batch takes a contiguous run
+     * of the queue.
      */
-    private abstract class OutboundBatchTask<R extends AmazonWebServiceRequest, Result> implements
-            Runnable {
-        final List<R> requests;
-        final ArrayList<QueueBufferFuture<R, Result>> futures;
-        AtomicBoolean open = new AtomicBoolean(true);
-        volatile Listener<OutboundBatchTask<R, Result>> onCompleted = null;
+    private abstract class OutboundQueue<R extends AmazonWebServiceRequest, Result> {
+        private final ConcurrentLinkedQueue<PendingRequest<R, Result>> pending =
+                new ConcurrentLinkedQueue<PendingRequest<R, Result>>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicLong pendingBytes = new AtomicLong();
+
+        /** Permits controlling the number of in flight batches. */
+        private final Semaphore inflightBatches;
+        private final long maxBatchSizeBytes;
+
+        /** The batches in flight, so that they can be waited for. */
+        private final Set<OutboundBatchTask<R, Result>> inflight = Collections
+                .newSetFromMap(new ConcurrentHashMap<OutboundBatchTask<R, Result>, Boolean>());
+
+        /** Whether a thread is assembling batches. */
+        private final AtomicBoolean assembling = new AtomicBoolean();
+        /** Whether the batch closer is scheduled. */
+        private final AtomicBoolean closerScheduled = new AtomicBoolean();
+        /**
+         * Whether the pending requests have waited for {@code maxBatchOpenMs},
+         * and are to be sent without waiting for a full batch.
+         */
+        private volatile boolean overdue;
+
+        private final Runnable closer = new Runnable() {
+            @Override
+            public void run() {
+                closerScheduled.set(false);
+                overdue = true;
+                dispatch();
+            }
+        };
 
-        OutboundBatchTask() {
-            requests = new ArrayList<R>(config.getMaxBatchSize());
-            futures = new ArrayList<QueueBufferFuture<R, Result>>(config.getMaxBatchSize());
+        OutboundQueue(int maxInflightBatches, long maxBatchSizeBytes) {
+            this.inflightBatches = new Semaphore(maxInflightBatches);
+            this.maxBatchSizeBytes = maxBatchSizeBytes;
+        }
+
+        abstract OutboundBatchTask<R, Result> newBatchTask();
+
+        /**
+         * Returns the number of bytes the request counts for towards the size
+         * limit of a batch.
+         */
+        long sizeOf(R request) {
+            return 0;
         }
 
         /**
-         * Adds a request to the batch if it is still open and has capacity.
+         * Appends the request to the pending requests.
          *
-         * @return the future that can be used to get the results of the
-         *         execution, or null if the addition failed.
+         * @return never null
+         * @throws AmazonClientException if the request is too large to be sent
+         *             in any batch
          */
-        synchronized QueueBufferFuture<R, Result> addRequest(R request,
-                QueueBufferCallback<R, Result> callback) {
-            if (!open.get())
-                return null;
-
-            QueueBufferFuture<R, Result> theFuture = addIfAllowed(request, callback);
-
-            // if the addition did not work, or this addition made us full,
-            // we can close the request
-            if ((null == theFuture) || isFull()) {
-                open.set(false);
+        QueueBufferFuture<R, Result> submit(R request, QueueBufferCallback<R, Result> callback) {
+            long size = sizeOf(request);
+            if (size > maxBatchSizeBytes) {
+                // the request itself is flawed, so that it can't be added to
+                // any batch, even a brand new one
+                throw new AmazonClientException("Failed to schedule request " + request
+                        + " for execution");
+            }
+            QueueBufferFuture<R, Result> future = new QueueBufferFuture<R, Result>(callback);
+            pending.offer(new PendingRequest<R, Result>(request, future, size));
+            pendingBytes.addAndGet(size);
+            pendingCount.incrementAndGet();
+            if (hasFullBatch()) {
+                dispatch();
+            } else {
+                scheduleCloser();
             }
+            return future;
+        }
 
-            // the batch request is as full as it will ever be. no need to wait
-            // for the timeout, we can run it now.
-            if (!open.get())
-                notify();
+        private boolean hasFullBatch() {
+            return pendingCount.get() >= config.getMaxBatchSize()
+                    || pendingBytes.get() >= maxBatchSizeBytes;
+        }
 
-            return theFuture;
+        private void scheduleCloser() {
+            if (closerScheduled.compareAndSet(false, true)) {
+                batchCloser.schedule(closer, config.getMaxBatchOpenMs(), TimeUnit.MILLISECONDS);
+            }
         }
 
         /**
-         * Adds the request to the batch if capacity allows it.
-         *
-         * @param request
-         * @return the future that will be signaled when the request is
-         *         completed and can be used to retrieve the result. Can be null
-         *         if the addition could not be done
+         * Sends as many batches as are ready and allowed in flight.
          */
-        synchronized QueueBufferFuture<R, Result> addIfAllowed(R request,
-                QueueBufferCallback<R, Result> callback) {
-            if (isOkToAdd(request)) {
-                requests.add(request);
-
-                QueueBufferFuture<R, Result> theFuture = new QueueBufferFuture<R, Result>(callback);
-
-                futures.add(theFuture);
-                onRequestAdded(request);
-                return theFuture;
-            } else
-                return null;
+        void dispatch() {
+            while (assembling.compareAndSet(false, true)) {
+                try {
+                    while (pendingCount.get() > 0 && (overdue || hasFullBatch())
+                            && inflightBatches.tryAcquire()) {
+                        OutboundBatchTask<R, Result> task = takeBatch();
+                        if (log.isTraceEnabled()) {
+                            log.trace("Queue " + qUrl + " sending batch of "
+                                    + task.requests.size() + " "
+                                    + task.requests.get(0).getClass().getSimpleName()
+                                    + ", " + inflightBatches.availablePermits()
+                                    + " free slots remain");
+                        }
+                        execute(task);
+                    }
+                    if (pendingCount.get() == 0) {
+                        overdue = false;
+                    }
+                } finally {
+                    assembling.set(false);
+                }
+                // A producer or a completing batch may have given up on
+                // dispatching while this thread was assembling
+                if (pendingCount.get() == 0 || !(overdue || hasFullBatch())
+                        || inflightBatches.availablePermits() == 0) {
+                    break;
+                }
+            }
+            if (pendingCount.get() > 0 && !overdue) {
+                scheduleCloser();
+            }
         }
 
-        protected synchronized boolean isOkToAdd(R request) {
-            return requests.size() < config.getMaxBatchSize();
+        /**
+         * Takes the next batch off the pending requests. Only called by the
+         * assembling thread.
+         */
+        private OutboundBatchTask<R, Result> takeBatch() {
+            OutboundBatchTask<R, Result> task = newBatchTask();
+            long batchBytes = 0;
+            PendingRequest<R, Result> next;
+            while (task.requests.size() < config.getMaxBatchSize()
+                    && (next = pending.peek()) != null) {
+                if (!task.requests.isEmpty() && batchBytes + next.size > maxBatchSizeBytes)
+                    break;
+                pending.poll();
+                pendingCount.decrementAndGet();
+                pendingBytes.addAndGet(-next.size);
+                batchBytes += next.size;
+                task.requests.add(next.request);
+                task.futures.add(next.future);
+            }
+            return task;
         }
 
-        protected synchronized void onRequestAdded(R request) {
-            // to be overridden by subclasses
+        private void execute(final OutboundBatchTask<R, Result> task) {
+            inflight.add(task);
+            task.onCompleted = new Runnable() {
+                @Override
+                public void run() {
+                    inflight.remove(task);
+                    inflightBatches.release();
+                    dispatch();
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                task.failAll(e);
+                task.onCompleted.run();
+            }
         }
 
         /**
-         * @return whether the buffer is filled to capacity
+         * Sends the pending requests without waiting for full batches, and
+         * waits until they and the batches in flight are completed. Requests
+         * submitted meanwhile are not waited for.
          */
-        synchronized boolean isFull() {
-            return requests.size() >= config.getMaxBatchSize();
+        void flush() throws InterruptedException {
+            List<QueueBufferFuture<R, Result>> futures = new ArrayList<QueueBufferFuture<R, Result>>();
+            // Pending requests first: one taken into a batch meanwhile is then
+            // found in flight
+            for (PendingRequest<R, Result> p : pending) {
+                futures.add(p.future);
+            }
+            for (OutboundBatchTask<R, Result> task : inflight) {
+                futures.addAll(task.futures);
+            }
+            overdue = true;
+            dispatch();
+            for (QueueBufferFuture<R, Result> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // reported to the caller of the request
+                }
+            }
+        }
+    }
+
+    /**
+     * Task to send a batch of outbound requests to SQS.
+     * <p>
+     * The batch task is assembled from the pending requests before it is
+     * executed, and is not modified afterwards. The collected requests are
+     * sent in a single batch request to SQS. Specialized for each type of
+     * outbound request.
+     *
+     * @param <R> the type of the SQS request to batch
+     * @param <Result> the type of result he futures issued by this task will
+     *            return
+     */
+    private abstract class OutboundBatchTask<R extends AmazonWebServiceRequest, Result> implements
+            Runnable {
+        final List<R> requests;
+        final ArrayList<QueueBufferFuture<R, Result>> futures;
+        volatile Runnable onCompleted = null;
+
+        OutboundBatchTask() {
+            requests = new ArrayList<R>(config.getMaxBatchSize());
+            futures = new ArrayList<QueueBufferFuture<R, Result>>(config.getMaxBatchSize());
         }
 
         /**
-         * Processes the batch once closed.
+         * Processes the batch.
          */
         abstract void process();
 
         @Override
-        public synchronized void run() {
+        public void run() {
             try {
-                long deadlineMs = TimeUnit.MILLISECONDS.convert(System.nanoTime(),
-                        TimeUnit.NANOSECONDS) +
-                        config.getMaxBatchOpenMs() + 1;
-                long t = TimeUnit.MILLISECONDS.convert(System.nanoTime(), TimeUnit.NANOSECONDS);
-                while (open.get() && (t < deadlineMs)) {
-                    t = TimeUnit.MILLISECONDS.convert(System.nanoTime(), TimeUnit.NANOSECONDS);
-
-                    // zero means "wait forever", can't have that.
-                    long toWait = Math.max(1, deadlineMs - t);
-                    wait(toWait);
-                }
-
-                open.set(false);
                 process();
-            } catch (InterruptedException e) {
-                failAll(e);
             } catch (AmazonClientException e) {
                 failAll(e);
             } catch (RuntimeException e) {
@@ -439,15 +509,13 @@ public class SendQueueBuffer {
                 failAll(new AmazonClientException("Error encountered", e));
                 throw e;
             } finally {
-                // make a copy of the listener since it can be modified from
-                // outside
-                Listener<OutboundBatchTask<R, Result>> completionListener = onCompleted;
+                Runnable completionListener = onCompleted;
                 if (completionListener != null)
-                    completionListener.invoke(this);
+                    completionListener.run();
             }
         }
 
-        private void failAll(Exception e) {
+        void failAll(Exception e) {
             for (QueueBufferFuture<R, Result> f : futures) {
                 f.setFailure(e);
             }
@@ -456,26 +524,6 @@ public class SendQueueBuffer {
 
     private class SendMessageBatchTask extends
             OutboundBatchTask<SendMessageRequest, SendMessageResult> {
-        int batchSizeBytes = 0;
-
-        @Override
-        protected synchronized boolean isOkToAdd(SendMessageRequest request) {
-            return (requests.size() < config.getMaxBatchSize())
-                    &&
-                    ((request.getMessageBody().getBytes().length + batchSizeBytes) < config
-                            .getMaxBatchSizeBytes());
-        }
-
-        @Override
-        protected void onRequestAdded(SendMessageRequest request) {
-            batchSizeBytes += request.getMessageBody().getBytes().length;
-        }
-
-        @Override
-        synchronized boolean isFull() {
-            return (requests.size() >= config.getMaxBatchSize()) ||
-                    (batchSizeBytes >= config.getMaxBatchSizeBytes());
-        }
 
         @Override
         void process() {
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.sqs;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Request;
+import com.amazonaws.services.sqs.MessageMD5ChecksumHandler.VerificationMode;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of verifying the MD5 checksums of a received batch of 10
+ * messages, and of reading their bodies, in each {@link VerificationMode}.
+ * <p>
+ * Run from the test classpath of this module with
+ * {@code java org.openjdk.jmh.Main MessageMD5ChecksumHandlerBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MessageMD5ChecksumHandlerBenchmark {
+
+    private static final int BATCH_SIZE = 10;
+
+    @Param({"EAGER", "LAZY", "PARALLEL"})
+    public VerificationMode mode;
+
+    /** The length of the message bodies, in chars. */
+    @Param({"100", "10000", "200000"})
+    public int bodyLength;
+
+    /** Whether the bodies are ASCII only, or mix in multi-byte chars. */
+    @Param({"true", "false"})
+    public boolean ascii;
+
+    private MessageMD5ChecksumHandler handler;
+    private Request<?> request;
+    private List<Message> messages;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException {
+        handler = new MessageMD5ChecksumHandler(mode);
+        request = new DefaultRequest<Object>(new ReceiveMessageRequest("queue"), "AmazonSQS");
+        messages = new ArrayList<Message>(BATCH_SIZE);
+        Random random = new Random(42);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            StringBuilder body = new StringBuilder(bodyLength);
+            while (body.length() < bodyLength) {
+                int c = random.nextInt(ascii ? 0x80 : 0x800);
+                body.append(c < 0x20 ? ' ' : (char) c);
+            }
+            String s = body.toString();
+            messages.add(new Message().withMessageId(Integer.toString(i)).withBody(s)
+                    .withMD5OfBody(BinaryUtils.toHex(Md5Utils.computeMD5Hash(s
+                            .getBytes("UTF-8")))));
+        }
+    }
+
+    @Benchmark
+    public void receiveBatch(Blackhole blackhole) {
+        ReceiveMessageResult result = new ReceiveMessageResult().withMessages(messages);
+        handler.afterResponse(request, result, null);
+        for (Message message : result.getMessages()) {
+            blackhole.consume(message.getBody());
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2010-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.sqs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.services.sqs.MessageMD5ChecksumHandler.VerificationMode;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MessageMD5ChecksumHandlerTest {
+
+    private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/1234/queue";
+
+    /** Text with two, three and four byte characters. */
+    private static final String TEXT = "caf\u00e9 \u20ac \ud83d\ude00 \ud800\udc00\udbff\udfff";
+
+    /**
+     * Strings whose UTF-8 encoding the handler must compute the way
+     * {@link String#getBytes(String)} does.
+     */
+    private static final List<String> STRINGS = Arrays.asList(
+            "",
+            "ascii",
+            TEXT,
+            // unpaired surrogates
+            "\ud83d",
+            "x\ude00x",
+            "\ude00\ud83d",
+            // surrogate pairs across the boundaries of the encoding buffer
+            repeat('a', 4093) + "\ud83d\ude00" + repeat('b', 10),
+            repeat('a', 4094) + "\ud83d\ude00" + repeat('b', 10),
+            repeat('a', 4095) + "\ud83d\ude00" + repeat('b', 10),
+            repeat('\u20ac', 3000) + repeat("\ud83d\ude00", 3000));
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String md5Hex(byte[] bytes) {
+        return BinaryUtils.toHex(Md5Utils.computeMD5Hash(bytes));
+    }
+
+    /**
+     * The MD5 of the message body, as SQS calculates it.
+     */
+    private static String bodyMd5(String body) {
+        return md5Hex(utf8(body));
+    }
+
+    /**
+     * The MD5 of the message attributes, as SQS calculates it: the length
+     * prefixed name, type and value of each attribute, sorted by name.
+     */
+    private static String attributesMd5(Map<String, MessageAttributeValue> attributes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<String> names = new ArrayList<String>(attributes.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            MessageAttributeValue value = attributes.get(name);
+            writeLengthAndBytes(out, utf8(name));
+            writeLengthAndBytes(out, utf8(value.getDataType()));
+            if (value.getStringValue() != null) {
+                out.write(1);
+                writeLengthAndBytes(out, utf8(value.getStringValue()));
+            } else if (value.getBinaryValue() != null) {
+                out.write(2);
+                ByteBuffer binary = value.getBinaryValue().duplicate();
+                binary.rewind();
+                byte[] bytes = new byte[binary.remaining()];
+                binary.get(bytes);
+                writeLengthAndBytes(out, bytes);
+            } else if (value.getStringListValues() != null) {
+                out.write(3);
+                for (String s : value.getStringListValues()) {
+                    writeLengthAndBytes(out, utf8(s));
+                }
+            }
+        }
+        return md5Hex(out.toByteArray());
+    }
+
+    private static void writeLengthAndBytes(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes.length >>> 24);
+        out.write(bytes.length >>> 16);
+        out.write(bytes.length >>> 8);
+        out.write(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static Map<String, MessageAttributeValue> attributes(String text) {
+        Map<String, MessageAttributeValue> attributes = new HashMap<String, MessageAttributeValue>();
+        attributes.put("name " + text, new MessageAttributeValue().withDataType("String")
+                .withStringValue(text));
+        attributes.put("binary", new MessageAttributeValue().withDataType("Binary")
+                .withBinaryValue(ByteBuffer.wrap(utf8(text))));
+        attributes.put("list", new MessageAttributeValue().withDataType("String")
+                .withStringListValues(text, "second"));
+        return attributes;
+    }
+
+    private static Message message(int id, String body, boolean corrupted) {
+        Map<String, MessageAttributeValue> attributes = attributes(body);
+        return new Message().withMessageId("message-" + id)
+                .withBody(body)
+                .withMD5OfBody(corrupted ? bodyMd5(body + "x") : bodyMd5(body))
+                .withMessageAttributes(attributes)
+                .withMD5OfMessageAttributes(attributesMd5(attributes));
+    }
+
+    private static void afterResponse(MessageMD5ChecksumHandler handler,
+            AmazonWebServiceRequest request, Object response) {
+        handler.afterResponse(new DefaultRequest<Object>(request, "AmazonSQS"), response, null);
+    }
+
+    private static ReceiveMessageResult receive(MessageMD5ChecksumHandler handler,
+            Message... messages) {
+        ReceiveMessageResult result = new ReceiveMessageResult().withMessages(messages);
+        afterResponse(handler, new ReceiveMessageRequest(QUEUE_URL), result);
+        return result;
+    }
+
+    @Test
+    public void encodesStringsAsGetBytesDoes() {
+        MessageMD5ChecksumHandler handler = new MessageMD5ChecksumHandler(VerificationMode.EAGER);
+        for (String s : STRINGS) {
+            // the body digest checks the encoding, and the attribute digest
+            // the encoded length as well
+            try {
+                receive(handler, message(0, s, false));
+            } catch (AmazonClientException e) {
+                fail("\"" + s + "\" encoded differently: " + e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void eagerModeVerifiesSentAndReceivedMessages() {
+        MessageMD5ChecksumHandler handler = new MessageMD5ChecksumHandler(VerificationMode.EAGER);
+        Map<String, MessageAttributeValue> attributes = attributes(TEXT);
+        afterResponse(handler, new SendMessageRequest(QUEUE_URL, TEXT)
+                .withMessageAttributes(attributes), new SendMessageResult()
+                .withMD5OfMessageBody(bodyMd5(TEXT))
+                .withMD5OfMessageAttributes(attributesMd5(attributes)));
+        receive(handler, message(0, TEXT, false), message(1, "other", false));
+
+        try {
+            receive(handler, message(0, TEXT, false), message(1, TEXT, true));
+            fail("corrupted message accepted");
+        } catch (AmazonClientException expected) {
+            assertTrue(expected.getMessage().contains("message body"));
+        }
+        try {
+            afterResponse(handler, new SendMessageRequest(QUEUE_URL, TEXT),
+                    new SendMessageResult().withMD5OfMessageBody(bodyMd5("other")));
+            fail("corrupted message accepted");
+        } catch (AmazonClientException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void batchMismatchNamesTheEntry() {
+        MessageMD5ChecksumHandler handler = new MessageMD5ChecksumHandler(VerificationMode.EAGER);
+        SendMessageBatchRequest request = new SendMessageBatchRequest(QUEUE_URL).withEntries(
+                new SendMessageBatchRequestEntry("0", TEXT),
+                new SendMessageBatchRequestEntry("1", "other"));
+        SendMessageBatchResult result = new SendMessageBatchResult().withSuccessful(
+                new SendMessageBatchResultEntry().withId("0").withMD5OfMessageBody(bodyMd5(TEXT)),
+                new SendMessageBatchResultEntry().withId("1").withMD5OfMessageBody(bodyMd5(TEXT)));
+        try {
+            afterResponse(handler, request, result);
+            fail("corrupted message accepted");
+        } catch (AmazonClientException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Message ID: 1,"));
+        }
+    }
+
+    @Test
+    public void lazyModeVerifiesWhenBodyOrAttributesAreRead() {
+        MessageMD5ChecksumHandler handler = new MessageMD5ChecksumHandler(VerificationMode.LAZY);
+        ReceiveMessageResult result = receive(handler, message(0, TEXT, false),
+                message(1, TEXT, true), message(2, TEXT, true));
+
+        List<Message> messages = result.getMessages();
+        assertEquals(3, messages.size());
+        assertEquals(TEXT, messages.get(0).getBody());
+        assertEquals(attributes(TEXT), messages.get(0).getMessageAttributes());
+
+        // the corrupted messages can still be identified, logged and compared
+        Message corrupted = messages.get(1);
+        assertEquals("message-1", corrupted.getMessageId());
+        assertNotNull(corrupted.toString());
+        assertTrue(corrupted.equals(message(1, TEXT, true)));
+        assertEquals(corrupted.hashCode(), messages.get(1).hashCode());
+
+        try {
+            corrupted.getBody();
+            fail("corrupted message body read");
+        } catch (AmazonClientException expected) {
+            // expected
+        }
+        try {
+            messages.get(2).getMessageAttributes();
+            fail("corrupted message attributes read");
+        } catch (AmazonClientException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void lazyModeVerifiesSentMessagesEagerly() {
+        MessageMD5ChecksumHandler handler = new MessageMD5ChecksumHandler(VerificationMode.LAZY);
+        try {
+            afterResponse(handler, new SendMessageRequest(QUEUE_URL, TEXT),
+                    new SendMessageResult().withMD5OfMessageBody(bodyMd5("other")));
+            fail("corrupted message accepted");
+        } catch (AmazonClientException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parallelModeVerifiesEveryMessageOfTheBatch() {
+        MessageMD5ChecksumHandler handler = new MessageMD5ChecksumHandler(
+                VerificationMode.PARALLEL);
+        for (int corrupted = -1; corrupted < 10; corrupted++) {
+            Message[] messages = new Message[10];
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = message(i, STRINGS.get(i % STRINGS.size()), i == corrupted);
+            }
+            try {
+                receive(handler, messages);
+                if (corrupted >= 0) {
+                    fail("corrupted message " + corrupted + " accepted");
+                }
+            } catch (AmazonClientException e) {
+                if (corrupted < 0) {
+                    throw e;
+                }
+            }
+        }
+
+        SendMessageBatchRequest request = new SendMessageBatchRequest(QUEUE_URL);
+        SendMessageBatchResult result = new SendMessageBatchResult();
+        for (int i = 0; i < 10; i++) {
+            request.getEntries().add(new SendMessageBatchRequestEntry(Integer.toString(i), TEXT));
+            result.getSuccessful().add(new SendMessageBatchResultEntry()
+                    .withId(Integer.toString(i))
+                    .withMD5OfMessageBody(bodyMd5(i == 7 ? "other" : TEXT)));
+        }
+        try {
+            afterResponse(handler, request, result);
+            fail("corrupted message accepted");
+        } catch (AmazonClientException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Message ID: 7,"));
+        }
+    }
+
+    @Test
+    public void modeDefaultsToEager() {
+        assertEquals(VerificationMode.EAGER, new MessageMD5ChecksumHandler()
+                .getVerificationMode());
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.sqs.buffered;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ReceiveQueueBufferTest {
+
+    private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/1234/queue";
+
+    private StubSQSClient sqs;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        sqs = new StubSQSClient();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void teardown() {
+        if (sqs.receiveGate != null) {
+            sqs.receiveGate.countDown();
+        }
+        executor.shutdownNow();
+    }
+
+    private ReceiveQueueBuffer buffer(QueueBufferConfig config) {
+        return new ReceiveQueueBuffer(sqs, executor, config, QUEUE_URL);
+    }
+
+    private static ReceiveMessageRequest request(int maxNumberOfMessages) {
+        return new ReceiveMessageRequest(QUEUE_URL).withMaxNumberOfMessages(maxNumberOfMessages);
+    }
+
+    /**
+     * Waits for the stub to have seen the given number of receive calls, and
+     * a little longer to catch extra ones.
+     */
+    private void awaitReceives(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sqs.receives.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+    }
+
+    @Test
+    public void prefetchesOnlyWhatTheWaitingRequestsNeed() throws Exception {
+        sqs.addMessages(100);
+        sqs.receiveGate = new CountDownLatch(1);
+        ReceiveQueueBuffer buffer = buffer(new QueueBufferConfig()
+                .withMaxInflightReceiveBatches(10).withMaxDoneReceiveBatches(10));
+
+        // one batch covers a request for 10 messages
+        QueueBufferFuture<ReceiveMessageRequest, ReceiveMessageResult> first = buffer
+                .receiveMessageAsync(request(10), null);
+        awaitReceives(1);
+        assertEquals(1, sqs.receives.size());
+
+        // and three more cover 25 more messages
+        buffer.receiveMessageAsync(request(10), null);
+        buffer.receiveMessageAsync(request(10), null);
+        buffer.receiveMessageAsync(request(5), null);
+        awaitReceives(4);
+        assertEquals(4, sqs.receives.size());
+
+        sqs.receiveGate.countDown();
+        assertEquals(10, first.get(5, TimeUnit.SECONDS).getMessages().size());
+        buffer.shutdown();
+
+        // no consumption history yet, so nothing beyond the requests was
+        // fetched
+        assertEquals(4, sqs.receives.size());
+        assertEquals(1, sqs.queueAttributeLookups.get());
+    }
+
+    @Test
+    public void prefetchIsCappedByMaxDoneReceiveBatches() throws Exception {
+        sqs.addMessages(100);
+        sqs.receiveGate = new CountDownLatch(1);
+        ReceiveQueueBuffer buffer = buffer(new QueueBufferConfig()
+                .withMaxInflightReceiveBatches(10).withMaxDoneReceiveBatches(2));
+
+        List<QueueBufferFuture<ReceiveMessageRequest, ReceiveMessageResult>> futures =
+                new ArrayList<QueueBufferFuture<ReceiveMessageRequest, ReceiveMessageResult>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(buffer.receiveMessageAsync(request(10), null));
+        }
+        awaitReceives(2);
+        assertEquals(2, sqs.receives.size());
+
+        sqs.receiveGate.countDown();
+        int received = 0;
+        for (QueueBufferFuture<ReceiveMessageRequest, ReceiveMessageResult> future : futures) {
+            received += future.get(5, TimeUnit.SECONDS).getMessages().size();
+        }
+        buffer.shutdown();
+        assertEquals(50, received);
+        assertTrue("max in flight " + sqs.maxInflight.get(), sqs.maxInflight.get() <= 2);
+    }
+
+    @Test
+    public void expiredPrefetchedMessagesAreNotHandedOut() throws Exception {
+        sqs.visibilityTimeoutSeconds = 1;
+        sqs.addMessages(10);
+        ReceiveQueueBuffer buffer = buffer(new QueueBufferConfig());
+
+        // the receive fetches a batch of 10 to satisfy a request for 1
+        List<Message> messages = buffer.receiveMessageAsync(request(1), null)
+                .get(5, TimeUnit.SECONDS).getMessages();
+        assertEquals(1, messages.size());
+        assertEquals(1, sqs.receives.size());
+
+        // the other 9 expire in the buffer, and newer ones are handed out
+        // instead
+        Thread.sleep(1200);
+        sqs.addMessages(10);
+        List<Message> fresh = new ArrayList<Message>();
+        for (int i = 0; i < 3 && fresh.isEmpty(); i++) {
+            fresh.addAll(buffer.receiveMessageAsync(request(10), null)
+                    .get(5, TimeUnit.SECONDS).getMessages());
+        }
+        buffer.shutdown();
+
+        assertFalse(fresh.isEmpty());
+        for (Message m : fresh) {
+            int id = Integer.parseInt(m.getMessageId().substring("message-".length()));
+            assertTrue("expired message " + m.getMessageId() + " handed out", id >= 10);
+        }
+    }
+
+    @Test
+    public void shutdownWaitsForReceivesInFlight() throws Exception {
+        sqs.addMessages(10);
+        sqs.receiveGate = new CountDownLatch(1);
+        final ReceiveQueueBuffer buffer = buffer(new QueueBufferConfig());
+        QueueBufferFuture<ReceiveMessageRequest, ReceiveMessageResult> future = buffer
+                .receiveMessageAsync(request(10), null);
+        awaitReceives(1);
+
+        Thread shutdown = new Thread() {
+            @Override
+            public void run() {
+                buffer.shutdown();
+            }
+        };
+        shutdown.start();
+        shutdown.join(300);
+        assertTrue("shutdown returned with a receive in flight", shutdown.isAlive());
+        assertEquals(0, sqs.completedReceives.get());
+
+        try {
+            buffer.receiveMessageAsync(request(10), null);
+            fail("receive accepted after shutdown");
+        } catch (AmazonClientException expected) {
+            // expected
+        }
+
+        sqs.receiveGate.countDown();
+        shutdown.join(5000);
+        assertFalse(shutdown.isAlive());
+        assertEquals(1, sqs.completedReceives.get());
+
+        // the request made before the shutdown still gets its messages, and
+        // no further receive is started
+        assertEquals(10, future.get(5, TimeUnit.SECONDS).getMessages().size());
+        Thread.sleep(100);
+        assertEquals(1, sqs.receives.size());
+    }
+}
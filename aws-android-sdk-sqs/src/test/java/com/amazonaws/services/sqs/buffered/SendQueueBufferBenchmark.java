@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.sqs.buffered;
+
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link SendQueueBuffer} with many producer
+ * threads sending to one queue, each waiting for its message to be sent, as
+ * the buffered client does for {@code sendMessage}. The queue is an in-memory
+ * stub, so that the cost of batching is measured, not the one of SQS.
+ * <p>
+ * Run from the test classpath of this module with
+ * {@code java org.openjdk.jmh.Main SendQueueBufferBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(32)
+public class SendQueueBufferBenchmark {
+
+    private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/1234/queue";
+
+    /** How long each batch call to the stub queue takes. */
+    @Param({"0", "5"})
+    public long latencyMillis;
+
+    @Param({"1", "10"})
+    public int maxInflightOutboundBatches;
+
+    private ExecutorService executor;
+    private SendQueueBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StubSQSClient sqs = new StubSQSClient();
+        sqs.latencyMillis = latencyMillis;
+        executor = Executors.newCachedThreadPool();
+        buffer = new SendQueueBuffer(sqs, executor, new QueueBufferConfig()
+                .withMaxBatchOpenMs(5)
+                .withMaxInflightOutboundBatches(maxInflightOutboundBatches), QUEUE_URL);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        buffer.flush();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public SendMessageResult sendMessage() throws Exception {
+        return buffer.sendMessage(new SendMessageRequest(QUEUE_URL, "benchmark"), null).get();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.sqs.buffered;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class SendQueueBufferTest {
+
+    private static final String QUEUE_URL = "https://sqs.us-east-1.amazonaws.com/1234/queue";
+
+    private StubSQSClient sqs;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        sqs = new StubSQSClient();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private SendQueueBuffer buffer(QueueBufferConfig config) {
+        return new SendQueueBuffer(sqs, executor, config, QUEUE_URL);
+    }
+
+    private static String body(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    @Test
+    public void sendsFullBatchesWithoutWaitingForTheBatchToClose() throws Exception {
+        SendQueueBuffer buffer = buffer(new QueueBufferConfig().withMaxBatchOpenMs(60000));
+        List<QueueBufferFuture<SendMessageRequest, SendMessageResult>> futures =
+                new ArrayList<QueueBufferFuture<SendMessageRequest, SendMessageResult>>();
+        for (int i = 0; i < 25; i++) {
+            futures.add(buffer.sendMessage(new SendMessageRequest(QUEUE_URL, "m" + i), null));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals("m" + i, futures.get(i).get(5, TimeUnit.SECONDS).getMessageId());
+        }
+        assertEquals(2, sqs.sendBatches.size());
+        assertFalse(futures.get(20).isDone());
+
+        buffer.flush();
+        for (int i = 20; i < 25; i++) {
+            assertTrue(futures.get(i).isDone());
+        }
+        assertEquals(3, sqs.sendBatches.size());
+        assertEquals(10, sqs.sendBatches.get(0).getEntries().size());
+        assertEquals(10, sqs.sendBatches.get(1).getEntries().size());
+        assertEquals(5, sqs.sendBatches.get(2).getEntries().size());
+    }
+
+    @Test
+    public void splitsBatchesAtTheByteLimit() throws Exception {
+        SendQueueBuffer buffer = buffer(new QueueBufferConfig().withMaxBatchOpenMs(60000)
+                .withMaxBatchSizeBytes(1000));
+        for (int i = 0; i < 10; i++) {
+            buffer.sendMessage(new SendMessageRequest(QUEUE_URL, i + body(299)), null);
+        }
+        buffer.flush();
+
+        int sent = 0;
+        for (SendMessageBatchRequest batch : sqs.sendBatches) {
+            long bytes = 0;
+            for (SendMessageBatchRequestEntry entry : batch.getEntries()) {
+                bytes += entry.getMessageBody().length();
+            }
+            assertTrue("batch of " + bytes + " bytes", bytes <= 1000);
+            sent += batch.getEntries().size();
+        }
+        assertEquals(10, sent);
+        assertEquals(4, sqs.sendBatches.size());
+    }
+
+    @Test
+    public void rejectsMessagesLargerThanTheByteLimit() {
+        SendQueueBuffer buffer = buffer(new QueueBufferConfig().withMaxBatchSizeBytes(1000));
+        try {
+            buffer.sendMessage(new SendMessageRequest(QUEUE_URL, body(1001)), null);
+            fail("message larger than a batch was accepted");
+        } catch (AmazonClientException expected) {
+            // expected
+        }
+        buffer.flush();
+        assertTrue(sqs.sendBatches.isEmpty());
+    }
+
+    @Test
+    public void sendsPartialBatchOnceMaxBatchOpenMsHasElapsed() throws Exception {
+        SendQueueBuffer buffer = buffer(new QueueBufferConfig().withMaxBatchOpenMs(200));
+        long start = System.nanoTime();
+        List<QueueBufferFuture<SendMessageRequest, SendMessageResult>> futures =
+                new ArrayList<QueueBufferFuture<SendMessageRequest, SendMessageResult>>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(buffer.sendMessage(new SendMessageRequest(QUEUE_URL, "m" + i), null));
+        }
+        QueueBufferFuture<DeleteMessageRequest, Void> delete = buffer.deleteMessage(
+                new DeleteMessageRequest(QUEUE_URL, "handle"), null);
+
+        // no flush: the batch closer sends them
+        for (QueueBufferFuture<SendMessageRequest, SendMessageResult> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        delete.get(5, TimeUnit.SECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("sent after " + elapsedMillis + "ms", elapsedMillis >= 190);
+
+        assertEquals(1, sqs.sendBatches.size());
+        assertEquals(3, sqs.sendBatches.get(0).getEntries().size());
+        assertEquals(1, sqs.deleteBatches.size());
+    }
+
+    @Test
+    public void concurrentProducersLoseAndDuplicateNothing() throws Exception {
+        final int producers = 16;
+        final int messagesPerProducer = 500;
+        sqs.latencyMillis = 1;
+        final SendQueueBuffer buffer = buffer(new QueueBufferConfig().withMaxBatchOpenMs(50)
+                .withMaxInflightOutboundBatches(4));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<QueueBufferFuture<SendMessageRequest, SendMessageResult>> futures =
+                new ArrayList<QueueBufferFuture<SendMessageRequest, SendMessageResult>>();
+        final List<String> bodies = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    List<QueueBufferFuture<SendMessageRequest, SendMessageResult>> mine =
+                            new ArrayList<QueueBufferFuture<SendMessageRequest, SendMessageResult>>();
+                    List<String> myBodies = new ArrayList<String>();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < messagesPerProducer; i++) {
+                        String body = producer + "-" + i;
+                        myBodies.add(body);
+                        mine.add(buffer.sendMessage(new SendMessageRequest(QUEUE_URL, body),
+                                null));
+                    }
+                    synchronized (futures) {
+                        futures.addAll(mine);
+                        bodies.addAll(myBodies);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertEquals(producers * messagesPerProducer, futures.size());
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(bodies.get(i), futures.get(i).get(10, TimeUnit.SECONDS).getMessageId());
+        }
+
+        List<String> sent = sqs.sentBodies();
+        assertEquals(producers * messagesPerProducer, sent.size());
+        assertEquals(new HashSet<String>(bodies), new HashSet<String>(sent));
+        for (SendMessageBatchRequest batch : sqs.sendBatches) {
+            assertTrue(batch.getEntries().size() <= 10);
+        }
+        assertTrue("max in flight " + sqs.maxInflight.get(), sqs.maxInflight.get() <= 4);
+    }
+
+    @Test
+    public void utf8LengthMatchesTheEncodedLength() throws Exception {
+        Set<String> strings = new HashSet<String>(Arrays.asList(
+                "",
+                "ascii",
+                "caf\u00e9",
+                "\u20ac and \u4e2d\u6587",
+                "\ud83d\ude00",
+                "emoji \ud83d\ude00\ud83d\udc4d in text",
+                "\ud800\udc00\udbff\udfff"));
+        for (String s : strings) {
+            assertEquals(s, s.getBytes("UTF-8").length, SendQueueBuffer.utf8Length(s));
+        }
+        assertEquals(0, SendQueueBuffer.utf8Length(null));
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012-2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.amazonaws.services.sqs.buffered;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClient;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory SQS queue, which records the batches the buffers send to it.
+ * Sent messages get their body as message id.
+ */
+class StubSQSClient extends AmazonSQSAsyncClient {
+
+    /** The visibility timeout of the queue. */
+    volatile int visibilityTimeoutSeconds = 30;
+
+    /** How long each batch call takes. */
+    volatile long latencyMillis;
+
+    /** If set, receive calls wait for it to be released. */
+    volatile CountDownLatch receiveGate;
+
+    /** The messages that receive calls hand out. */
+    final ConcurrentLinkedQueue<Message> available = new ConcurrentLinkedQueue<Message>();
+
+    final List<SendMessageBatchRequest> sendBatches = Collections
+            .synchronizedList(new ArrayList<SendMessageBatchRequest>());
+    final List<DeleteMessageBatchRequest> deleteBatches = Collections
+            .synchronizedList(new ArrayList<DeleteMessageBatchRequest>());
+    final List<ChangeMessageVisibilityBatchRequest> changeVisibilityBatches = Collections
+            .synchronizedList(new ArrayList<ChangeMessageVisibilityBatchRequest>());
+    final List<ReceiveMessageRequest> receives = Collections
+            .synchronizedList(new ArrayList<ReceiveMessageRequest>());
+    final AtomicInteger queueAttributeLookups = new AtomicInteger();
+    private final AtomicInteger messageIds = new AtomicInteger();
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    final AtomicInteger maxInflight = new AtomicInteger();
+    final AtomicInteger completedReceives = new AtomicInteger();
+
+    StubSQSClient() {
+        super(new BasicAWSCredentials("access", "secret"));
+    }
+
+    /**
+     * Makes the given number of messages available to receive calls.
+     */
+    void addMessages(int count) {
+        for (int i = 0; i < count; i++) {
+            int id = messageIds.getAndIncrement();
+            available.add(new Message().withMessageId("message-" + id)
+                    .withReceiptHandle("handle-" + id).withBody("body-" + id));
+        }
+    }
+
+    private void enter() {
+        int now = inflight.incrementAndGet();
+        int max;
+        while (now > (max = maxInflight.get()) && !maxInflight.compareAndSet(max, now)) {
+            // retry
+        }
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmazonClientException("Interrupted", e);
+            }
+        }
+    }
+
+    private void exit() {
+        inflight.decrementAndGet();
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+        enter();
+        try {
+            sendBatches.add(request);
+            SendMessageBatchResult result = new SendMessageBatchResult();
+            for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+                result.getSuccessful().add(new SendMessageBatchResultEntry()
+                        .withId(entry.getId()).withMessageId(entry.getMessageBody()));
+            }
+            return result;
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+        enter();
+        try {
+            deleteBatches.add(request);
+            DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+            for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+                result.getSuccessful().add(new DeleteMessageBatchResultEntry()
+                        .withId(entry.getId()));
+            }
+            return result;
+        } finally {
+            exit();
+        }
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(
+            ChangeMessageVisibilityBatchRequest request) {
+        changeVisibilityBatches.add(request);
+        ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult();
+        for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+            result.getSuccessful().add(new ChangeMessageVisibilityBatchResultEntry()
+                    .withId(entry.getId()));
+        }
+        return result;
+    }
+
+    @Override
+    public GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest request) {
+        queueAttributeLookups.incrementAndGet();
+        return new GetQueueAttributesResult().addAttributesEntry("VisibilityTimeout",
+                Integer.toString(visibilityTimeoutSeconds));
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+        receives.add(request);
+        enter();
+        try {
+            CountDownLatch gate = receiveGate;
+            if (gate != null && !gate.await(10, TimeUnit.SECONDS)) {
+                throw new AmazonClientException("Receive gate was never released");
+            }
+            List<Message> messages = new ArrayList<Message>();
+            int max = request.getMaxNumberOfMessages() == null ? 1 : request
+                    .getMaxNumberOfMessages();
+            Message m;
+            while (messages.size() < max && (m = available.poll()) != null) {
+                messages.add(m);
+            }
+            return new ReceiveMessageResult().withMessages(messages);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted", e);
+        } finally {
+            exit();
+            completedReceives.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the bodies of all the sent messages, in the order of the
+     * batches.
+     */
+    List<String> sentBodies() {
+        List<String> bodies = new ArrayList<String>();
+        synchronized (sendBatches) {
+            for (SendMessageBatchRequest batch : sendBatches) {
+                for (SendMessageBatchRequestEntry entry : batch.getEntries()) {
+                    bodies.add(entry.getMessageBody());
+                }
+            }
+        }
+        return bodies;
+    }
+}